@@ -1,25 +1,33 @@
 package ysharp;
 
-import ysharp.lexer.Cursor;
+import ysharp.interpreter.Interpreter;
 import ysharp.lexer.Lexer;
 import ysharp.lexer.Preprocess;
 import ysharp.parser.Parser;
 
-import java.util.List;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 public class Main {
     public static void main(String[] args) throws  Exception {
 
-        String program = "4 + 3";
+        if (args.length != 1) {
+            System.err.println("Usage: ysharp <script>");
+            System.exit(64);
+        }
+
+        String program = Files.readString(Path.of(args[0]));
         var buf = Preprocess.removeComments(Preprocess.mergeContinuation(program));
         Lexer lexer = new Lexer(buf);
-        var stream = lexer.scanTokens();
-
-        Parser parser = new Parser(stream);
-
-        var parseTree = parser.parse();
-
-        int a =10;
 
+        try {
+            var stream = lexer.scanTokens();
+            Parser parser = new Parser(stream);
+            var parseTree = parser.parseProgram();
+            new Interpreter(System.out).run(parseTree);
+        } catch (YsharpError error) {
+            System.err.println(error);
+            System.exit(70);
+        }
     }
-}
\ No newline at end of file
+}
@@ -6,6 +6,7 @@ public class YsharpError extends Exception {
     public enum YsharpErrorType {
         SYNTAX,
         SEMANTIC,
+        RUNTIME,
         PROCESS
     }
 
@@ -44,6 +45,7 @@ public class YsharpError extends Exception {
         return switch (type) {
             case SYNTAX   -> "Syntax";
             case SEMANTIC -> "Semantic";
+            case RUNTIME  -> "Runtime";
             case PROCESS  -> "Process";
         };
     }
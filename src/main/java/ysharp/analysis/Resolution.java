@@ -0,0 +1,94 @@
+package ysharp.analysis;
+
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Where the variable references of a resolved program read and write, as
+ * found by {@link Resolver}. The results are kept here rather than on the
+ * nodes because a hash-consed tree (see
+ * {@link ysharp.parser.Parser#Parser(java.util.List, boolean)}) shares one
+ * {@link Expr.VariableExpr} between every place a name is written, and
+ * those places need not resolve alike: a parameter here, a global there.
+ *
+ * <p>An occurrence is a reference together with its owner, the statement
+ * whose own expressions hold it (not those of the statements nested in
+ * it). Statements are never shared, and the expressions of one statement
+ * are resolved in one scope, so the owner tells the occurrences of a shared
+ * reference apart. (A counted loop resolves its start and limit outside its
+ * counter's scope and its factors inside, but factors are loop invariants,
+ * which never read the counter.) Passes that walk statements ask {@link #of(Stmt,
+ * Expr.VariableExpr)}; passes that only need a conservative answer may ask
+ * {@link #of(Expr.VariableExpr)}, which has none when the occurrences
+ * differ.
+ */
+public final class Resolution {
+
+    /**
+     * How a reference reaches its variable.
+     *
+     * @param depth   frames to walk outwards
+     * @param slot    index within that frame
+     * @param capture index into the closure's captures, for a flat closure's free variable
+     * @param boxed   the slot or capture holds a shared cell
+     */
+    public record Access(int depth, int slot, int capture, boolean boxed) {
+
+        public static final int UNRESOLVED = -1;
+
+        /** the access of a name that did not resolve, or of a node the resolver has not seen */
+        public static final Access NONE = new Access(UNRESOLVED, UNRESOLVED, UNRESOLVED, false);
+
+        public boolean isCapture() {
+            return capture != UNRESOLVED;
+        }
+    }
+
+    private static final class Entry {
+        final Access first;
+        Map<Stmt, Access> others;  // owners whose occurrence resolved otherwise than the first
+
+        Entry(Access first) {
+            this.first = first;
+        }
+    }
+
+    private final Map<Expr.VariableExpr, Entry> entries = new IdentityHashMap<>();
+
+    Resolution() {
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    void put(Stmt owner, Expr.VariableExpr variable, Access access) {
+        Entry entry = entries.get(variable);
+        if (entry == null) {
+            entries.put(variable, new Entry(access));
+        } else if (!entry.first.equals(access)) {
+            if (entry.others == null) entry.others = new IdentityHashMap<>();
+            entry.others.put(owner, access);
+        } else if (entry.others != null) {
+            entry.others.remove(owner);
+        }
+    }
+
+    /** the access of {@code variable} where {@code owner} holds it */
+    public Access of(Stmt owner, Expr.VariableExpr variable) {
+        Entry entry = entries.get(variable);
+        if (entry == null) return Access.NONE;
+        if (entry.others == null) return entry.first;
+        return entry.others.getOrDefault(owner, entry.first);
+    }
+
+    /** the access every occurrence of {@code variable} shares; null when they differ */
+    public Access of(Expr.VariableExpr variable) {
+        Entry entry = entries.get(variable);
+        if (entry == null) return Access.NONE;
+        return entry.others == null ? entry.first : null;
+    }
+}
@@ -0,0 +1,853 @@
+package ysharp.analysis;
+
+import ysharp.YsharpError;
+import ysharp.lexer.Token;
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Static scope resolution. Every variable reference gets a (depth, slot)
+ * pair: depth counts the frames to walk outwards from the current one, slot
+ * indexes into that frame. References are resolved per occurrence into a
+ * {@link Resolution}, so trees whose expression nodes are shared resolve
+ * too; declarations are annotated in place. The top level, each function
+ * and each class instance own a frame; blocks only scope names and take
+ * their slots from the enclosing frame, so entering a block allocates
+ * nothing.
+ *
+ * <p>Functions and classes are hoisted within their block, and function
+ * bodies are resolved when the declaring scope closes, so they may refer to
+ * anything declared in an enclosing scope regardless of order. Instance
+ * frames start with the superclass members; a redeclared member overrides
+ * the inherited slot.
+ *
+ * <p>Closures are flat: a function declared outside any class gets the list
+ * of variables it reads from enclosing function frames, and each such read
+ * gets an index into that list, so a closure keeps only what it uses and
+ * reads it without walking frames. Hoisted closures are created in order
+ * when their block is entered. A captured variable is copied by value unless
+ * it is assigned anywhere or is not yet defined when the closure is created;
+ * only then does its slot hold a cell, made when its scope is entered and
+ * shared by the closures. Globals are never
+ * captured. Functions inside classes reach outer frames by depth through the
+ * instance frame, up to the nearest flat function; anything beyond that is
+ * read from its captures.
+ *
+ * <p>A call whose value a return statement hands back as is, directly or
+ * through {@code ?:}, is marked as a tail call unless it sits inside a try
+ * statement, where the call's errors and the finally block still need the
+ * caller's frame.
+ *
+ * <p>A flat function is marked pure when calling it can have no effect and
+ * its value depends only on its arguments: it prints nothing, assigns only
+ * its own locals, creates no arrays, maps, functions or classes, reads
+ * nothing from outside except functions and never-assigned variables
+ * initialized to a literal and declared before anything could call it, and
+ * calls only pure functions by name.
+ *
+ * <p>All problems are collected rather than thrown. Unparsed function bodies
+ * are parsed here, and their syntax errors are reported with the rest.
+ *
+ * <p>With {@linkplain #setLazyBodies lazy bodies} a function declared
+ * outside any function whose body is not parsed yet is left as it is: its
+ * declaring scope is kept, and {@link #resolveBody} parses and resolves the
+ * body later against that scope, on the function's first call. Such a
+ * function captures nothing, so nothing around it depends on its body but
+ * purity; while any body is left, no function is marked pure. Functions
+ * declared inside a function are resolved with it, as its captures and
+ * cells depend on them.
+ */
+public final class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    private static final class Frame {
+        final Frame enclosing;
+        final Stmt.FunctionStmt function;  // null for the globals and instance frames
+        final boolean flat;
+        final int createdAt;
+        final Map<Binding, Integer> captureIndex = new HashMap<>();
+        final List<Binding> outsideReads = new ArrayList<>();  // function frames: for purity
+        final List<Binding> callees = new ArrayList<>();
+        boolean effects;
+        boolean ran;  // a call or use has been resolved in it, so code may have run
+        int size;
+
+        Frame(Frame enclosing) {
+            this(enclosing, null, 0);
+        }
+
+        Frame(Frame enclosing, Stmt.FunctionStmt function, int createdAt) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.flat = function != null && (enclosing.enclosing == null || enclosing.flat);
+            this.createdAt = createdAt;
+        }
+    }
+
+    private static final class Binding {
+        final Frame frame;
+        final int slot;
+        final boolean constant;
+        final Stmt declaration;  // FunctionStmt, ClassStmt, VarStmt, ConstStmt or null
+        boolean defined;
+        boolean inherited;
+        int definedAt;
+        boolean captured;
+        boolean assigned;
+        boolean early;  // captured by a closure created before it was defined
+        boolean late;   // declared after code may have run in its frame
+
+        Binding(Frame frame, int slot, boolean constant, Stmt declaration) {
+            this.frame = frame;
+            this.slot = slot;
+            this.constant = constant;
+            this.declaration = declaration;
+        }
+
+        boolean boxed() {
+            return captured && (assigned || early);
+        }
+    }
+
+    private static final class Scope {
+        final Scope enclosing;
+        final Frame frame;
+        final Map<String, Binding> names = new HashMap<>();
+        final Deque<Stmt.FunctionStmt> pending = new ArrayDeque<>();  // bodies resolved on close
+
+        Scope(Scope enclosing, Frame frame) {
+            this.enclosing = enclosing;
+            this.frame = frame;
+        }
+    }
+
+    /** an occurrence resolved, its access made once cells are known */
+    private record Reference(Stmt owner, Expr.VariableExpr variable, Binding binding, int depth, int capture) {}
+
+    private final List<String> builtins;
+    private final List<YsharpError> errors = new ArrayList<>();
+    private final Resolution resolution = new Resolution();
+    private final Map<Stmt.ClassStmt, Scope> classScopes = new IdentityHashMap<>();
+    private final List<Reference> references = new ArrayList<>();
+    private final Map<Stmt.FunctionStmt, Integer> createdAt = new IdentityHashMap<>();
+    private final List<Binding> bindings = new ArrayList<>();
+    private final List<Frame> functionFrames = new ArrayList<>();
+    private final Map<Stmt.FunctionStmt, Scope> deferred = new IdentityHashMap<>();  // body -> declaring scope
+    private final Map<Stmt.FunctionStmt, List<YsharpError>> failed = new IdentityHashMap<>();
+    private boolean lazyBodies;
+
+    private Scope scope;
+    private Stmt owner;  // the statement whose expressions are being resolved
+    private int functionDepth;
+    private int loopDepth;
+    private int switchDepth;
+    private int tryDepth;
+    private int globalCount;
+    private int clock;  // orders definitions and closure creation
+
+    public Resolver() {
+        this(List.of());
+    }
+
+    /** @param builtins names predeclared in global slots 0..n-1, in order */
+    public Resolver(List<String> builtins) {
+        this.builtins = builtins;
+    }
+
+    /**
+     * Leaves the unparsed bodies of functions declared outside any function
+     * for {@link #resolveBody}, so that a body is only parsed if it runs.
+     * Off by default.
+     */
+    public void setLazyBodies(boolean enabled) {
+        lazyBodies = enabled;
+    }
+
+    /**
+     * Annotates the declarations of {@code program} in place and records
+     * its references in {@link #resolution}.
+     *
+     * @return every error found; empty when the program resolved cleanly
+     */
+    public List<YsharpError> resolve(List<Stmt> program) {
+        errors.clear();
+        resolution.clear();
+        classScopes.clear();
+        references.clear();
+        createdAt.clear();
+        bindings.clear();
+        functionFrames.clear();
+        deferred.clear();
+        failed.clear();
+        clock = 0;
+
+        Frame globals = new Frame(null);
+        scope = new Scope(null, globals);
+        for (String name : builtins) {
+            Binding binding = new Binding(globals, globals.size++, false, null);
+            define(binding);
+            scope.names.put(name, binding);
+        }
+
+        resolveStatements(program);
+        closeScope();
+        placeCells();
+        placePurity();
+
+        globalCount = globals.size;
+        return List.copyOf(errors);
+    }
+
+    /**
+     * Parses and resolves the body of {@code function}, which the last
+     * {@link #resolve} left for later; does nothing for any other function.
+     * A body that fails reports the same errors on every attempt.
+     *
+     * @return every error found in the body; empty when it resolved cleanly
+     */
+    public List<YsharpError> resolveBody(Stmt.FunctionStmt function) {
+        List<YsharpError> previous = failed.get(function);
+        if (previous != null) return previous;
+        Scope declaring = deferred.get(function);
+        if (declaring == null) return List.of();
+
+        Scope outer = scope;
+        errors.clear();
+        references.clear();
+        bindings.clear();
+        functionFrames.clear();
+        scope = declaring;
+        resolveFunction(function);
+        scope = outer;
+        placeCells();
+
+        if (errors.isEmpty()) return List.of();
+        function.frameSize = -1;
+        failed.put(function, List.copyOf(errors));
+        return failed.get(function);
+    }
+
+    /** where the references of the last resolved program, and of the bodies resolved since, read and write */
+    public Resolution resolution() {
+        return resolution;
+    }
+
+    /** size of the global frame of the last resolved program, builtins included */
+    public int globalCount() {
+        return globalCount;
+    }
+
+    // scopes
+
+    private void error(int line, String message) {
+        errors.add(new YsharpError(YsharpError.YsharpErrorType.SEMANTIC, line, message));
+    }
+
+    private void openScope(Frame frame) {
+        scope = new Scope(scope, frame);
+    }
+
+    private void closeScope() {
+        while (!scope.pending.isEmpty()) {
+            Stmt.FunctionStmt function = scope.pending.poll();
+            if (lazyBodies && !function.isParsed() && functionFrame() == null) defer(function);
+            else resolveFunction(function);
+        }
+        scope = scope.enclosing;
+    }
+
+    /** leaves the body of {@code function} for {@link #resolveBody}, with what closures need set already */
+    private void defer(Stmt.FunctionStmt function) {
+        deferred.put(function, scope);
+        boolean flat = scope.frame.enclosing == null || scope.frame.flat;
+        function.captures = flat ? new ArrayList<>() : null;
+        function.cells = null;
+        function.pure = false;
+        function.frameSize = -1;
+    }
+
+    private Binding declare(Token name, boolean constant, Stmt declaration) {
+        Binding existing = scope.names.get(name.lexeme);
+        int slot;
+        if (existing != null && existing.inherited) {
+            slot = existing.slot;
+        } else {
+            if (existing != null) {
+                error(name.line, "'" + name.lexeme + "' is already declared in this scope.");
+            }
+            slot = scope.frame.size++;
+        }
+
+        Binding binding = new Binding(scope.frame, slot, constant, declaration);
+        binding.late = scope.frame.ran;
+        scope.names.put(name.lexeme, binding);
+        bindings.add(binding);
+        return binding;
+    }
+
+    private void define(Binding binding) {
+        binding.defined = true;
+        binding.definedAt = ++clock;
+    }
+
+    private Binding lookup(String name) {
+        for (Scope s = scope; s != null; s = s.enclosing) {
+            Binding binding = s.names.get(name);
+            if (binding != null) return binding;
+        }
+        return null;
+    }
+
+    private int depthOf(Binding binding) {
+        int depth = 0;
+        for (Frame frame = scope.frame; frame != binding.frame; frame = frame.enclosing) {
+            depth++;
+        }
+        return depth;
+    }
+
+    /** hoists functions and classes, then resolves in order */
+    private void resolveStatements(List<Stmt> statements) {
+        for (Stmt stmt : statements) {
+            if (stmt instanceof Stmt.FunctionStmt function) {
+                Binding binding = declare(function.name, false, function);
+                define(binding);
+                function.slot = binding.slot;
+                createdAt.put(function, binding.definedAt);
+            } else if (stmt instanceof Stmt.ClassStmt klass) {
+                Binding binding = declare(klass.name, false, klass);
+                define(binding);
+                klass.slot = binding.slot;
+            }
+        }
+
+        for (Stmt stmt : statements) {
+            resolve(stmt);
+        }
+    }
+
+    private void resolveFunction(Stmt.FunctionStmt function) {
+        Stmt.BlockStmt body;
+        try {
+            body = function.body();
+        } catch (YsharpError e) {
+            errors.add(e);
+            return;
+        }
+
+        int loops = loopDepth;
+        int switches = switchDepth;
+        int tries = tryDepth;
+        loopDepth = 0;
+        switchDepth = 0;
+        tryDepth = 0;
+        functionDepth++;
+
+        Frame frame = new Frame(scope.frame, function, createdAt.getOrDefault(function, clock));
+        function.captures = frame.flat ? new ArrayList<>() : null;
+        function.cells = null;
+        function.pure = false;
+        functionFrames.add(frame);
+        openScope(frame);
+        for (Token param : function.params) {
+            define(declare(param, false, null));
+        }
+        resolveStatements(body.statements);
+        closeScope();
+        function.frameSize = frame.size;
+
+        functionDepth--;
+        loopDepth = loops;
+        switchDepth = switches;
+        tryDepth = tries;
+    }
+
+    private void resolve(Expr expr) {
+        if (expr != null) expr.accept(this);
+    }
+
+    private void resolve(Stmt stmt) {
+        if (stmt == null) return;
+        Stmt outer = owner;
+        owner = stmt;
+        stmt.accept(this);
+        owner = outer;
+    }
+
+    private void checkAssignable(Expr target, Token op) {
+        if (target instanceof Expr.VariableExpr variable) {
+            Binding binding = lookup(variable.name.lexeme);
+            if (binding != null && binding.constant) {
+                error(op.line, "Cannot assign to constant '" + variable.name.lexeme + "'.");
+            }
+            if (binding != null) binding.assigned = true;
+            Frame function = functionFrame();
+            if (function != null && (binding == null || binding.frame != function)) function.effects = true;
+        } else {
+            effect();
+        }
+    }
+
+    /** the frame of the innermost function being resolved, or null at the top level */
+    private Frame functionFrame() {
+        Frame frame = scope.frame;
+        while (frame != null && frame.function == null) frame = frame.enclosing;
+        return frame;
+    }
+
+    /** the innermost function does something a pure function may not */
+    private void effect() {
+        Frame function = functionFrame();
+        if (function != null) function.effects = true;
+    }
+
+    private static void markTail(Expr expr) {
+        switch (expr) {
+            case Expr.CallExpr call -> call.tail = true;
+            case Expr.GroupingExpr grouping -> markTail(grouping.expression);
+            case Expr.TernaryExpr ternary -> {
+                markTail(ternary.thenBranch);
+                markTail(ternary.elseBranch);
+            }
+            case null, default -> { }
+        }
+    }
+
+    // closures
+
+    /** the index of {@code binding} in the captures of flat function frame {@code frame} */
+    private int capture(Frame frame, Binding binding, String name) {
+        Integer index = frame.captureIndex.get(binding);
+        if (index != null) return index;
+
+        Stmt.FunctionStmt.Capture capture;
+        if (frame.enclosing == binding.frame) {
+            if (binding.definedAt >= frame.createdAt) binding.early = true;
+            capture = new Stmt.FunctionStmt.Capture(name, true, binding.slot);
+        } else {
+            capture = new Stmt.FunctionStmt.Capture(name, false, capture(frame.enclosing, binding, name));
+        }
+
+        index = frame.function.captures.size();
+        frame.function.captures.add(capture);
+        frame.captureIndex.put(binding, index);
+        return index;
+    }
+
+    /** cells are known once every assignment has been seen */
+    private void placeCells() {
+        for (Binding binding : bindings) {
+            if (!binding.boxed() || binding.frame.function == null) continue;
+            Stmt.FunctionStmt function = binding.frame.function;
+            if (function.cells == null) function.cells = new boolean[function.frameSize];
+            function.cells[binding.slot] = true;
+        }
+        for (Reference reference : references) {
+            Binding binding = reference.binding;
+            resolution.put(reference.owner, reference.variable, binding == null ? Resolution.Access.NONE
+                    : new Resolution.Access(reference.depth, binding.slot, reference.capture, binding.boxed()));
+        }
+    }
+
+    // purity
+
+    /**
+     * purity is known once every assignment has been seen, so not while a
+     * body is left for later; calls settle by iterating to a fixpoint
+     */
+    private void placePurity() {
+        for (Frame frame : functionFrames) {
+            frame.function.pure = deferred.isEmpty() && frame.flat && !frame.effects
+                    && frame.outsideReads.stream().allMatch(Resolver::isFixed);
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Frame frame : functionFrames) {
+                if (!frame.function.pure) continue;
+                for (Binding callee : frame.callees) {
+                    if (!callee.assigned && callee.declaration instanceof Stmt.FunctionStmt function
+                            && function.pure) continue;
+                    frame.function.pure = false;
+                    changed = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * a binding every read sees the same immutable value of; a variable
+     * declared after code may have run can be read by a function called
+     * from that code, while it still holds null
+     */
+    private static boolean isFixed(Binding binding) {
+        if (binding.assigned) return false;
+        return switch (binding.declaration) {
+            case Stmt.FunctionStmt ignored -> true;
+            case Stmt.VarStmt var -> !binding.late && var.initializer instanceof Expr.LiteralExpr;
+            case Stmt.ConstStmt constant -> !binding.late && constant.initializer instanceof Expr.LiteralExpr;
+            case null, default -> false;
+        };
+    }
+
+    // statements
+
+    @Override
+    public Void visitExpressionStmt(Stmt.ExpressionStmt stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.VarStmt stmt) {
+        Binding binding = declare(stmt.name, false, stmt);
+        stmt.slot = binding.slot;
+        resolve(stmt.initializer);
+        define(binding);
+        return null;
+    }
+
+    @Override
+    public Void visitConstStmt(Stmt.ConstStmt stmt) {
+        Binding binding = declare(stmt.name, true, stmt);
+        stmt.slot = binding.slot;
+        resolve(stmt.initializer);
+        define(binding);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.FunctionStmt stmt) {
+        effect();
+        scope.pending.add(stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.ClassStmt stmt) {
+        effect();
+        Scope parent = null;
+
+        if (stmt.superclass != null) {
+            Binding binding = lookup(stmt.superclass.lexeme);
+            if (binding == null) {
+                error(stmt.superclass.line, "Undefined superclass '" + stmt.superclass.lexeme + "'.");
+            } else if (binding.declaration == stmt) {
+                error(stmt.superclass.line, "A class can't inherit from itself.");
+            } else if (!(binding.declaration instanceof Stmt.ClassStmt superclass)) {
+                error(stmt.superclass.line, "'" + stmt.superclass.lexeme + "' is not a class.");
+            } else {
+                stmt.superclassDepth = depthOf(binding);
+                stmt.superclassSlot = binding.slot;
+                parent = classScopes.get(superclass);
+                if (parent == null) {
+                    error(stmt.superclass.line, "Superclass '" + stmt.superclass.lexeme
+                            + "' must be declared before '" + stmt.name.lexeme + "'.");
+                }
+            }
+        }
+
+        int loops = loopDepth;
+        int switches = switchDepth;
+        loopDepth = 0;
+        switchDepth = 0;
+
+        Frame instance = new Frame(scope.frame);
+        openScope(instance);
+        if (parent != null) {
+            for (Map.Entry<String, Binding> entry : parent.names.entrySet()) {
+                Binding inherited = entry.getValue();
+                Binding copy = new Binding(instance, inherited.slot, inherited.constant, inherited.declaration);
+                define(copy);
+                copy.inherited = true;
+                scope.names.put(entry.getKey(), copy);
+            }
+            instance.size = parent.frame.size;
+        }
+
+        resolveStatements(stmt.members);
+        stmt.fieldCount = instance.size;
+        classScopes.put(stmt, scope);
+        closeScope();
+
+        loopDepth = loops;
+        switchDepth = switches;
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.BlockStmt stmt) {
+        openScope(scope.frame);
+        resolveStatements(stmt.statements);
+        closeScope();
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.IfStmt stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        resolve(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.WhileStmt stmt) {
+        resolve(stmt.condition);
+        loopDepth++;
+        resolve(stmt.body);
+        loopDepth--;
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.ForStmt stmt) {
+        openScope(scope.frame);
+        resolve(stmt.initializer);
+        resolve(stmt.condition);
+        resolve(stmt.increment);
+        loopDepth++;
+        resolve(stmt.body);
+        loopDepth--;
+        closeScope();
+        return null;
+    }
+
+    @Override
+    public Void visitCountedForStmt(Stmt.CountedForStmt stmt) {
+        openScope(scope.frame);
+        resolve(stmt.start);
+        Binding variable = declare(stmt.variable, false, null);
+        define(variable);
+        variable.assigned = true;  // stepped by the loop
+        stmt.slot = variable.slot;
+
+        resolve(stmt.limit);
+        for (Stmt.CountedForStmt.Derived derived : stmt.derived) {
+            resolve(derived.factor);
+            Binding binding = declare(derived.name, false, null);
+            define(binding);
+            binding.assigned = true;
+            derived.slot = binding.slot;
+        }
+
+        loopDepth++;
+        resolve(stmt.body);
+        loopDepth--;
+        closeScope();
+        return null;
+    }
+
+    @Override
+    public Void visitTryStmt(Stmt.TryStmt stmt) {
+        tryDepth++;
+        resolve(stmt.body);
+
+        openScope(scope.frame);
+        Binding binding = declare(stmt.catchName, false, null);
+        define(binding);
+        stmt.catchSlot = binding.slot;
+        resolve(stmt.catchBlock);
+        closeScope();
+
+        resolve(stmt.finallyBlock);
+        tryDepth--;
+        return null;
+    }
+
+    @Override
+    public Void visitSwitchStmt(Stmt.SwitchStmt stmt) {
+        resolve(stmt.subject);
+        switchDepth++;
+        for (Stmt.SwitchStmt.Case c : stmt.cases) {
+            resolve(c.value);
+            resolve(c.body);
+        }
+        resolve(stmt.defaultBlock);
+        switchDepth--;
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.PrintStmt stmt) {
+        effect();
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.ReturnStmt stmt) {
+        if (functionDepth == 0) {
+            error(stmt.keyword.line, "Can't return from top-level code.");
+        }
+        resolve(stmt.value);
+        if (tryDepth == 0) markTail(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.BreakStmt stmt) {
+        if (loopDepth == 0 && switchDepth == 0) {
+            error(stmt.keyword.line, "'break' outside of a loop or switch.");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.ContinueStmt stmt) {
+        if (loopDepth == 0) {
+            error(stmt.keyword.line, "'continue' outside of a loop.");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUseStmt(Stmt.UseStmt stmt) {
+        scope.frame.ran = true;
+        effect();
+        return null;
+    }
+
+    // expressions
+
+    @Override
+    public Void visitVariableExpr(Expr.VariableExpr expr) {
+        Binding binding = lookup(expr.name.lexeme);
+        if (binding == null) {
+            error(expr.name.line, "Undefined variable '" + expr.name.lexeme + "'.");
+            references.add(new Reference(owner, expr, null, Resolution.Access.UNRESOLVED,
+                    Resolution.Access.UNRESOLVED));
+            return null;
+        }
+        if (!binding.defined) {
+            error(expr.name.line, "Can't read '" + expr.name.lexeme + "' in its own initializer.");
+        }
+
+        int depth = depthOf(binding);
+        int capture = Resolution.Access.UNRESOLVED;
+        Frame function = functionFrame();
+        if (function != null && binding.frame != function) function.outsideReads.add(binding);
+        if (depth > 0 && binding.frame.function != null) {
+            binding.captured = true;
+            Frame flat = scope.frame;
+            while (flat != binding.frame && !flat.flat) flat = flat.enclosing;
+            if (flat != binding.frame) capture = capture(flat, binding, expr.name.lexeme);
+        }
+        references.add(new Reference(owner, expr, binding, depth, capture));
+        return null;
+    }
+
+    @Override
+    public Void visitAssignmentExpr(Expr.AssignmentExpr expr) {
+        resolve(expr.value);
+        resolve(expr.target);
+        checkAssignable(expr.target, expr.op);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.UnaryExpr expr) {
+        resolve(expr.expr);
+        if (expr.op.type == Token.TokenType.PLUS_PLUS || expr.op.type == Token.TokenType.MINUS_MINUS) {
+            checkAssignable(expr.expr, expr.op);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitPostfixExpr(Expr.PostfixExpr expr) {
+        resolve(expr.operand);
+        checkAssignable(expr.operand, expr.op);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.BinaryExpr expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.LogicalExpr expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.TernaryExpr expr) {
+        resolve(expr.condition);
+        resolve(expr.thenBranch);
+        resolve(expr.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.GroupingExpr expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.GetExpr expr) {
+        resolve(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.SetExpr expr) {
+        effect();
+        resolve(expr.value);
+        resolve(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.CallExpr expr) {
+        expr.tail = false;
+        scope.frame.ran = true;
+        resolve(expr.callee);
+        Binding callee = expr.callee instanceof Expr.VariableExpr variable ? lookup(variable.name.lexeme) : null;
+        Frame function = functionFrame();
+        if (function != null) {
+            if (callee != null) function.callees.add(callee);
+            else function.effects = true;
+        }
+        for (Expr argument : expr.arguments) {
+            resolve(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.LiteralExpr expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitArrayInitializerExpr(Expr.ArrayInitializerExpr expr) {
+        effect();
+        for (Expr element : expr.elements) {
+            resolve(element);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitMapInitializerExpr(Expr.MapInitializerExpr expr) {
+        effect();
+        for (Expr.MapInitializerExpr.Entry entry : expr.entries) {
+            resolve(entry.value);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,70 @@
+package ysharp.analysis;
+
+import ysharp.lexer.Token;
+
+/**
+ * Static value types. Everything that is not provably one primitive kind
+ * is {@link #DYNAMIC}; a null {@code Type} is used as "no value seen yet"
+ * while inference iterates.
+ */
+public enum Type {
+    INT, DOUBLE, BOOL, CHAR, STRING, DYNAMIC;
+
+    /** values of this type can live in a primitive slot */
+    public boolean isPrimitive() {
+        return this == INT || this == DOUBLE || this == BOOL || this == CHAR;
+    }
+
+    public boolean isIntLike() {
+        return this == INT || this == CHAR;
+    }
+
+    public boolean isNumeric() {
+        return isIntLike() || this == DOUBLE;
+    }
+
+    /** least upper bound; null is the bottom element */
+    public static Type join(Type a, Type b) {
+        if (a == null) return b;
+        if (b == null || a == b) return a;
+        return DYNAMIC;
+    }
+
+    /**
+     * true when a value of type {@code from} is accepted where {@code to} is
+     * declared: char for int, and any number for double. Nothing converts
+     * it; the variable then holds a {@code from}.
+     */
+    public static boolean widens(Type from, Type to) {
+        return from == to
+                || (from == CHAR && to == INT)
+                || (from.isIntLike() && to == DOUBLE);
+    }
+
+    public static Type ofAnnotation(Token annotation) {
+        if (annotation == null) return null;
+        return switch (annotation.type) {
+            case TYPE_INT    -> INT;
+            case TYPE_DOUBLE -> DOUBLE;
+            case TYPE_BOOL   -> BOOL;
+            case TYPE_CHAR   -> CHAR;
+            case TYPE_STRING -> STRING;
+            default          -> DYNAMIC;
+        };
+    }
+
+    public static Type ofLiteral(Token.Literal literal) {
+        return switch (literal) {
+            case Token.Literal.Int    ignored -> INT;
+            case Token.Literal.Double ignored -> DOUBLE;
+            case Token.Literal.Bool   ignored -> BOOL;
+            case Token.Literal.Chr    ignored -> CHAR;
+            case Token.Literal.Str    ignored -> STRING;
+            case Token.Literal.Null   ignored -> DYNAMIC;
+        };
+    }
+
+    public String toString() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,519 @@
+package ysharp.analysis;
+
+import ysharp.YsharpError;
+import ysharp.lexer.Token;
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Local type inference over a resolved program. A variable or constant
+ * gets the join of every value stored into it anywhere in the program,
+ * closures included, so it is only primitive when all stores agree; a
+ * declaration without an initializer stores null. Parameters, functions,
+ * classes, catch variables and instance members are dynamic.
+ *
+ * <p>The result tells an execution layer which expressions and variables are
+ * provably int, double, bool or char and may be kept unboxed. Annotations
+ * are not part of that proof, as no executor converts or initializes by
+ * them: {@code var d : double = 1} holds an int. They are checked instead,
+ * and a store no value of the declared type could come from (a double into
+ * an int, anything but a number into a double) is reported; stores of
+ * dynamic values have to be checked at run time.
+ *
+ * <p>Run {@link Resolver} first: variables are identified by the
+ * (depth, slot) its {@link Resolution} gives each occurrence, and an
+ * expression a hash-consed tree shares gets the join of its types at every
+ * occurrence. Function bodies the resolver left unparsed for their first
+ * call are skipped, and their stores are not seen; once such a body
+ * is resolved, {@link #infer(Stmt.FunctionStmt, Result)} infers it against
+ * the rest of the program. Types are then a guess for variables the body
+ * stores into, which an execution layer has to check where it relies on
+ * them.
+ */
+public final class TypeInference implements Expr.Visitor<Type>, Stmt.Visitor<Void> {
+
+    public static final class Result {
+
+        private final Map<Expr, Type> exprs;
+        private final Map<Stmt, Type> declarations;
+        private final List<YsharpError> errors;
+        private final Resolution resolution;
+
+        // what a body skipped here is inferred against
+        private final Map<Slot, Type> annotated;
+        private final Map<Slot, Type> inferred;
+        private final Map<Stmt.FunctionStmt, List<Object>> skipped;  // body -> enclosing frames
+
+        private Result(TypeInference inference, Map<Stmt, Type> declarations) {
+            this.exprs = inference.exprs;
+            this.declarations = declarations;
+            this.errors = List.copyOf(inference.errors);
+            this.resolution = inference.resolution;
+            this.annotated = inference.annotated;
+            this.inferred = inference.inferred;
+            this.skipped = inference.skipped;
+        }
+
+        public Type typeOf(Expr expr) {
+            return Objects.requireNonNullElse(exprs.get(expr), Type.DYNAMIC);
+        }
+
+        /** type of the variable a VarStmt or ConstStmt declares */
+        public Type typeOf(Stmt declaration) {
+            return Objects.requireNonNullElse(declarations.get(declaration), Type.DYNAMIC);
+        }
+
+        public List<YsharpError> errors() {
+            return errors;
+        }
+
+        /** the resolution the program was inferred against */
+        public Resolution resolution() {
+            return resolution;
+        }
+    }
+
+    private record Slot(Object frame, int slot) {}
+
+    private final Map<Slot, Type> annotated = new HashMap<>();
+    private Map<Slot, Type> inferred = new HashMap<>();   // previous round
+    private Map<Slot, Type> stores = new HashMap<>();     // this round
+    private Map<Slot, Type> outside = Map.of();           // fixed types of the rest of the program
+    private final Map<Stmt.FunctionStmt, List<Object>> skipped = new IdentityHashMap<>();
+
+    private final Resolution resolution;
+    private final List<Object> frames = new ArrayList<>();  // innermost last
+    private Stmt owner;                                     // of the expressions being inferred
+    private Map<Expr, Type> exprs;
+    private Map<Stmt, Slot> declarations;
+    private List<YsharpError> errors;
+
+    private TypeInference(Resolution resolution) {
+        this.resolution = resolution;
+    }
+
+    /** infers {@code program}, which {@code resolution} resolved */
+    public static Result infer(List<Stmt> program, Resolution resolution) {
+        TypeInference inference = new TypeInference(resolution);
+        return inference.settle(() -> {
+            inference.begin(List.of(program));
+            inference.visit(program);
+        });
+    }
+
+    /**
+     * Infers the body of {@code function}, which {@code context} skipped
+     * because it was not parsed yet, with every variable outside it typed
+     * as in {@code context}.
+     */
+    public static Result infer(Stmt.FunctionStmt function, Result context) {
+        List<Object> enclosing = context.skipped.get(function);
+        if (enclosing == null) {
+            throw new IllegalArgumentException("The body of '" + function.name.lexeme + "' was not skipped.");
+        }
+        TypeInference inference = new TypeInference(context.resolution);
+        inference.annotated.putAll(context.annotated);
+        inference.outside = context.inferred;
+        return inference.settle(() -> {
+            inference.begin(enclosing);
+            inference.visit(function);
+        });
+    }
+
+    private Result settle(Runnable walk) {
+        // every round sees the stores of the previous one; types only grow,
+        // so this settles after a few rounds
+        int round = 0;
+        boolean changed;
+        do {
+            Map<Slot, Type> previous = stores;
+            walk.run();
+            changed = !stores.equals(previous);
+            inferred = new HashMap<>(outside);
+            stores.forEach((slot, type) -> inferred.merge(slot, type, Type::join));
+            round++;
+        } while (changed || round < 2);
+
+        errors = new ArrayList<>();
+        walk.run();
+
+        Map<Stmt, Type> declared = new IdentityHashMap<>();
+        declarations.forEach((stmt, slot) -> declared.put(stmt, typeOf(slot)));
+        return new Result(this, declared);
+    }
+
+    private void begin(List<Object> enclosing) {
+        stores = new HashMap<>();
+        exprs = new IdentityHashMap<>();
+        declarations = new IdentityHashMap<>();
+        frames.clear();
+        frames.addAll(enclosing);
+    }
+
+    // slots
+
+    private Slot local(int slot) {
+        return new Slot(frames.getLast(), slot);
+    }
+
+    private Slot slotOf(Expr.VariableExpr variable) {
+        Resolution.Access access = resolution.of(owner, variable);
+        if (access.depth() < 0 || access.depth() >= frames.size()) return null;
+        return new Slot(frames.get(frames.size() - 1 - access.depth()), access.slot());
+    }
+
+    private Type typeOf(Slot slot) {
+        if (slot == null || slot.frame instanceof Stmt.ClassStmt) return Type.DYNAMIC;
+        return inferred.get(slot);
+    }
+
+    private void dynamic(Slot slot) {
+        stores.put(slot, Type.DYNAMIC);
+    }
+
+    /** records a store and returns the type the variable holds afterwards */
+    private Type store(Slot slot, Type value, Token name) {
+        if (slot == null || slot.frame instanceof Stmt.ClassStmt) return Type.DYNAMIC;
+
+        // an unknown value (null) adds nothing yet; a later round sees it
+        if (value != null) stores.merge(slot, value, Type::join);
+
+        Type declared = annotated.get(slot);
+        if (declared != null && value != null && value != Type.DYNAMIC && declared != Type.DYNAMIC
+                && !Type.widens(value, declared) && errors != null) {
+            errors.add(new YsharpError(YsharpError.YsharpErrorType.SEMANTIC, name.line,
+                    "'" + name.lexeme + "' is declared " + declared + " but assigned " + value + "."));
+        }
+        return value;
+    }
+
+    private Type declare(Stmt stmt, Token name, Token annotation, int slot, Expr initializer) {
+        Slot key = local(slot);
+        declarations.put(stmt, key);
+
+        Type declared = Type.ofAnnotation(annotation);
+        if (declared != null) annotated.put(key, declared);
+
+        if (initializer == null) return store(key, Type.DYNAMIC, name);  // null, whatever the annotation
+        return store(key, infer(initializer), name);
+    }
+
+    private Type infer(Expr expr) {
+        Type type = expr.accept(this);
+        exprs.merge(expr, type == null ? Type.DYNAMIC : type, Type::join);
+        return type;
+    }
+
+    private void visit(Stmt stmt) {
+        if (stmt == null) return;
+        Stmt outer = owner;
+        owner = stmt;
+        stmt.accept(this);
+        owner = outer;
+    }
+
+    private void visit(List<Stmt> statements) {
+        for (Stmt stmt : statements) {
+            visit(stmt);
+        }
+    }
+
+    // operators, mirroring runtime.Operators
+
+    static Type binary(Token.TokenType op, Type left, Type right) {
+        if (left == null || right == null) return null;
+        return switch (op) {
+            case PLUS -> {
+                if (left == Type.STRING || right == Type.STRING) yield Type.STRING;
+                yield arithmetic(left, right);
+            }
+            case MINUS, MULTIPLY, DIVIDE, MODULO -> arithmetic(left, right);
+            case LEFT_SHIFT, RIGHT_SHIFT ->
+                    left.isIntLike() && right.isIntLike() ? Type.INT : Type.DYNAMIC;
+            case BITWISE_AND, BITWISE_OR, BITWISE_XOR -> {
+                if (left.isIntLike() && right.isIntLike()) yield Type.INT;
+                if (left == Type.BOOL && right == Type.BOOL) yield Type.BOOL;
+                yield Type.DYNAMIC;
+            }
+            case EQUAL_EQUAL, BANG_EQUAL,
+                 GREATER_THAN, GREATER_OR_EQUAL, LESS_THAN, LESS_OR_EQUAL -> Type.BOOL;
+            default -> Type.DYNAMIC;
+        };
+    }
+
+    private static Type arithmetic(Type left, Type right) {
+        if (left.isIntLike() && right.isIntLike()) return Type.INT;
+        if (left.isNumeric() && right.isNumeric()) return Type.DOUBLE;
+        return Type.DYNAMIC;
+    }
+
+    static Type unary(Token.TokenType op, Type operand) {
+        if (operand == null) return null;
+        return switch (op) {
+            case MINUS, PLUS -> operand.isIntLike() ? Type.INT : operand == Type.DOUBLE ? Type.DOUBLE : Type.DYNAMIC;
+            case BANG -> Type.BOOL;
+            case BITWISE_NOT -> operand.isIntLike() ? Type.INT : Type.DYNAMIC;
+            case PLUS_PLUS, MINUS_MINUS -> operand.isNumeric() ? operand : Type.DYNAMIC;
+            default -> Type.DYNAMIC;
+        };
+    }
+
+    // expressions
+
+    @Override
+    public Type visitLiteralExpr(Expr.LiteralExpr expr) {
+        return Type.ofLiteral(expr.token.literal);
+    }
+
+    @Override
+    public Type visitVariableExpr(Expr.VariableExpr expr) {
+        return typeOf(slotOf(expr));
+    }
+
+    @Override
+    public Type visitGroupingExpr(Expr.GroupingExpr expr) {
+        return infer(expr.expression);
+    }
+
+    @Override
+    public Type visitBinaryExpr(Expr.BinaryExpr expr) {
+        return binary(expr.op.type, infer(expr.left), infer(expr.right));
+    }
+
+    @Override
+    public Type visitLogicalExpr(Expr.LogicalExpr expr) {
+        infer(expr.left);
+        infer(expr.right);
+        return Type.BOOL;
+    }
+
+    @Override
+    public Type visitTernaryExpr(Expr.TernaryExpr expr) {
+        infer(expr.condition);
+        return Type.join(infer(expr.thenBranch), infer(expr.elseBranch));
+    }
+
+    /** ++ and -- store back into a variable operand */
+    private Type increment(Token op, Expr operand) {
+        Type type = unary(op.type, infer(operand));
+        if (operand instanceof Expr.VariableExpr variable) {
+            store(slotOf(variable), type, variable.name);
+        }
+        return type;
+    }
+
+    @Override
+    public Type visitUnaryExpr(Expr.UnaryExpr expr) {
+        if (expr.op.type == Token.TokenType.PLUS_PLUS || expr.op.type == Token.TokenType.MINUS_MINUS) {
+            return increment(expr.op, expr.expr);
+        }
+        return unary(expr.op.type, infer(expr.expr));
+    }
+
+    @Override
+    public Type visitPostfixExpr(Expr.PostfixExpr expr) {
+        return increment(expr.op, expr.operand);
+    }
+
+    @Override
+    public Type visitAssignmentExpr(Expr.AssignmentExpr expr) {
+        Type target = infer(expr.target);
+        Type value = infer(expr.value);
+        if (expr.op.type != Token.TokenType.ASSIGN) {
+            Token.TokenType op = ysharp.runtime.Operators.compoundOperator(expr.op.type);
+            value = op == null ? Type.DYNAMIC : binary(op, target, value);
+        }
+
+        if (expr.target instanceof Expr.VariableExpr variable) {
+            return store(slotOf(variable), value, variable.name);
+        }
+        return value;
+    }
+
+    @Override
+    public Type visitGetExpr(Expr.GetExpr expr) {
+        infer(expr.object);
+        return Type.DYNAMIC;
+    }
+
+    @Override
+    public Type visitSetExpr(Expr.SetExpr expr) {
+        infer(expr.object);
+        return infer(expr.value);
+    }
+
+    @Override
+    public Type visitCallExpr(Expr.CallExpr expr) {
+        infer(expr.callee);
+        for (Expr argument : expr.arguments) {
+            infer(argument);
+        }
+        return Type.DYNAMIC;
+    }
+
+    @Override
+    public Type visitArrayInitializerExpr(Expr.ArrayInitializerExpr expr) {
+        for (Expr element : expr.elements) {
+            infer(element);
+        }
+        return Type.DYNAMIC;
+    }
+
+    @Override
+    public Type visitMapInitializerExpr(Expr.MapInitializerExpr expr) {
+        for (Expr.MapInitializerExpr.Entry entry : expr.entries) {
+            infer(entry.value);
+        }
+        return Type.DYNAMIC;
+    }
+
+    // statements
+
+    @Override
+    public Void visitExpressionStmt(Stmt.ExpressionStmt stmt) {
+        infer(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.VarStmt stmt) {
+        declare(stmt, stmt.name, stmt.type, stmt.slot, stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitConstStmt(Stmt.ConstStmt stmt) {
+        declare(stmt, stmt.name, stmt.type, stmt.slot, stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.FunctionStmt stmt) {
+        dynamic(local(stmt.slot));
+        if (!stmt.isParsed()) {
+            skipped.put(stmt, List.copyOf(frames));
+            return null;
+        }
+
+        Stmt.BlockStmt body;
+        try {
+            body = stmt.body();
+        } catch (YsharpError e) {
+            return null;  // reported by the resolver
+        }
+
+        frames.add(stmt);
+        for (int i = 0; i < stmt.params.size(); i++) {
+            dynamic(local(i));
+        }
+        visit(body.statements);
+        frames.removeLast();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.ClassStmt stmt) {
+        dynamic(local(stmt.slot));
+        frames.add(stmt);
+        visit(stmt.members);
+        frames.removeLast();
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.BlockStmt stmt) {
+        visit(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.IfStmt stmt) {
+        infer(stmt.condition);
+        visit(stmt.thenBranch);
+        visit(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.WhileStmt stmt) {
+        infer(stmt.condition);
+        visit(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.ForStmt stmt) {
+        visit(stmt.initializer);
+        if (stmt.condition != null) infer(stmt.condition);
+        if (stmt.increment != null) infer(stmt.increment);
+        visit(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitCountedForStmt(Stmt.CountedForStmt stmt) {
+        infer(stmt.start);
+        store(local(stmt.slot), Type.INT, stmt.variable);
+        infer(stmt.limit);
+        for (Stmt.CountedForStmt.Derived derived : stmt.derived) {
+            infer(derived.factor);
+            store(local(derived.slot), Type.INT, derived.name);
+        }
+        visit(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitTryStmt(Stmt.TryStmt stmt) {
+        visit(stmt.body);
+        dynamic(local(stmt.catchSlot));
+        visit(stmt.catchBlock);
+        visit(stmt.finallyBlock);
+        return null;
+    }
+
+    @Override
+    public Void visitSwitchStmt(Stmt.SwitchStmt stmt) {
+        infer(stmt.subject);
+        for (Stmt.SwitchStmt.Case c : stmt.cases) {
+            infer(c.value);
+            visit(c.body);
+        }
+        visit(stmt.defaultBlock);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.PrintStmt stmt) {
+        infer(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.ReturnStmt stmt) {
+        if (stmt.value != null) infer(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.BreakStmt stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.ContinueStmt stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitUseStmt(Stmt.UseStmt stmt) {
+        return null;
+    }
+}
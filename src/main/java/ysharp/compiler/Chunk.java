@@ -0,0 +1,57 @@
+package ysharp.compiler;
+
+import ysharp.lexer.Token;
+import ysharp.runtime.Operators;
+
+/**
+ * Compiled expression: bytecode, its constant pool, the source line of every
+ * code byte and the deepest operand stack it needs.
+ */
+public final class Chunk {
+
+    final byte[] code;
+    final int[] lines;
+    final Object[] constants;
+    final int maxStack;
+
+    Chunk(byte[] code, int[] lines, Object[] constants, int maxStack) {
+        this.code = code;
+        this.lines = lines;
+        this.constants = constants;
+        this.maxStack = maxStack;
+    }
+
+    public int size()     { return code.length; }
+    public int maxStack() { return maxStack; }
+
+    public String disassemble() {
+        StringBuilder sb = new StringBuilder();
+        int ip = 0;
+        while (ip < code.length) {
+            byte op = code[ip];
+            sb.append(String.format("%04d %4d %s", ip, lines[ip], OpCode.NAMES[op]));
+
+            switch (op) {
+                case OpCode.CONSTANT, OpCode.GET_GLOBAL, OpCode.SET_GLOBAL, OpCode.GET_PROPERTY ->
+                        sb.append(' ').append(Operators.stringify(constants[readShort(ip + 1)]));
+                case OpCode.JUMP, OpCode.JUMP_IF_FALSE, OpCode.JUMP_IF_TRUE, OpCode.POP_JUMP_IF_FALSE ->
+                        sb.append(" -> ").append(ip + 3 + readShort(ip + 1));
+                case OpCode.ARRAY, OpCode.MAP ->
+                        sb.append(' ').append(readShort(ip + 1));
+                case OpCode.BINARY, OpCode.UNARY ->
+                        sb.append(' ').append(Token.TokenType.values()[code[ip + 1] & 0xff]);
+                case OpCode.INCREMENT, OpCode.CALL ->
+                        sb.append(' ').append(code[ip + 1]);
+                default -> { }
+            }
+
+            sb.append('\n');
+            ip += 1 + OpCode.operandWidth(op);
+        }
+        return sb.toString();
+    }
+
+    int readShort(int at) {
+        return ((code[at] & 0xff) << 8) | (code[at + 1] & 0xff);
+    }
+}
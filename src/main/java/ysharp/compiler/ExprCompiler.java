@@ -0,0 +1,505 @@
+package ysharp.compiler;
+
+import ysharp.YsharpError;
+import ysharp.lexer.Token;
+import ysharp.parser.Precedence;
+import ysharp.runtime.Operators;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single-pass compiler from a token stream straight to stack bytecode, for
+ * expressions that are evaluated once and never need a tree. It follows the
+ * Parser method for method and takes binary operator levels from
+ * {@link Precedence}, so both accept the same language.
+ */
+public final class ExprCompiler {
+
+    private final List<Token> tokenStream;
+    private int current = 0;
+
+    private byte[] code = new byte[64];
+    private int[] lines = new int[64];
+    private int size = 0;
+
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+    private int depth = 0;
+    private int maxDepth = 0;
+
+    // code offset of the last bare variable read, the only valid assignment target
+    private int assignable = -1;
+
+    private ExprCompiler(List<Token> tokenStream) {
+        this.tokenStream = tokenStream;
+    }
+
+    public static Chunk compile(List<Token> tokenStream) throws YsharpError {
+        ExprCompiler compiler = new ExprCompiler(tokenStream);
+        compiler.compileAssignment();
+
+        Token end = compiler.peek();
+        if (end.type != Token.TokenType.END_OF_FILE) {
+            throw new YsharpError(YsharpError.YsharpErrorType.SYNTAX, end.line,
+                    "Expected end of expression.");
+        }
+        compiler.emit(OpCode.RETURN, end.line, -1);
+
+        return new Chunk(
+                Arrays.copyOf(compiler.code, compiler.size),
+                Arrays.copyOf(compiler.lines, compiler.size),
+                compiler.constants.toArray(),
+                Math.max(1, compiler.maxDepth)
+        );
+    }
+
+    // token cursor, same contract as Parser
+
+    private Token peek() {
+        if(current >= tokenStream.size()) return tokenStream.getLast();
+        return tokenStream.get(current);
+    }
+
+    private Token advance() {
+        if(current + 1 >= tokenStream.size()) return tokenStream.getLast();
+        var token = tokenStream.get(current + 1);
+        current++;
+        return token;
+    }
+
+    private boolean match(Token.TokenType... types) {
+        for(Token.TokenType type : types) {
+            if(peek().type.equals(type)) {
+                advance();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Token previous() {
+        return tokenStream.get(current - 1);
+    }
+
+    private void consume(Token.TokenType expected, String message) throws YsharpError {
+        Token token = peek();
+        if(!token.type.equals(expected)) {
+            throw new YsharpError(YsharpError.YsharpErrorType.SYNTAX, token.line, message);
+        }
+        advance();
+    }
+
+    // emitter
+
+    private void emitByte(int b, int line) {
+        if(size == code.length) {
+            code = Arrays.copyOf(code, size * 2);
+            lines = Arrays.copyOf(lines, size * 2);
+        }
+        code[size] = (byte) b;
+        lines[size] = line;
+        size++;
+    }
+
+    /** emits an instruction with its net effect on the stack depth */
+    private void emit(byte op, int line, int stackEffect) {
+        emitByte(op, line);
+        depth += stackEffect;
+        maxDepth = Math.max(maxDepth, depth);
+    }
+
+    private void emitShort(int value, int line) throws YsharpError {
+        if(value > 0xffff) {
+            throw new YsharpError(YsharpError.YsharpErrorType.SEMANTIC, line,
+                    "Expression too large to compile.");
+        }
+        emitByte(value >> 8, line);
+        emitByte(value, line);
+    }
+
+    private void emitConstant(Object value, int line) throws YsharpError {
+        emit(OpCode.CONSTANT, line, 1);
+        emitShort(constant(value), line);
+    }
+
+    private int constant(Object value) {
+        // keep int 1, double 1.0 and char '\1' apart
+        Object key = value == null ? Void.class : List.of(value.getClass(), value);
+        Integer index = constantIndex.get(key);
+        if(index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndex.put(key, index);
+        }
+        return index;
+    }
+
+    private int emitJump(byte op, int line, int stackEffect) {
+        emit(op, line, stackEffect);
+        emitByte(0xff, line);
+        emitByte(0xff, line);
+        return size - 2;
+    }
+
+    private void patchJump(int at, int line) throws YsharpError {
+        int offset = size - at - 2;
+        if(offset > 0xffff) {
+            throw new YsharpError(YsharpError.YsharpErrorType.SEMANTIC, line,
+                    "Too much code to jump over.");
+        }
+        code[at] = (byte) (offset >> 8);
+        code[at + 1] = (byte) offset;
+    }
+
+    private boolean isBareVariable(int start) {
+        return assignable == start && size == start + 3 && code[start] == OpCode.GET_GLOBAL;
+    }
+
+    private void emitBinary(Token op) throws YsharpError {
+        byte opcode = switch (op.type) {
+            case PLUS         -> OpCode.ADD;
+            case MINUS        -> OpCode.SUBTRACT;
+            case MULTIPLY     -> OpCode.MULTIPLY;
+            case DIVIDE       -> OpCode.DIVIDE;
+            case LESS_THAN    -> OpCode.LESS;
+            case GREATER_THAN -> OpCode.GREATER;
+            case EQUAL_EQUAL  -> OpCode.EQUAL;
+            case BANG_EQUAL   -> OpCode.NOT_EQUAL;
+            default           -> OpCode.BINARY;
+        };
+        emit(opcode, op.line, -1);
+        if(opcode == OpCode.BINARY) emitByte(op.type.ordinal(), op.line);
+    }
+
+    // expression compiler
+
+    private void compileAssignment() throws YsharpError {
+        int start = size;
+        compileTernary();
+
+        if (match(Token.TokenType.ASSIGN,
+                Token.TokenType.PLUS_ASSIGN,
+                Token.TokenType.MINUS_ASSIGN,
+                Token.TokenType.MULTIPLY_ASSIGN,
+                Token.TokenType.DIVIDE_ASSIGN,
+                Token.TokenType.MODULO_ASSIGN,
+                Token.TokenType.LEFT_SHIFT_ASSIGN,
+                Token.TokenType.RIGHT_SHIFT_ASSIGN,
+                Token.TokenType.BITWISE_AND_ASSIGN,
+                Token.TokenType.BITWISE_XOR_ASSIGN,
+                Token.TokenType.BITWISE_OR_ASSIGN)) {
+
+            Token op = previous();
+
+            // l_value check
+            if (!isBareVariable(start)) {
+                throw new YsharpError(
+                        YsharpError.YsharpErrorType.SYNTAX,
+                        op.line,
+                        "Invalid assignment target." );
+            }
+
+            int name = ((code[start + 1] & 0xff) << 8) | (code[start + 2] & 0xff);
+            Token.TokenType arithmetic = Operators.compoundOperator(op.type);
+
+            if (arithmetic == null) {
+                // plain '=': drop the read of the target
+                size = start;
+                depth--;
+            }
+
+            compileAssignment();
+
+            if (arithmetic != null) {
+                emit(OpCode.BINARY, op.line, -1);
+                emitByte(arithmetic.ordinal(), op.line);
+            }
+            emit(OpCode.SET_GLOBAL, op.line, 0);
+            emitShort(name, op.line);
+            assignable = -1;
+        }
+    }
+
+    private void compileTernary() throws YsharpError {
+        compileBinary(Precedence.LOOSEST);
+
+        // consume ?
+        if(match(Token.TokenType.QUESTION_MARK)) {
+            int line = previous().line;
+            int elseJump = emitJump(OpCode.POP_JUMP_IF_FALSE, line, -1);
+
+            compileAssignment();
+            int endJump = emitJump(OpCode.JUMP, line, 0);
+
+            // consume :
+            consume(Token.TokenType.COLON,
+                    "Missing ':' in conditional operator.");
+
+            // only one branch runs: the else branch starts at the same depth
+            depth--;
+            patchJump(elseJump, line);
+            compileTernary();
+            patchJump(endJump, line);
+            assignable = -1;
+        }
+    }
+
+    private void compileBinary(Precedence level) throws YsharpError {
+        compileOperand(level);
+
+        while (level.matches(peek().type)) {
+            advance();
+            Token op = previous();
+
+            if (level.logical) {
+                // a && b: keep a when it decides the result, else evaluate b
+                byte jump = op.type == Token.TokenType.LOGICAL_AND
+                        ? OpCode.JUMP_IF_FALSE
+                        : OpCode.JUMP_IF_TRUE;
+                int end = emitJump(jump, op.line, 0);
+                emit(OpCode.POP, op.line, -1);
+                compileOperand(level);
+                emit(OpCode.CHECK_BOOL, op.line, 0);
+                patchJump(end, op.line);
+            } else {
+                compileOperand(level);
+                emitBinary(op);
+            }
+            assignable = -1;
+        }
+    }
+
+    private void compileOperand(Precedence level) throws YsharpError {
+        Precedence next = level.next();
+        if (next == null) compileUnary();
+        else compileBinary(next);
+    }
+
+    private void compileUnary() throws YsharpError {
+        if (match(Token.TokenType.PLUS_PLUS,
+                Token.TokenType.MINUS_MINUS)) {
+
+            Token op = previous();
+            int start = size;
+            compileUnary();
+            emitIncrement(op, start);
+            assignable = -1;
+            return;
+        }
+
+        if (match(Token.TokenType.BANG,
+                Token.TokenType.MINUS,
+                Token.TokenType.PLUS,
+                Token.TokenType.BITWISE_NOT)) {
+
+            Token op = previous();
+            compileUnary();
+            emit(OpCode.UNARY, op.line, 0);
+            emitByte(op.type.ordinal(), op.line);
+            assignable = -1;
+            return;
+        }
+
+        compilePostfix();
+    }
+
+    /** prefix form: leaves the updated value */
+    private void emitIncrement(Token op, int start) throws YsharpError {
+        if (!isBareVariable(start)) {
+            throw new YsharpError(YsharpError.YsharpErrorType.SEMANTIC, op.line,
+                    "Invalid increment target.");
+        }
+        int name = ((code[start + 1] & 0xff) << 8) | (code[start + 2] & 0xff);
+        emit(OpCode.INCREMENT, op.line, 0);
+        emitByte(op.type == Token.TokenType.PLUS_PLUS ? 1 : -1, op.line);
+        emit(OpCode.SET_GLOBAL, op.line, 0);
+        emitShort(name, op.line);
+    }
+
+    private void compilePostfix() throws YsharpError {
+        int start = size;
+        compileCall();
+
+        while (match(Token.TokenType.PLUS_PLUS,
+                Token.TokenType.MINUS_MINUS)) {
+
+            Token op = previous();
+            if (!isBareVariable(start)) {
+                throw new YsharpError(YsharpError.YsharpErrorType.SEMANTIC, op.line,
+                        "Invalid increment target.");
+            }
+
+            // old value stays below the updated one, which is popped
+            emit(OpCode.DUP, op.line, 1);
+            int name = ((code[start + 1] & 0xff) << 8) | (code[start + 2] & 0xff);
+            emit(OpCode.INCREMENT, op.line, 0);
+            emitByte(op.type == Token.TokenType.PLUS_PLUS ? 1 : -1, op.line);
+            emit(OpCode.SET_GLOBAL, op.line, 0);
+            emitShort(name, op.line);
+            emit(OpCode.POP, op.line, -1);
+            assignable = -1;
+        }
+    }
+
+    private void compileCall() throws YsharpError {
+        compilePrimary();
+
+        while (peek().type == Token.TokenType.LEFT_PAREN ||
+                peek().type == Token.TokenType.DOT) {
+
+            if(match(Token.TokenType.LEFT_PAREN)) {
+                int line = previous().line;
+                int count = 0;
+
+                if(!match(Token.TokenType.RIGHT_PAREN)) {
+                    compileAssignment();
+                    count++;
+                    while (match(Token.TokenType.COMMA)) {
+                        compileAssignment();
+                        count++;
+                    }
+
+                    consume(Token.TokenType.RIGHT_PAREN,
+                            "Expected ')' after arguments.");
+                }
+
+                if(count > 255) {
+                    throw new YsharpError(YsharpError.YsharpErrorType.SYNTAX, line,
+                            "Can't have more than 255 arguments.");
+                }
+                emit(OpCode.CALL, line, -count);
+                emitByte(count, line);
+            }
+            else if(match(Token.TokenType.DOT)) {
+                Token identifier = peek();
+                if(identifier.type != Token.TokenType.IDENTIFIER) {
+                    throw new YsharpError(
+                            YsharpError.YsharpErrorType.SYNTAX,
+                            identifier.line,
+                            "Expected property name after '.'.");
+                }
+                advance(); // consume property name
+
+                emit(OpCode.GET_PROPERTY, identifier.line, 0);
+                emitShort(constant(identifier.lexeme), identifier.line);
+            }
+            assignable = -1;
+        }
+    }
+
+    private void compilePrimary() throws YsharpError {
+        if(match(Token.TokenType.LEFT_BRACKET)) {
+            compileArrayInitializer();
+        }
+        else if(match(Token.TokenType.LEFT_CURLY_BRACE)) {
+            compileMapInitializer();
+        }
+        else {
+            compileAtom();
+        }
+    }
+
+    private void compileArrayInitializer() throws YsharpError {
+        int line = previous().line;
+        int count = 0;
+
+        if (peek().type != Token.TokenType.RIGHT_BRACKET) {
+            compileAssignment();
+            count++;
+
+            while (match(Token.TokenType.COMMA)) {
+                compileAssignment();
+                count++;
+            }
+        }
+
+        consume(Token.TokenType.RIGHT_BRACKET,
+                "Expected ']' after array elements.");
+
+        emit(OpCode.ARRAY, line, 1 - count);
+        emitShort(count, line);
+    }
+
+    private void compileMapInitializer() throws YsharpError {
+        int line = previous().line;
+        int count = 0;
+
+        if (peek().type != Token.TokenType.RIGHT_CURLY_BRACE) {
+            compileMapEntry("Expected string key in map initializer.");
+            count++;
+
+            while (match(Token.TokenType.COMMA)) {
+                compileMapEntry("Expected string key after ','.");
+                count++;
+            }
+        }
+
+        consume(Token.TokenType.RIGHT_CURLY_BRACE,
+                "Expected '}' after map initializer.");
+
+        emit(OpCode.MAP, line, 1 - 2 * count);
+        emitShort(count, line);
+    }
+
+    private void compileMapEntry(String message) throws YsharpError {
+        Token keyToken = peek();
+
+        if (keyToken.type != Token.TokenType.STRING) {
+            throw new YsharpError(
+                    YsharpError.YsharpErrorType.SYNTAX,
+                    keyToken.line,
+                    message);
+        }
+
+        advance(); // consume string key
+
+        consume(Token.TokenType.COLON,
+                "Expected ':' after map key.");
+
+        emitConstant(Operators.literal(keyToken.literal), keyToken.line);
+        compileAssignment();
+    }
+
+    private void compileAtom() throws YsharpError {
+        Token token = peek();
+
+        if (match(Token.TokenType.NULL_))  { emit(OpCode.NULL, token.line, 1);  return; }
+        if (match(Token.TokenType.TRUE_))  { emit(OpCode.TRUE, token.line, 1);  return; }
+        if (match(Token.TokenType.FALSE_)) { emit(OpCode.FALSE, token.line, 1); return; }
+
+        if (match(Token.TokenType.INT,
+                Token.TokenType.DOUBLE,
+                Token.TokenType.CHAR,
+                Token.TokenType.STRING)) {
+
+            emitConstant(Operators.literal(token.literal), token.line);
+            return;
+        }
+
+        if (match(Token.TokenType.IDENTIFIER)) {
+            assignable = size;
+            emit(OpCode.GET_GLOBAL, token.line, 1);
+            emitShort(constant(token.lexeme), token.line);
+            return;
+        }
+
+        if (match(Token.TokenType.LEFT_PAREN)) {
+            compileAssignment();
+            consume(Token.TokenType.RIGHT_PAREN,
+                    "Expected ')' after expression.");
+            assignable = -1;
+            return;
+        }
+
+        throw new YsharpError(
+                YsharpError.YsharpErrorType.SYNTAX,
+                token.line,
+                "Expected expression."
+        );
+    }
+}
@@ -0,0 +1,444 @@
+package ysharp.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A class file under construction, for {@link JvmCompiler}: a constant
+ * pool and methods whose code is emitted one instruction at a time, with
+ * labels for forward jumps. Only the instructions the compiler needs are
+ * here.
+ *
+ * <p>The class file version is 49, the last the JVM verifies by type
+ * inference, so no stack map frames have to be computed; the emitter
+ * follows the operand stack depth itself to size each method's stack.
+ * Code stays below 32K bytes so that every jump offset fits in a short.
+ */
+final class JvmClass {
+
+    static final int ACONST_NULL = 0x01, ICONST_0 = 0x03, ICONST_1 = 0x04, DCONST_0 = 0x0e, DCONST_1 = 0x0f,
+            BIPUSH = 0x10, SIPUSH = 0x11, LDC = 0x12, LDC_W = 0x13, LDC2_W = 0x14,
+            ILOAD = 0x15, DLOAD = 0x18, ALOAD = 0x19, AALOAD = 0x32,
+            ISTORE = 0x36, DSTORE = 0x39, ASTORE = 0x3a, AASTORE = 0x53,
+            POP = 0x57, POP2 = 0x58, DUP = 0x59, DUP2 = 0x5c, SWAP = 0x5f,
+            IADD = 0x60, DADD = 0x63, ISUB = 0x64, DSUB = 0x67, IMUL = 0x68, DMUL = 0x6b, DDIV = 0x6f, DREM = 0x73,
+            INEG = 0x74, DNEG = 0x77, ISHL = 0x78, ISHR = 0x7a, IAND = 0x7e, IOR = 0x80, IXOR = 0x82,
+            IINC = 0x84, I2D = 0x87, DCMPL = 0x97, DCMPG = 0x98,
+            IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b, IFGE = 0x9c, IFGT = 0x9d, IFLE = 0x9e,
+            IF_ICMPEQ = 0x9f, IF_ICMPNE = 0xa0, IF_ICMPLT = 0xa1, IF_ICMPGE = 0xa2, IF_ICMPGT = 0xa3, IF_ICMPLE = 0xa4,
+            IF_ACMPEQ = 0xa5, IF_ACMPNE = 0xa6, GOTO = 0xa7, LOOKUPSWITCH = 0xab, ARETURN = 0xb0, RETURN = 0xb1,
+            GETSTATIC = 0xb2, INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, INVOKEINTERFACE = 0xb9,
+            NEW = 0xbb, ANEWARRAY = 0xbd, ATHROW = 0xbf, WIDE = 0xc4;
+
+    static final int PUBLIC = 0x0001, STATIC = 0x0008, FINAL = 0x0010, SUPER = 0x0020;
+
+    private static final int VERSION = 49;
+    static final int MAX_CODE = Short.MAX_VALUE;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> entries = new HashMap<>();
+    private int poolSize = 1;
+
+    private final int thisClass;
+    private final int superClass;
+    private final int codeName;
+    private final List<Code> methods = new ArrayList<>();
+
+    JvmClass(String name, String superName) {
+        thisClass = classRef(name);
+        superClass = classRef(superName);
+        codeName = utf8("Code");
+    }
+
+    // constant pool
+
+    private interface Entry {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int entry(String key, int slots, Entry entry) {
+        Integer index = entries.get(key);
+        if (index != null) return index;
+        try {
+            entry.write(pool);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int added = poolSize;
+        poolSize += slots;
+        entries.put(key, added);
+        return added;
+    }
+
+    int utf8(String value) {
+        return entry("U" + value, 1, out -> {
+            out.writeByte(1);
+            out.writeUTF(value);
+        });
+    }
+
+    int integer(int value) {
+        return entry("I" + value, 1, out -> {
+            out.writeByte(3);
+            out.writeInt(value);
+        });
+    }
+
+    int doubleConstant(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        return entry("D" + bits, 2, out -> {
+            out.writeByte(6);
+            out.writeLong(bits);
+        });
+    }
+
+    int classRef(String internalName) {
+        int name = utf8(internalName);
+        return entry("C" + internalName, 1, out -> {
+            out.writeByte(7);
+            out.writeShort(name);
+        });
+    }
+
+    int string(String value) {
+        int utf8 = utf8(value);
+        return entry("S" + value, 1, out -> {
+            out.writeByte(8);
+            out.writeShort(utf8);
+        });
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        int n = utf8(name), d = utf8(descriptor);
+        return entry("N" + name + ' ' + descriptor, 1, out -> {
+            out.writeByte(12);
+            out.writeShort(n);
+            out.writeShort(d);
+        });
+    }
+
+    private int member(int tag, String owner, String name, String descriptor) {
+        int c = classRef(owner), nt = nameAndType(name, descriptor);
+        return entry("M" + tag + owner + '.' + name + descriptor, 1, out -> {
+            out.writeByte(tag);
+            out.writeShort(c);
+            out.writeShort(nt);
+        });
+    }
+
+    // methods
+
+    /** a method whose first {@code parameterSlots} locals hold its receiver and parameters */
+    Code method(int access, String name, String descriptor, int parameterSlots) {
+        Code code = new Code(access, utf8(name), utf8(descriptor), parameterSlots);
+        methods.add(code);
+        return code;
+    }
+
+    byte[] toBytes() {
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolSize);
+            poolBytes.writeTo(out);
+            out.writeShort(PUBLIC | FINAL | SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);  // interfaces
+            out.writeShort(0);  // fields
+            out.writeShort(methods.size());
+            for (Code method : methods) method.write(out);
+            out.writeShort(0);  // attributes
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** a jump target; {@code depth} is the operand stack depth there, once known */
+    static final class Label {
+        private int position = -1;
+        private int depth = -1;
+        private final List<int[]> fixups = new ArrayList<>();  // {instruction, field, width}
+    }
+
+    final class Code {
+
+        private final int access, name, descriptor;
+        private byte[] bytes = new byte[256];
+        private int size;
+        private int depth, maxDepth;
+        private int locals;
+        private boolean reachable = true;
+        private final List<Label[]> handlers = new ArrayList<>();
+        private final List<Integer> handlerTypes = new ArrayList<>();
+
+        private Code(int access, int name, int descriptor, int parameterSlots) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.locals = parameterSlots;
+        }
+
+        int size() {
+            return size;
+        }
+
+        /** a fresh local of one slot, or two for a double */
+        int newLocal(boolean wide) {
+            int local = locals;
+            locals += wide ? 2 : 1;
+            return local;
+        }
+
+        private void u1(int value) {
+            if (size == bytes.length) bytes = Arrays.copyOf(bytes, size * 2);
+            bytes[size++] = (byte) value;
+        }
+
+        private void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        private void u4(int value) {
+            u2(value >> 16);
+            u2(value);
+        }
+
+        private void stack(int change) {
+            depth += change;
+            if (depth > maxDepth) maxDepth = depth;
+        }
+
+        /** an instruction without operands */
+        void op(int opcode) {
+            u1(opcode);
+            stack(effect(opcode));
+            if (opcode == ARETURN || opcode == RETURN || opcode == ATHROW) reachable = false;
+        }
+
+        void push(int value) {
+            if (value >= -1 && value <= 5) {
+                u1(ICONST_0 + value);
+            } else if (value == (byte) value) {
+                u1(BIPUSH);
+                u1(value);
+            } else if (value == (short) value) {
+                u1(SIPUSH);
+                u2(value);
+            } else {
+                constant(integer(value));
+                return;
+            }
+            stack(1);
+        }
+
+        void push(double value) {
+            if (Double.doubleToRawLongBits(value) == 0L || value == 1.0) {
+                u1(value == 1.0 ? DCONST_1 : DCONST_0);
+            } else {
+                u1(LDC2_W);
+                u2(doubleConstant(value));
+            }
+            stack(2);
+        }
+
+        void push(String value) {
+            constant(string(value));
+        }
+
+        private void constant(int index) {
+            if (index < 256) {
+                u1(LDC);
+                u1(index);
+            } else {
+                u1(LDC_W);
+                u2(index);
+            }
+            stack(1);
+        }
+
+        /** a load or store of a local */
+        void local(int opcode, int index) {
+            if (index < 256) {
+                u1(opcode);
+                u1(index);
+            } else {
+                u1(WIDE);
+                u1(opcode);
+                u2(index);
+            }
+            boolean wide = opcode == DLOAD || opcode == DSTORE;
+            int slots = wide ? 2 : 1;
+            stack(opcode < ISTORE ? slots : -slots);
+            if (index + slots > locals) locals = index + slots;
+        }
+
+        void increment(int index, int delta) {
+            if (index < 256 && delta == (byte) delta) {
+                u1(IINC);
+                u1(index);
+                u1(delta);
+            } else {
+                u1(WIDE);
+                u1(IINC);
+                u2(index);
+                u2(delta);
+            }
+        }
+
+        void invoke(int opcode, String owner, String name, String descriptor) {
+            boolean isInterface = opcode == INVOKEINTERFACE;
+            u1(opcode);
+            u2(member(isInterface ? 11 : 10, owner, name, descriptor));
+            int arguments = argumentSlots(descriptor);
+            if (isInterface) {
+                u1(arguments + 1);
+                u1(0);
+            }
+            stack(returnSlots(descriptor) - arguments - (opcode == INVOKESTATIC ? 0 : 1));
+        }
+
+        void getStatic(String owner, String name, String descriptor) {
+            u1(GETSTATIC);
+            u2(member(9, owner, name, descriptor));
+            stack(descriptor.equals("D") || descriptor.equals("J") ? 2 : 1);
+        }
+
+        /** NEW or ANEWARRAY */
+        void type(int opcode, String internalName) {
+            u1(opcode);
+            u2(classRef(internalName));
+            if (opcode == NEW) stack(1);
+        }
+
+        void jump(int opcode, Label target) {
+            int at = size;
+            u1(opcode);
+            stack(effect(opcode));
+            reference(target, at, 2);
+            if (opcode == GOTO) reachable = false;
+        }
+
+        /** pops an int and jumps to the target of its key, else to {@code otherwise}; keys ascend */
+        void lookupSwitch(int[] keys, Label[] targets, Label otherwise) {
+            int at = size;
+            u1(LOOKUPSWITCH);
+            stack(-1);
+            while (size % 4 != 0) u1(0);
+            reference(otherwise, at, 4);
+            u4(keys.length);
+            for (int i = 0; i < keys.length; i++) {
+                u4(keys[i]);
+                reference(targets[i], at, 4);
+            }
+            reachable = false;
+        }
+
+        private void reference(Label target, int instruction, int width) {
+            if (target.depth < 0) target.depth = depth;
+            int field = size;
+            for (int i = 0; i < width; i++) u1(0);
+            if (target.position >= 0) {
+                write(field, width, target.position - instruction);
+            } else {
+                target.fixups.add(new int[]{instruction, field, width});
+            }
+        }
+
+        private void write(int at, int width, int offset) {
+            for (int i = width - 1; i >= 0; i--) {
+                bytes[at + i] = (byte) offset;
+                offset >>= 8;
+            }
+        }
+
+        void place(Label label) {
+            label.position = size;
+            for (int[] fixup : label.fixups) write(fixup[1], fixup[2], size - fixup[0]);
+            label.fixups.clear();
+            if (!reachable) {
+                depth = Math.max(label.depth, 0);
+                reachable = true;
+            } else if (label.depth < 0) {
+                label.depth = depth;
+            }
+        }
+
+        /** errors of {@code type} thrown in [start, end) continue at {@code handler}, the error on the stack */
+        void handler(Label start, Label end, Label handler, String type) {
+            handler.depth = 1;
+            handlers.add(new Label[]{start, end, handler});
+            handlerTypes.add(classRef(type));
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeShort(access);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + size + 8 * handlers.size());
+            out.writeShort(maxDepth);
+            out.writeShort(locals);
+            out.writeInt(size);
+            out.write(bytes, 0, size);
+            out.writeShort(handlers.size());
+            for (int i = 0; i < handlers.size(); i++) {
+                Label[] h = handlers.get(i);
+                out.writeShort(h[0].position);
+                out.writeShort(h[1].position);
+                out.writeShort(h[2].position);
+                out.writeShort(handlerTypes.get(i));
+            }
+            out.writeShort(0);
+        }
+    }
+
+    /** the operand stack change of an instruction, apart from its operands' effect on it */
+    private static int effect(int opcode) {
+        return switch (opcode) {
+            case ACONST_NULL, ICONST_0, ICONST_1, DUP -> 1;
+            case DCONST_0, DCONST_1, DUP2 -> 2;
+            case POP, AALOAD, IADD, ISUB, IMUL, ISHL, ISHR, IAND, IOR, IXOR, ARETURN, ATHROW,
+                 IFEQ, IFNE, IFLT, IFGE, IFGT, IFLE -> -1;
+            case POP2, DADD, DSUB, DMUL, DDIV, DREM, IF_ICMPEQ, IF_ICMPNE, IF_ICMPLT, IF_ICMPGE, IF_ICMPGT,
+                 IF_ICMPLE, IF_ACMPEQ, IF_ACMPNE -> -2;
+            case AASTORE, DCMPL, DCMPG -> -3;
+            case I2D -> 1;
+            default -> 0;  // INEG, DNEG, GOTO, RETURN
+        };
+    }
+
+    private static int argumentSlots(String descriptor) {
+        int slots = 0;
+        for (int i = 1; descriptor.charAt(i) != ')'; i++) {
+            char c = descriptor.charAt(i);
+            boolean array = false;
+            while (c == '[') {
+                array = true;
+                c = descriptor.charAt(++i);
+            }
+            if (c == 'L') i = descriptor.indexOf(';', i);
+            slots += !array && (c == 'D' || c == 'J') ? 2 : 1;
+        }
+        return slots;
+    }
+
+    private static int returnSlots(String descriptor) {
+        char c = descriptor.charAt(descriptor.indexOf(')') + 1);
+        return c == 'V' ? 0 : c == 'D' || c == 'J' ? 2 : 1;
+    }
+}
@@ -0,0 +1,1086 @@
+package ysharp.compiler;
+
+import ysharp.YsharpError;
+import ysharp.analysis.Resolution;
+import ysharp.interpreter.Interpreter;
+import ysharp.interpreter.SwitchTable;
+import ysharp.lexer.Token;
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+import ysharp.runtime.Operators;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+import static ysharp.compiler.JvmClass.*;
+
+/**
+ * Compiles a resolved top-level function to JVM bytecode, so that HotSpot
+ * optimizes it like Java code. The function becomes a static method of a
+ * hidden class of its own, defined through
+ * {@link MethodHandles.Lookup#defineHiddenClass}: the class goes away once
+ * its {@link JvmFunction} is unreachable.
+ *
+ * <p>Each frame slot gets a JVM local of the kind {@link SlotKinds} infers
+ * for it, so arithmetic, comparisons and conditions over int, double and
+ * bool slots are plain JVM instructions and never box; everything else
+ * calls {@link Operators}. A switch over an int slot with
+ * int cases is a lookupswitch. Calls through a global that still holds the
+ * function itself invoke its method directly, and such tail calls jump
+ * back to the start; any other call goes through the {@link JvmFunction.Host}.
+ *
+ * <p>Only self-contained functions compile: no variables captured from an
+ * enclosing function, no functions, classes or try statements inside and
+ * no property assignments. Anything else is a semantic error, and the
+ * function is left to the interpreter.
+ */
+public final class JvmCompiler {
+
+    private static final int OBJ = SlotKinds.OBJ, INT = SlotKinds.INT, DOUBLE = SlotKinds.DOUBLE,
+            BOOL = SlotKinds.BOOL;
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final String OPERATORS = "ysharp/runtime/Operators";
+    private static final String FUNCTION = "ysharp/compiler/JvmFunction";
+    private static final String HOST = "ysharp/compiler/JvmFunction$Host";
+    private static final String O = "Ljava/lang/Object;";
+    private static final String STRING = "Ljava/lang/String;";
+    private static final String BINARY = "(" + O + O + "I)" + O;
+    private static final String UNARY = "(" + O + "I)" + O;
+    private static final String CALL = "(" + O + "[" + O + "I)" + O;
+    private static final String ERROR = "(I" + STRING + ")Lysharp/YsharpError;";
+
+    // the body method's locals ahead of the parameters
+    private static final int HOST_LOCAL = 0, GLOBALS = 1, SELF = 2, PARAMETERS = 3;
+    private static final int MAX_PARAMETERS = 250;
+    private static final int MAX_STRING = 65535 / 3;  // a constant pool entry holds 64K bytes of modified UTF-8
+
+    private record Target(boolean loop, Label breaks, Label continues) {}
+
+    private final SlotKinds slots;
+    private final int[] kinds;
+    private final int[] locals;  // the JVM local of each frame slot
+    private final int arity;
+    private final String owner;
+    private final String bodyDescriptor;
+    private final JvmClass file;
+    private final JvmClass.Code code;
+    private final Label start = new Label();
+    private final Deque<Target> targets = new ArrayDeque<>();
+    private int line;
+
+    private JvmCompiler(Stmt.FunctionStmt function, List<Stmt> statements, Resolution resolution) {
+        slots = new SlotKinds(function, statements, function.frameSize, resolution, slot -> false);
+        kinds = slots.kinds;
+        arity = function.params.size();
+        owner = "ysharp/compiler/Compiled$" + function.name.lexeme;
+        bodyDescriptor = "(L" + HOST + ";[" + O + O + O.repeat(arity) + ")" + O;
+        file = new JvmClass(owner, FUNCTION);
+        constructor();
+        entry();
+        code = file.method(STATIC, "body", bodyDescriptor, PARAMETERS + arity);
+        locals = new int[function.frameSize];
+        for (int slot = 0; slot < locals.length; slot++) {
+            locals[slot] = slot < arity ? PARAMETERS + slot : code.newLocal(kinds[slot] == DOUBLE);
+        }
+    }
+
+    /** compiles {@code function}, which {@code resolution} resolved */
+    public static JvmFunction compile(Stmt.FunctionStmt function, Resolution resolution) throws YsharpError {
+        List<Stmt> statements = function.body().statements;
+        if (function.captures == null || !function.captures.isEmpty() || function.cells != null) {
+            throw unsupported("Functions that capture variables", function.name.line);
+        }
+        if (function.params.size() > MAX_PARAMETERS) {
+            throw unsupported("Functions with this many parameters", function.name.line);
+        }
+        for (Stmt stmt : statements) scan(stmt, resolution);
+
+        JvmCompiler compiler = new JvmCompiler(function, statements, resolution);
+        compiler.body(statements);
+        if (compiler.code.size() > MAX_CODE) throw unsupported("Functions this large", function.name.line);
+        return compiler.define();
+    }
+
+    // what the function uses
+
+    private static void scan(Stmt stmt, Resolution resolution) throws YsharpError {
+        if (stmt == null) return;
+        switch (stmt) {
+            case Stmt.ExpressionStmt s -> scan(s.expression, resolution);
+            case Stmt.VarStmt s -> scan(s.initializer, resolution);
+            case Stmt.ConstStmt s -> scan(s.initializer, resolution);
+            case Stmt.FunctionStmt s -> throw unsupported("Functions declared inside functions", s.name.line);
+            case Stmt.ClassStmt s -> throw unsupported("Classes", s.name.line);
+            case Stmt.BlockStmt s -> {
+                for (Stmt member : s.statements) scan(member, resolution);
+            }
+            case Stmt.IfStmt s -> {
+                scan(s.condition, resolution);
+                scan(s.thenBranch, resolution);
+                scan(s.elseBranch, resolution);
+            }
+            case Stmt.WhileStmt s -> {
+                scan(s.condition, resolution);
+                scan(s.body, resolution);
+            }
+            case Stmt.ForStmt s -> {
+                scan(s.initializer, resolution);
+                scan(s.condition, resolution);
+                scan(s.increment, resolution);
+                scan(s.body, resolution);
+            }
+            case Stmt.CountedForStmt s -> {
+                scan(s.start, resolution);
+                scan(s.limit, resolution);
+                for (Stmt.CountedForStmt.Derived derived : s.derived) scan(derived.factor, resolution);
+                scan(s.body, resolution);
+            }
+            case Stmt.TryStmt s -> throw unsupported("Try statements", s.catchName.line);
+            case Stmt.SwitchStmt s -> {
+                scan(s.subject, resolution);
+                for (Stmt.SwitchStmt.Case c : s.cases) {
+                    scan(c.value, resolution);
+                    scan(c.body, resolution);
+                }
+                scan(s.defaultBlock, resolution);
+            }
+            case Stmt.PrintStmt s -> scan(s.expression, resolution);
+            case Stmt.ReturnStmt s -> scan(s.value, resolution);
+            default -> { }  // break, continue, use
+        }
+    }
+
+    private static void scan(Expr expr, Resolution resolution) throws YsharpError {
+        if (expr == null) return;
+        switch (expr) {
+            case Expr.VariableExpr e -> {
+                Resolution.Access access = resolution.of(e);
+                if (access == null) throw unsupported("Names shared by differently resolved references", e.name.line);
+                if (access.isCapture() || access.boxed() || access.depth() > 1) {
+                    throw unsupported("Captured variables", e.name.line);
+                }
+            }
+            case Expr.LiteralExpr e -> {
+                if (e.token.literal instanceof Token.Literal.Str s && s.value().length() > MAX_STRING) {
+                    throw unsupported("Strings this long", e.token.line);
+                }
+            }
+            case Expr.GroupingExpr e -> scan(e.expression, resolution);
+            case Expr.BinaryExpr e -> {
+                scan(e.left, resolution);
+                scan(e.right, resolution);
+            }
+            case Expr.LogicalExpr e -> {
+                scan(e.left, resolution);
+                scan(e.right, resolution);
+            }
+            case Expr.UnaryExpr e -> scan(e.expr, resolution);
+            case Expr.PostfixExpr e -> scan(e.operand, resolution);
+            case Expr.AssignmentExpr e -> {
+                scan(e.target, resolution);
+                scan(e.value, resolution);
+            }
+            case Expr.TernaryExpr e -> {
+                scan(e.condition, resolution);
+                scan(e.thenBranch, resolution);
+                scan(e.elseBranch, resolution);
+            }
+            case Expr.GetExpr e -> scan(e.object, resolution);
+            case Expr.SetExpr e -> throw unsupported("Property assignments", e.name.line);
+            case Expr.CallExpr e -> {
+                scan(e.callee, resolution);
+                for (Expr argument : e.arguments) scan(argument, resolution);
+            }
+            case Expr.ArrayInitializerExpr e -> {
+                for (Expr element : e.elements) scan(element, resolution);
+            }
+            case Expr.MapInitializerExpr e -> {
+                for (Expr.MapInitializerExpr.Entry entry : e.entries) scan(entry.value, resolution);
+            }
+            default -> throw unsupported(expr.getClass().getSimpleName() + " expressions", Interpreter.line(expr));
+        }
+    }
+
+    private static YsharpError unsupported(String what, int line) {
+        return new YsharpError(YsharpError.YsharpErrorType.SEMANTIC, line,
+                what + " are not supported by the JVM compiler.");
+    }
+
+    // the class
+
+    private void constructor() {
+        JvmClass.Code init = file.method(PUBLIC, "<init>", "()V", 1);
+        init.local(ALOAD, 0);
+        init.invoke(INVOKESPECIAL, FUNCTION, "<init>", "()V");
+        init.op(RETURN);
+    }
+
+    /** JvmFunction.call: spreads the arguments over the body's parameters */
+    private void entry() {
+        JvmClass.Code call = file.method(PUBLIC, "call", "(L" + HOST + ";" + O + "[" + O + ")" + O, 4);
+        call.local(ALOAD, 1);
+        call.local(ALOAD, 1);
+        call.invoke(INVOKEINTERFACE, HOST, "globals", "()[" + O);
+        call.local(ALOAD, 2);
+        for (int i = 0; i < arity; i++) {
+            call.local(ALOAD, 3);
+            call.push(i);
+            call.op(AALOAD);
+        }
+        call.invoke(INVOKESTATIC, owner, "body", bodyDescriptor);
+        call.op(ARETURN);
+    }
+
+    private JvmFunction define() {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(file.toBytes(), true);
+            return (JvmFunction) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class))
+                    .invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("[Programmatic error] generated class rejected: " + owner, e);
+        }
+    }
+
+    /** a fresh frame on entry, and again for each tail call to itself */
+    private void body(List<Stmt> statements) throws YsharpError {
+        code.place(start);
+        for (int slot = arity; slot < locals.length; slot++) {
+            switch (kinds[slot]) {
+                case INT, BOOL -> code.push(0);
+                case DOUBLE -> code.push(0.0);
+                default -> code.op(ACONST_NULL);
+            }
+            store(slot);
+        }
+        for (Stmt stmt : statements) statement(stmt);
+        code.op(ACONST_NULL);
+        code.op(ARETURN);
+    }
+
+    // values
+
+    private int kindOf(Expr expr) {
+        return slots.kindOf(expr);
+    }
+
+    private static int loadOp(int kind) {
+        return kind == DOUBLE ? DLOAD : kind == OBJ ? ALOAD : ILOAD;
+    }
+
+    private static int storeOp(int kind) {
+        return kind == DOUBLE ? DSTORE : kind == OBJ ? ASTORE : ISTORE;
+    }
+
+    private void load(int slot) {
+        code.local(loadOp(kinds[slot]), locals[slot]);
+    }
+
+    private void store(int slot) {
+        code.local(storeOp(kinds[slot]), locals[slot]);
+    }
+
+    private int temp(int kind) {
+        return code.newLocal(kind == DOUBLE);
+    }
+
+    private void getGlobal(int slot) {
+        code.local(ALOAD, GLOBALS);
+        code.push(slot);
+        code.op(AALOAD);
+    }
+
+    /** stores the object on top of the stack */
+    private void putGlobal(int slot) {
+        code.local(ALOAD, GLOBALS);
+        code.op(SWAP);
+        code.push(slot);
+        code.op(SWAP);
+        code.op(AASTORE);
+    }
+
+    private void pop(int kind) {
+        code.op(kind == DOUBLE ? POP2 : POP);
+    }
+
+    private void dup(int kind) {
+        code.op(kind == DOUBLE ? DUP2 : DUP);
+    }
+
+    /** converts the value on top of the stack; bools are ints on the JVM */
+    private void convert(int from, int to) {
+        if (from == to || (from == BOOL && to == INT)) return;
+        if (to == OBJ) {
+            switch (from) {
+                case INT -> code.invoke(INVOKESTATIC, "java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;");
+                case DOUBLE -> code.invoke(INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
+                default -> code.invoke(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+            }
+        } else if (from == INT && to == DOUBLE) {
+            code.op(I2D);
+        } else {
+            throw new IllegalStateException("[Programmatic error] cannot convert kind " + from + " to " + to);
+        }
+    }
+
+    /** pushes {@code expr} as a value of its kind, which it returns */
+    private int compile(Expr expr) throws YsharpError {
+        int saved = line;
+        line = Interpreter.line(expr);
+        int kind = kindOf(expr);
+        expression(expr, kind);
+        line = saved;
+        return kind;
+    }
+
+    private void compileAs(Expr expr, int kind) throws YsharpError {
+        convert(compile(expr), kind);
+    }
+
+    private void expression(Expr expr, int kind) throws YsharpError {
+        switch (expr) {
+            case Expr.LiteralExpr e -> {
+                switch (e.token.literal) {
+                    case Token.Literal.Int l -> code.push(l.value());
+                    case Token.Literal.Double l -> code.push(l.value());
+                    case Token.Literal.Bool l -> code.push(l.value() ? 1 : 0);
+                    case Token.Literal.Null ignored -> code.op(ACONST_NULL);
+                    case Token.Literal.Str l -> code.push(l.value());
+                    case Token.Literal.Chr l -> {
+                        code.push(l.value());
+                        code.invoke(INVOKESTATIC, "java/lang/Character", "valueOf", "(C)Ljava/lang/Character;");
+                    }
+                }
+            }
+            case Expr.VariableExpr e -> {
+                if (slots.isLocal(e)) load(slots.slot(e));
+                else getGlobal(slots.slot(e));
+            }
+            case Expr.GroupingExpr e -> compile(e.expression);
+            case Expr.BinaryExpr e -> {
+                Token.TokenType op = e.op.type;
+                if (SlotKinds.isComparison(op)) {
+                    int mode = comparisonMode(op, kindOf(e.left), kindOf(e.right));
+                    compileAs(e.left, mode);
+                    compileAs(e.right, mode);
+                    Label holds = new Label(), end = new Label();
+                    branch(op, mode, true, holds);
+                    code.push(0);
+                    code.jump(GOTO, end);
+                    code.place(holds);
+                    code.push(1);
+                    code.place(end);
+                } else {
+                    compileAs(e.left, kind);
+                    compileAs(e.right, kind);
+                    arithmetic(op, kind);
+                }
+            }
+            case Expr.LogicalExpr e -> {
+                Label no = new Label(), end = new Label();
+                jumpIf(e, false, RegisterOp.CONDITION, no);
+                code.push(1);
+                code.jump(GOTO, end);
+                code.place(no);
+                code.push(0);
+                code.place(end);
+            }
+            case Expr.UnaryExpr e -> unary(e, kind);
+            case Expr.PostfixExpr e -> increment(e.operand, e.op.type == Token.TokenType.PLUS_PLUS ? 1 : -1, false);
+            case Expr.AssignmentExpr e -> assign(e);
+            case Expr.TernaryExpr e -> {
+                Label otherwise = new Label(), end = new Label();
+                jumpIf(e.condition, false, RegisterOp.CONDITION, otherwise);
+                compileAs(e.thenBranch, kind);
+                code.jump(GOTO, end);
+                code.place(otherwise);
+                compileAs(e.elseBranch, kind);
+                code.place(end);
+            }
+            case Expr.GetExpr e -> {
+                code.local(ALOAD, HOST_LOCAL);
+                compileAs(e.object, OBJ);
+                code.push(e.name.lexeme);
+                code.push(e.name.line);
+                code.invoke(INVOKEINTERFACE, HOST, "get", "(" + O + STRING + "I)" + O);
+            }
+            case Expr.CallExpr e -> call(e, false);
+            case Expr.ArrayInitializerExpr e -> {
+                code.type(NEW, "java/util/ArrayList");
+                code.op(DUP);
+                code.push(e.elements.size());
+                code.invoke(INVOKESPECIAL, "java/util/ArrayList", "<init>", "(I)V");
+                for (Expr element : e.elements) {
+                    code.op(DUP);
+                    compileAs(element, OBJ);
+                    code.invoke(INVOKEVIRTUAL, "java/util/ArrayList", "add", "(" + O + ")Z");
+                    code.op(POP);
+                }
+            }
+            case Expr.MapInitializerExpr e -> {
+                code.type(NEW, "java/util/LinkedHashMap");
+                code.op(DUP);
+                code.invoke(INVOKESPECIAL, "java/util/LinkedHashMap", "<init>", "()V");
+                for (Expr.MapInitializerExpr.Entry entry : e.entries) {
+                    code.op(DUP);
+                    code.push(((Token.Literal.Str) entry.key.literal).value());
+                    compileAs(entry.value, OBJ);
+                    code.invoke(INVOKEVIRTUAL, "java/util/LinkedHashMap", "put", "(" + O + O + ")" + O);
+                    code.op(POP);
+                }
+            }
+            default -> throw new IllegalStateException(
+                    "[Programmatic error] unknown expression " + expr.getClass().getSimpleName());
+        }
+    }
+
+    /** what both operands of a comparison become: ints and bools compare as ints, mixed numbers as doubles */
+    private static int comparisonMode(Token.TokenType op, int left, int right) {
+        if (left == INT && right == INT) return INT;
+        if (left == BOOL && right == BOOL && (op == Token.TokenType.EQUAL_EQUAL || op == Token.TokenType.BANG_EQUAL)) {
+            return INT;
+        }
+        return SlotKinds.isNumeric(left) && SlotKinds.isNumeric(right) ? DOUBLE : OBJ;
+    }
+
+    /** {@code op} on two operands of the kind it yields, on the stack */
+    private void arithmetic(Token.TokenType op, int kind) {
+        if (kind == OBJ) {
+            code.push(line);
+            code.invoke(INVOKESTATIC, OPERATORS, switch (op) {
+                case PLUS -> "add";
+                case MINUS -> "subtract";
+                case MULTIPLY -> "multiply";
+                case DIVIDE -> "divide";
+                case MODULO -> "modulo";
+                case LEFT_SHIFT -> "shiftLeft";
+                case RIGHT_SHIFT -> "shiftRight";
+                case BITWISE_AND -> "bitwiseAnd";
+                case BITWISE_OR -> "bitwiseOr";
+                case BITWISE_XOR -> "bitwiseXor";
+                default -> throw new IllegalStateException("[Programmatic error] not an arithmetic operator: " + op);
+            }, BINARY);
+            return;
+        }
+        if (kind == DOUBLE) {
+            code.op(switch (op) {
+                case PLUS -> DADD;
+                case MINUS -> DSUB;
+                case MULTIPLY -> DMUL;
+                case DIVIDE -> DDIV;
+                case MODULO -> DREM;
+                default -> throw new IllegalStateException("[Programmatic error] not a double operator: " + op);
+            });
+            return;
+        }
+        switch (op) {
+            case DIVIDE, MODULO -> {
+                code.push(line);
+                code.invoke(INVOKESTATIC, OPERATORS, op == Token.TokenType.DIVIDE ? "divide" : "modulo", "(III)I");
+            }
+            default -> code.op(switch (op) {
+                case PLUS -> IADD;
+                case MINUS -> ISUB;
+                case MULTIPLY -> IMUL;
+                case LEFT_SHIFT -> ISHL;
+                case RIGHT_SHIFT -> ISHR;
+                case BITWISE_AND -> IAND;
+                case BITWISE_OR -> IOR;
+                case BITWISE_XOR -> IXOR;
+                default -> throw new IllegalStateException("[Programmatic error] not an int operator: " + op);
+            });
+        }
+    }
+
+    private void unary(Expr.UnaryExpr expr, int kind) throws YsharpError {
+        Token.TokenType op = expr.op.type;
+        if (op == Token.TokenType.PLUS_PLUS || op == Token.TokenType.MINUS_MINUS) {
+            increment(expr.expr, op == Token.TokenType.PLUS_PLUS ? 1 : -1, true);
+            return;
+        }
+        if (kind == OBJ) {
+            compileAs(expr.expr, OBJ);
+            code.push(line);
+            code.invoke(INVOKESTATIC, OPERATORS, switch (op) {
+                case MINUS -> "negate";
+                case PLUS -> "plus";
+                case BANG -> "not";
+                default -> "bitwiseNot";
+            }, UNARY);
+            return;
+        }
+        compile(expr.expr);
+        switch (op) {
+            case MINUS -> code.op(kind == INT ? INEG : DNEG);
+            case BITWISE_NOT -> {
+                code.push(-1);
+                code.op(IXOR);
+            }
+            case BANG -> {
+                code.push(1);
+                code.op(IXOR);
+            }
+            default -> { }  // unary plus leaves a number as it is
+        }
+    }
+
+    private void invalidTarget() {
+        code.push(line);
+        code.push("Invalid assignment target.");
+        code.invoke(INVOKESTATIC, OPERATORS, "error", ERROR);
+        code.op(ATHROW);
+        code.op(ACONST_NULL);  // unreachable; keeps the stack the expression promised
+    }
+
+    private int increment(Expr operand, int delta, boolean prefix) throws YsharpError {
+        Expr.VariableExpr variable = SlotKinds.variable(operand);
+        if (variable == null) {
+            invalidTarget();
+            return OBJ;
+        }
+        if (!slots.isLocal(variable)) {
+            getGlobal(slots.slot(variable));
+            if (!prefix) code.op(DUP);
+            code.push(delta);
+            code.push(line);
+            code.invoke(INVOKESTATIC, OPERATORS, "increment", "(" + O + "II)" + O);
+            if (prefix) code.op(DUP);
+            putGlobal(slots.slot(variable));
+            return OBJ;
+        }
+
+        int slot = slots.slot(variable);
+        int kind = kinds[slot];
+        switch (kind) {
+            case INT -> {
+                if (!prefix) load(slot);
+                code.increment(locals[slot], delta);
+                if (prefix) load(slot);
+            }
+            case DOUBLE -> {
+                load(slot);
+                if (!prefix) code.op(DUP2);
+                code.push((double) delta);
+                code.op(DADD);
+                if (prefix) code.op(DUP2);
+                store(slot);
+            }
+            default -> {
+                load(slot);
+                if (!prefix) code.op(DUP);
+                code.push(delta);
+                code.push(line);
+                code.invoke(INVOKESTATIC, OPERATORS, "increment", "(" + O + "II)" + O);
+                if (prefix) code.op(DUP);
+                store(slot);
+            }
+        }
+        return kind;
+    }
+
+    private void assign(Expr.AssignmentExpr expr) throws YsharpError {
+        Expr.VariableExpr variable = SlotKinds.variable(expr.target);
+        if (variable == null) {
+            invalidTarget();
+            return;
+        }
+        Token.TokenType op = Operators.compoundOperator(expr.op.type);
+
+        if (!slots.isLocal(variable)) {
+            if (op == null) {
+                compileAs(expr.value, OBJ);
+            } else {
+                getGlobal(slots.slot(variable));
+                compileAs(expr.value, OBJ);
+                arithmetic(op, OBJ);
+            }
+            code.op(DUP);
+            putGlobal(slots.slot(variable));
+            return;
+        }
+
+        int slot = slots.slot(variable);
+        int kind = kinds[slot];
+        if (op == null) {
+            compileAs(expr.value, kind);
+        } else {
+            int result = SlotKinds.binaryKind(op, kind, kindOf(expr.value));
+            load(slot);
+            convert(kind, result);
+            compileAs(expr.value, result);
+            arithmetic(op, result);
+            convert(result, kind);
+        }
+        dup(kind);
+        store(slot);
+    }
+
+    /** a call through a global holding this very function, with as many arguments as it takes */
+    private boolean isSelfCall(Expr.CallExpr expr) {
+        Expr.VariableExpr callee = SlotKinds.variable(expr.callee);
+        return callee != null && !slots.isLocal(callee) && expr.arguments.size() == arity;
+    }
+
+    /** the callee and arguments as objects, for the host */
+    private void hostArguments(Expr.CallExpr expr) throws YsharpError {
+        code.local(ALOAD, HOST_LOCAL);
+        compileAs(expr.callee, OBJ);
+        code.push(expr.arguments.size());
+        code.type(ANEWARRAY, OBJECT);
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            code.op(DUP);
+            code.push(i);
+            compileAs(expr.arguments.get(i), OBJ);
+            code.op(AASTORE);
+        }
+        code.push(line);
+    }
+
+    /** the same from locals, once the callee turned out not to be this function */
+    private void hostArguments(int callee, int[] arguments) {
+        code.local(ALOAD, HOST_LOCAL);
+        code.local(ALOAD, callee);
+        code.push(arguments.length);
+        code.type(ANEWARRAY, OBJECT);
+        for (int i = 0; i < arguments.length; i++) {
+            code.op(DUP);
+            code.push(i);
+            code.local(ALOAD, arguments[i]);
+            code.op(AASTORE);
+        }
+        code.push(line);
+    }
+
+    /**
+     * A call, or with {@code tail} a return of one. The callee of a call
+     * that may be to this function is compared with it at run time first.
+     */
+    private void call(Expr.CallExpr expr, boolean tail) throws YsharpError {
+        if (!isSelfCall(expr)) {
+            hostArguments(expr);
+            code.invoke(INVOKEINTERFACE, HOST, tail ? "tail" : "call", CALL);
+            if (tail) code.op(ARETURN);
+            return;
+        }
+
+        int callee = temp(OBJ);
+        getGlobal(slots.slot((Expr.VariableExpr) SlotKinds.strip(expr.callee)));
+        code.local(ASTORE, callee);
+        int[] arguments = new int[arity];
+        for (int i = 0; i < arity; i++) {
+            compileAs(expr.arguments.get(i), OBJ);
+            arguments[i] = temp(OBJ);
+            code.local(ASTORE, arguments[i]);
+        }
+        Label other = new Label(), end = new Label();
+        code.local(ALOAD, callee);
+        code.local(ALOAD, SELF);
+        code.jump(IF_ACMPNE, other);
+
+        if (tail) {
+            // parameters are objects; the rest of the frame starts over
+            for (int i = 0; i < arity; i++) {
+                code.local(ALOAD, arguments[i]);
+                code.local(ASTORE, PARAMETERS + i);
+            }
+            code.jump(GOTO, start);
+            code.place(other);
+            hostArguments(callee, arguments);
+            code.invoke(INVOKEINTERFACE, HOST, "tail", CALL);
+            code.op(ARETURN);
+            return;
+        }
+
+        Label from = new Label(), to = new Label(), overflow = new Label();
+        code.local(ALOAD, HOST_LOCAL);
+        code.local(ALOAD, GLOBALS);
+        code.local(ALOAD, SELF);
+        for (int argument : arguments) code.local(ALOAD, argument);
+        code.place(from);
+        code.invoke(INVOKESTATIC, owner, "body", bodyDescriptor);
+        code.place(to);
+        code.handler(from, to, overflow, "java/lang/StackOverflowError");
+        code.op(DUP);
+        code.getStatic(FUNCTION, "TAIL_CALL", O);
+        code.jump(IF_ACMPNE, end);
+        code.op(POP);
+        code.local(ALOAD, HOST_LOCAL);
+        code.invoke(INVOKEINTERFACE, HOST, "finish", "()" + O);
+        code.jump(GOTO, end);
+
+        code.place(overflow);
+        code.op(POP);
+        code.push(line);
+        code.push("Stack overflow.");
+        code.invoke(INVOKESTATIC, OPERATORS, "error", ERROR);
+        code.op(ATHROW);
+
+        code.place(other);
+        hostArguments(callee, arguments);
+        code.invoke(INVOKEINTERFACE, HOST, "call", CALL);
+        code.place(end);
+    }
+
+    // conditions
+
+    /** jumps to {@code target} when {@code expr} is {@code when}, falls through otherwise */
+    private void jumpIf(Expr expr, boolean when, int context, Label target) throws YsharpError {
+        expr = SlotKinds.strip(expr);
+        int saved = line;
+        switch (expr) {
+            case Expr.BinaryExpr e when SlotKinds.isComparison(e.op.type) -> {
+                line = e.op.line;
+                int mode = comparisonMode(e.op.type, kindOf(e.left), kindOf(e.right));
+                compileAs(e.left, mode);
+                compileAs(e.right, mode);
+                branch(e.op.type, mode, when, target);
+            }
+            case Expr.LogicalExpr e -> {
+                line = e.op.line;
+                boolean and = e.op.type == Token.TokenType.LOGICAL_AND;
+                int first = and ? RegisterOp.AND_OPERAND : RegisterOp.OR_OPERAND;
+                if (and != when) {
+                    // false && x and true || x decide on the left operand
+                    jumpIf(e.left, when, first, target);
+                    jumpIf(e.right, when, RegisterOp.LOGICAL_OPERAND, target);
+                } else {
+                    Label decided = new Label();
+                    jumpIf(e.left, !when, first, decided);
+                    jumpIf(e.right, when, RegisterOp.LOGICAL_OPERAND, target);
+                    code.place(decided);
+                }
+            }
+            case Expr.UnaryExpr e when e.op.type == Token.TokenType.BANG && kindOf(e.expr) == BOOL ->
+                    jumpIf(e.expr, !when, context, target);
+            case Expr.LiteralExpr e when e.token.literal instanceof Token.Literal.Bool l -> {
+                if (l.value() == when) code.jump(GOTO, target);
+            }
+            default -> {
+                int kind = compile(expr);
+                if (kind != BOOL) {
+                    convert(kind, OBJ);
+                    code.push(RegisterOp.CONTEXTS[context]);
+                    code.push(line);
+                    code.invoke(INVOKESTATIC, OPERATORS, "requireBool", "(" + O + STRING + "I)Z");
+                }
+                code.jump(when ? IFNE : IFEQ, target);
+            }
+        }
+        line = saved;
+    }
+
+    /** compares two operands of the given mode, on the stack, and jumps when the result is {@code when} */
+    private void branch(Token.TokenType op, int mode, boolean when, Label target) {
+        int jump = switch (op) {
+            case EQUAL_EQUAL -> IFEQ;
+            case BANG_EQUAL -> IFNE;
+            case LESS_THAN -> IFLT;
+            case LESS_OR_EQUAL -> IFLE;
+            case GREATER_THAN -> IFGT;
+            default -> IFGE;
+        };
+        if (!when) jump = IFEQ + ((jump - IFEQ) ^ 1);  // the opcodes pair up as eq/ne, lt/ge, gt/le
+
+        switch (mode) {
+            case INT -> code.jump(jump - IFEQ + IF_ICMPEQ, target);
+            case DOUBLE -> {
+                // NaN must fail the comparison: it makes dcmpg 1 and dcmpl -1
+                boolean less = op == Token.TokenType.LESS_THAN || op == Token.TokenType.LESS_OR_EQUAL;
+                code.op(less ? DCMPG : DCMPL);
+                code.jump(jump, target);
+            }
+            default -> {
+                if (op == Token.TokenType.EQUAL_EQUAL || op == Token.TokenType.BANG_EQUAL) {
+                    code.invoke(INVOKESTATIC, OPERATORS, "isEqual", "(" + O + O + ")Z");
+                    code.jump((op == Token.TokenType.EQUAL_EQUAL) == when ? IFNE : IFEQ, target);
+                } else {
+                    code.push(switch (op) {
+                        case LESS_THAN -> "<";
+                        case LESS_OR_EQUAL -> "<=";
+                        case GREATER_THAN -> ">";
+                        default -> ">=";
+                    });
+                    code.push(line);
+                    code.invoke(INVOKESTATIC, OPERATORS, "compare", "(" + O + O + STRING + "I)I");
+                    code.jump(jump, target);
+                }
+            }
+        }
+    }
+
+    // statements
+
+    private void statement(Stmt stmt) throws YsharpError {
+        switch (stmt) {
+            case Stmt.ExpressionStmt s -> effect(s.expression);
+            case Stmt.VarStmt s -> declare(s.slot, s.initializer, s.name.line);
+            case Stmt.ConstStmt s -> declare(s.slot, s.initializer, s.name.line);
+            case Stmt.BlockStmt s -> {
+                for (Stmt member : s.statements) statement(member);
+            }
+            case Stmt.IfStmt s -> {
+                line = s.keyword.line;
+                Label otherwise = new Label();
+                jumpIf(s.condition, false, RegisterOp.CONDITION, otherwise);
+                statement(s.thenBranch);
+                if (s.elseBranch == null) {
+                    code.place(otherwise);
+                } else {
+                    Label end = new Label();
+                    code.jump(GOTO, end);
+                    code.place(otherwise);
+                    statement(s.elseBranch);
+                    code.place(end);
+                }
+            }
+            case Stmt.WhileStmt s -> loop(s.keyword.line, s.condition, null, s.body);
+            case Stmt.ForStmt s -> {
+                if (s.initializer != null) statement(s.initializer);
+                loop(s.keyword.line, s.condition, s.increment, s.body);
+            }
+            case Stmt.CountedForStmt s -> countedFor(s);
+            case Stmt.SwitchStmt s -> switchStatement(s);
+            case Stmt.PrintStmt s -> {
+                code.local(ALOAD, HOST_LOCAL);
+                code.invoke(INVOKEINTERFACE, HOST, "out", "()Ljava/io/PrintStream;");
+                switch (compile(s.expression)) {
+                    case INT -> code.invoke(INVOKESTATIC, "java/lang/Integer", "toString", "(I)" + STRING);
+                    case DOUBLE -> code.invoke(INVOKESTATIC, "java/lang/Double", "toString", "(D)" + STRING);
+                    case BOOL -> code.invoke(INVOKESTATIC, "java/lang/String", "valueOf", "(Z)" + STRING);
+                    default -> code.invoke(INVOKESTATIC, OPERATORS, "stringify", "(" + O + ")" + STRING);
+                }
+                code.invoke(INVOKEVIRTUAL, "java/io/PrintStream",
+                        s.keyword.type == Token.TokenType.PRINTLN ? "println" : "print", "(" + STRING + ")V");
+            }
+            case Stmt.ReturnStmt s -> {
+                line = s.keyword.line;
+                if (s.value == null) {
+                    code.op(ACONST_NULL);
+                    code.op(ARETURN);
+                } else {
+                    returnValue(s.value);
+                }
+            }
+            case Stmt.BreakStmt ignored -> code.jump(GOTO, targets.peek().breaks);
+            case Stmt.ContinueStmt ignored -> {
+                for (Target target : targets) {
+                    if (target.loop) {
+                        code.jump(GOTO, target.continues);
+                        break;
+                    }
+                }
+            }
+            case Stmt.UseStmt s -> {
+                code.push(s.path.line);
+                code.push("'use' is not supported by the interpreter.");
+                code.invoke(INVOKESTATIC, OPERATORS, "error", ERROR);
+                code.op(ATHROW);
+            }
+            default -> throw new IllegalStateException(
+                    "[Programmatic error] unknown statement " + stmt.getClass().getSimpleName());
+        }
+    }
+
+    /** an expression whose value is dropped: a postfix increment need not keep the old value */
+    private void effect(Expr expr) throws YsharpError {
+        if (SlotKinds.strip(expr) instanceof Expr.PostfixExpr e) {
+            int saved = line;
+            line = e.op.line;
+            pop(increment(e.operand, e.op.type == Token.TokenType.PLUS_PLUS ? 1 : -1, true));
+            line = saved;
+        } else {
+            pop(compile(expr));
+        }
+    }
+
+    private void declare(int slot, Expr initializer, int declaredAt) throws YsharpError {
+        line = declaredAt;
+        if (initializer == null) {
+            code.op(ACONST_NULL);
+        } else {
+            compileAs(initializer, kinds[slot]);
+        }
+        store(slot);
+    }
+
+    /** a return's value: ternaries branch to their own returns and tail calls leave through the host */
+    private void returnValue(Expr expr) throws YsharpError {
+        expr = SlotKinds.strip(expr);
+        int saved = line;
+        if (expr instanceof Expr.TernaryExpr e) {
+            line = Interpreter.line(e.condition);
+            Label otherwise = new Label();
+            jumpIf(e.condition, false, RegisterOp.CONDITION, otherwise);
+            line = saved;
+            returnValue(e.thenBranch);
+            code.place(otherwise);
+            returnValue(e.elseBranch);
+        } else if (expr instanceof Expr.CallExpr e && e.tail) {
+            line = Interpreter.line(e);
+            call(e, true);
+            line = saved;
+        } else {
+            compileAs(expr, OBJ);
+            code.op(ARETURN);
+        }
+    }
+
+    private void loop(int keyword, Expr condition, Expr increment, Stmt body) throws YsharpError {
+        line = keyword;
+        Label test = new Label(), top = new Label();
+        Target target = new Target(true, new Label(), new Label());
+        code.jump(GOTO, test);
+        code.place(top);
+        targets.push(target);
+        statement(body);
+        targets.pop();
+
+        code.place(target.continues);
+        if (increment != null) effect(increment);
+        code.place(test);
+        line = keyword;
+        if (condition == null) {
+            code.jump(GOTO, top);
+        } else {
+            jumpIf(condition, true, RegisterOp.CONDITION, top);
+        }
+        code.place(target.breaks);
+    }
+
+    /** the limit, factors and strides stay in locals for the whole loop */
+    private void countedFor(Stmt.CountedForStmt stmt) throws YsharpError {
+        line = stmt.keyword.line;
+        int counterKind = kinds[stmt.slot];
+        compileAs(stmt.start, counterKind);
+        store(stmt.slot);
+        int limitKind = kindOf(stmt.limit);
+        int limit = temp(limitKind);
+        compile(stmt.limit);
+        code.local(storeOp(limitKind), limit);
+
+        int count = stmt.derived.size();
+        int[] strideKinds = new int[count];
+        int[] strides = new int[count];
+        for (int d = 0; d < count; d++) {
+            Stmt.CountedForStmt.Derived derived = stmt.derived.get(d);
+            int factorKind = kindOf(derived.factor);
+            int factor = temp(factorKind);
+            compile(derived.factor);
+            code.local(storeOp(factorKind), factor);
+
+            int product = SlotKinds.binaryKind(Token.TokenType.MULTIPLY, counterKind, factorKind);
+            load(stmt.slot);
+            convert(counterKind, product);
+            code.local(loadOp(factorKind), factor);
+            convert(factorKind, product);
+            arithmetic(Token.TokenType.MULTIPLY, product);
+            convert(product, kinds[derived.slot]);
+            store(derived.slot);
+
+            strideKinds[d] = SlotKinds.binaryKind(Token.TokenType.MULTIPLY, INT, factorKind);
+            strides[d] = temp(strideKinds[d]);
+            code.push(stmt.step);
+            convert(INT, strideKinds[d]);
+            code.local(loadOp(factorKind), factor);
+            convert(factorKind, strideKinds[d]);
+            arithmetic(Token.TokenType.MULTIPLY, strideKinds[d]);
+            code.local(storeOp(strideKinds[d]), strides[d]);
+        }
+
+        Label test = new Label(), top = new Label();
+        Target target = new Target(true, new Label(), new Label());
+        code.jump(GOTO, test);
+        code.place(top);
+        targets.push(target);
+        statement(stmt.body);
+        targets.pop();
+
+        code.place(target.continues);
+        line = stmt.keyword.line;
+        if (counterKind == INT) {
+            code.increment(locals[stmt.slot], stmt.step);
+        } else {
+            add(stmt.slot, INT, () -> code.push(stmt.step));
+        }
+        for (int d = 0; d < count; d++) {
+            int stride = strides[d];
+            int strideKind = strideKinds[d];
+            add(stmt.derived.get(d).slot, strideKind, () -> code.local(loadOp(strideKind), stride));
+        }
+
+        code.place(test);
+        int mode = comparisonMode(stmt.comparison.type, counterKind, limitKind);
+        load(stmt.slot);
+        convert(counterKind, mode);
+        code.local(loadOp(limitKind), limit);
+        convert(limitKind, mode);
+        branch(stmt.comparison.type, mode, true, top);
+        code.place(target.breaks);
+    }
+
+    /** {@code slot += value}, where {@code push} leaves the value, of kind {@code kind}, on the stack */
+    private void add(int slot, int kind, Runnable push) {
+        int sum = SlotKinds.binaryKind(Token.TokenType.PLUS, kinds[slot], kind);
+        load(slot);
+        convert(kinds[slot], sum);
+        push.run();
+        convert(kind, sum);
+        arithmetic(Token.TokenType.PLUS, sum);
+        convert(sum, kinds[slot]);
+        store(slot);
+    }
+
+    /**
+     * An int subject with int cases selects by lookupswitch; any other
+     * switch tests the cases in order, like the interpreter.
+     */
+    private void switchStatement(Stmt.SwitchStmt stmt) throws YsharpError {
+        line = stmt.keyword.line;
+        Target target = new Target(false, new Label(), null);
+        Label otherwise = new Label();
+        Map<Stmt.BlockStmt, Label> bodies = new IdentityHashMap<>();
+        for (Stmt.SwitchStmt.Case c : stmt.cases) bodies.put(c.body, new Label());
+
+        SwitchTable table = SwitchTable.of(stmt);
+        SortedMap<Integer, Stmt.BlockStmt> intCases = table.intCases();
+        if (kindOf(stmt.subject) == INT && !intCases.isEmpty()) {
+            compile(stmt.subject);
+            int[] keys = new int[intCases.size()];
+            Label[] labels = new Label[keys.length];
+            int i = 0;
+            for (Map.Entry<Integer, Stmt.BlockStmt> entry : intCases.entrySet()) {
+                keys[i] = entry.getKey();
+                labels[i++] = bodies.get(entry.getValue());
+            }
+            code.lookupSwitch(keys, labels, otherwise);
+        } else {
+            int subject = temp(OBJ);
+            compileAs(stmt.subject, OBJ);
+            code.local(ASTORE, subject);
+            for (Stmt.SwitchStmt.Case c : stmt.cases) {
+                code.local(ALOAD, subject);
+                compileAs(c.value, OBJ);
+                code.invoke(INVOKESTATIC, OPERATORS, "isEqual", "(" + O + O + ")Z");
+                code.jump(IFNE, bodies.get(c.body));
+            }
+            code.jump(GOTO, otherwise);
+        }
+
+        targets.push(target);
+        for (Stmt.SwitchStmt.Case c : stmt.cases) {
+            code.place(bodies.get(c.body));
+            statement(c.body);
+            code.jump(GOTO, target.breaks);
+        }
+        code.place(otherwise);
+        if (stmt.defaultBlock != null) statement(stmt.defaultBlock);
+        targets.pop();
+        code.place(target.breaks);
+    }
+}
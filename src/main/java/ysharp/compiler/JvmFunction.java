@@ -0,0 +1,49 @@
+package ysharp.compiler;
+
+import ysharp.YsharpError;
+
+import java.io.PrintStream;
+
+/**
+ * A Y# function compiled to JVM bytecode by {@link JvmCompiler}. Each one
+ * is an instance of its own hidden class, unloaded once nothing refers to
+ * it any more.
+ *
+ * <p>Compiled code reaches the rest of the runtime through a {@link Host}:
+ * the globals, the output, calls to values it cannot call directly and
+ * property reads. A tail call it cannot turn into a jump is handed back
+ * unfinished: the host records it and the function returns
+ * {@link #TAIL_CALL}, for the caller's trampoline to complete.
+ */
+public abstract class JvmFunction {
+
+    /** returned in place of a value when the host holds a pending tail call */
+    public static final Object TAIL_CALL = new Object();
+
+    public interface Host {
+
+        /** the global slots, shared with the interpreter */
+        Object[] globals();
+
+        PrintStream out();
+
+        Object call(Object callee, Object[] arguments, int line) throws YsharpError;
+
+        /** records a tail call for the trampoline and returns {@link #TAIL_CALL} */
+        Object tail(Object callee, Object[] arguments, int line);
+
+        /** completes the tail call recorded last, for a caller that is no trampoline */
+        Object finish() throws YsharpError;
+
+        Object get(Object object, String name, int line) throws YsharpError;
+    }
+
+    protected JvmFunction() {}
+
+    /**
+     * Runs the function on {@code arguments}, already checked against its
+     * arity; {@code self} is the value calls to the function itself are
+     * recognized by.
+     */
+    public abstract Object call(Host host, Object self, Object[] arguments) throws YsharpError;
+}
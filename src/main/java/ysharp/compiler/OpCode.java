@@ -0,0 +1,61 @@
+package ysharp.compiler;
+
+/**
+ * Instruction set of the expression stack machine. Operands follow the
+ * opcode byte: u16 values are big-endian.
+ */
+public final class OpCode {
+
+    private OpCode() {}
+
+    public static final byte CONSTANT          = 0;  // u16 constant      -> value
+    public static final byte NULL              = 1;
+    public static final byte TRUE              = 2;
+    public static final byte FALSE             = 3;
+    public static final byte POP               = 4;
+    public static final byte DUP               = 5;
+    public static final byte GET_GLOBAL        = 6;  // u16 name
+    public static final byte SET_GLOBAL        = 7;  // u16 name, leaves value
+    public static final byte GET_PROPERTY      = 8;  // u16 name
+    public static final byte BINARY            = 9;  // u8 TokenType ordinal
+    public static final byte ADD               = 10;
+    public static final byte SUBTRACT          = 11;
+    public static final byte MULTIPLY          = 12;
+    public static final byte DIVIDE            = 13;
+    public static final byte LESS              = 14;
+    public static final byte GREATER           = 15;
+    public static final byte EQUAL             = 16;
+    public static final byte NOT_EQUAL         = 17;
+    public static final byte UNARY             = 18; // u8 TokenType ordinal
+    public static final byte INCREMENT         = 19; // s8 delta
+    public static final byte JUMP              = 20; // u16 forward offset
+    public static final byte JUMP_IF_FALSE     = 21; // u16, keeps condition
+    public static final byte JUMP_IF_TRUE      = 22; // u16, keeps condition
+    public static final byte POP_JUMP_IF_FALSE = 23; // u16
+    public static final byte CHECK_BOOL        = 24;
+    public static final byte CALL              = 25; // u8 argument count
+    public static final byte ARRAY             = 26; // u16 element count
+    public static final byte MAP               = 27; // u16 entry count, key/value pairs
+    public static final byte RETURN            = 28;
+
+    static final String[] NAMES = {
+            "CONSTANT", "NULL", "TRUE", "FALSE", "POP", "DUP",
+            "GET_GLOBAL", "SET_GLOBAL", "GET_PROPERTY",
+            "BINARY", "ADD", "SUBTRACT", "MULTIPLY", "DIVIDE",
+            "LESS", "GREATER", "EQUAL", "NOT_EQUAL",
+            "UNARY", "INCREMENT",
+            "JUMP", "JUMP_IF_FALSE", "JUMP_IF_TRUE", "POP_JUMP_IF_FALSE", "CHECK_BOOL",
+            "CALL", "ARRAY", "MAP", "RETURN",
+    };
+
+    /** bytes of operands following the opcode */
+    static int operandWidth(byte op) {
+        return switch (op) {
+            case CONSTANT, GET_GLOBAL, SET_GLOBAL, GET_PROPERTY,
+                 JUMP, JUMP_IF_FALSE, JUMP_IF_TRUE, POP_JUMP_IF_FALSE,
+                 ARRAY, MAP -> 2;
+            case BINARY, UNARY, INCREMENT, CALL -> 1;
+            default -> 0;
+        };
+    }
+}
@@ -0,0 +1,104 @@
+package ysharp.compiler;
+
+import ysharp.lexer.Token;
+import ysharp.runtime.Operators;
+
+/**
+ * One compiled function of a {@link RegisterProgram}: its instruction
+ * words, the source line of every word, the register count of each bank
+ * and its exception handlers.
+ *
+ * <p>A handler covers the code in [start, end) and, when an error reaches
+ * it, stores the error's message (a catch) or the error itself (the path
+ * that runs a finally block and rethrows) in an object register before
+ * jumping to its target. The innermost covering handler wins.
+ */
+public final class RegisterChunk {
+
+    static final int START = 0, END = 1, TARGET = 2, REGISTER = 3, RETHROWS = 4, DEPTH = 5;
+    static final int HANDLER_SIZE = 6;
+
+    final String name;
+    final int arity;
+    final int[] code;
+    final int[] lines;
+    final int entry;        // past the loads of the literal registers, where a self tail call starts
+    final int[] handlers;  // HANDLER_SIZE ints each
+    final int objects;
+    final int ints;
+    final int doubles;
+
+    RegisterChunk(String name, int arity, int[] code, int[] lines, int entry, int[] handlers,
+                  int objects, int ints, int doubles) {
+        this.name = name;
+        this.arity = arity;
+        this.code = code;
+        this.lines = lines;
+        this.entry = entry;
+        this.handlers = handlers;
+        this.objects = objects;
+        this.ints = ints;
+        this.doubles = doubles;
+    }
+
+    public String name() { return name; }
+    public int size()    { return code.length; }
+
+    /** the innermost handler covering {@code pc}, as an offset into {@link #handlers}, or -1 */
+    int handler(int pc) {
+        int found = -1;
+        for (int h = 0; h < handlers.length; h += HANDLER_SIZE) {
+            if (pc >= handlers[h + START] && pc < handlers[h + END]
+                    && (found < 0 || handlers[h + DEPTH] > handlers[found + DEPTH])) {
+                found = h;
+            }
+        }
+        return found;
+    }
+
+    String disassemble(Object[] constants, RegisterChunk[] functions) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(name).append(" (").append(arity).append(" params, ")
+                .append(objects).append("o ").append(ints).append("i ").append(doubles).append("d)\n");
+
+        int pc = 0;
+        while (pc < code.length) {
+            int word = code[pc];
+            int op = word & 0xff;
+            String format = RegisterOp.FORMATS[op];
+            sb.append(String.format("%04d %4d %s", pc, lines[pc], RegisterOp.NAMES[op]));
+            operand(sb, format.charAt(0), (word >>> 8) & 0xff, constants, functions);
+            operand(sb, format.charAt(1), (word >>> 16) & 0xff, constants, functions);
+            operand(sb, format.charAt(2), format.charAt(2) == 'n' ? word >> 24 : word >>> 24, constants, functions);
+            if (format.charAt(3) != '-') operand(sb, format.charAt(3), code[pc + 1], constants, functions);
+            sb.append('\n');
+            pc += RegisterOp.width(op);
+        }
+
+        for (int h = 0; h < handlers.length; h += HANDLER_SIZE) {
+            sb.append(String.format("     [%04d, %04d) -> %04d %s o%d\n",
+                    handlers[h + START], handlers[h + END], handlers[h + TARGET],
+                    handlers[h + RETHROWS] != 0 ? "finally" : "catch", handlers[h + REGISTER]));
+        }
+        return sb.toString();
+    }
+
+    private static void operand(StringBuilder sb, char kind, int value, Object[] constants, RegisterChunk[] functions) {
+        switch (kind) {
+            case 'o', 'i', 'd' -> sb.append(' ').append(kind).append(value);
+            case 'n' -> sb.append(' ').append(value);
+            case 'g' -> sb.append(" g").append(value);
+            case 'j' -> sb.append(" -> ").append(String.format("%04d", value));
+            case 'f' -> sb.append(' ').append(functions[value].name);
+            case 't' -> sb.append(' ').append(Token.TokenType.values()[value]);
+            case 'c' -> sb.append(' ').append(RegisterOp.CONTEXTS[value]);
+            case 'k' -> {
+                Object constant = constants[value];
+                sb.append(' ').append(constant instanceof String s ? '"' + s + '"'
+                        : constant instanceof String[] || constant instanceof RegisterProgram.Dispatch
+                        ? "#" + value : Operators.stringify(constant));
+            }
+            default -> { }
+        }
+    }
+}
@@ -0,0 +1,1294 @@
+package ysharp.compiler;
+
+import ysharp.YsharpError;
+import ysharp.analysis.Resolution;
+import ysharp.analysis.Resolver;
+import ysharp.interpreter.Interpreter;
+import ysharp.interpreter.SwitchTable;
+import ysharp.lexer.Token;
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+import ysharp.runtime.Operators;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiles a resolved program to register bytecode for {@link RegisterVM}:
+ * the top level and every function become a {@link RegisterChunk}, with
+ * one constant pool for all of them.
+ *
+ * <p>Each frame slot gets a register of its own, in the bank its static
+ * kind picks. A slot is int, double or bool only when every value stored
+ * into it is provably that kind; kinds are inferred per function from
+ * literals and operators alone, starting optimistic and widening to object
+ * until nothing changes, so declared types play no part. Arithmetic,
+ * comparisons and conditions over such registers compile to typed
+ * instructions that never box; everything else goes through
+ * {@link Operators} on object registers. Int and double literals get
+ * registers too, loaded once on entry. Globals the functions use live in a
+ * separate array, the rest of the top level in registers.
+ *
+ * <p>Calls to a top-level function that is never reassigned go straight
+ * to its chunk; tail calls reuse the caller's registers. A finally block is
+ * compiled once for each way out of its try statement: falling off the
+ * end, each break, continue and return that leaves it, and the error path,
+ * which rethrows afterwards.
+ *
+ * <p>Classes, functions declared inside functions (and so closures),
+ * property assignments and references a hash-consed tree shares between
+ * differently resolved names are not supported; compiling them is a
+ * semantic error. Such programs run in the tree interpreter instead:
+ * {@link RegisterVM#run(List)} falls back to it when compilation fails.
+ */
+public final class RegisterCompiler {
+
+    private static final int NONE = SlotKinds.NONE, OBJ = SlotKinds.OBJ, INT = SlotKinds.INT,
+            DOUBLE = SlotKinds.DOUBLE, BOOL = SlotKinds.BOOL;
+
+    private static final int REGISTERS = 256;
+    private static final int CONSTANT_REGISTERS = 32;  // per bank
+    private static final Token.TokenType[] TOKEN_TYPES = Token.TokenType.values();
+
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+    private final List<Stmt.FunctionStmt> functions = new ArrayList<>();  // chunk i + 1
+    private final Map<Stmt.FunctionStmt, Integer> functionIndex = new IdentityHashMap<>();
+
+    // global slots: those a function body touches (function slots included), how
+    // often each is declared, which are assigned, and which hold one known function
+    private final Set<Integer> shared = new HashSet<>();
+    private final Map<Integer, Integer> declarations = new HashMap<>();
+    private final Set<Integer> assigned = new HashSet<>();
+    private final Map<Integer, Stmt.FunctionStmt> direct = new HashMap<>();
+
+    private final Resolution resolution;
+
+    private RegisterCompiler(Resolution resolution) {
+        this.resolution = resolution;
+    }
+
+    /** resolves and compiles {@code program}; a program that does not resolve throws its first error */
+    public static RegisterProgram compile(List<Stmt> program) throws YsharpError {
+        Resolver resolver = new Resolver();
+        List<YsharpError> errors = resolver.resolve(program);
+        if (!errors.isEmpty()) throw errors.get(0);
+
+        RegisterCompiler compiler = new RegisterCompiler(resolver.resolution());
+        for (Stmt stmt : program) compiler.scan(stmt, null);
+        for (Stmt stmt : program) {
+            if (stmt instanceof Stmt.FunctionStmt function
+                    && compiler.declarations.get(function.slot) == 1 && !compiler.assigned.contains(function.slot)) {
+                compiler.direct.put(function.slot, function);
+            }
+        }
+
+        RegisterChunk[] chunks = new RegisterChunk[compiler.functions.size() + 1];
+        chunks[0] = compiler.new FunctionCompiler(null, program, resolver.globalCount()).compile();
+        for (int i = 0; i < compiler.functions.size(); i++) {
+            Stmt.FunctionStmt function = compiler.functions.get(i);
+            chunks[i + 1] = compiler.new FunctionCompiler(function, function.body().statements,
+                    function.frameSize).compile();
+        }
+        return new RegisterProgram(chunks, compiler.constants.toArray(), resolver.globalCount());
+    }
+
+    // what the program uses
+
+    private void scan(Stmt stmt, Stmt.FunctionStmt inside) throws YsharpError {
+        if (stmt == null) return;
+        switch (stmt) {
+            case Stmt.ExpressionStmt s -> scan(s.expression, inside);
+            case Stmt.VarStmt s -> {
+                declare(s.slot, inside);
+                scan(s.initializer, inside);
+            }
+            case Stmt.ConstStmt s -> {
+                declare(s.slot, inside);
+                scan(s.initializer, inside);
+            }
+            case Stmt.FunctionStmt s -> {
+                if (inside != null) throw unsupported("Functions declared inside functions", s.name.line);
+                declare(s.slot, null);
+                shared.add(s.slot);
+                functionIndex.put(s, functions.size() + 1);
+                functions.add(s);
+                for (Stmt member : s.body().statements) scan(member, s);
+            }
+            case Stmt.ClassStmt s -> throw unsupported("Classes", s.name.line);
+            case Stmt.BlockStmt s -> {
+                for (Stmt member : s.statements) scan(member, inside);
+            }
+            case Stmt.IfStmt s -> {
+                scan(s.condition, inside);
+                scan(s.thenBranch, inside);
+                scan(s.elseBranch, inside);
+            }
+            case Stmt.WhileStmt s -> {
+                scan(s.condition, inside);
+                scan(s.body, inside);
+            }
+            case Stmt.ForStmt s -> {
+                scan(s.initializer, inside);
+                scan(s.condition, inside);
+                scan(s.increment, inside);
+                scan(s.body, inside);
+            }
+            case Stmt.CountedForStmt s -> {
+                declare(s.slot, inside);
+                scan(s.start, inside);
+                scan(s.limit, inside);
+                for (Stmt.CountedForStmt.Derived derived : s.derived) {
+                    declare(derived.slot, inside);
+                    scan(derived.factor, inside);
+                }
+                scan(s.body, inside);
+            }
+            case Stmt.TryStmt s -> {
+                declare(s.catchSlot, inside);
+                scan(s.body, inside);
+                scan(s.catchBlock, inside);
+                scan(s.finallyBlock, inside);
+            }
+            case Stmt.SwitchStmt s -> {
+                scan(s.subject, inside);
+                for (Stmt.SwitchStmt.Case c : s.cases) {
+                    scan(c.value, inside);
+                    scan(c.body, inside);
+                }
+                scan(s.defaultBlock, inside);
+            }
+            case Stmt.PrintStmt s -> scan(s.expression, inside);
+            case Stmt.ReturnStmt s -> scan(s.value, inside);
+            default -> { }  // break, continue, use
+        }
+    }
+
+    private void scan(Expr expr, Stmt.FunctionStmt inside) throws YsharpError {
+        if (expr == null) return;
+        switch (expr) {
+            case Expr.VariableExpr e -> {
+                Resolution.Access access = access(e);
+                if (inside != null && access.depth() > 0) shared.add(access.slot());
+            }
+            case Expr.GroupingExpr e -> scan(e.expression, inside);
+            case Expr.BinaryExpr e -> {
+                scan(e.left, inside);
+                scan(e.right, inside);
+            }
+            case Expr.LogicalExpr e -> {
+                scan(e.left, inside);
+                scan(e.right, inside);
+            }
+            case Expr.UnaryExpr e -> {
+                if (SlotKinds.isIncrement(e.op)) store(e.expr, inside);
+                scan(e.expr, inside);
+            }
+            case Expr.PostfixExpr e -> {
+                store(e.operand, inside);
+                scan(e.operand, inside);
+            }
+            case Expr.AssignmentExpr e -> {
+                store(e.target, inside);
+                scan(e.target, inside);
+                scan(e.value, inside);
+            }
+            case Expr.TernaryExpr e -> {
+                scan(e.condition, inside);
+                scan(e.thenBranch, inside);
+                scan(e.elseBranch, inside);
+            }
+            case Expr.GetExpr e -> scan(e.object, inside);
+            case Expr.SetExpr e -> throw unsupported("Property assignments", e.name.line);
+            case Expr.CallExpr e -> {
+                scan(e.callee, inside);
+                for (Expr argument : e.arguments) scan(argument, inside);
+            }
+            case Expr.ArrayInitializerExpr e -> {
+                for (Expr element : e.elements) scan(element, inside);
+            }
+            case Expr.MapInitializerExpr e -> {
+                for (Expr.MapInitializerExpr.Entry entry : e.entries) scan(entry.value, inside);
+            }
+            default -> { }  // literals
+        }
+    }
+
+    private void declare(int slot, Stmt.FunctionStmt inside) {
+        if (inside == null) declarations.merge(slot, 1, Integer::sum);
+    }
+
+    private void store(Expr target, Stmt.FunctionStmt inside) throws YsharpError {
+        Expr.VariableExpr variable = SlotKinds.variable(target);
+        if (variable == null) return;
+        Resolution.Access access = access(variable);
+        if (inside == null || access.depth() > 0) assigned.add(access.slot());
+    }
+
+    /** the access all occurrences of {@code variable} share; compiled code has one register for it */
+    private Resolution.Access access(Expr.VariableExpr variable) throws YsharpError {
+        Resolution.Access access = resolution.of(variable);
+        if (access == null) throw unsupported("Names shared by differently resolved references", variable.name.line);
+        return access;
+    }
+
+    private static YsharpError unsupported(String what, int line) {
+        return new YsharpError(YsharpError.YsharpErrorType.SEMANTIC, line,
+                what + " are not supported by the register VM.");
+    }
+
+    // shared helpers
+
+    private int constant(Object value) {
+        Integer index = constantIndex.get(value);
+        if (index != null) return index;
+        constants.add(value);
+        constantIndex.put(value, constants.size() - 1);
+        return constants.size() - 1;
+    }
+
+    /** a constant compared by identity: switch dispatch and map key lists */
+    private int unique(Object value) {
+        constants.add(value);
+        return constants.size() - 1;
+    }
+
+    /** whether evaluating {@code expr} can store into a variable */
+    private static boolean stores(Expr expr) {
+        if (expr == null) return false;
+        return switch (expr) {
+            case Expr.AssignmentExpr ignored -> true;
+            case Expr.PostfixExpr ignored -> true;
+            case Expr.UnaryExpr e -> SlotKinds.isIncrement(e.op) || stores(e.expr);
+            case Expr.GroupingExpr e -> stores(e.expression);
+            case Expr.BinaryExpr e -> stores(e.left) || stores(e.right);
+            case Expr.LogicalExpr e -> stores(e.left) || stores(e.right);
+            case Expr.TernaryExpr e -> stores(e.condition) || stores(e.thenBranch) || stores(e.elseBranch);
+            case Expr.GetExpr e -> stores(e.object);
+            case Expr.CallExpr e -> stores(e.callee) || e.arguments.stream().anyMatch(RegisterCompiler::stores);
+            case Expr.ArrayInitializerExpr e -> e.elements.stream().anyMatch(RegisterCompiler::stores);
+            case Expr.MapInitializerExpr e -> e.entries.stream().anyMatch(entry -> stores(entry.value));
+            default -> false;
+        };
+    }
+
+    /** register bank of a kind: objects, ints and bools, doubles */
+    private static int bank(int kind) {
+        return switch (kind) {
+            case INT, BOOL -> 1;
+            case DOUBLE -> 2;
+            default -> 0;
+        };
+    }
+
+    private static int move(int kind) {
+        return switch (bank(kind)) {
+            case 1 -> RegisterOp.MOVE_I;
+            case 2 -> RegisterOp.MOVE_D;
+            default -> RegisterOp.MOVE_O;
+        };
+    }
+
+    private static int intOp(Token.TokenType op) {
+        return switch (op) {
+            case PLUS -> RegisterOp.ADD_I;
+            case MINUS -> RegisterOp.SUB_I;
+            case MULTIPLY -> RegisterOp.MUL_I;
+            case DIVIDE -> RegisterOp.DIV_I;
+            case MODULO -> RegisterOp.MOD_I;
+            case LEFT_SHIFT -> RegisterOp.SHL_I;
+            case RIGHT_SHIFT -> RegisterOp.SHR_I;
+            case BITWISE_AND -> RegisterOp.AND_I;
+            case BITWISE_OR -> RegisterOp.OR_I;
+            case BITWISE_XOR -> RegisterOp.XOR_I;
+            case EQUAL_EQUAL -> RegisterOp.EQ_I;
+            case BANG_EQUAL -> RegisterOp.NE_I;
+            case LESS_THAN -> RegisterOp.LT_I;
+            case LESS_OR_EQUAL -> RegisterOp.LE_I;
+            case GREATER_THAN -> RegisterOp.GT_I;
+            case GREATER_OR_EQUAL -> RegisterOp.GE_I;
+            default -> throw new IllegalStateException("[Programmatic error] no int instruction for " + op);
+        };
+    }
+
+    private static int doubleOp(Token.TokenType op) {
+        return switch (op) {
+            case PLUS -> RegisterOp.ADD_D;
+            case MINUS -> RegisterOp.SUB_D;
+            case MULTIPLY -> RegisterOp.MUL_D;
+            case DIVIDE -> RegisterOp.DIV_D;
+            case MODULO -> RegisterOp.MOD_D;
+            case EQUAL_EQUAL -> RegisterOp.EQ_D;
+            case BANG_EQUAL -> RegisterOp.NE_D;
+            case LESS_THAN -> RegisterOp.LT_D;
+            case LESS_OR_EQUAL -> RegisterOp.LE_D;
+            case GREATER_THAN -> RegisterOp.GT_D;
+            case GREATER_OR_EQUAL -> RegisterOp.GE_D;
+            default -> throw new IllegalStateException("[Programmatic error] no double instruction for " + op);
+        };
+    }
+
+    /** the fused int compare-and-branch that jumps when {@code op} does not hold, or when it does */
+    private static int jumpUnless(Token.TokenType op, boolean negate) {
+        return switch (op) {
+            case EQUAL_EQUAL -> negate ? RegisterOp.JUMP_UNLESS_NE : RegisterOp.JUMP_UNLESS_EQ;
+            case BANG_EQUAL -> negate ? RegisterOp.JUMP_UNLESS_EQ : RegisterOp.JUMP_UNLESS_NE;
+            case LESS_THAN -> negate ? RegisterOp.JUMP_UNLESS_GE : RegisterOp.JUMP_UNLESS_LT;
+            case LESS_OR_EQUAL -> negate ? RegisterOp.JUMP_UNLESS_GT : RegisterOp.JUMP_UNLESS_LE;
+            case GREATER_THAN -> negate ? RegisterOp.JUMP_UNLESS_LE : RegisterOp.JUMP_UNLESS_GT;
+            case GREATER_OR_EQUAL -> negate ? RegisterOp.JUMP_UNLESS_LT : RegisterOp.JUMP_UNLESS_GE;
+            default -> throw new IllegalStateException("[Programmatic error] not a comparison: " + op);
+        };
+    }
+
+    /** code range an exception handler covers, closed while a way out runs the finally block */
+    private static final class Region {
+        final int register;
+        final boolean rethrows;
+        final int depth;
+        final List<int[]> entries = new ArrayList<>();
+        int openedAt = -1;
+
+        Region(int register, boolean rethrows, int depth) {
+            this.register = register;
+            this.rethrows = rethrows;
+            this.depth = depth;
+        }
+    }
+
+    private static final class Try {
+        final Stmt.TryStmt stmt;
+        final Region catches;
+        final Region finallies;  // null without finally
+
+        Try(Stmt.TryStmt stmt, Region catches, Region finallies) {
+            this.stmt = stmt;
+            this.catches = catches;
+            this.finallies = finallies;
+        }
+    }
+
+    /** what break and continue jump out of: a loop, or a switch (no continues) */
+    private static final class Target {
+        final boolean loop;
+        final int tries;
+        final List<Integer> breaks = new ArrayList<>();
+        final List<Integer> continues = new ArrayList<>();
+
+        Target(boolean loop, int tries) {
+            this.loop = loop;
+            this.tries = tries;
+        }
+    }
+
+    private final class FunctionCompiler {
+
+        final Stmt.FunctionStmt function;  // null for the top level
+        final List<Stmt> statements;
+        final SlotKinds slots;
+        final int[] kinds;
+        final int[] registers;  // -1 for a global
+
+        // int and double literals, each loaded once on entry into a register of its own
+        final Map<Integer, Integer> intLiterals = new LinkedHashMap<>();
+        final Map<Double, Integer> doubleLiterals = new LinkedHashMap<>();
+        int entry;
+
+        int[] code = new int[64];
+        int[] lines = new int[64];
+        int size = 0;
+        int line = 0;
+
+        final int[] locals = new int[3];  // per bank: registers that hold variables
+        final int[] temps = new int[3];   // per bank: the next free temporary
+        final int[] max = new int[3];
+
+        final List<Region> regions = new ArrayList<>();
+        final List<Try> tries = new ArrayList<>();
+        final Deque<Target> targets = new ArrayDeque<>();
+
+        FunctionCompiler(Stmt.FunctionStmt function, List<Stmt> statements, int frameSize) throws YsharpError {
+            this.function = function;
+            this.statements = statements;
+            slots = new SlotKinds(function, statements, frameSize, resolution,
+                    function == null ? shared::contains : slot -> false);
+            kinds = slots.kinds;
+            registers = new int[frameSize];
+            for (int slot = 0; slot < frameSize; slot++) {
+                registers[slot] = isGlobal(slot) ? -1 : locals[bank(kinds[slot])]++;
+            }
+            for (int value : slots.ints) {
+                if (intLiterals.size() < CONSTANT_REGISTERS) intLiterals.put(value, locals[1]++);
+            }
+            for (double value : slots.doubles) {
+                if (doubleLiterals.size() < CONSTANT_REGISTERS) doubleLiterals.put(value, locals[2]++);
+            }
+            System.arraycopy(locals, 0, temps, 0, 3);
+            System.arraycopy(locals, 0, max, 0, 3);
+        }
+
+        boolean isGlobal(int slot) {
+            return slots.isGlobal(slot);
+        }
+
+        boolean isLocal(Expr.VariableExpr variable) {
+            return slots.isLocal(variable);
+        }
+
+        int kindOf(Expr expr) {
+            return slots.kindOf(expr);
+        }
+
+        RegisterChunk compile() throws YsharpError {
+            intLiterals.forEach((value, register) -> emit(RegisterOp.LOAD_I, register, 0, 0, value));
+            doubleLiterals.forEach((value, register) -> emit(RegisterOp.LOAD_D, register, 0, 0, constant(value)));
+            entry = size;
+            block(statements);
+            emit(RegisterOp.RETURN_NULL, 0, 0, 0);
+
+            String name = function == null ? "<script>" : function.name.lexeme;
+            for (int b = 0; b < 3; b++) {
+                if (max[b] > REGISTERS) {
+                    throw new YsharpError(YsharpError.YsharpErrorType.SEMANTIC,
+                            function == null ? 0 : function.name.line,
+                            "'" + name + "' needs more than " + REGISTERS + " registers of a kind.");
+                }
+            }
+
+            List<int[]> entries = new ArrayList<>();
+            for (Region region : regions) entries.addAll(region.entries);
+            int[] handlers = new int[entries.size() * RegisterChunk.HANDLER_SIZE];
+            for (int i = 0; i < entries.size(); i++) {
+                System.arraycopy(entries.get(i), 0, handlers, i * RegisterChunk.HANDLER_SIZE,
+                        RegisterChunk.HANDLER_SIZE);
+            }
+            return new RegisterChunk(name, function == null ? 0 : function.params.size(),
+                    Arrays.copyOf(code, size), Arrays.copyOf(lines, size), entry, handlers, max[0], max[1], max[2]);
+        }
+
+        // emitting
+
+        int emit(int op, int a, int b, int c) {
+            ensure(1);
+            lines[size] = line;
+            code[size++] = RegisterOp.encode(op, a, b, c);
+            return size - 1;
+        }
+
+        /** an instruction with a W word; returns the W word's offset */
+        int emit(int op, int a, int b, int c, int w) {
+            emit(op, a, b, c);
+            ensure(1);
+            lines[size] = line;
+            code[size++] = w;
+            return size - 1;
+        }
+
+        void ensure(int words) {
+            if (size + words > code.length) {
+                code = Arrays.copyOf(code, code.length * 2);
+                lines = Arrays.copyOf(lines, lines.length * 2);
+            }
+        }
+
+        int jump() {
+            return emit(RegisterOp.JUMP, 0, 0, 0, -1);
+        }
+
+        void patch(List<Integer> jumps, int target) {
+            for (int at : jumps) code[at] = target;
+        }
+
+        void patch(int jump, int target) {
+            code[jump] = target;
+        }
+
+        // registers
+
+        int temp(int kind) {
+            int b = bank(kind);
+            int register = temps[b]++;
+            if (temps[b] > max[b]) max[b] = temps[b];
+            return register;
+        }
+
+        /** {@code count} consecutive object temporaries; returns the first */
+        int temps(int count, int line) throws YsharpError {
+            if (count >= REGISTERS) {
+                throw new YsharpError(YsharpError.YsharpErrorType.SEMANTIC, line,
+                        "Too many values in one call or literal for the register VM.");
+            }
+            int first = temps[0];
+            temps[0] += count;
+            if (temps[0] > max[0]) max[0] = temps[0];
+            return first;
+        }
+
+        int[] mark() {
+            return temps.clone();
+        }
+
+        void release(int[] mark) {
+            System.arraycopy(mark, 0, temps, 0, 3);
+        }
+
+        int target(int dest, int kind) {
+            return dest >= 0 ? dest : temp(kind);
+        }
+
+        boolean isVariable(int register, int kind) {
+            return register < locals[bank(kind)];
+        }
+
+        int copy(int register, int kind) {
+            int copy = temp(kind);
+            emit(move(kind), copy, register, 0);
+            return copy;
+        }
+
+        int moveTo(int register, int dest, int kind) {
+            if (dest < 0 || dest == register) return register;
+            emit(move(kind), dest, register, 0);
+            return dest;
+        }
+
+        int box(int kind, int register) {
+            if (kind == OBJ) return register;
+            int boxed = temp(OBJ);
+            emit(kind == INT ? RegisterOp.BOX_I : kind == DOUBLE ? RegisterOp.BOX_D : RegisterOp.BOX_B,
+                    boxed, register, 0);
+            return boxed;
+        }
+
+        int toDouble(int kind, int register) {
+            if (kind == DOUBLE) return register;
+            int converted = temp(DOUBLE);
+            emit(RegisterOp.I2D, converted, register, 0);
+            return converted;
+        }
+
+        /** a value of {@code kind} in {@code register} moved to {@code dest}, a register of {@code as} */
+        void convert(int kind, int register, int as, int dest) {
+            if (kind == as) {
+                moveTo(register, dest, kind);
+            } else if (as == OBJ) {
+                emit(kind == INT ? RegisterOp.BOX_I : kind == DOUBLE ? RegisterOp.BOX_D : RegisterOp.BOX_B,
+                        dest, register, 0);
+            } else if (as == DOUBLE && kind == INT) {
+                emit(RegisterOp.I2D, dest, register, 0);
+            } else {
+                throw new IllegalStateException("[Programmatic error] cannot store kind " + kind + " as " + as);
+            }
+        }
+
+        /** the value of a slot, in its register or loaded from the globals */
+        int load(int slot) {
+            if (registers[slot] >= 0) return registers[slot];
+            int loaded = temp(OBJ);
+            emit(RegisterOp.GET_GLOBAL, loaded, 0, 0, slot);
+            return loaded;
+        }
+
+        void storeSlot(int slot, int kind, int register) {
+            if (registers[slot] >= 0) {
+                convert(kind, register, kinds[slot], registers[slot]);
+            } else {
+                emit(RegisterOp.SET_GLOBAL, box(kind, register), 0, 0, slot);
+            }
+        }
+
+        // expressions
+
+        /** evaluates {@code expr} into a register of its kind's bank: {@code dest} when given, else any */
+        int compile(Expr expr, int dest) throws YsharpError {
+            int saved = line;
+            line = Interpreter.line(expr);
+            int register = expression(expr, dest);
+            line = saved;
+            return register;
+        }
+
+        void compileTo(Expr expr, int kind, int dest) throws YsharpError {
+            int valueKind = kindOf(expr);
+            if (valueKind == kind) {
+                compile(expr, dest);
+            } else {
+                convert(valueKind, compile(expr, -1), kind, dest);
+            }
+        }
+
+        int toObject(Expr expr) throws YsharpError {
+            return box(kindOf(expr), compile(expr, -1));
+        }
+
+        /** a bool-kind register holding {@code expr}, checked like a condition of the given context */
+        int bool(Expr expr, int context, int dest) throws YsharpError {
+            int kind = kindOf(expr);
+            if (kind == BOOL) return compile(expr, dest);
+            int value = box(kind, compile(expr, -1));
+            int result = target(dest, BOOL);
+            emit(RegisterOp.TEST, result, value, context);
+            return result;
+        }
+
+        int expression(Expr expr, int dest) throws YsharpError {
+            int kind = kindOf(expr);
+            switch (expr) {
+                case Expr.LiteralExpr e -> {
+                    Integer loaded = switch (e.token.literal) {
+                        case Token.Literal.Int l -> intLiterals.get(l.value());
+                        case Token.Literal.Double l -> doubleLiterals.get(l.value());
+                        default -> null;
+                    };
+                    if (loaded != null) return moveTo(loaded, dest, kind);
+                    int result = target(dest, kind);
+                    switch (e.token.literal) {
+                        case Token.Literal.Int l -> emit(RegisterOp.LOAD_I, result, 0, 0, l.value());
+                        case Token.Literal.Double l -> emit(RegisterOp.LOAD_D, result, 0, 0, constant(l.value()));
+                        case Token.Literal.Bool l -> emit(RegisterOp.LOAD_I, result, 0, 0, l.value() ? 1 : 0);
+                        case Token.Literal.Null ignored -> emit(RegisterOp.LOAD_NULL, result, 0, 0);
+                        default -> emit(RegisterOp.LOAD_K, result, 0, 0,
+                                constant(Operators.literal(e.token.literal)));
+                    }
+                    return result;
+                }
+                case Expr.VariableExpr e -> {
+                    if (isLocal(e)) return moveTo(registers[slots.slot(e)], dest, kind);
+                    int result = target(dest, OBJ);
+                    emit(RegisterOp.GET_GLOBAL, result, 0, 0, slots.slot(e));
+                    return result;
+                }
+                case Expr.GroupingExpr e -> {
+                    return compile(e.expression, dest);
+                }
+                case Expr.BinaryExpr e -> {
+                    int leftKind = kindOf(e.left);
+                    int left = compile(e.left, -1);
+                    if (isVariable(left, leftKind) && stores(e.right)) left = copy(left, leftKind);
+                    int right = compile(e.right, -1);
+                    return operate(e.op.type, leftKind, left, kindOf(e.right), right, dest);
+                }
+                case Expr.LogicalExpr e -> {
+                    boolean and = e.op.type == Token.TokenType.LOGICAL_AND;
+                    int result = temp(BOOL);
+                    bool(e.left, and ? RegisterOp.AND_OPERAND : RegisterOp.OR_OPERAND, result);
+                    int skip = emit(and ? RegisterOp.JUMP_IF_FALSE : RegisterOp.JUMP_IF_TRUE, result, 0, 0, -1);
+                    bool(e.right, RegisterOp.LOGICAL_OPERAND, result);
+                    patch(skip, size);
+                    return moveTo(result, dest, BOOL);
+                }
+                case Expr.UnaryExpr e -> {
+                    return unary(e, kind, dest);
+                }
+                case Expr.PostfixExpr e -> {
+                    return increment(e.operand, e.op.type == Token.TokenType.PLUS_PLUS ? 1 : -1, false, dest);
+                }
+                case Expr.AssignmentExpr e -> {
+                    return assign(e, dest);
+                }
+                case Expr.TernaryExpr e -> {
+                    int result = target(dest, kind);
+                    List<Integer> otherwise = new ArrayList<>();
+                    jumpIfFalse(e.condition, RegisterOp.CONDITION, otherwise);
+                    compileTo(e.thenBranch, kind, result);
+                    int end = jump();
+                    patch(otherwise, size);
+                    compileTo(e.elseBranch, kind, result);
+                    patch(end, size);
+                    return result;
+                }
+                case Expr.GetExpr e -> {
+                    int object = toObject(e.object);
+                    int result = target(dest, OBJ);
+                    emit(RegisterOp.GET_PROPERTY, result, object, 0, constant(e.name.lexeme));
+                    return result;
+                }
+                case Expr.CallExpr e -> {
+                    return call(e, false, dest);
+                }
+                case Expr.ArrayInitializerExpr e -> {
+                    int first = temps(e.elements.size(), line);
+                    for (int i = 0; i < e.elements.size(); i++) compileTo(e.elements.get(i), OBJ, first + i);
+                    int result = target(dest, OBJ);
+                    emit(RegisterOp.ARRAY, result, first, 0, e.elements.size());
+                    return result;
+                }
+                case Expr.MapInitializerExpr e -> {
+                    String[] keys = new String[e.entries.size()];
+                    int first = temps(keys.length, line);
+                    for (int i = 0; i < keys.length; i++) {
+                        Expr.MapInitializerExpr.Entry entry = e.entries.get(i);
+                        keys[i] = (String) Operators.literal(entry.key.literal);
+                        compileTo(entry.value, OBJ, first + i);
+                    }
+                    int result = target(dest, OBJ);
+                    emit(RegisterOp.MAP, result, first, 0, unique(keys));
+                    return result;
+                }
+                default -> throw new IllegalStateException(
+                        "[Programmatic error] unknown expression " + expr.getClass().getSimpleName());
+            }
+        }
+
+        /** {@code op} on registers of the given kinds, typed when the kinds allow it */
+        int operate(Token.TokenType op, int leftKind, int left, int rightKind, int right, int dest) {
+            int kind = SlotKinds.binaryKind(op, leftKind, rightKind);
+            boolean bools = leftKind == BOOL && rightKind == BOOL && (!SlotKinds.isComparison(op)
+                    || op == Token.TokenType.EQUAL_EQUAL || op == Token.TokenType.BANG_EQUAL);
+            if (kind == INT || (kind == BOOL && bools)) {
+                int result = target(dest, kind);
+                emit(intOp(op), result, left, right);
+                return result;
+            }
+            if (kind == DOUBLE || (kind == BOOL && SlotKinds.isNumeric(leftKind) && SlotKinds.isNumeric(rightKind))) {
+                if (leftKind == INT && rightKind == INT) {
+                    int result = target(dest, kind);
+                    emit(intOp(op), result, left, right);
+                    return result;
+                }
+                left = toDouble(leftKind, left);
+                right = toDouble(rightKind, right);
+                int result = target(dest, kind);
+                emit(doubleOp(op), result, left, right);
+                return result;
+            }
+            left = box(leftKind, left);
+            right = box(rightKind, right);
+            int result = target(dest, kind);
+            emit(kind == BOOL ? RegisterOp.COMPARE : RegisterOp.BINARY, result, left, right, op.ordinal());
+            return result;
+        }
+
+        int unary(Expr.UnaryExpr expr, int kind, int dest) throws YsharpError {
+            Token.TokenType op = expr.op.type;
+            if (op == Token.TokenType.PLUS_PLUS || op == Token.TokenType.MINUS_MINUS) {
+                return increment(expr.expr, op == Token.TokenType.PLUS_PLUS ? 1 : -1, true, dest);
+            }
+            if (kind == OBJ) {
+                int operand = toObject(expr.expr);
+                int result = target(dest, OBJ);
+                emit(RegisterOp.UNARY, result, operand, op.ordinal());
+                return result;
+            }
+            if (op == Token.TokenType.PLUS) return compile(expr.expr, dest);
+
+            int operand = compile(expr.expr, -1);
+            int result = target(dest, kind);
+            emit(switch (op) {
+                case MINUS -> kind == INT ? RegisterOp.NEG_I : RegisterOp.NEG_D;
+                case BITWISE_NOT -> RegisterOp.INV_I;
+                default -> RegisterOp.NOT;
+            }, result, operand, 0);
+            return result;
+        }
+
+        int increment(Expr operand, int delta, boolean prefix, int dest) throws YsharpError {
+            Expr.VariableExpr variable = SlotKinds.variable(operand);
+            if (variable == null) return invalidTarget(dest);
+
+            if (!isLocal(variable)) {
+                int old = temp(OBJ);
+                emit(RegisterOp.GET_GLOBAL, old, 0, 0, slots.slot(variable));
+                int value = temp(OBJ);
+                emit(RegisterOp.INCREMENT, value, old, delta);
+                emit(RegisterOp.SET_GLOBAL, value, 0, 0, slots.slot(variable));
+                return moveTo(prefix ? value : old, dest, OBJ);
+            }
+
+            int register = registers[slots.slot(variable)];
+            int kind = kinds[slots.slot(variable)];
+            int old = -1;
+            if (!prefix) old = copy(register, kind);
+            switch (kind) {
+                case INT -> emit(RegisterOp.ADDI_I, register, register, delta);
+                case DOUBLE -> {
+                    int step = temp(DOUBLE);
+                    emit(RegisterOp.LOAD_D, step, 0, 0, constant((double) delta));
+                    emit(RegisterOp.ADD_D, register, register, step);
+                }
+                default -> emit(RegisterOp.INCREMENT, register, register, delta);
+            }
+            return moveTo(prefix ? register : old, dest, kind);
+        }
+
+        int invalidTarget(int dest) {
+            emit(RegisterOp.FAIL, 0, 0, 0, constant("Invalid assignment target."));
+            return target(dest, OBJ);
+        }
+
+        int assign(Expr.AssignmentExpr expr, int dest) throws YsharpError {
+            Expr.VariableExpr variable = SlotKinds.variable(expr.target);
+            if (variable == null) return invalidTarget(dest);
+            Token.TokenType op = Operators.compoundOperator(expr.op.type);
+
+            if (!isLocal(variable)) {
+                int value;
+                if (op == null) {
+                    value = toObject(expr.value);
+                } else {
+                    int old = temp(OBJ);
+                    emit(RegisterOp.GET_GLOBAL, old, 0, 0, slots.slot(variable));
+                    int right = compile(expr.value, -1);
+                    value = operate(op, OBJ, old, kindOf(expr.value), right, -1);
+                }
+                emit(RegisterOp.SET_GLOBAL, value, 0, 0, slots.slot(variable));
+                return moveTo(value, dest, OBJ);
+            }
+
+            int register = registers[slots.slot(variable)];
+            int kind = kinds[slots.slot(variable)];
+            if (op == null) {
+                compileTo(expr.value, kind, register);
+            } else {
+                int left = stores(expr.value) ? copy(register, kind) : register;
+                int right = compile(expr.value, -1);
+                operate(op, kind, left, kindOf(expr.value), right, register);
+            }
+            return moveTo(register, dest, kind);
+        }
+
+        int call(Expr.CallExpr expr, boolean tail, int dest) throws YsharpError {
+            int count = expr.arguments.size();
+            if (count > Byte.MAX_VALUE) {
+                throw new YsharpError(YsharpError.YsharpErrorType.SEMANTIC, line,
+                        "Too many arguments in one call for the register VM.");
+            }
+            Expr.VariableExpr callee = SlotKinds.variable(expr.callee);
+            Stmt.FunctionStmt known = callee != null && !isLocal(callee) ? direct.get(slots.slot(callee)) : null;
+
+            if (known != null && known.params.size() == count) {
+                int first = temps(count, line);
+                for (int i = 0; i < count; i++) compileTo(expr.arguments.get(i), OBJ, first + i);
+                if (tail) {
+                    emit(RegisterOp.TAIL_CALL, 0, first, count, functionIndex.get(known));
+                    return -1;
+                }
+                int result = target(dest, OBJ);
+                emit(RegisterOp.CALL, result, first, count, functionIndex.get(known));
+                return result;
+            }
+
+            int first = temps(count + 1, line);
+            compileTo(expr.callee, OBJ, first);
+            for (int i = 0; i < count; i++) compileTo(expr.arguments.get(i), OBJ, first + 1 + i);
+            if (tail) {
+                emit(RegisterOp.TAIL_CALL_VALUE, 0, first, count);
+                return -1;
+            }
+            int result = target(dest, OBJ);
+            emit(RegisterOp.CALL_VALUE, result, first, count);
+            return result;
+        }
+
+        // conditions
+
+        void jumpIfFalse(Expr expr, int context, List<Integer> jumps) throws YsharpError {
+            jumpIf(expr, false, context, jumps);
+        }
+
+        /** jumps to the patched targets when {@code expr} is {@code when}, falls through otherwise */
+        void jumpIf(Expr expr, boolean when, int context, List<Integer> jumps) throws YsharpError {
+            expr = SlotKinds.strip(expr);
+            int saved = line;
+            switch (expr) {
+                case Expr.BinaryExpr e when SlotKinds.isComparison(e.op.type)
+                        && kindOf(e.left) == INT && kindOf(e.right) == INT -> {
+                    line = e.op.line;
+                    int left = compile(e.left, -1);
+                    if (isVariable(left, INT) && stores(e.right)) left = copy(left, INT);
+                    int right = compile(e.right, -1);
+                    jumps.add(emit(jumpUnless(e.op.type, when), left, right, 0, -1));
+                }
+                case Expr.LogicalExpr e -> {
+                    line = e.op.line;
+                    boolean and = e.op.type == Token.TokenType.LOGICAL_AND;
+                    int first = and ? RegisterOp.AND_OPERAND : RegisterOp.OR_OPERAND;
+                    if (and != when) {
+                        // false && x and true || x decide on the left operand
+                        jumpIf(e.left, when, first, jumps);
+                        jumpIf(e.right, when, RegisterOp.LOGICAL_OPERAND, jumps);
+                    } else {
+                        List<Integer> decided = new ArrayList<>();
+                        jumpIf(e.left, !when, first, decided);
+                        jumpIf(e.right, when, RegisterOp.LOGICAL_OPERAND, jumps);
+                        patch(decided, size);
+                    }
+                }
+                case Expr.UnaryExpr e when e.op.type == Token.TokenType.BANG && kindOf(e.expr) == BOOL ->
+                        jumpIf(e.expr, !when, context, jumps);
+                case Expr.LiteralExpr e when e.token.literal instanceof Token.Literal.Bool l -> {
+                    if (l.value() == when) jumps.add(jump());
+                }
+                default -> {
+                    int condition = bool(expr, context, -1);
+                    jumps.add(emit(when ? RegisterOp.JUMP_IF_TRUE : RegisterOp.JUMP_IF_FALSE, condition, 0, 0, -1));
+                }
+            }
+            line = saved;
+        }
+
+        // statements
+
+        void block(List<Stmt> statements) throws YsharpError {
+            for (Stmt stmt : statements) {
+                if (stmt instanceof Stmt.FunctionStmt declared) {
+                    int[] mark = mark();
+                    int value = temp(OBJ);
+                    emit(RegisterOp.LOAD_FUNCTION, value, 0, 0, functionIndex.get(declared));
+                    emit(RegisterOp.SET_GLOBAL, value, 0, 0, declared.slot);
+                    release(mark);
+                }
+            }
+            for (Stmt stmt : statements) statement(stmt);
+        }
+
+        void statement(Stmt stmt) throws YsharpError {
+            int[] mark = mark();
+            switch (stmt) {
+                case Stmt.ExpressionStmt s -> effect(s.expression);
+                case Stmt.VarStmt s -> declare(s.slot, s.initializer, s.name.line);
+                case Stmt.ConstStmt s -> declare(s.slot, s.initializer, s.name.line);
+                case Stmt.FunctionStmt ignored -> { }  // hoisted
+                case Stmt.BlockStmt s -> block(s.statements);
+                case Stmt.IfStmt s -> {
+                    line = s.keyword.line;
+                    List<Integer> otherwise = new ArrayList<>();
+                    jumpIfFalse(s.condition, RegisterOp.CONDITION, otherwise);
+                    statement(s.thenBranch);
+                    if (s.elseBranch == null) {
+                        patch(otherwise, size);
+                    } else {
+                        int end = jump();
+                        patch(otherwise, size);
+                        statement(s.elseBranch);
+                        patch(end, size);
+                    }
+                }
+                case Stmt.WhileStmt s -> loop(s.keyword.line, s.condition, null, s.body);
+                case Stmt.ForStmt s -> {
+                    if (s.initializer != null) statement(s.initializer);
+                    loop(s.keyword.line, s.condition, s.increment, s.body);
+                }
+                case Stmt.CountedForStmt s -> countedFor(s);
+                case Stmt.TryStmt s -> tryStatement(s);
+                case Stmt.SwitchStmt s -> switchStatement(s);
+                case Stmt.PrintStmt s -> {
+                    int kind = kindOf(s.expression);
+                    int value = compile(s.expression, -1);
+                    int newline = s.keyword.type == Token.TokenType.PRINTLN ? 1 : 0;
+                    emit(switch (kind) {
+                        case INT -> RegisterOp.PRINT_I;
+                        case DOUBLE -> RegisterOp.PRINT_D;
+                        case BOOL -> RegisterOp.PRINT_B;
+                        default -> RegisterOp.PRINT_O;
+                    }, value, newline, 0);
+                }
+                case Stmt.ReturnStmt s -> {
+                    line = s.keyword.line;
+                    if (s.value == null) {
+                        leave(0, () -> emit(RegisterOp.RETURN_NULL, 0, 0, 0));
+                    } else if (function != null && tries.isEmpty()) {
+                        returnValue(s.value);
+                    } else {
+                        int value = toObject(s.value);
+                        // the value is taken before any finally block runs
+                        int returned = isVariable(value, OBJ) && !tries.isEmpty() ? copy(value, OBJ) : value;
+                        leave(0, () -> emit(RegisterOp.RETURN, returned, 0, 0));
+                    }
+                }
+                case Stmt.BreakStmt s -> {
+                    line = s.keyword.line;
+                    Target target = targets.peek();
+                    leave(target.tries, () -> target.breaks.add(jump()));
+                }
+                case Stmt.ContinueStmt s -> {
+                    line = s.keyword.line;
+                    Target target = null;
+                    for (Target t : targets) {
+                        if (t.loop) {
+                            target = t;
+                            break;
+                        }
+                    }
+                    Target loop = target;
+                    leave(loop.tries, () -> loop.continues.add(jump()));
+                }
+                case Stmt.UseStmt s -> {
+                    line = s.path.line;
+                    emit(RegisterOp.FAIL, 0, 0, 0, constant("'use' is not supported by the register VM."));
+                }
+                default -> throw new IllegalStateException(
+                        "[Programmatic error] unknown statement " + stmt.getClass().getSimpleName());
+            }
+            release(mark);
+        }
+
+        /** an expression whose value is dropped: a postfix increment need not keep the old value */
+        void effect(Expr expr) throws YsharpError {
+            if (SlotKinds.strip(expr) instanceof Expr.PostfixExpr e) {
+                int saved = line;
+                line = e.op.line;
+                increment(e.operand, e.op.type == Token.TokenType.PLUS_PLUS ? 1 : -1, true, -1);
+                line = saved;
+            } else {
+                compile(expr, -1);
+            }
+        }
+
+        void declare(int slot, Expr initializer, int declaredAt) throws YsharpError {
+            line = declaredAt;
+            if (initializer == null) {
+                int value = registers[slot] >= 0 ? registers[slot] : temp(OBJ);
+                emit(RegisterOp.LOAD_NULL, value, 0, 0);
+                if (registers[slot] < 0) emit(RegisterOp.SET_GLOBAL, value, 0, 0, slot);
+            } else if (registers[slot] >= 0) {
+                compileTo(initializer, kinds[slot], registers[slot]);
+            } else {
+                emit(RegisterOp.SET_GLOBAL, toObject(initializer), 0, 0, slot);
+            }
+        }
+
+        /** a return's value: ternaries branch to their own returns and tail calls replace the frame */
+        void returnValue(Expr expr) throws YsharpError {
+            expr = SlotKinds.strip(expr);
+            if (expr instanceof Expr.TernaryExpr e) {
+                int saved = line;
+                line = Interpreter.line(e.condition);
+                List<Integer> otherwise = new ArrayList<>();
+                jumpIfFalse(e.condition, RegisterOp.CONDITION, otherwise);
+                line = saved;
+                returnValue(e.thenBranch);
+                patch(otherwise, size);
+                returnValue(e.elseBranch);
+            } else if (expr instanceof Expr.CallExpr e && e.tail) {
+                int saved = line;
+                line = Interpreter.line(e);
+                call(e, true, -1);
+                line = saved;
+            } else {
+                emit(RegisterOp.RETURN, toObject(expr), 0, 0);
+            }
+        }
+
+        interface Exit {
+            void emit() throws YsharpError;
+        }
+
+        /**
+         * Leaves every try statement entered since {@code depth} tries: their
+         * handlers stop covering the code, their finally blocks run innermost
+         * first, then {@code exit} jumps or returns.
+         */
+        void leave(int depth, Exit exit) throws YsharpError {
+            List<Try> left = new ArrayList<>();
+            List<Region> closed = new ArrayList<>();
+            while (tries.size() > depth) {
+                Try t = tries.removeLast();
+                left.add(t);
+                for (Region region : new Region[]{t.catches, t.finallies}) {
+                    if (region != null && region.openedAt >= 0) {
+                        close(region);
+                        closed.add(region);
+                    }
+                }
+                if (t.stmt.finallyBlock != null) statement(t.stmt.finallyBlock);
+            }
+            exit.emit();
+            for (int i = left.size() - 1; i >= 0; i--) tries.add(left.get(i));
+            for (Region region : closed) open(region);
+        }
+
+        void loop(int keyword, Expr condition, Expr increment, Stmt body) throws YsharpError {
+            line = keyword;
+            int test = jump();
+            int top = size;
+            Target target = new Target(true, tries.size());
+            targets.push(target);
+            statement(body);
+            targets.pop();
+
+            patch(target.continues, size);
+            if (increment != null) {
+                int[] mark = mark();
+                effect(increment);
+                release(mark);
+            }
+            patch(test, size);
+            line = keyword;
+            if (condition == null) {
+                patch(jump(), top);
+            } else {
+                List<Integer> again = new ArrayList<>();
+                jumpIf(condition, true, RegisterOp.CONDITION, again);
+                patch(again, top);
+            }
+            patch(target.breaks, size);
+        }
+
+        /** the limit, factors and strides stay in temporaries for the whole loop */
+        void countedFor(Stmt.CountedForStmt stmt) throws YsharpError {
+            line = stmt.keyword.line;
+            int counterKind = kinds[stmt.slot];
+            int start = kindOf(stmt.start);
+            storeSlot(stmt.slot, start, compile(stmt.start, -1));
+            int limitKind = kindOf(stmt.limit);
+            int limit = temp(limitKind);
+            compile(stmt.limit, limit);
+
+            int count = stmt.derived.size();
+            int[] strideKinds = new int[count];
+            int[] strides = new int[count];
+            int step = temp(INT);
+            emit(RegisterOp.LOAD_I, step, 0, 0, stmt.step);
+            for (int d = 0; d < count; d++) {
+                Stmt.CountedForStmt.Derived derived = stmt.derived.get(d);
+                int factorKind = kindOf(derived.factor);
+                int factor = compile(derived.factor, -1);
+                int product = operate(Token.TokenType.MULTIPLY, counterKind, load(stmt.slot), factorKind, factor, -1);
+                storeSlot(derived.slot, SlotKinds.binaryKind(Token.TokenType.MULTIPLY, counterKind, factorKind), product);
+                strideKinds[d] = SlotKinds.binaryKind(Token.TokenType.MULTIPLY, INT, factorKind);
+                strides[d] = operate(Token.TokenType.MULTIPLY, INT, step, factorKind, factor, -1);
+            }
+
+            int test = jump();
+            int top = size;
+            Target target = new Target(true, tries.size());
+            targets.push(target);
+            statement(stmt.body);
+            targets.pop();
+
+            patch(target.continues, size);
+            line = stmt.keyword.line;
+            int[] mark = mark();
+            if (counterKind == INT && registers[stmt.slot] >= 0 && stmt.step == (byte) stmt.step) {
+                emit(RegisterOp.ADDI_I, registers[stmt.slot], registers[stmt.slot], stmt.step);
+            } else {
+                storeSlot(stmt.slot, counterKind,
+                        operate(Token.TokenType.PLUS, counterKind, load(stmt.slot), INT, step, -1));
+            }
+            for (int d = 0; d < count; d++) {
+                int slot = stmt.derived.get(d).slot;
+                storeSlot(slot, kinds[slot], operate(Token.TokenType.PLUS, kinds[slot], load(slot),
+                        strideKinds[d], strides[d], -1));
+            }
+            release(mark);
+
+            patch(test, size);
+            int counter = load(stmt.slot);
+            Token.TokenType comparison = stmt.comparison.type;
+            if (counterKind == INT && limitKind == INT) {
+                patch(emit(jumpUnless(comparison, true), counter, limit, 0, -1), top);
+            } else {
+                int holds = operate(comparison, counterKind, counter, limitKind, limit, -1);
+                patch(emit(RegisterOp.JUMP_IF_TRUE, holds, 0, 0, -1), top);
+            }
+            release(mark);
+            patch(target.breaks, size);
+        }
+
+        void tryStatement(Stmt.TryStmt stmt) throws YsharpError {
+            int depth = 2 * tries.size();
+            Region finallies = null;
+            if (stmt.finallyBlock != null) {
+                finallies = new Region(temp(OBJ), true, depth);
+                regions.add(finallies);
+                open(finallies);
+            }
+            int message = registers[stmt.catchSlot] >= 0 ? registers[stmt.catchSlot] : temp(OBJ);
+            Region catches = new Region(message, false, depth + 1);
+            regions.add(catches);
+            open(catches);
+
+            Try t = new Try(stmt, catches, finallies);
+            tries.add(t);
+            statement(stmt.body);
+            close(catches);
+            int done = jump();
+
+            target(catches, size);
+            if (registers[stmt.catchSlot] < 0) emit(RegisterOp.SET_GLOBAL, message, 0, 0, stmt.catchSlot);
+            statement(stmt.catchBlock);
+            if (finallies != null) close(finallies);
+            tries.remove(t);
+            patch(done, size);
+            if (finallies == null) return;
+
+            statement(stmt.finallyBlock);
+            int end = jump();
+            target(finallies, size);
+            statement(stmt.finallyBlock);
+            emit(RegisterOp.RETHROW, finallies.register, 0, 0);
+            patch(end, size);
+        }
+
+        void open(Region region) {
+            region.openedAt = size;
+        }
+
+        void close(Region region) {
+            if (region.openedAt >= 0 && size > region.openedAt) {
+                region.entries.add(new int[]{region.openedAt, size, -1, region.register,
+                        region.rethrows ? 1 : 0, region.depth});
+            }
+            region.openedAt = -1;
+        }
+
+        void target(Region region, int target) {
+            for (int[] entry : region.entries) entry[RegisterChunk.TARGET] = target;
+        }
+
+        void switchStatement(Stmt.SwitchStmt stmt) throws YsharpError {
+            line = stmt.keyword.line;
+            int subject = temp(OBJ);
+            compileTo(stmt.subject, OBJ, subject);
+            Target target = new Target(false, tries.size());
+            targets.push(target);
+
+            SwitchTable table = SwitchTable.of(stmt);
+            if (table.kind() != SwitchTable.Kind.LINEAR) {
+                int dispatch = emit(RegisterOp.SWITCH, subject, 0, 0, -1);
+                Map<Stmt.BlockStmt, Integer> bodies = new IdentityHashMap<>();
+                for (Stmt.SwitchStmt.Case c : stmt.cases) body(c.body, bodies, target);
+                if (stmt.defaultBlock != null) body(stmt.defaultBlock, bodies, target);
+                patch(dispatch, unique(new RegisterProgram.Dispatch(table, bodies, size)));
+            } else {
+                List<List<Integer>> matches = new ArrayList<>();
+                for (Stmt.SwitchStmt.Case c : stmt.cases) {
+                    int[] mark = mark();
+                    int value = toObject(c.value);
+                    int equal = temp(BOOL);
+                    emit(RegisterOp.COMPARE, equal, subject, value, Token.TokenType.EQUAL_EQUAL.ordinal());
+                    matches.add(new ArrayList<>(List.of(emit(RegisterOp.JUMP_IF_TRUE, equal, 0, 0, -1))));
+                    release(mark);
+                }
+                int otherwise = jump();
+                for (int i = 0; i < stmt.cases.size(); i++) {
+                    patch(matches.get(i), size);
+                    statement(stmt.cases.get(i).body);
+                    target.breaks.add(jump());
+                }
+                patch(otherwise, size);
+                if (stmt.defaultBlock != null) statement(stmt.defaultBlock);
+            }
+
+            targets.pop();
+            patch(target.breaks, size);
+        }
+
+        void body(Stmt.BlockStmt body, Map<Stmt.BlockStmt, Integer> bodies, Target target) throws YsharpError {
+            if (bodies.containsKey(body)) return;
+            bodies.put(body, size);
+            statement(body);
+            target.breaks.add(jump());
+        }
+    }
+}
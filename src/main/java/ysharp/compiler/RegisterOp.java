@@ -0,0 +1,143 @@
+package ysharp.compiler;
+
+/**
+ * Instruction set of the register machine. An instruction is one int word
+ * {@code op | A << 8 | B << 16 | C << 24}, followed by a second word W for
+ * the instructions whose format has one. A, B and C are unsigned bytes
+ * except where the format says {@code n}, which C reads signed.
+ *
+ * <p>Registers live in three banks: objects (o), ints (i, also bools as 0
+ * and 1) and doubles (d). The format of each op names what its A, B, C and
+ * W stand for: a register of a bank, a constant (k), a number (n), a global
+ * slot (g), a function (f), a jump target (j), a TokenType ordinal (t) or a
+ * condition context (c); '-' is unused.
+ */
+public final class RegisterOp {
+
+    private RegisterOp() {}
+
+    public static final int MOVE_O          = 0;
+    public static final int MOVE_I          = 1;
+    public static final int MOVE_D          = 2;
+    public static final int LOAD_K          = 3;
+    public static final int LOAD_NULL       = 4;
+    public static final int LOAD_I          = 5;
+    public static final int LOAD_D          = 6;
+    public static final int LOAD_FUNCTION   = 7;
+    public static final int BOX_I           = 8;
+    public static final int BOX_D           = 9;
+    public static final int BOX_B           = 10;
+    public static final int I2D             = 11;
+    public static final int GET_GLOBAL      = 12;
+    public static final int SET_GLOBAL      = 13;
+
+    public static final int ADD_I           = 14;
+    public static final int SUB_I           = 15;
+    public static final int MUL_I           = 16;
+    public static final int DIV_I           = 17;
+    public static final int MOD_I           = 18;
+    public static final int SHL_I           = 19;
+    public static final int SHR_I           = 20;
+    public static final int AND_I           = 21;
+    public static final int OR_I            = 22;
+    public static final int XOR_I           = 23;
+    public static final int ADDI_I          = 24;
+    public static final int NEG_I           = 25;
+    public static final int INV_I           = 26;
+    public static final int NOT             = 27;
+    public static final int EQ_I            = 28;
+    public static final int NE_I            = 29;
+    public static final int LT_I            = 30;
+    public static final int LE_I            = 31;
+    public static final int GT_I            = 32;
+    public static final int GE_I            = 33;
+
+    public static final int ADD_D           = 34;
+    public static final int SUB_D           = 35;
+    public static final int MUL_D           = 36;
+    public static final int DIV_D           = 37;
+    public static final int MOD_D           = 38;
+    public static final int NEG_D           = 39;
+    public static final int EQ_D            = 40;
+    public static final int NE_D            = 41;
+    public static final int LT_D            = 42;
+    public static final int LE_D            = 43;
+    public static final int GT_D            = 44;
+    public static final int GE_D            = 45;
+
+    public static final int BINARY          = 46;
+    public static final int COMPARE         = 47;
+    public static final int UNARY           = 48;
+    public static final int INCREMENT       = 49;
+    public static final int TEST            = 50;
+    public static final int GET_PROPERTY    = 51;
+    public static final int ARRAY           = 52;
+    public static final int MAP             = 53;
+
+    public static final int JUMP            = 54;
+    public static final int JUMP_IF_FALSE   = 55;
+    public static final int JUMP_IF_TRUE    = 56;
+    public static final int JUMP_UNLESS_EQ  = 57;
+    public static final int JUMP_UNLESS_NE  = 58;
+    public static final int JUMP_UNLESS_LT  = 59;
+    public static final int JUMP_UNLESS_LE  = 60;
+    public static final int JUMP_UNLESS_GT  = 61;
+    public static final int JUMP_UNLESS_GE  = 62;
+    public static final int SWITCH          = 63;
+
+    public static final int PRINT_O         = 64;
+    public static final int PRINT_I         = 65;
+    public static final int PRINT_D         = 66;
+    public static final int PRINT_B         = 67;
+    public static final int CALL            = 68;
+    public static final int CALL_VALUE      = 69;
+    public static final int TAIL_CALL       = 70;
+    public static final int TAIL_CALL_VALUE = 71;
+    public static final int RETURN          = 72;
+    public static final int RETURN_NULL     = 73;
+    public static final int RETHROW         = 74;
+    public static final int FAIL            = 75;
+
+    static final String[] NAMES = {
+            "MOVE_O", "MOVE_I", "MOVE_D", "LOAD_K", "LOAD_NULL", "LOAD_I", "LOAD_D", "LOAD_FUNCTION",
+            "BOX_I", "BOX_D", "BOX_B", "I2D", "GET_GLOBAL", "SET_GLOBAL",
+            "ADD_I", "SUB_I", "MUL_I", "DIV_I", "MOD_I", "SHL_I", "SHR_I", "AND_I", "OR_I", "XOR_I",
+            "ADDI_I", "NEG_I", "INV_I", "NOT", "EQ_I", "NE_I", "LT_I", "LE_I", "GT_I", "GE_I",
+            "ADD_D", "SUB_D", "MUL_D", "DIV_D", "MOD_D", "NEG_D", "EQ_D", "NE_D", "LT_D", "LE_D", "GT_D", "GE_D",
+            "BINARY", "COMPARE", "UNARY", "INCREMENT", "TEST", "GET_PROPERTY", "ARRAY", "MAP",
+            "JUMP", "JUMP_IF_FALSE", "JUMP_IF_TRUE",
+            "JUMP_UNLESS_EQ", "JUMP_UNLESS_NE", "JUMP_UNLESS_LT", "JUMP_UNLESS_LE", "JUMP_UNLESS_GT", "JUMP_UNLESS_GE",
+            "SWITCH", "PRINT_O", "PRINT_I", "PRINT_D", "PRINT_B",
+            "CALL", "CALL_VALUE", "TAIL_CALL", "TAIL_CALL_VALUE", "RETURN", "RETURN_NULL", "RETHROW", "FAIL",
+    };
+
+    /** what A, B, C and W of each op stand for, see the class comment */
+    static final String[] FORMATS = {
+            "oo--", "ii--", "dd--", "o--k", "o---", "i--n", "d--k", "o--f",
+            "oi--", "od--", "oi--", "di--", "o--g", "o--g",
+            "iii-", "iii-", "iii-", "iii-", "iii-", "iii-", "iii-", "iii-", "iii-", "iii-",
+            "iin-", "ii--", "ii--", "ii--", "iii-", "iii-", "iii-", "iii-", "iii-", "iii-",
+            "ddd-", "ddd-", "ddd-", "ddd-", "ddd-", "dd--", "idd-", "idd-", "idd-", "idd-", "idd-", "idd-",
+            "ooot", "ioot", "oot-", "oon-", "ioc-", "oo-k", "oo-n", "oo-k",
+            "---j", "i--j", "i--j",
+            "ii-j", "ii-j", "ii-j", "ii-j", "ii-j", "ii-j",
+            "o--k", "on--", "in--", "dn--", "in--",
+            "oonf", "oon-", "-onf", "-on-", "o---", "----", "o---", "---k",
+    };
+
+    /** what a failed bool check reports, indexed by a TEST context */
+    static final String[] CONTEXTS = {
+            "Condition", "Operand of '&&'", "Operand of '||'", "Operand of logical operator",
+    };
+
+    static final int CONDITION = 0, AND_OPERAND = 1, OR_OPERAND = 2, LOGICAL_OPERAND = 3;
+
+    /** words an instruction takes, the op word included */
+    static int width(int op) {
+        return FORMATS[op].charAt(3) == '-' ? 1 : 2;
+    }
+
+    static int encode(int op, int a, int b, int c) {
+        return op | (a & 0xff) << 8 | (b & 0xff) << 16 | c << 24;
+    }
+}
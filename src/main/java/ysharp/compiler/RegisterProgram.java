@@ -0,0 +1,49 @@
+package ysharp.compiler;
+
+import ysharp.interpreter.SwitchTable;
+import ysharp.parser.Stmt;
+
+import java.util.Map;
+
+/**
+ * A program compiled by {@link RegisterCompiler}: its functions, the top
+ * level first, and the constant pool they share.
+ */
+public final class RegisterProgram {
+
+    /** a switch with constant cases: the selected body's code offset, else {@code end} */
+    record Dispatch(SwitchTable table, Map<Stmt.BlockStmt, Integer> targets, int end) {
+
+        int target(Object subject) {
+            Stmt.BlockStmt body = table.select(subject);
+            return body == null ? end : targets.get(body);
+        }
+    }
+
+    final RegisterChunk[] functions;
+    final Object[] constants;
+    final int globals;
+
+    RegisterProgram(RegisterChunk[] functions, Object[] constants, int globals) {
+        this.functions = functions;
+        this.constants = constants;
+        this.globals = globals;
+    }
+
+    public RegisterChunk function(int index) {
+        return functions[index];
+    }
+
+    public int functionCount() {
+        return functions.length;
+    }
+
+    public String disassemble() {
+        StringBuilder sb = new StringBuilder();
+        for (RegisterChunk function : functions) {
+            if (!sb.isEmpty()) sb.append('\n');
+            sb.append(function.disassemble(constants, functions));
+        }
+        return sb.toString();
+    }
+}
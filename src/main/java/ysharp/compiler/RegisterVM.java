@@ -0,0 +1,361 @@
+package ysharp.compiler;
+
+import ysharp.YsharpError;
+import ysharp.interpreter.Interpreter;
+import ysharp.lexer.Token;
+import ysharp.parser.Stmt;
+import ysharp.runtime.Callable;
+import ysharp.runtime.Operators;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a {@link RegisterProgram}. One loop decodes and dispatches every
+ * instruction; the registers of all active frames share three growable
+ * arrays, one per bank, each frame a window at its own base. A call to a
+ * compiled function pushes six ints on a frame stack and moves the windows
+ * up: the callee's first object registers are the caller's argument
+ * registers, so arguments are not copied. Typed instructions work on the
+ * int and double arrays directly, so nothing is allocated per instruction
+ * unless the program boxes, builds a value or calls outside the program.
+ *
+ * <p>A run-time error is handled by the innermost handler covering the
+ * failing instruction, in its frame or, unwinding, a caller's. Recursion
+ * deeper than {@value #MAX_DEPTH} frames is a catchable "Stack overflow."
+ * error, like running out of Java stack in the interpreter.
+ *
+ * <p>{@link #run(List)} compiles a program first and falls back to the
+ * tree {@link Interpreter} for one {@link RegisterCompiler} does not
+ * support.
+ */
+public final class RegisterVM {
+
+    static final int MAX_DEPTH = 100_000;
+
+    // frame stack entry: caller's function, return pc, register bases and destination
+    private static final int FUNCTION = 0, RETURN_PC = 1, OBJECTS = 2, INTS = 3, DOUBLES = 4, DEST = 5;
+    private static final int FRAME = 6;
+
+    private static final Token.TokenType[] TOKEN_TYPES = Token.TokenType.values();
+
+    private final PrintStream out;
+    private RegisterProgram program;
+    private Object[] globals;
+    private Function[] functions;
+
+    public RegisterVM(PrintStream out) {
+        this.out = out;
+    }
+
+    /** runs {@code program} compiled, or in the interpreter when it does not compile */
+    public void run(List<Stmt> program) throws YsharpError {
+        RegisterProgram compiled;
+        try {
+            compiled = RegisterCompiler.compile(program);
+        } catch (YsharpError unsupported) {
+            new Interpreter(out).run(program);  // and reports resolution errors itself
+            return;
+        }
+        run(compiled);
+    }
+
+    public void run(RegisterProgram program) throws YsharpError {
+        this.program = program;
+        globals = new Object[program.globals];
+        functions = new Function[program.functions.length];
+        for (int i = 0; i < functions.length; i++) functions[i] = new Function(this, i, program.functions[i]);
+        execute(0, new Object[0]);
+    }
+
+    /** a compiled function as a Y# value */
+    static final class Function implements Callable {
+
+        final RegisterVM vm;
+        final int index;
+        final RegisterChunk chunk;
+
+        Function(RegisterVM vm, int index, RegisterChunk chunk) {
+            this.vm = vm;
+            this.index = index;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int arity() {
+            return chunk.arity;
+        }
+
+        @Override
+        public Object call(Object[] arguments) throws YsharpError {
+            return vm.execute(index, arguments);
+        }
+    }
+
+    private Object execute(int index, Object[] arguments) throws YsharpError {
+        final RegisterChunk[] chunks = program.functions;
+        final Object[] constants = program.constants;
+        final Object[] globals = this.globals;
+
+        RegisterChunk chunk = chunks[index];
+        int[] code = chunk.code;
+        Object[] os = new Object[Math.max(64, chunk.objects * 2)];
+        int[] is = new int[Math.max(64, chunk.ints * 2)];
+        double[] ds = new double[Math.max(16, chunk.doubles * 2)];
+        int[] frames = new int[FRAME * 16];
+        int depth = 0;
+        int ob = 0, ib = 0, db = 0;
+        System.arraycopy(arguments, 0, os, 0, arguments.length);
+
+        int pc = 0;
+        int at = 0;
+        for (;;) {
+            try {
+                for (;;) {
+                    at = pc;
+                    int w = code[pc++];
+                    switch (w & 0xff) {
+                        case RegisterOp.MOVE_O -> os[ob + (w >>> 8 & 0xff)] = os[ob + (w >>> 16 & 0xff)];
+                        case RegisterOp.MOVE_I -> is[ib + (w >>> 8 & 0xff)] = is[ib + (w >>> 16 & 0xff)];
+                        case RegisterOp.MOVE_D -> ds[db + (w >>> 8 & 0xff)] = ds[db + (w >>> 16 & 0xff)];
+                        case RegisterOp.LOAD_K -> os[ob + (w >>> 8 & 0xff)] = constants[code[pc++]];
+                        case RegisterOp.LOAD_NULL -> os[ob + (w >>> 8 & 0xff)] = null;
+                        case RegisterOp.LOAD_I -> is[ib + (w >>> 8 & 0xff)] = code[pc++];
+                        case RegisterOp.LOAD_D -> ds[db + (w >>> 8 & 0xff)] = (Double) constants[code[pc++]];
+                        case RegisterOp.LOAD_FUNCTION -> os[ob + (w >>> 8 & 0xff)] = functions[code[pc++]];
+                        case RegisterOp.BOX_I -> os[ob + (w >>> 8 & 0xff)] = is[ib + (w >>> 16 & 0xff)];
+                        case RegisterOp.BOX_D -> os[ob + (w >>> 8 & 0xff)] = ds[db + (w >>> 16 & 0xff)];
+                        case RegisterOp.BOX_B -> os[ob + (w >>> 8 & 0xff)] = is[ib + (w >>> 16 & 0xff)] != 0;
+                        case RegisterOp.I2D -> ds[db + (w >>> 8 & 0xff)] = is[ib + (w >>> 16 & 0xff)];
+                        case RegisterOp.GET_GLOBAL -> os[ob + (w >>> 8 & 0xff)] = globals[code[pc++]];
+                        case RegisterOp.SET_GLOBAL -> globals[code[pc++]] = os[ob + (w >>> 8 & 0xff)];
+
+                        case RegisterOp.ADD_I -> is[ib + (w >>> 8 & 0xff)] = is[ib + (w >>> 16 & 0xff)] + is[ib + (w >>> 24)];
+                        case RegisterOp.SUB_I -> is[ib + (w >>> 8 & 0xff)] = is[ib + (w >>> 16 & 0xff)] - is[ib + (w >>> 24)];
+                        case RegisterOp.MUL_I -> is[ib + (w >>> 8 & 0xff)] = is[ib + (w >>> 16 & 0xff)] * is[ib + (w >>> 24)];
+                        case RegisterOp.DIV_I -> is[ib + (w >>> 8 & 0xff)] = Operators.divide(
+                                is[ib + (w >>> 16 & 0xff)], is[ib + (w >>> 24)], chunk.lines[at]);
+                        case RegisterOp.MOD_I -> is[ib + (w >>> 8 & 0xff)] = Operators.modulo(
+                                is[ib + (w >>> 16 & 0xff)], is[ib + (w >>> 24)], chunk.lines[at]);
+                        case RegisterOp.SHL_I -> is[ib + (w >>> 8 & 0xff)] = is[ib + (w >>> 16 & 0xff)] << is[ib + (w >>> 24)];
+                        case RegisterOp.SHR_I -> is[ib + (w >>> 8 & 0xff)] = is[ib + (w >>> 16 & 0xff)] >> is[ib + (w >>> 24)];
+                        case RegisterOp.AND_I -> is[ib + (w >>> 8 & 0xff)] = is[ib + (w >>> 16 & 0xff)] & is[ib + (w >>> 24)];
+                        case RegisterOp.OR_I -> is[ib + (w >>> 8 & 0xff)] = is[ib + (w >>> 16 & 0xff)] | is[ib + (w >>> 24)];
+                        case RegisterOp.XOR_I -> is[ib + (w >>> 8 & 0xff)] = is[ib + (w >>> 16 & 0xff)] ^ is[ib + (w >>> 24)];
+                        case RegisterOp.ADDI_I -> is[ib + (w >>> 8 & 0xff)] = is[ib + (w >>> 16 & 0xff)] + (w >> 24);
+                        case RegisterOp.NEG_I -> is[ib + (w >>> 8 & 0xff)] = -is[ib + (w >>> 16 & 0xff)];
+                        case RegisterOp.INV_I -> is[ib + (w >>> 8 & 0xff)] = ~is[ib + (w >>> 16 & 0xff)];
+                        case RegisterOp.NOT -> is[ib + (w >>> 8 & 0xff)] = is[ib + (w >>> 16 & 0xff)] ^ 1;
+                        case RegisterOp.EQ_I -> is[ib + (w >>> 8 & 0xff)] = is[ib + (w >>> 16 & 0xff)] == is[ib + (w >>> 24)] ? 1 : 0;
+                        case RegisterOp.NE_I -> is[ib + (w >>> 8 & 0xff)] = is[ib + (w >>> 16 & 0xff)] != is[ib + (w >>> 24)] ? 1 : 0;
+                        case RegisterOp.LT_I -> is[ib + (w >>> 8 & 0xff)] = is[ib + (w >>> 16 & 0xff)] < is[ib + (w >>> 24)] ? 1 : 0;
+                        case RegisterOp.LE_I -> is[ib + (w >>> 8 & 0xff)] = is[ib + (w >>> 16 & 0xff)] <= is[ib + (w >>> 24)] ? 1 : 0;
+                        case RegisterOp.GT_I -> is[ib + (w >>> 8 & 0xff)] = is[ib + (w >>> 16 & 0xff)] > is[ib + (w >>> 24)] ? 1 : 0;
+                        case RegisterOp.GE_I -> is[ib + (w >>> 8 & 0xff)] = is[ib + (w >>> 16 & 0xff)] >= is[ib + (w >>> 24)] ? 1 : 0;
+
+                        case RegisterOp.ADD_D -> ds[db + (w >>> 8 & 0xff)] = ds[db + (w >>> 16 & 0xff)] + ds[db + (w >>> 24)];
+                        case RegisterOp.SUB_D -> ds[db + (w >>> 8 & 0xff)] = ds[db + (w >>> 16 & 0xff)] - ds[db + (w >>> 24)];
+                        case RegisterOp.MUL_D -> ds[db + (w >>> 8 & 0xff)] = ds[db + (w >>> 16 & 0xff)] * ds[db + (w >>> 24)];
+                        case RegisterOp.DIV_D -> ds[db + (w >>> 8 & 0xff)] = ds[db + (w >>> 16 & 0xff)] / ds[db + (w >>> 24)];
+                        case RegisterOp.MOD_D -> ds[db + (w >>> 8 & 0xff)] = ds[db + (w >>> 16 & 0xff)] % ds[db + (w >>> 24)];
+                        case RegisterOp.NEG_D -> ds[db + (w >>> 8 & 0xff)] = -ds[db + (w >>> 16 & 0xff)];
+                        case RegisterOp.EQ_D -> is[ib + (w >>> 8 & 0xff)] = ds[db + (w >>> 16 & 0xff)] == ds[db + (w >>> 24)] ? 1 : 0;
+                        case RegisterOp.NE_D -> is[ib + (w >>> 8 & 0xff)] = ds[db + (w >>> 16 & 0xff)] != ds[db + (w >>> 24)] ? 1 : 0;
+                        case RegisterOp.LT_D -> is[ib + (w >>> 8 & 0xff)] = ds[db + (w >>> 16 & 0xff)] < ds[db + (w >>> 24)] ? 1 : 0;
+                        case RegisterOp.LE_D -> is[ib + (w >>> 8 & 0xff)] = ds[db + (w >>> 16 & 0xff)] <= ds[db + (w >>> 24)] ? 1 : 0;
+                        case RegisterOp.GT_D -> is[ib + (w >>> 8 & 0xff)] = ds[db + (w >>> 16 & 0xff)] > ds[db + (w >>> 24)] ? 1 : 0;
+                        case RegisterOp.GE_D -> is[ib + (w >>> 8 & 0xff)] = ds[db + (w >>> 16 & 0xff)] >= ds[db + (w >>> 24)] ? 1 : 0;
+
+                        case RegisterOp.BINARY -> os[ob + (w >>> 8 & 0xff)] = Operators.binary(TOKEN_TYPES[code[pc++]],
+                                os[ob + (w >>> 16 & 0xff)], os[ob + (w >>> 24)], chunk.lines[at]);
+                        case RegisterOp.COMPARE -> is[ib + (w >>> 8 & 0xff)] = (Boolean) Operators.binary(
+                                TOKEN_TYPES[code[pc++]], os[ob + (w >>> 16 & 0xff)], os[ob + (w >>> 24)],
+                                chunk.lines[at]) ? 1 : 0;
+                        case RegisterOp.UNARY -> os[ob + (w >>> 8 & 0xff)] = Operators.unary(TOKEN_TYPES[w >>> 24],
+                                os[ob + (w >>> 16 & 0xff)], chunk.lines[at]);
+                        case RegisterOp.INCREMENT -> os[ob + (w >>> 8 & 0xff)] = Operators.increment(
+                                os[ob + (w >>> 16 & 0xff)], w >> 24, chunk.lines[at]);
+                        case RegisterOp.TEST -> is[ib + (w >>> 8 & 0xff)] = Operators.requireBool(
+                                os[ob + (w >>> 16 & 0xff)], RegisterOp.CONTEXTS[w >>> 24], chunk.lines[at]) ? 1 : 0;
+                        case RegisterOp.GET_PROPERTY -> os[ob + (w >>> 8 & 0xff)] = Operators.getProperty(
+                                os[ob + (w >>> 16 & 0xff)], (String) constants[code[pc++]], chunk.lines[at]);
+                        case RegisterOp.ARRAY -> {
+                            int first = ob + (w >>> 16 & 0xff);
+                            int count = code[pc++];
+                            List<Object> array = new ArrayList<>(count);
+                            for (int i = 0; i < count; i++) array.add(os[first + i]);
+                            os[ob + (w >>> 8 & 0xff)] = array;
+                        }
+                        case RegisterOp.MAP -> {
+                            int first = ob + (w >>> 16 & 0xff);
+                            String[] keys = (String[]) constants[code[pc++]];
+                            Map<String, Object> map = new LinkedHashMap<>();
+                            for (int i = 0; i < keys.length; i++) map.put(keys[i], os[first + i]);
+                            os[ob + (w >>> 8 & 0xff)] = map;
+                        }
+
+                        case RegisterOp.JUMP -> pc = code[pc];
+                        case RegisterOp.JUMP_IF_FALSE -> pc = is[ib + (w >>> 8 & 0xff)] == 0 ? code[pc] : pc + 1;
+                        case RegisterOp.JUMP_IF_TRUE -> pc = is[ib + (w >>> 8 & 0xff)] != 0 ? code[pc] : pc + 1;
+                        case RegisterOp.JUMP_UNLESS_EQ ->
+                                pc = is[ib + (w >>> 8 & 0xff)] == is[ib + (w >>> 16 & 0xff)] ? pc + 1 : code[pc];
+                        case RegisterOp.JUMP_UNLESS_NE ->
+                                pc = is[ib + (w >>> 8 & 0xff)] != is[ib + (w >>> 16 & 0xff)] ? pc + 1 : code[pc];
+                        case RegisterOp.JUMP_UNLESS_LT ->
+                                pc = is[ib + (w >>> 8 & 0xff)] < is[ib + (w >>> 16 & 0xff)] ? pc + 1 : code[pc];
+                        case RegisterOp.JUMP_UNLESS_LE ->
+                                pc = is[ib + (w >>> 8 & 0xff)] <= is[ib + (w >>> 16 & 0xff)] ? pc + 1 : code[pc];
+                        case RegisterOp.JUMP_UNLESS_GT ->
+                                pc = is[ib + (w >>> 8 & 0xff)] > is[ib + (w >>> 16 & 0xff)] ? pc + 1 : code[pc];
+                        case RegisterOp.JUMP_UNLESS_GE ->
+                                pc = is[ib + (w >>> 8 & 0xff)] >= is[ib + (w >>> 16 & 0xff)] ? pc + 1 : code[pc];
+                        case RegisterOp.SWITCH ->
+                                pc = ((RegisterProgram.Dispatch) constants[code[pc]]).target(os[ob + (w >>> 8 & 0xff)]);
+
+                        case RegisterOp.PRINT_O -> print(Operators.stringify(os[ob + (w >>> 8 & 0xff)]), w >>> 16 & 0xff);
+                        case RegisterOp.PRINT_I -> print(Integer.toString(is[ib + (w >>> 8 & 0xff)]), w >>> 16 & 0xff);
+                        case RegisterOp.PRINT_D -> print(Double.toString(ds[db + (w >>> 8 & 0xff)]), w >>> 16 & 0xff);
+                        case RegisterOp.PRINT_B -> print(is[ib + (w >>> 8 & 0xff)] != 0 ? "true" : "false", w >>> 16 & 0xff);
+
+                        case RegisterOp.CALL, RegisterOp.CALL_VALUE -> {
+                            int base = ob + (w >>> 16 & 0xff);
+                            int count = w >>> 24;
+                            RegisterChunk callee;
+                            int calleeIndex;
+                            if ((w & 0xff) == RegisterOp.CALL) {
+                                calleeIndex = code[pc++];
+                                callee = chunks[calleeIndex];
+                            } else {
+                                Object value = os[base];
+                                if (!(value instanceof Function function) || function.vm != this) {
+                                    os[ob + (w >>> 8 & 0xff)] = callOut(value, os, base + 1, count, chunk.lines[at]);
+                                    continue;
+                                }
+                                callee = function.chunk;
+                                calleeIndex = function.index;
+                                if (callee.arity != count) throw arity(callee.arity, count, chunk.lines[at]);
+                                base++;
+                            }
+                            if (depth == MAX_DEPTH) throw Operators.error(chunk.lines[at], "Stack overflow.");
+
+                            int frame = depth++ * FRAME;
+                            if (frame + FRAME > frames.length) frames = Arrays.copyOf(frames, frames.length * 2);
+                            frames[frame + FUNCTION] = index;
+                            frames[frame + RETURN_PC] = pc;
+                            frames[frame + OBJECTS] = ob;
+                            frames[frame + INTS] = ib;
+                            frames[frame + DOUBLES] = db;
+                            frames[frame + DEST] = w >>> 8 & 0xff;
+
+                            ib += chunk.ints;
+                            db += chunk.doubles;
+                            ob = base;
+                            index = calleeIndex;
+                            chunk = callee;
+                            code = callee.code;
+                            pc = 0;
+                            if (ob + chunk.objects > os.length) os = Arrays.copyOf(os, Math.max(os.length * 2, ob + chunk.objects));
+                            if (ib + chunk.ints > is.length) is = Arrays.copyOf(is, Math.max(is.length * 2, ib + chunk.ints));
+                            if (db + chunk.doubles > ds.length) ds = Arrays.copyOf(ds, Math.max(ds.length * 2, db + chunk.doubles));
+                        }
+                        case RegisterOp.TAIL_CALL, RegisterOp.TAIL_CALL_VALUE -> {
+                            int base = ob + (w >>> 16 & 0xff);
+                            int count = w >>> 24;
+                            RegisterChunk callee;
+                            int calleeIndex;
+                            if ((w & 0xff) == RegisterOp.TAIL_CALL) {
+                                calleeIndex = code[pc++];
+                                callee = chunks[calleeIndex];
+                            } else {
+                                Object value = os[base];
+                                if (!(value instanceof Function function) || function.vm != this) {
+                                    Object result = callOut(value, os, base + 1, count, chunk.lines[at]);
+                                    if (depth == 0) return result;
+                                    int frame = --depth * FRAME;
+                                    index = frames[frame + FUNCTION];
+                                    pc = frames[frame + RETURN_PC];
+                                    ob = frames[frame + OBJECTS];
+                                    ib = frames[frame + INTS];
+                                    db = frames[frame + DOUBLES];
+                                    chunk = chunks[index];
+                                    code = chunk.code;
+                                    os[ob + frames[frame + DEST]] = result;
+                                    continue;
+                                }
+                                callee = function.chunk;
+                                calleeIndex = function.index;
+                                if (callee.arity != count) throw arity(callee.arity, count, chunk.lines[at]);
+                                base++;
+                            }
+                            System.arraycopy(os, base, os, ob, count);
+                            pc = callee == chunk ? chunk.entry : 0;
+                            index = calleeIndex;
+                            chunk = callee;
+                            code = callee.code;
+                            if (ob + chunk.objects > os.length) os = Arrays.copyOf(os, Math.max(os.length * 2, ob + chunk.objects));
+                            if (ib + chunk.ints > is.length) is = Arrays.copyOf(is, Math.max(is.length * 2, ib + chunk.ints));
+                            if (db + chunk.doubles > ds.length) ds = Arrays.copyOf(ds, Math.max(ds.length * 2, db + chunk.doubles));
+                        }
+                        case RegisterOp.RETURN, RegisterOp.RETURN_NULL -> {
+                            Object result = (w & 0xff) == RegisterOp.RETURN ? os[ob + (w >>> 8 & 0xff)] : null;
+                            if (depth == 0) return result;
+                            int frame = --depth * FRAME;
+                            index = frames[frame + FUNCTION];
+                            pc = frames[frame + RETURN_PC];
+                            ob = frames[frame + OBJECTS];
+                            ib = frames[frame + INTS];
+                            db = frames[frame + DOUBLES];
+                            chunk = chunks[index];
+                            code = chunk.code;
+                            os[ob + frames[frame + DEST]] = result;
+                        }
+                        case RegisterOp.RETHROW -> throw (YsharpError) os[ob + (w >>> 8 & 0xff)];
+                        case RegisterOp.FAIL -> throw Operators.error(chunk.lines[at], (String) constants[code[pc]]);
+                        default -> throw new IllegalStateException("[Programmatic error] unknown opcode " + (w & 0xff));
+                    }
+                }
+            } catch (YsharpError error) {
+                if (error.getType() == YsharpError.YsharpErrorType.PROCESS) throw error;
+                int handler;
+                while ((handler = chunk.handler(at)) < 0) {
+                    if (depth == 0) throw error;
+                    int frame = --depth * FRAME;
+                    index = frames[frame + FUNCTION];
+                    at = frames[frame + RETURN_PC] - 1;  // the call's last word
+                    ob = frames[frame + OBJECTS];
+                    ib = frames[frame + INTS];
+                    db = frames[frame + DOUBLES];
+                    chunk = chunks[index];
+                    code = chunk.code;
+                }
+                int[] handlers = chunk.handlers;
+                os[ob + handlers[handler + RegisterChunk.REGISTER]] =
+                        handlers[handler + RegisterChunk.RETHROWS] != 0 ? error : error.getMessage();
+                pc = handlers[handler + RegisterChunk.TARGET];
+            }
+        }
+    }
+
+    private void print(String text, int newline) {
+        if (newline != 0) out.println(text);
+        else out.print(text);
+    }
+
+    /** a call to a value the program did not compile, or to a compiled function of another run */
+    private static Object callOut(Object callee, Object[] registers, int first, int count, int line) throws YsharpError {
+        Object[] arguments = Arrays.copyOfRange(registers, first, first + count);
+        try {
+            return Operators.call(callee, arguments, line);
+        } catch (StackOverflowError e) {
+            throw Operators.error(line, "Stack overflow.");
+        }
+    }
+
+    private static YsharpError arity(int arity, int count, int line) {
+        return Operators.error(line, "Expected " + arity + " arguments but got " + count + ".");
+    }
+}
@@ -0,0 +1,292 @@
+package ysharp.compiler;
+
+import ysharp.analysis.Resolution;
+import ysharp.lexer.Token;
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+import ysharp.runtime.Operators;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+/**
+ * Static kinds of the slots of one frame, for the compilers that keep
+ * values unboxed. A slot is int, double or bool only when every value
+ * stored into it is provably that kind; kinds follow from literals and
+ * operators alone, starting optimistic and widening to object until
+ * nothing changes, so declared types play no part. Parameters, catch
+ * variables and uninitialized variables are objects.
+ *
+ * <p>The frame is a function's, or the top level's (function null), where
+ * the {@code global} slots are left out: they are shared with functions
+ * and always hold objects.
+ *
+ * <p>References are looked up with {@link Resolution#of(Expr.VariableExpr)}:
+ * the compilers reject a frame with a reference whose occurrences resolve
+ * differently before asking for its kinds.
+ */
+final class SlotKinds {
+
+    // NONE only while inferring, for a slot nothing was stored in yet
+    static final int NONE = -1, OBJ = 0, INT = 1, DOUBLE = 2, BOOL = 3;
+
+    final int[] kinds;
+    final Set<Integer> ints = new LinkedHashSet<>();    // int literals, in order of appearance
+    final Set<Double> doubles = new LinkedHashSet<>();  // double literals, likewise
+
+    private final Stmt.FunctionStmt function;
+    private final Resolution resolution;
+    private final IntPredicate global;
+    private boolean changed;
+
+    SlotKinds(Stmt.FunctionStmt function, List<Stmt> statements, int frameSize, Resolution resolution,
+              IntPredicate global) {
+        this.function = function;
+        this.resolution = resolution;
+        this.global = global;
+        kinds = new int[frameSize];
+        Arrays.fill(kinds, NONE);
+        if (function != null) {
+            for (int i = 0; i < function.params.size(); i++) kinds[i] = OBJ;
+        }
+
+        do {
+            changed = false;
+            for (Stmt stmt : statements) infer(stmt);
+        } while (changed);
+
+        for (int slot = 0; slot < frameSize; slot++) {
+            if (kinds[slot] == NONE) kinds[slot] = OBJ;
+        }
+    }
+
+    boolean isGlobal(int slot) {
+        return function == null && global.test(slot);
+    }
+
+    /** whether {@code variable} reads or writes a slot of this frame */
+    boolean isLocal(Expr.VariableExpr variable) {
+        return function != null ? resolution.of(variable).depth() == 0 : !global.test(slot(variable));
+    }
+
+    /** the slot {@code variable} reads and writes in its frame */
+    int slot(Expr.VariableExpr variable) {
+        return resolution.of(variable).slot();
+    }
+
+    private void store(int slot, int kind) {
+        if (kind == NONE || isGlobal(slot)) return;
+        int joined = join(kinds[slot], kind);
+        if (joined != kinds[slot]) {
+            kinds[slot] = joined;
+            changed = true;
+        }
+    }
+
+    private void infer(Stmt stmt) {
+        if (stmt == null) return;
+        switch (stmt) {
+            case Stmt.ExpressionStmt s -> infer(s.expression);
+            case Stmt.VarStmt s -> {
+                store(s.slot, s.initializer == null ? OBJ : kindOf(s.initializer));
+                infer(s.initializer);
+            }
+            case Stmt.ConstStmt s -> {
+                store(s.slot, kindOf(s.initializer));
+                infer(s.initializer);
+            }
+            case Stmt.BlockStmt s -> s.statements.forEach(this::infer);
+            case Stmt.IfStmt s -> {
+                infer(s.condition);
+                infer(s.thenBranch);
+                infer(s.elseBranch);
+            }
+            case Stmt.WhileStmt s -> {
+                infer(s.condition);
+                infer(s.body);
+            }
+            case Stmt.ForStmt s -> {
+                infer(s.initializer);
+                infer(s.condition);
+                infer(s.increment);
+                infer(s.body);
+            }
+            case Stmt.CountedForStmt s -> {
+                store(s.slot, kindOf(s.start));
+                store(s.slot, binaryKind(Token.TokenType.PLUS, kinds[s.slot], INT));
+                infer(s.start);
+                infer(s.limit);
+                for (Stmt.CountedForStmt.Derived derived : s.derived) {
+                    int factor = kindOf(derived.factor);
+                    store(derived.slot, binaryKind(Token.TokenType.MULTIPLY, kinds[s.slot], factor));
+                    store(derived.slot, binaryKind(Token.TokenType.PLUS, kinds[derived.slot],
+                            binaryKind(Token.TokenType.MULTIPLY, INT, factor)));
+                    infer(derived.factor);
+                }
+                infer(s.body);
+            }
+            case Stmt.TryStmt s -> {
+                store(s.catchSlot, OBJ);
+                infer(s.body);
+                infer(s.catchBlock);
+                infer(s.finallyBlock);
+            }
+            case Stmt.SwitchStmt s -> {
+                infer(s.subject);
+                for (Stmt.SwitchStmt.Case c : s.cases) {
+                    infer(c.value);
+                    infer(c.body);
+                }
+                infer(s.defaultBlock);
+            }
+            case Stmt.PrintStmt s -> infer(s.expression);
+            case Stmt.ReturnStmt s -> infer(s.value);
+            default -> { }  // functions have frames of their own; break, continue, use
+        }
+    }
+
+    private void infer(Expr expr) {
+        if (expr == null) return;
+        switch (expr) {
+            case Expr.GroupingExpr e -> infer(e.expression);
+            case Expr.BinaryExpr e -> {
+                infer(e.left);
+                infer(e.right);
+            }
+            case Expr.LogicalExpr e -> {
+                infer(e.left);
+                infer(e.right);
+            }
+            case Expr.UnaryExpr e -> {
+                if (isIncrement(e.op)) storeIncrement(e.expr);
+                infer(e.expr);
+            }
+            case Expr.PostfixExpr e -> {
+                storeIncrement(e.operand);
+                infer(e.operand);
+            }
+            case Expr.AssignmentExpr e -> {
+                Expr.VariableExpr target = variable(e.target);
+                if (target != null && isLocal(target)) {
+                    Token.TokenType op = Operators.compoundOperator(e.op.type);
+                    store(slot(target), op == null ? kindOf(e.value)
+                            : binaryKind(op, kinds[slot(target)], kindOf(e.value)));
+                }
+                infer(e.value);
+            }
+            case Expr.TernaryExpr e -> {
+                infer(e.condition);
+                infer(e.thenBranch);
+                infer(e.elseBranch);
+            }
+            case Expr.GetExpr e -> infer(e.object);
+            case Expr.CallExpr e -> {
+                infer(e.callee);
+                e.arguments.forEach(this::infer);
+            }
+            case Expr.ArrayInitializerExpr e -> e.elements.forEach(this::infer);
+            case Expr.MapInitializerExpr e -> e.entries.forEach(entry -> infer(entry.value));
+            case Expr.LiteralExpr e -> {
+                if (e.token.literal instanceof Token.Literal.Int l) ints.add(l.value());
+                else if (e.token.literal instanceof Token.Literal.Double l) doubles.add(l.value());
+            }
+            default -> { }  // variables
+        }
+    }
+
+    private void storeIncrement(Expr operand) {
+        Expr.VariableExpr target = variable(operand);
+        if (target != null && isLocal(target)) store(slot(target), incrementKind(operand));
+    }
+
+    int incrementKind(Expr operand) {
+        Expr.VariableExpr target = variable(operand);
+        if (target == null || !isLocal(target)) return OBJ;
+        int kind = kinds[slot(target)];
+        return kind == INT || kind == DOUBLE || kind == NONE ? kind : OBJ;
+    }
+
+    int kindOf(Expr expr) {
+        return switch (expr) {
+            case Expr.LiteralExpr e -> switch (e.token.literal) {
+                case Token.Literal.Int ignored -> INT;
+                case Token.Literal.Double ignored -> DOUBLE;
+                case Token.Literal.Bool ignored -> BOOL;
+                default -> OBJ;
+            };
+            case Expr.VariableExpr e -> isLocal(e) ? kinds[slot(e)] : OBJ;
+            case Expr.GroupingExpr e -> kindOf(e.expression);
+            case Expr.BinaryExpr e -> binaryKind(e.op.type, kindOf(e.left), kindOf(e.right));
+            case Expr.LogicalExpr ignored -> BOOL;
+            case Expr.UnaryExpr e -> {
+                int operand = kindOf(e.expr);
+                yield switch (e.op.type) {
+                    case PLUS_PLUS, MINUS_MINUS -> incrementKind(e.expr);
+                    case MINUS, PLUS -> isNumeric(operand) || operand == NONE ? operand : OBJ;
+                    case BITWISE_NOT -> operand == INT || operand == NONE ? operand : OBJ;
+                    case BANG -> operand == BOOL || operand == NONE ? operand : OBJ;
+                    default -> OBJ;
+                };
+            }
+            case Expr.PostfixExpr e -> incrementKind(e.operand);
+            case Expr.AssignmentExpr e -> {
+                Expr.VariableExpr target = variable(e.target);
+                yield target != null && isLocal(target) ? kinds[slot(target)] : OBJ;
+            }
+            case Expr.TernaryExpr e -> join(kindOf(e.thenBranch), kindOf(e.elseBranch));
+            default -> OBJ;
+        };
+    }
+
+    static Expr.VariableExpr variable(Expr expr) {
+        while (expr instanceof Expr.GroupingExpr grouping) expr = grouping.expression;
+        return expr instanceof Expr.VariableExpr variable ? variable : null;
+    }
+
+    static Expr strip(Expr expr) {
+        while (expr instanceof Expr.GroupingExpr grouping) expr = grouping.expression;
+        return expr;
+    }
+
+    static boolean isIncrement(Token op) {
+        return op.type == Token.TokenType.PLUS_PLUS || op.type == Token.TokenType.MINUS_MINUS;
+    }
+
+    static boolean isComparison(Token.TokenType op) {
+        return switch (op) {
+            case EQUAL_EQUAL, BANG_EQUAL, LESS_THAN, LESS_OR_EQUAL, GREATER_THAN, GREATER_OR_EQUAL -> true;
+            default -> false;
+        };
+    }
+
+    static boolean isNumeric(int kind) {
+        return kind == INT || kind == DOUBLE;
+    }
+
+    /** the kind {@code op} makes of operands of kinds {@code left} and {@code right}, as Operators does */
+    static int binaryKind(Token.TokenType op, int left, int right) {
+        if (isComparison(op)) return BOOL;
+        if (left == NONE || right == NONE) return NONE;
+        return switch (op) {
+            case PLUS, MINUS, MULTIPLY, DIVIDE, MODULO -> {
+                if (left == INT && right == INT) yield INT;
+                yield isNumeric(left) && isNumeric(right) ? DOUBLE : OBJ;
+            }
+            case LEFT_SHIFT, RIGHT_SHIFT -> left == INT && right == INT ? INT : OBJ;
+            case BITWISE_AND, BITWISE_OR, BITWISE_XOR -> {
+                if (left == INT && right == INT) yield INT;
+                yield left == BOOL && right == BOOL ? BOOL : OBJ;
+            }
+            default -> OBJ;
+        };
+    }
+
+    static int join(int a, int b) {
+        if (a == NONE) return b;
+        if (b == NONE || a == b) return a;
+        return OBJ;
+    }
+}
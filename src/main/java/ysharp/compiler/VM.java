@@ -0,0 +1,170 @@
+package ysharp.compiler;
+
+import ysharp.YsharpError;
+import ysharp.lexer.Token;
+import ysharp.runtime.Operators;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a {@link Chunk} against a set of global bindings. The operand stack is
+ * sized from the chunk up front, so evaluation itself only allocates the
+ * values the expression produces.
+ */
+public final class VM {
+
+    private static final Token.TokenType[] TOKEN_TYPES = Token.TokenType.values();
+
+    private VM() {}
+
+    public static Object run(Chunk chunk, Map<String, Object> globals) throws YsharpError {
+        final byte[] code = chunk.code;
+        final Object[] constants = chunk.constants;
+        final Object[] stack = new Object[chunk.maxStack];
+        int sp = 0;
+        int ip = 0;
+
+        for (;;) {
+            int at = ip;
+            byte op = code[ip++];
+
+            switch (op) {
+                case OpCode.CONSTANT -> {
+                    stack[sp++] = constants[chunk.readShort(ip)];
+                    ip += 2;
+                }
+                case OpCode.NULL  -> stack[sp++] = null;
+                case OpCode.TRUE  -> stack[sp++] = Boolean.TRUE;
+                case OpCode.FALSE -> stack[sp++] = Boolean.FALSE;
+                case OpCode.POP   -> sp--;
+                case OpCode.DUP   -> {
+                    stack[sp] = stack[sp - 1];
+                    sp++;
+                }
+
+                case OpCode.GET_GLOBAL -> {
+                    String name = (String) constants[chunk.readShort(ip)];
+                    ip += 2;
+                    Object value = globals.get(name);
+                    if (value == null && !globals.containsKey(name)) {
+                        throw undefined(name, chunk.lines[at]);
+                    }
+                    stack[sp++] = value;
+                }
+                case OpCode.SET_GLOBAL -> {
+                    String name = (String) constants[chunk.readShort(ip)];
+                    ip += 2;
+                    if (!globals.containsKey(name)) {
+                        throw undefined(name, chunk.lines[at]);
+                    }
+                    globals.put(name, stack[sp - 1]);
+                }
+                case OpCode.GET_PROPERTY -> {
+                    String name = (String) constants[chunk.readShort(ip)];
+                    ip += 2;
+                    stack[sp - 1] = Operators.getProperty(stack[sp - 1], name, chunk.lines[at]);
+                }
+
+                case OpCode.ADD -> {
+                    sp--;
+                    stack[sp - 1] = Operators.add(stack[sp - 1], stack[sp], chunk.lines[at]);
+                }
+                case OpCode.SUBTRACT -> {
+                    sp--;
+                    stack[sp - 1] = Operators.subtract(stack[sp - 1], stack[sp], chunk.lines[at]);
+                }
+                case OpCode.MULTIPLY -> {
+                    sp--;
+                    stack[sp - 1] = Operators.multiply(stack[sp - 1], stack[sp], chunk.lines[at]);
+                }
+                case OpCode.DIVIDE -> {
+                    sp--;
+                    stack[sp - 1] = Operators.divide(stack[sp - 1], stack[sp], chunk.lines[at]);
+                }
+                case OpCode.LESS -> {
+                    sp--;
+                    stack[sp - 1] = Operators.compare(stack[sp - 1], stack[sp], "<", chunk.lines[at]) < 0;
+                }
+                case OpCode.GREATER -> {
+                    sp--;
+                    stack[sp - 1] = Operators.compare(stack[sp - 1], stack[sp], ">", chunk.lines[at]) > 0;
+                }
+                case OpCode.EQUAL -> {
+                    sp--;
+                    stack[sp - 1] = Operators.isEqual(stack[sp - 1], stack[sp]);
+                }
+                case OpCode.NOT_EQUAL -> {
+                    sp--;
+                    stack[sp - 1] = !Operators.isEqual(stack[sp - 1], stack[sp]);
+                }
+                case OpCode.BINARY -> {
+                    Token.TokenType type = TOKEN_TYPES[code[ip++] & 0xff];
+                    sp--;
+                    stack[sp - 1] = Operators.binary(type, stack[sp - 1], stack[sp], chunk.lines[at]);
+                }
+                case OpCode.UNARY -> {
+                    Token.TokenType type = TOKEN_TYPES[code[ip++] & 0xff];
+                    stack[sp - 1] = Operators.unary(type, stack[sp - 1], chunk.lines[at]);
+                }
+                case OpCode.INCREMENT -> {
+                    int delta = code[ip++];
+                    stack[sp - 1] = Operators.increment(stack[sp - 1], delta, chunk.lines[at]);
+                }
+
+                case OpCode.JUMP -> ip += 2 + chunk.readShort(ip);
+                case OpCode.JUMP_IF_FALSE -> {
+                    boolean condition = Operators.requireBool(stack[sp - 1], "Operand of '&&'", chunk.lines[at]);
+                    ip += condition ? 2 : 2 + chunk.readShort(ip);
+                }
+                case OpCode.JUMP_IF_TRUE -> {
+                    boolean condition = Operators.requireBool(stack[sp - 1], "Operand of '||'", chunk.lines[at]);
+                    ip += condition ? 2 + chunk.readShort(ip) : 2;
+                }
+                case OpCode.POP_JUMP_IF_FALSE -> {
+                    boolean condition = Operators.requireBool(stack[--sp], "Condition", chunk.lines[at]);
+                    ip += condition ? 2 : 2 + chunk.readShort(ip);
+                }
+                case OpCode.CHECK_BOOL ->
+                        Operators.requireBool(stack[sp - 1], "Operand of logical operator", chunk.lines[at]);
+
+                case OpCode.CALL -> {
+                    int count = code[ip++] & 0xff;
+                    Object[] arguments = Arrays.copyOfRange(stack, sp - count, sp);
+                    sp -= count;
+                    stack[sp - 1] = Operators.call(stack[sp - 1], arguments, chunk.lines[at]);
+                }
+                case OpCode.ARRAY -> {
+                    int count = chunk.readShort(ip);
+                    ip += 2;
+                    List<Object> array = new ArrayList<>(count);
+                    for (int i = sp - count; i < sp; i++) array.add(stack[i]);
+                    sp -= count;
+                    stack[sp++] = array;
+                }
+                case OpCode.MAP -> {
+                    int count = chunk.readShort(ip);
+                    ip += 2;
+                    Map<String, Object> map = new LinkedHashMap<>();
+                    for (int i = sp - 2 * count; i < sp; i += 2) map.put((String) stack[i], stack[i + 1]);
+                    sp -= 2 * count;
+                    stack[sp++] = map;
+                }
+
+                case OpCode.RETURN -> {
+                    return stack[sp - 1];
+                }
+
+                default -> throw new IllegalStateException(
+                        "[Programmatic error] unknown opcode " + op + " at " + at);
+            }
+        }
+    }
+
+    private static YsharpError undefined(String name, int line) {
+        return Operators.error(line, "Undefined variable '" + name + "'.");
+    }
+}
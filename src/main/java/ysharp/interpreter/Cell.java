@@ -0,0 +1,11 @@
+package ysharp.interpreter;
+
+/** a captured variable that is assigned, shared by its frame and closures */
+final class Cell {
+
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,66 @@
+package ysharp.interpreter;
+
+import ysharp.YsharpError;
+import ysharp.parser.Stmt;
+import ysharp.runtime.Callable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A class: calling it makes an instance, runs the member initializers of
+ * the superclass chain and then its own, and finally passes the arguments
+ * to an {@code init} method if there is one.
+ */
+final class ClassValue implements Callable {
+
+    final Interpreter interpreter;
+    final Stmt.ClassStmt declaration;
+    final ClassValue superclass;
+    final Frame enclosing;
+    final Map<String, Integer> slots;  // member name -> instance slot, inherited ones included
+    private final int arity;
+
+    ClassValue(Interpreter interpreter, Stmt.ClassStmt declaration, ClassValue superclass, Frame enclosing) {
+        this.interpreter = interpreter;
+        this.declaration = declaration;
+        this.superclass = superclass;
+        this.enclosing = enclosing;
+        this.slots = superclass == null ? new HashMap<>() : new HashMap<>(superclass.slots);
+
+        int arity = superclass == null ? 0 : superclass.arity;
+        for (Stmt member : declaration.members) {
+            switch (member) {
+                case Stmt.FunctionStmt function -> {
+                    slots.put(function.name.lexeme, function.slot);
+                    if (function.name.lexeme.equals("init")) arity = function.params.size();
+                }
+                case Stmt.VarStmt var -> slots.put(var.name.lexeme, var.slot);
+                case Stmt.ConstStmt constant -> slots.put(constant.name.lexeme, constant.slot);
+                default -> { }
+            }
+        }
+        this.arity = arity;
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public Object call(Object[] arguments) throws YsharpError {
+        Instance instance = new Instance(this, new Object[declaration.fieldCount]);
+        interpreter.initialize(this, instance.fields);
+        Integer init = slots.get("init");
+        if (init != null && instance.fields[init] instanceof Closure closure) {
+            interpreter.invoke(closure, arguments);
+        }
+        return instance;
+    }
+
+    @Override
+    public String toString() {
+        return "<class " + declaration.name.lexeme + ">";
+    }
+}
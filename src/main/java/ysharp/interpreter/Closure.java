@@ -0,0 +1,58 @@
+package ysharp.interpreter;
+
+import ysharp.YsharpError;
+import ysharp.compiler.JvmFunction;
+import ysharp.parser.Stmt;
+import ysharp.runtime.Callable;
+
+/**
+ * A function value: the declaration plus either the values it captured
+ * (flat) or the frame it was declared in (inside a class), the cache of
+ * its results when it is memoized, and its JVM bytecode once compiled.
+ */
+final class Closure implements Callable {
+
+    final Interpreter interpreter;
+    final Stmt.FunctionStmt function;
+    final Object[] captures;
+    final Frame enclosing;
+    final MemoCache memo;  // null unless memoized
+    int calls;             // counted towards the compilation threshold
+    JvmFunction compiled;  // null until compiled
+
+    Closure(Interpreter interpreter, Stmt.FunctionStmt function, Object[] captures, Frame enclosing,
+            MemoCache memo) {
+        this.interpreter = interpreter;
+        this.function = function;
+        this.captures = captures;
+        this.enclosing = enclosing;
+        this.memo = memo;
+    }
+
+    /** a fresh frame with the arguments in the parameter slots */
+    Frame frame(Object[] arguments) {
+        Object[] slots = new Object[function.frameSize];
+        boolean[] cells = function.cells;
+        for (int i = 0; i < arguments.length; i++) {
+            slots[i] = cells != null && cells[i] ? new Cell(arguments[i]) : arguments[i];
+        }
+        return captures != null
+                ? new Frame(slots, null, captures, cells, true)
+                : new Frame(slots, enclosing, null, cells, false);
+    }
+
+    @Override
+    public int arity() {
+        return function.params.size();
+    }
+
+    @Override
+    public Object call(Object[] arguments) throws YsharpError {
+        return interpreter.invoke(this, arguments);
+    }
+
+    @Override
+    public String toString() {
+        return "<function " + function.name.lexeme + ">";
+    }
+}
@@ -0,0 +1,28 @@
+package ysharp.interpreter;
+
+/**
+ * Slots of one activation: the globals, a function call or a class
+ * instance. A flat function frame reads its free variables from
+ * {@code captures} and keeps no link outwards; frames of functions inside
+ * classes and instance frames link to their enclosing frame instead.
+ */
+final class Frame {
+
+    final Object[] slots;
+    final Frame enclosing;    // null for flat frames
+    final Object[] captures;  // null unless flat
+    final boolean[] cells;    // slots holding a Cell, or null when none do
+    final boolean flat;
+
+    Frame(Object[] slots, Frame enclosing, Object[] captures, boolean[] cells, boolean flat) {
+        this.slots = slots;
+        this.enclosing = enclosing;
+        this.captures = captures;
+        this.cells = cells;
+        this.flat = flat;
+    }
+
+    boolean isCell(int slot) {
+        return cells != null && cells[slot];
+    }
+}
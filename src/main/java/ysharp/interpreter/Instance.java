@@ -0,0 +1,18 @@
+package ysharp.interpreter;
+
+/** an object: the instance frame of its class, methods bound in their slots */
+final class Instance {
+
+    final ClassValue klass;
+    final Object[] fields;
+
+    Instance(ClassValue klass, Object[] fields) {
+        this.klass = klass;
+        this.fields = fields;
+    }
+
+    @Override
+    public String toString() {
+        return "<" + klass.declaration.name.lexeme + " instance>";
+    }
+}
@@ -0,0 +1,1165 @@
+package ysharp.interpreter;
+
+import ysharp.YsharpError;
+import ysharp.analysis.Resolution;
+import ysharp.analysis.Resolver;
+import ysharp.analysis.TypeInference;
+import ysharp.compiler.JvmCompiler;
+import ysharp.compiler.JvmFunction;
+import ysharp.lexer.Token;
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+import ysharp.runtime.Operators;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tree-walking interpreter over resolved programs. Variables are read
+ * through the resolver's annotations: slots of the current frame, the
+ * captures of a flat closure, frames reached by depth inside classes, and
+ * the globals. Operator semantics come from {@link Operators}.
+ *
+ * <p>Statements report how they completed: null when they ran off their
+ * end, otherwise one of the break, continue, return and tail-call signals,
+ * which travel outwards until a loop, switch or call consumes them.
+ *
+ * <p>Calls the resolver marked as tail calls do not grow the Java stack:
+ * the return statement hands the callee and its arguments back to the call
+ * loop of the current invocation, which runs the callee in place of the
+ * returning function. Other calls recurse on the Java stack; running out
+ * of it is a run-time error ("Stack overflow.") that try can catch.
+ *
+ * <p>Semantics the grammar leaves open: a switch runs the first case equal
+ * to the subject (no fall-through, break leaves the switch), through a
+ * {@link SwitchTable} when its cases are constants; catch binds the error
+ * message, and never catches process errors such as the step limit, nor
+ * syntax and semantic errors; a class is called to make an instance and
+ * passes its arguments to an {@code init} method if it has one.
+ *
+ * <p>A function declared outside any function whose body is not parsed
+ * yet is parsed and resolved on its first call (see
+ * {@link Resolver#setLazyBodies}), so a body that never runs costs nothing
+ * and its errors only surface if it does. Memoization and profiling need
+ * every body, so while either is on the whole program is resolved first.
+ *
+ * <p>Top-level functions opted in with {@link #memoize} and found pure by
+ * the resolver cache their results by argument values (see
+ * {@link MemoCache}). The cache is consulted when the function is called,
+ * not when another function tail-calls it.
+ *
+ * <p>Arithmetic, comparisons and conditions that {@link TypeInference}
+ * proves int, double, bool or char run on Java primitives (see
+ * {@link Unboxing}): only the value that leaves such an expression is
+ * boxed, and a condition not even that. Counted loops over ints count on
+ * an int.
+ *
+ * <p>In specializing mode ({@link #setSpecialization}) expressions run as
+ * {@link Node} trees instead, which specialize themselves on the types
+ * they see at run time.
+ *
+ * <p>With a {@link Profile} to record into ({@link #setProfile}), every run
+ * records what it does; its runs evaluate everything boxed, so that each
+ * operator records the values it saw. A warm start ({@link #setWarmStart})
+ * only reads a profile, recorded by an earlier process, and starts each run
+ * where that one left off: switches that ran have their dispatch tables,
+ * functions it called often enough are compiled before their first call,
+ * and variables it only ever saw one primitive kind of in an operator are
+ * read unboxed there, as if inference had proved the kind.
+ *
+ * <p>With compilation on ({@link #setCompilation}), a top-level function
+ * called often enough is compiled to JVM bytecode by {@link JvmCompiler}
+ * and runs as such from then on, reaching back into the interpreter for
+ * globals, output and the calls it does not make itself. Functions the
+ * compiler rejects stay interpreted.
+ */
+public final class Interpreter {
+
+    private static final Object BREAK = new Object();
+    private static final Object CONTINUE = new Object();
+    private static final Object RETURN = new Object();
+    private static final Object TAIL = new Object();
+
+    private final PrintStream out;
+    private final Map<Stmt.SwitchStmt, SwitchTable> switchTables = new IdentityHashMap<>();
+    private final Map<String, Integer> memoized = new LinkedHashMap<>();  // opted-in name -> capacity
+    private final Map<Stmt.FunctionStmt, MemoCache> memos = new IdentityHashMap<>();
+    private boolean memoization = true;
+    private boolean unboxing = true;
+    private boolean specialization;
+    private boolean nodes;  // this run evaluates through Node trees
+    private final Map<Stmt, Map<Expr, Node.Root>> roots = new IdentityHashMap<>();  // compiled this run, by owner
+    private final Unboxing marks = new Unboxing();
+    private Frame globals;
+    private Resolver resolver;         // of the last run, holding the bodies left for their first call
+    private Resolution resolution;     // of the last run
+    private Stmt owner;                // the statement whose expressions are being evaluated
+    private TypeInference.Result types;  // of the last run; null when it evaluates boxed
+    Frame frame;
+
+    // payload of the RETURN and TAIL signals
+    private Object returnValue;
+    private Object tailCallee;
+    private Object[] tailArguments;
+    private int tailLine;
+
+    private final Map<String, Stmt.FunctionStmt> functions = new LinkedHashMap<>();  // top level, last run
+    private long stepLimit = Long.MAX_VALUE;
+    private long steps;
+    private Profile profile;  // null when not profiling
+    private Profile warm;     // null for a cold start
+    private final Map<Stmt.FunctionStmt, JvmFunction> precompiled = new IdentityHashMap<>();  // this run
+    private int compileThreshold = -1;  // negative: never compile
+    private final JvmFunction.Host host = new CompiledHost();
+
+    public Interpreter(PrintStream out) {
+        this.out = out;
+    }
+
+    /** resolves and runs {@code program}; a program that does not resolve throws its first error */
+    public void run(List<Stmt> program) throws YsharpError {
+        resolver = new Resolver();
+        resolver.setLazyBodies(memoized.isEmpty() && profile == null && warm == null);
+        List<YsharpError> errors = resolver.resolve(program);
+        if (!errors.isEmpty()) throw errors.get(0);
+        resolution = resolver.resolution();
+
+        memos.clear();
+        functions.clear();
+        for (Stmt stmt : program) {
+            if (!(stmt instanceof Stmt.FunctionStmt function)) continue;
+            functions.put(function.name.lexeme, function);
+            if (function.pure && memoized.containsKey(function.name.lexeme)) {
+                memos.put(function, new MemoCache(memoized.get(function.name.lexeme)));
+            }
+        }
+
+        warmUp(program);
+        roots.clear();
+        nodes = specialization && profile == null;
+        types = unboxing && !nodes && profile == null ? TypeInference.infer(program, resolution) : null;
+        marks.reset();
+        if (types != null) marks.annotate(program, types, warm);
+
+        globals = new Frame(new Object[resolver.globalCount()], null, null, null, true);
+        frame = globals;
+        steps = stepLimit;
+        executeStatements(program);
+    }
+
+    /**
+     * Calls the top-level function {@code name} of the last run, which must
+     * have completed, with the globals as that run left them.
+     */
+    public Object callFunction(String name, Object... arguments) throws YsharpError {
+        Stmt.FunctionStmt function = functions.get(name);
+        if (function == null || globals == null) {
+            throw new IllegalArgumentException("No top-level function '" + name + "' in the last run.");
+        }
+        frame = globals;
+        steps = stepLimit;
+        return call(globals.slots[function.slot], arguments, function.name.line);
+    }
+
+    /**
+     * Caps the loop iterations and calls of each later {@link #run} and
+     * {@link #callFunction}. Going past it is a process error that try
+     * cannot catch, so a runaway program always stops.
+     */
+    public void setStepLimit(long limit) {
+        if (limit < 0) throw new IllegalArgumentException("limit must not be negative: " + limit);
+        stepLimit = limit;
+    }
+
+    private void step(int line) throws YsharpError {
+        if (--steps < 0) throw new YsharpError(YsharpError.YsharpErrorType.PROCESS, line, "Step limit exceeded.");
+    }
+
+    /** the global switch for unboxed evaluation: while off, later runs evaluate everything boxed */
+    public void setUnboxing(boolean enabled) {
+        unboxing = enabled;
+    }
+
+    /**
+     * Runs later programs in specializing mode: expressions are compiled to
+     * {@link Node} trees that rewrite themselves for the operand types they
+     * see, in place of the static unboxing. Off by default, and while
+     * profiling.
+     */
+    public void setSpecialization(boolean enabled) {
+        specialization = enabled;
+    }
+
+    /**
+     * Compiles a top-level function to JVM bytecode once it has been called
+     * {@code threshold} times (0 compiles it on its first call); negative
+     * turns compilation off, the default. Compiled code counts no steps and
+     * records nothing, so nothing compiles under a step limit or while
+     * profiling, and memoized functions stay interpreted.
+     */
+    public void setCompilation(int threshold) {
+        compileThreshold = threshold;
+    }
+
+    /** whether the top-level function {@code name} ran compiled by the end of the last run */
+    public boolean isCompiled(String name) {
+        Stmt.FunctionStmt function = functions.get(name);
+        if (function == null || globals == null) {
+            throw new IllegalArgumentException("No top-level function '" + name + "' in the last run.");
+        }
+        return globals.slots[function.slot] instanceof Closure closure && closure.compiled != null;
+    }
+
+    /** whether the last run evaluates {@code expr} on primitives, as {@link Unboxing} marked it */
+    public boolean isUnboxed(Expr expr) {
+        return marks.kind(expr) != Unboxing.BOXED;
+    }
+
+    /** the shape the node tree of {@code expr} settled into in the last run (see {@link Node}), or null */
+    public String nodeShape(Expr expr) {
+        for (Map<Expr, Node.Root> owned : roots.values()) {
+            Node.Root root = owned.get(expr);
+            if (root != null) return root.toString();
+        }
+        return null;
+    }
+
+    /** the compiled form of {@code closure}, compiling it when it turns hot, or null */
+    private JvmFunction compiled(Closure closure) {
+        if (compileThreshold < 0 || stepLimit != Long.MAX_VALUE || profile != null || closure.memo != null
+                || closure.captures == null || closure.captures.length > 0) {
+            return null;
+        }
+        if (closure.calls < compileThreshold) {
+            closure.calls++;
+            return null;
+        }
+        if (closure.calls == compileThreshold) {
+            closure.calls++;  // one attempt only
+            try {
+                closure.compiled = JvmCompiler.compile(closure.function, resolution);
+            } catch (YsharpError unsupported) {
+                // stays interpreted
+            }
+        }
+        return closure.compiled;
+    }
+
+    /** what compiled functions see of the interpreter */
+    private final class CompiledHost implements JvmFunction.Host {
+
+        @Override
+        public Object[] globals() {
+            return globals.slots;
+        }
+
+        @Override
+        public PrintStream out() {
+            return out;
+        }
+
+        @Override
+        public Object call(Object callee, Object[] arguments, int line) throws YsharpError {
+            return Interpreter.this.call(callee, arguments, line);
+        }
+
+        @Override
+        public Object tail(Object callee, Object[] arguments, int line) {
+            tailCallee = callee;
+            tailArguments = arguments;
+            tailLine = line;
+            return JvmFunction.TAIL_CALL;
+        }
+
+        @Override
+        public Object finish() throws YsharpError {
+            Object callee = tailCallee;
+            Object[] arguments = tailArguments;
+            tailCallee = null;
+            tailArguments = null;
+            return Interpreter.this.call(callee, arguments, tailLine);
+        }
+
+        @Override
+        public Object get(Object object, String name, int line) throws YsharpError {
+            return Interpreter.get(object, name, line);
+        }
+    }
+
+    // profiling
+
+    /**
+     * Records what later runs do into {@code profile} (null stops), and
+     * gives the switches that already ran in it their dispatch tables.
+     */
+    public void setProfile(Profile profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * Starts later runs from what {@code profile} holds for the program
+     * (null starts cold), without recording into it. Runs that also record
+     * evaluate boxed and compile nothing, so they only take its switches.
+     */
+    public void setWarmStart(Profile profile) {
+        warm = profile;
+    }
+
+    private void warmUp(List<Stmt> program) {
+        precompiled.clear();
+        if (profile == null && warm == null) return;
+
+        Map<Object, Integer> sites = Profile.number(program);
+        if (profile != null) profile.attach(sites);
+        if (warm != null) warm.attach(sites);
+        Map<String, Long> calls = new HashMap<>();
+        for (Object site : sites.keySet()) {
+            if (site instanceof Stmt.SwitchStmt s && (ran(profile, s) || ran(warm, s))) {
+                switchTables.computeIfAbsent(s, SwitchTable::of);
+            }
+            if (site instanceof Expr.CallExpr e && warm != null) {
+                warm.callees(warm.site(e)).forEach((name, count) -> calls.merge(name, count, Long::sum));
+            }
+        }
+
+        // what compiled() would compile during the run, compiled now
+        if (compileThreshold < 0 || stepLimit != Long.MAX_VALUE || profile != null) return;
+        for (Stmt.FunctionStmt function : functions.values()) {
+            if (calls.getOrDefault(function.name.lexeme, 0L) < Math.max(compileThreshold, 1)
+                    || memos.containsKey(function) || function.captures == null || !function.captures.isEmpty()) {
+                continue;
+            }
+            try {
+                precompiled.put(function, JvmCompiler.compile(function, resolution));
+            } catch (YsharpError unsupported) {
+                // stays interpreted
+            }
+        }
+    }
+
+    private static boolean ran(Profile profile, Object site) {
+        return profile != null && profile.count(profile.site(site)) > 0;
+    }
+
+    /** the number of a site in the profile recorded into, -1 when not recording */
+    private int site(Object node) {
+        return profile == null ? -1 : profile.site(node);
+    }
+
+    // memoization
+
+    /**
+     * Opts the top-level function {@code name} into memoization: from the
+     * next run on its results are cached, up to {@code capacity} of them, if
+     * the resolver found it pure. Impure functions run as before.
+     */
+    public void memoize(String name, int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        memoized.put(name, capacity);
+    }
+
+    /** the global switch: while off, memoized functions run on every call and their caches stay as they are */
+    public void setMemoization(boolean enabled) {
+        memoization = enabled;
+    }
+
+    /** the cache of the top-level function {@code name} in the last run, or null when it was not memoized */
+    public MemoCache memoCache(String name) {
+        for (Map.Entry<Stmt.FunctionStmt, MemoCache> entry : memos.entrySet()) {
+            if (entry.getKey().name.lexeme.equals(name)) return entry.getValue();
+        }
+        return null;
+    }
+
+    // calls
+
+    Object invoke(Closure closure, Object[] arguments) throws YsharpError {
+        List<Object> key = closure.memo != null && memoization ? MemoCache.key(arguments) : null;
+        if (key == null) return trampoline(closure, arguments);
+
+        Object result = closure.memo.get(key);
+        if (MemoCache.isMissing(result)) {
+            result = trampoline(closure, arguments);
+            closure.memo.put(key, result);
+        }
+        return result;
+    }
+
+    /** runs {@code closure} and then, in the same Java frame, each function it tail-calls */
+    private Object trampoline(Closure closure, Object[] arguments) throws YsharpError {
+        Frame caller = frame;
+        try {
+            for (;;) {
+                step(closure.function.name.line);
+                if (closure.function.frameSize < 0) resolveBody(closure.function);
+                JvmFunction compiled = compiled(closure);
+                if (compiled != null) {
+                    Object value = compiled.call(host, closure, arguments);
+                    if (value != JvmFunction.TAIL_CALL) return value;
+                } else {
+                    frame = closure.frame(arguments);
+                    Object signal = executeStatements(closure.function.body().statements);
+                    if (signal == RETURN) {
+                        Object value = returnValue;
+                        returnValue = null;
+                        return value;
+                    }
+                    if (signal != TAIL) return null;
+                }
+
+                Object callee = tailCallee;
+                arguments = tailArguments;
+                tailCallee = null;
+                tailArguments = null;
+                if (!(callee instanceof Closure next)) return Operators.call(callee, arguments, tailLine);
+                checkArity(next, arguments.length, tailLine);
+                closure = next;
+            }
+        } finally {
+            frame = caller;
+        }
+    }
+
+    /** resolves a body the resolver left for the first call, and marks it for unboxed evaluation */
+    private void resolveBody(Stmt.FunctionStmt function) throws YsharpError {
+        List<YsharpError> errors = resolver.resolveBody(function);
+        if (!errors.isEmpty()) throw errors.get(0);
+        if (types != null) marks.annotate(List.of(function), TypeInference.infer(function, types));
+    }
+
+    Object call(Object callee, Object[] arguments, int line) throws YsharpError {
+        try {
+            if (callee instanceof Closure closure) {
+                checkArity(closure, arguments.length, line);
+                return invoke(closure, arguments);
+            }
+            return Operators.call(callee, arguments, line);
+        } catch (StackOverflowError e) {
+            throw Operators.error(line, "Stack overflow.");
+        }
+    }
+
+    private static void checkArity(Closure closure, int count, int line) throws YsharpError {
+        if (closure.arity() != count) {
+            throw Operators.error(line, "Expected " + closure.arity() + " arguments but got " + count + ".");
+        }
+    }
+
+    /** runs the member initializers of {@code klass}, superclass first, on an instance's fields */
+    void initialize(ClassValue klass, Object[] fields) throws YsharpError {
+        if (klass.superclass != null) initialize(klass.superclass, fields);
+
+        Frame outer = frame;
+        frame = new Frame(fields, klass.enclosing, null, null, false);
+        try {
+            for (Stmt member : klass.declaration.members) {
+                if (member instanceof Stmt.FunctionStmt method) fields[method.slot] = closure(method);
+            }
+            for (Stmt member : klass.declaration.members) {
+                if (!(member instanceof Stmt.FunctionStmt)) execute(member);
+            }
+        } finally {
+            frame = outer;
+        }
+    }
+
+    private Closure closure(Stmt.FunctionStmt function) {
+        MemoCache memo = memos.get(function);
+        if (function.captures == null) return new Closure(this, function, null, frame, memo);
+
+        Object[] captures = new Object[function.captures.size()];
+        for (int i = 0; i < captures.length; i++) {
+            Stmt.FunctionStmt.Capture capture = function.captures.get(i);
+            captures[i] = capture.local() ? frame.slots[capture.index()] : frame.captures[capture.index()];
+        }
+        Closure closure = new Closure(this, function, captures, null, memo);
+        JvmFunction hot = precompiled.get(function);
+        if (hot != null) {
+            closure.compiled = hot;
+            closure.calls = compileThreshold + 1;  // past the threshold from its first call
+        }
+        return closure;
+    }
+
+    private ClassValue classValue(Stmt.ClassStmt klass) throws YsharpError {
+        ClassValue superclass = null;
+        if (klass.superclass != null) {
+            Object value = deref(outer(klass.superclassDepth).slots[klass.superclassSlot]);
+            if (!(value instanceof ClassValue parent)) {
+                throw Operators.error(klass.superclass.line, "Superclass must be a class.");
+            }
+            superclass = parent;
+        }
+        return new ClassValue(this, klass, superclass, frame);
+    }
+
+    // variables
+
+    private Frame outer(int depth) {
+        Frame f = frame;
+        for (int d = depth; d > 0; d--) {
+            if (f.flat) return globals;
+            f = f.enclosing;
+        }
+        return f;
+    }
+
+    private static Object deref(Object value) {
+        return value instanceof Cell cell ? cell.value : value;
+    }
+
+    /** where {@code variable} reads and writes as an expression of the statement being executed */
+    Resolution.Access access(Expr.VariableExpr variable) {
+        return resolution.of(owner, variable);
+    }
+
+    Object read(Resolution.Access variable) {
+        Object value;
+        if (variable.capture() >= 0) {
+            Frame f = frame;
+            while (!f.flat) f = f.enclosing;
+            value = f.captures[variable.capture()];
+        } else {
+            value = outer(variable.depth()).slots[variable.slot()];
+        }
+        return variable.boxed() ? ((Cell) value).value : value;
+    }
+
+    void write(Resolution.Access variable, Object value) {
+        if (variable.capture() >= 0) {
+            Frame f = frame;
+            while (!f.flat) f = f.enclosing;
+            ((Cell) f.captures[variable.capture()]).value = value;  // assigned captures are always cells
+        } else if (variable.boxed()) {
+            ((Cell) outer(variable.depth()).slots[variable.slot()]).value = value;
+        } else {
+            outer(variable.depth()).slots[variable.slot()] = value;
+        }
+    }
+
+    /** a declaration storing its first value */
+    private void define(int slot, Object value) {
+        if (!frame.isCell(slot)) {
+            frame.slots[slot] = value;
+        } else if (frame.slots[slot] instanceof Cell cell) {
+            cell.value = value;
+        } else {
+            frame.slots[slot] = new Cell(value);
+        }
+    }
+
+    private static int declaredSlot(Stmt stmt) {
+        return switch (stmt) {
+            case Stmt.VarStmt var -> var.slot;
+            case Stmt.ConstStmt constant -> constant.slot;
+            case Stmt.FunctionStmt function -> function.slot;
+            case Stmt.ClassStmt klass -> klass.slot;
+            default -> -1;
+        };
+    }
+
+    // statements
+
+    /** enters a scope: fresh cells for its captured declarations, then hoisted functions and classes */
+    private Object executeStatements(List<Stmt> statements) throws YsharpError {
+        if (frame.cells != null) {
+            for (Stmt stmt : statements) {
+                int slot = declaredSlot(stmt);
+                if (slot >= 0 && frame.cells[slot]) frame.slots[slot] = new Cell(null);
+            }
+        }
+        for (Stmt stmt : statements) {
+            if (stmt instanceof Stmt.FunctionStmt function) define(function.slot, closure(function));
+            else if (stmt instanceof Stmt.ClassStmt klass) define(klass.slot, classValue(klass));
+        }
+
+        for (Stmt stmt : statements) {
+            Object signal = execute(stmt);
+            if (signal != null) return signal;
+        }
+        return null;
+    }
+
+    /** runs {@code stmt} as the owner of the expressions it evaluates (see {@link Resolution}) */
+    private Object execute(Stmt stmt) throws YsharpError {
+        Stmt outer = owner;
+        owner = stmt;
+        Object signal = executeOwned(stmt);
+        owner = outer;
+        return signal;
+    }
+
+    private Object executeOwned(Stmt stmt) throws YsharpError {
+        switch (stmt) {
+            case Stmt.ExpressionStmt s -> evaluate(s.expression);
+            case Stmt.VarStmt s -> define(s.slot, s.initializer == null ? null : evaluate(s.initializer));
+            case Stmt.ConstStmt s -> define(s.slot, evaluate(s.initializer));
+            case Stmt.FunctionStmt ignored -> { }  // hoisted
+            case Stmt.ClassStmt ignored -> { }     // hoisted
+            case Stmt.BlockStmt s -> {
+                return executeStatements(s.statements);
+            }
+            case Stmt.IfStmt s -> {
+                if (condition(s.condition, s.keyword.line, site(s))) return execute(s.thenBranch);
+                if (s.elseBranch != null) return execute(s.elseBranch);
+            }
+            case Stmt.WhileStmt s -> {
+                while (condition(s.condition, s.keyword.line, site(s))) {
+                    step(s.keyword.line);
+                    Object signal = execute(s.body);
+                    if (signal == BREAK) break;
+                    if (signal != null && signal != CONTINUE) return signal;
+                }
+            }
+            case Stmt.ForStmt s -> {
+                return executeFor(s);
+            }
+            case Stmt.CountedForStmt s -> {
+                return executeCountedFor(s);
+            }
+            case Stmt.TryStmt s -> {
+                return executeTry(s);
+            }
+            case Stmt.SwitchStmt s -> {
+                return executeSwitch(s);
+            }
+            case Stmt.PrintStmt s -> {
+                String text = Operators.stringify(evaluate(s.expression));
+                if (s.keyword.type == Token.TokenType.PRINTLN) out.println(text);
+                else out.print(text);
+            }
+            case Stmt.ReturnStmt s -> {
+                Object value = s.value == null ? null : evaluateTail(s.value);
+                if (value == TAIL) return TAIL;
+                returnValue = value;
+                return RETURN;
+            }
+            case Stmt.BreakStmt ignored -> {
+                return BREAK;
+            }
+            case Stmt.ContinueStmt ignored -> {
+                return CONTINUE;
+            }
+            case Stmt.UseStmt s -> throw Operators.error(s.path.line, "'use' is not supported by the interpreter.");
+            default -> throw new IllegalStateException(
+                    "[Programmatic error] unknown statement " + stmt.getClass().getSimpleName());
+        }
+        return null;
+    }
+
+    private boolean condition(Expr expr, int line, int site) throws YsharpError {
+        if (nodes) {
+            try {
+                return root(expr).executeBool();
+            } catch (Node.UnexpectedResult e) {
+                return Operators.requireBool(e.value, "Condition", line);
+            }
+        }
+        if (marks.kind(expr) == Unboxing.BOOL) {
+            try {
+                return branch(site, evaluateBool(expr));
+            } catch (Unboxing.Deopt deopt) {
+                marks.clear(expr);
+            }
+        }
+        return branch(site, Operators.requireBool(evaluate(expr), "Condition", line));
+    }
+
+    private Object executeFor(Stmt.ForStmt stmt) throws YsharpError {
+        if (stmt.initializer instanceof Stmt.VarStmt var && frame.isCell(var.slot)) {
+            frame.slots[var.slot] = new Cell(null);
+        }
+        if (stmt.initializer != null) execute(stmt.initializer);
+
+        while (stmt.condition == null ? branch(site(stmt), true)
+                : condition(stmt.condition, stmt.keyword.line, site(stmt))) {
+            step(stmt.keyword.line);
+            Object signal = execute(stmt.body);
+            if (signal == BREAK) break;
+            if (signal != null && signal != CONTINUE) return signal;
+            if (stmt.increment != null) evaluate(stmt.increment);
+        }
+        return null;
+    }
+
+    /** the limit and the factors are evaluated once; derived values advance by step * factor */
+    private Object executeCountedFor(Stmt.CountedForStmt stmt) throws YsharpError {
+        int line = stmt.keyword.line;
+        Object[] slots = frame.slots;
+        Object i = evaluate(stmt.start);
+        slots[stmt.slot] = i;
+        Object limit = evaluate(stmt.limit);
+
+        int count = stmt.derived.size();
+        Object[] strides = new Object[count];
+        for (int d = 0; d < count; d++) {
+            Stmt.CountedForStmt.Derived derived = stmt.derived.get(d);
+            Object factor = evaluate(derived.factor);
+            slots[derived.slot] = Operators.multiply(i, factor, line);
+            strides[d] = Operators.multiply(stmt.step, factor, line);
+        }
+        if (i instanceof Integer start && limit instanceof Integer end && allInts(strides)) {
+            return countInts(stmt, start, end, strides);
+        }
+
+        String op = stmt.comparison.lexeme;
+        while (branch(site(stmt), counting(Operators.compare(i, limit, op, line), stmt.comparison.type))) {
+            step(line);
+            Object signal = execute(stmt.body);
+            if (signal == BREAK) break;
+            if (signal != null && signal != CONTINUE) return signal;
+
+            i = Operators.add(i, stmt.step, line);
+            slots[stmt.slot] = i;
+            for (int d = 0; d < count; d++) {
+                int derived = stmt.derived.get(d).slot;
+                slots[derived] = Operators.add(slots[derived], strides[d], line);
+            }
+        }
+        return null;
+    }
+
+    /** a counted loop from an int to an int, by int strides: the counter stays an int */
+    private Object countInts(Stmt.CountedForStmt stmt, int i, int limit, Object[] strides) throws YsharpError {
+        int line = stmt.keyword.line;
+        Object[] slots = frame.slots;
+        while (branch(site(stmt), counting(Integer.compare(i, limit), stmt.comparison.type))) {
+            step(line);
+            Object signal = execute(stmt.body);
+            if (signal == BREAK) break;
+            if (signal != null && signal != CONTINUE) return signal;
+
+            i += stmt.step;
+            slots[stmt.slot] = i;
+            for (int d = 0; d < strides.length; d++) {
+                int derived = stmt.derived.get(d).slot;
+                slots[derived] = slots[derived] instanceof Integer value
+                        ? value + (Integer) strides[d] : Operators.add(slots[derived], strides[d], line);
+            }
+        }
+        return null;
+    }
+
+    private static boolean allInts(Object[] values) {
+        for (Object value : values) {
+            if (!(value instanceof Integer)) return false;
+        }
+        return true;
+    }
+
+    /** a condition's value, recorded */
+    private boolean branch(int site, boolean value) {
+        if (profile != null) profile.recordBranch(site, value);
+        return value;
+    }
+
+    private static boolean counting(int comparison, Token.TokenType op) {
+        return switch (op) {
+            case LESS_THAN -> comparison < 0;
+            case LESS_OR_EQUAL -> comparison <= 0;
+            case GREATER_THAN -> comparison > 0;
+            case GREATER_OR_EQUAL -> comparison >= 0;
+            default -> throw new IllegalStateException("[Programmatic error] not a comparison: " + op);
+        };
+    }
+
+    private Object executeTry(Stmt.TryStmt stmt) throws YsharpError {
+        Object signal = null;
+        YsharpError pending = null;
+        try {
+            signal = execute(stmt.body);
+        } catch (YsharpError error) {
+            if (error.getType() != YsharpError.YsharpErrorType.RUNTIME) throw error;
+            try {
+                frame.slots[stmt.catchSlot] = frame.isCell(stmt.catchSlot)
+                        ? new Cell(error.getMessage()) : error.getMessage();
+                signal = execute(stmt.catchBlock);
+            } catch (YsharpError again) {
+                pending = again;
+            }
+        }
+        if (stmt.finallyBlock == null) {
+            if (pending != null) throw pending;
+            return signal;
+        }
+
+        Object value = returnValue;
+        Object after = execute(stmt.finallyBlock);
+        if (after != null) return after;  // leaving finally early discards the rest
+        if (pending != null) throw pending;
+        returnValue = value;
+        return signal;
+    }
+
+    private Object executeSwitch(Stmt.SwitchStmt stmt) throws YsharpError {
+        if (profile != null) profile.recordExecution(site(stmt));
+        Object subject = evaluate(stmt.subject);
+        SwitchTable table = switchTables.computeIfAbsent(stmt, SwitchTable::of);
+        Stmt.BlockStmt body = stmt.defaultBlock;
+        if (table.kind() != SwitchTable.Kind.LINEAR) {
+            body = table.select(subject);
+        } else {
+            for (Stmt.SwitchStmt.Case c : stmt.cases) {
+                if (Operators.isEqual(subject, evaluate(c.value))) {
+                    body = c.body;
+                    break;
+                }
+            }
+        }
+        if (body == null) return null;
+        Object signal = execute(body);
+        return signal == BREAK ? null : signal;
+    }
+
+    // expressions
+
+    /** a returned expression: a tail call leaves its callee and arguments for the call loop */
+    private Object evaluateTail(Expr expr) throws YsharpError {
+        switch (expr) {
+            case Expr.GroupingExpr e -> {
+                return evaluateTail(e.expression);
+            }
+            case Expr.TernaryExpr e -> {
+                return condition(e.condition, line(e.condition), site(e))
+                        ? evaluateTail(e.thenBranch) : evaluateTail(e.elseBranch);
+            }
+            case Expr.CallExpr e when e.tail -> {
+                tailCallee = evaluate(e.callee);
+                if (profile != null) profile.recordCall(site(e), tailCallee);
+                tailArguments = arguments(e);
+                tailLine = line(e);
+                return TAIL;
+            }
+            default -> {
+                return evaluate(expr);
+            }
+        }
+    }
+
+    private Object evaluate(Expr expr) throws YsharpError {
+        if (nodes) return root(expr).execute();
+        return switch (expr) {
+            case Expr.LiteralExpr e -> Operators.literal(e.token.literal);
+            case Expr.VariableExpr e -> read(access(e));
+            case Expr.GroupingExpr e -> evaluate(e.expression);
+            case Expr.BinaryExpr e -> marks.kind(e) != Unboxing.BOXED ? unboxed(e) : binary(e);
+            case Expr.LogicalExpr e -> marks.kind(e) != Unboxing.BOXED ? unboxed(e) : logical(e);
+            case Expr.UnaryExpr e -> switch (e.op.type) {
+                case PLUS_PLUS -> increment(e.expr, 1, e.op, true);
+                case MINUS_MINUS -> increment(e.expr, -1, e.op, true);
+                default -> marks.kind(e) != Unboxing.BOXED
+                        ? unboxed(e) : Operators.unary(e.op.type, evaluate(e.expr), e.op.line);
+            };
+            case Expr.PostfixExpr e ->
+                    increment(e.operand, e.op.type == Token.TokenType.PLUS_PLUS ? 1 : -1, e.op, false);
+            case Expr.AssignmentExpr e -> assign(e);
+            case Expr.TernaryExpr e -> marks.kind(e) != Unboxing.BOXED ? unboxed(e)
+                    : condition(e.condition, line(e.condition), site(e))
+                    ? evaluate(e.thenBranch) : evaluate(e.elseBranch);
+            case Expr.GetExpr e -> get(evaluate(e.object), e.name);
+            case Expr.SetExpr e -> set(evaluate(e.object), e.name, evaluate(e.value));
+            case Expr.CallExpr e -> {
+                Object callee = evaluate(e.callee);
+                if (profile != null) profile.recordCall(site(e), callee);
+                yield call(callee, arguments(e), line(e));
+            }
+            case Expr.ArrayInitializerExpr e -> {
+                List<Object> array = new ArrayList<>(e.elements.size());
+                for (Expr element : e.elements) array.add(evaluate(element));
+                yield array;
+            }
+            case Expr.MapInitializerExpr e -> {
+                Map<String, Object> map = new LinkedHashMap<>();
+                for (Expr.MapInitializerExpr.Entry entry : e.entries) {
+                    map.put((String) Operators.literal(entry.key.literal), evaluate(entry.value));
+                }
+                yield map;
+            }
+            default -> throw new IllegalStateException(
+                    "[Programmatic error] unknown expression " + expr.getClass().getSimpleName());
+        };
+    }
+
+    /** the nodes of {@code expr} for this run, compiled the first time it is evaluated */
+    private Node.Root root(Expr expr) {
+        Map<Expr, Node.Root> owned = roots.computeIfAbsent(owner, o -> new IdentityHashMap<>());
+        Node.Root root = owned.get(expr);
+        if (root == null) {
+            root = new Node.Root(Node.compile(expr, this));
+            owned.put(expr, root);
+        }
+        return root;
+    }
+
+    // unboxed evaluation
+
+    /** a marked expression evaluated on primitives, its value boxed once */
+    private Object unboxed(Expr expr) throws YsharpError {
+        try {
+            return switch (marks.kind(expr)) {
+                case Unboxing.INT -> Integer.valueOf(evaluateInt(expr));
+                case Unboxing.DOUBLE -> Double.valueOf(evaluateDouble(expr));
+                case Unboxing.BOOL -> Boolean.valueOf(evaluateBool(expr));
+                default -> Character.valueOf((char) evaluateInt(expr));
+            };
+        } catch (Unboxing.Deopt deopt) {
+            marks.clear(expr);
+            return evaluate(expr);
+        }
+    }
+
+    /** an expression marked int or char */
+    private int evaluateInt(Expr expr) throws YsharpError {
+        switch (expr) {
+            case Expr.LiteralExpr e -> {
+                return e.token.literal instanceof Token.Literal.Chr c
+                        ? c.value() : ((Token.Literal.Int) e.token.literal).value();
+            }
+            case Expr.VariableExpr e -> {
+                Object value = read(access(e));
+                byte kind = marks.kind(e);
+                if (kind == Unboxing.INT && value instanceof Integer i) return i;
+                if (kind == Unboxing.CHAR && value instanceof Character c) return c;
+                throw Unboxing.DEOPT;
+            }
+            case Expr.GroupingExpr e -> {
+                return evaluateInt(e.expression);
+            }
+            case Expr.UnaryExpr e -> {
+                int operand = evaluateInt(e.expr);
+                return e.op.type == Token.TokenType.MINUS ? -operand
+                        : e.op.type == Token.TokenType.BITWISE_NOT ? ~operand : operand;
+            }
+            case Expr.BinaryExpr e -> {
+                int left = evaluateInt(e.left);
+                int right = evaluateInt(e.right);
+                return switch (e.op.type) {
+                    case PLUS -> left + right;
+                    case MINUS -> left - right;
+                    case MULTIPLY -> left * right;
+                    case DIVIDE -> Operators.divide(left, right, e.op.line);
+                    case MODULO -> Operators.modulo(left, right, e.op.line);
+                    case LEFT_SHIFT -> left << right;
+                    case RIGHT_SHIFT -> left >> right;
+                    case BITWISE_AND -> left & right;
+                    case BITWISE_OR -> left | right;
+                    case BITWISE_XOR -> left ^ right;
+                    default -> throw unmarked(e);
+                };
+            }
+            case Expr.TernaryExpr e -> {
+                return evaluateBool(e.condition) ? evaluateInt(e.thenBranch) : evaluateInt(e.elseBranch);
+            }
+            default -> throw unmarked(expr);
+        }
+    }
+
+    /** an expression marked double, int or char; ints and chars promote */
+    private double evaluateDouble(Expr expr) throws YsharpError {
+        if (marks.kind(expr) != Unboxing.DOUBLE) return evaluateInt(expr);
+        switch (expr) {
+            case Expr.LiteralExpr e -> {
+                return ((Token.Literal.Double) e.token.literal).value();
+            }
+            case Expr.VariableExpr e -> {
+                if (read(access(e)) instanceof Double d) return d;
+                throw Unboxing.DEOPT;
+            }
+            case Expr.GroupingExpr e -> {
+                return evaluateDouble(e.expression);
+            }
+            case Expr.UnaryExpr e -> {
+                double operand = evaluateDouble(e.expr);
+                return e.op.type == Token.TokenType.MINUS ? -operand : operand;
+            }
+            case Expr.BinaryExpr e -> {
+                double left = evaluateDouble(e.left);
+                double right = evaluateDouble(e.right);
+                return switch (e.op.type) {
+                    case PLUS -> left + right;
+                    case MINUS -> left - right;
+                    case MULTIPLY -> left * right;
+                    case DIVIDE -> left / right;
+                    case MODULO -> left % right;
+                    default -> throw unmarked(e);
+                };
+            }
+            case Expr.TernaryExpr e -> {
+                return evaluateBool(e.condition) ? evaluateDouble(e.thenBranch) : evaluateDouble(e.elseBranch);
+            }
+            default -> throw unmarked(expr);
+        }
+    }
+
+    /** an expression marked bool; comparisons take their operands unboxed */
+    private boolean evaluateBool(Expr expr) throws YsharpError {
+        switch (expr) {
+            case Expr.LiteralExpr e -> {
+                return ((Token.Literal.Bool) e.token.literal).value();
+            }
+            case Expr.VariableExpr e -> {
+                if (read(access(e)) instanceof Boolean b) return b;
+                throw Unboxing.DEOPT;
+            }
+            case Expr.GroupingExpr e -> {
+                return evaluateBool(e.expression);
+            }
+            case Expr.UnaryExpr e -> {
+                return !evaluateBool(e.expr);
+            }
+            case Expr.LogicalExpr e -> {
+                return e.op.type == Token.TokenType.LOGICAL_AND
+                        ? evaluateBool(e.left) && evaluateBool(e.right)
+                        : evaluateBool(e.left) || evaluateBool(e.right);
+            }
+            case Expr.BinaryExpr e when marks.kind(e.left) == Unboxing.BOOL -> {
+                boolean left = evaluateBool(e.left);
+                boolean right = evaluateBool(e.right);
+                return switch (e.op.type) {
+                    case EQUAL_EQUAL -> left == right;
+                    case BANG_EQUAL -> left != right;
+                    case BITWISE_AND -> left & right;
+                    case BITWISE_OR -> left | right;
+                    case BITWISE_XOR -> left ^ right;
+                    default -> throw unmarked(e);
+                };
+            }
+            case Expr.BinaryExpr e
+                    when Unboxing.isIntLike(marks.kind(e.left)) && Unboxing.isIntLike(marks.kind(e.right)) -> {
+                int left = evaluateInt(e.left);
+                int right = evaluateInt(e.right);
+                return switch (e.op.type) {
+                    case EQUAL_EQUAL -> left == right;
+                    case BANG_EQUAL -> left != right;
+                    case LESS_THAN -> left < right;
+                    case LESS_OR_EQUAL -> left <= right;
+                    case GREATER_THAN -> left > right;
+                    case GREATER_OR_EQUAL -> left >= right;
+                    default -> throw unmarked(e);
+                };
+            }
+            case Expr.BinaryExpr e -> {
+                double left = evaluateDouble(e.left);
+                double right = evaluateDouble(e.right);
+                return switch (e.op.type) {
+                    case EQUAL_EQUAL -> left == right;
+                    case BANG_EQUAL -> left != right;
+                    case LESS_THAN -> left < right;
+                    case LESS_OR_EQUAL -> left <= right;
+                    case GREATER_THAN -> left > right;
+                    case GREATER_OR_EQUAL -> left >= right;
+                    default -> throw unmarked(e);
+                };
+            }
+            case Expr.TernaryExpr e -> {
+                return evaluateBool(e.condition) ? evaluateBool(e.thenBranch) : evaluateBool(e.elseBranch);
+            }
+            default -> throw unmarked(expr);
+        }
+    }
+
+    private static IllegalStateException unmarked(Expr expr) {
+        return new IllegalStateException("[Programmatic error] not an unboxed expression: "
+                + expr.getClass().getSimpleName());
+    }
+
+    private Object[] arguments(Expr.CallExpr call) throws YsharpError {
+        Object[] arguments = new Object[call.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) arguments[i] = evaluate(call.arguments.get(i));
+        return arguments;
+    }
+
+    private Object binary(Expr.BinaryExpr expr) throws YsharpError {
+        Object left = evaluate(expr.left);
+        Object right = evaluate(expr.right);
+        if (profile != null) profile.recordOperands(site(expr), left, right);
+        return Operators.binary(expr.op.type, left, right, expr.op.line);
+    }
+
+    private Object logical(Expr.LogicalExpr expr) throws YsharpError {
+        boolean and = expr.op.type == Token.TokenType.LOGICAL_AND;
+        boolean left = branch(site(expr), Operators.requireBool(evaluate(expr.left),
+                and ? "Operand of '&&'" : "Operand of '||'", expr.op.line));
+        if (left != and) return left;
+        return Operators.requireBool(evaluate(expr.right), "Operand of logical operator", expr.op.line);
+    }
+
+    private Object assign(Expr.AssignmentExpr expr) throws YsharpError {
+        Resolution.Access target = access(target(expr.target, expr.op));
+        Token.TokenType op = Operators.compoundOperator(expr.op.type);
+        Object value = op == null
+                ? evaluate(expr.value)
+                : Operators.binary(op, read(target), evaluate(expr.value), expr.op.line);
+        write(target, value);
+        return value;
+    }
+
+    private Object increment(Expr operand, int delta, Token op, boolean prefix) throws YsharpError {
+        Resolution.Access target = access(target(operand, op));
+        Object old = read(target);
+        Object value = Operators.increment(old, delta, op.line);
+        write(target, value);
+        return prefix ? value : old;
+    }
+
+    private static Expr.VariableExpr target(Expr expr, Token op) throws YsharpError {
+        while (expr instanceof Expr.GroupingExpr grouping) expr = grouping.expression;
+        if (expr instanceof Expr.VariableExpr variable) return variable;
+        throw Operators.error(op.line, "Invalid assignment target.");
+    }
+
+    static Object get(Object object, Token name) throws YsharpError {
+        return get(object, name.lexeme, name.line);
+    }
+
+    static Object get(Object object, String name, int line) throws YsharpError {
+        if (object instanceof Instance instance) {
+            Integer slot = instance.klass.slots.get(name);
+            if (slot == null) throw Operators.error(line, "Undefined property '" + name + "'.");
+            return instance.fields[slot];
+        }
+        return Operators.getProperty(object, name, line);
+    }
+
+    @SuppressWarnings("unchecked")
+    static Object set(Object object, Token name, Object value) throws YsharpError {
+        if (object instanceof Instance instance) {
+            Integer slot = instance.klass.slots.get(name.lexeme);
+            if (slot == null) throw Operators.error(name.line, "Undefined property '" + name.lexeme + "'.");
+            instance.fields[slot] = value;
+            return value;
+        }
+        if (object instanceof Map<?, ?> map) {
+            ((Map<String, Object>) map).put(name.lexeme, value);
+            return value;
+        }
+        throw Operators.error(name.line, "Cannot set property '" + name.lexeme + "' of "
+                + Operators.typeName(object) + ".");
+    }
+
+    /** the line an expression reports errors on */
+    public static int line(Expr expr) {
+        return switch (expr) {
+            case Expr.LiteralExpr e -> e.token.line;
+            case Expr.VariableExpr e -> e.name.line;
+            case Expr.GroupingExpr e -> line(e.expression);
+            case Expr.BinaryExpr e -> e.op.line;
+            case Expr.LogicalExpr e -> e.op.line;
+            case Expr.UnaryExpr e -> e.op.line;
+            case Expr.PostfixExpr e -> e.op.line;
+            case Expr.AssignmentExpr e -> e.op.line;
+            case Expr.TernaryExpr e -> line(e.condition);
+            case Expr.GetExpr e -> e.name.line;
+            case Expr.SetExpr e -> e.name.line;
+            case Expr.CallExpr e -> line(e.callee);
+            case Expr.ArrayInitializerExpr e -> e.elements.isEmpty() ? 0 : line(e.elements.get(0));
+            case Expr.MapInitializerExpr e -> e.entries.isEmpty() ? 0 : e.entries.get(0).key.line;
+            default -> 0;
+        };
+    }
+}
@@ -0,0 +1,78 @@
+package ysharp.interpreter;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The results of a memoized function, keyed by argument values and evicted
+ * least recently used first once {@code capacity} entries are held. Only
+ * calls whose arguments are all immutable values (null, numbers, chars,
+ * bools and strings) are cached; other calls run as usual and count as
+ * neither hits nor misses.
+ */
+public final class MemoCache {
+
+    private static final Object MISSING = new Object();
+
+    private final int capacity;
+    private final Map<List<Object>, Object> results;
+    private long hits;
+    private long misses;
+
+    MemoCache(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.capacity = capacity;
+        this.results = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest) {
+                return size() > MemoCache.this.capacity;
+            }
+        };
+    }
+
+    /** the cache key for {@code arguments}, or null when one of them may change later */
+    static List<Object> key(Object[] arguments) {
+        for (Object argument : arguments) {
+            if (!(argument == null || argument instanceof Integer || argument instanceof Double
+                    || argument instanceof Character || argument instanceof Boolean
+                    || argument instanceof String)) {
+                return null;
+            }
+        }
+        return Arrays.asList(arguments);  // argument arrays are built per call and not reused
+    }
+
+    /** the cached result, or {@link #MISSING} */
+    Object get(List<Object> key) {
+        Object result = results.getOrDefault(key, MISSING);
+        if (result == MISSING) misses++;
+        else hits++;
+        return result;
+    }
+
+    static boolean isMissing(Object result) {
+        return result == MISSING;
+    }
+
+    void put(List<Object> key, Object result) {
+        results.put(key, result);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return results.size();
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+}
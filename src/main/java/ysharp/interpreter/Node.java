@@ -0,0 +1,1022 @@
+package ysharp.interpreter;
+
+import ysharp.YsharpError;
+import ysharp.analysis.Resolution;
+import ysharp.lexer.Token;
+import ysharp.parser.Expr;
+import ysharp.runtime.Operators;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Executable form of an expression, compiled from its tree by
+ * {@link #compile} and run by the interpreter in specializing mode (see
+ * {@link Interpreter#setSpecialization}). A node starts uninitialized and
+ * rewrites itself, in place in its parent, for the operands it sees first:
+ * an operator on two ints becomes an int node, on two doubles a double
+ * node, {@code +} with a string a concatenation, and a property read on an
+ * instance caches the slot of that instance's class. When a speculation
+ * fails the node replaces itself with the generic version, which handles
+ * every value by {@link Operators} and never rewrites again. Each site so
+ * settles on code for the types it actually runs on, which the JIT can
+ * inline.
+ *
+ * <p>Besides {@link #execute}, nodes answer {@link #executeInt},
+ * {@link #executeDouble} and {@link #executeBool}, so specialized parents
+ * take their operands without boxing; a node whose value is of another
+ * kind throws {@link UnexpectedResult} with the value instead.
+ */
+abstract class Node {
+
+    /** a value of another kind than the one asked for */
+    @SuppressWarnings("serial")  // control flow only, never serialized
+    static final class UnexpectedResult extends Exception {
+        final Object value;
+
+        UnexpectedResult(Object value) {
+            super(null, null, false, false);
+            this.value = value;
+        }
+    }
+
+    /** successive shapes a property site sees before it stops caching */
+    private static final int SHAPE_LIMIT = 4;
+
+    Node parent;
+
+    abstract Object execute() throws YsharpError;
+
+    int executeInt() throws YsharpError, UnexpectedResult {
+        return expectInt(execute());
+    }
+
+    double executeDouble() throws YsharpError, UnexpectedResult {
+        return expectDouble(execute());
+    }
+
+    boolean executeBool() throws YsharpError, UnexpectedResult {
+        return expectBool(execute());
+    }
+
+    static int expectInt(Object value) throws UnexpectedResult {
+        if (value instanceof Integer i) return i;
+        throw new UnexpectedResult(value);
+    }
+
+    static double expectDouble(Object value) throws UnexpectedResult {
+        if (value instanceof Double d) return d;
+        throw new UnexpectedResult(value);
+    }
+
+    static boolean expectBool(Object value) throws UnexpectedResult {
+        if (value instanceof Boolean b) return b;
+        throw new UnexpectedResult(value);
+    }
+
+    // rewriting
+
+    /** puts {@code replacement} where this node is in its parent and returns it */
+    final <T extends Node> T replace(T replacement) {
+        replacement.parent = parent;
+        parent.replaceChild(this, replacement);
+        return replacement;
+    }
+
+    void replaceChild(Node child, Node replacement) {
+        throw new IllegalStateException(
+                "[Programmatic error] " + getClass().getSimpleName() + " has no children to replace");
+    }
+
+    final <T extends Node> T adopt(T child) {
+        child.parent = this;
+        return child;
+    }
+
+    /** the node's kind, followed by its operands in parentheses: the shape a tree has settled into */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName();
+    }
+
+    final String describe(Node... children) {
+        StringBuilder sb = new StringBuilder(getClass().getSimpleName()).append('(');
+        for (int i = 0; i < children.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(children[i]);
+        }
+        return sb.append(')').toString();
+    }
+
+    // compiling
+
+    /** the nodes of {@code expr}, all uninitialized */
+    static Node compile(Expr expr, Interpreter interpreter) {
+        return switch (expr) {
+            case Expr.LiteralExpr e -> new Constant(Operators.literal(e.token.literal));
+            case Expr.VariableExpr e -> {
+                Resolution.Access access = interpreter.access(e);
+                yield !access.isCapture() && access.depth() == 0 && !access.boxed()
+                        ? new LocalRead(interpreter, access.slot()) : new Read(interpreter, access);
+            }
+            case Expr.GroupingExpr e -> compile(e.expression, interpreter);
+            case Expr.BinaryExpr e -> new UninitializedBinary(e.op.type, e.op.line,
+                    compile(e.left, interpreter), compile(e.right, interpreter));
+            case Expr.LogicalExpr e -> new Logical(e.op.type == Token.TokenType.LOGICAL_AND, e.op.line,
+                    compile(e.left, interpreter), compile(e.right, interpreter));
+            case Expr.UnaryExpr e -> switch (e.op.type) {
+                case PLUS_PLUS -> increment(e.expr, 1, e.op, true, interpreter);
+                case MINUS_MINUS -> increment(e.expr, -1, e.op, true, interpreter);
+                default -> new UninitializedUnary(e.op.type, e.op.line, compile(e.expr, interpreter));
+            };
+            case Expr.PostfixExpr e ->
+                    increment(e.operand, e.op.type == Token.TokenType.PLUS_PLUS ? 1 : -1, e.op, false, interpreter);
+            case Expr.AssignmentExpr e -> {
+                Expr.VariableExpr target = target(e.target);
+                if (target == null) yield new InvalidTarget(e.op.line);
+                Token.TokenType op = Operators.compoundOperator(e.op.type);
+                Node value = compile(e.value, interpreter);
+                if (op != null) value = new UninitializedBinary(op, e.op.line, compile(target, interpreter), value);
+                yield new Assign(interpreter, interpreter.access(target), value);
+            }
+            case Expr.TernaryExpr e -> new Ternary(Interpreter.line(e.condition), compile(e.condition, interpreter),
+                    compile(e.thenBranch, interpreter), compile(e.elseBranch, interpreter));
+            case Expr.GetExpr e -> new UninitializedGet(e.name, compile(e.object, interpreter));
+            case Expr.SetExpr e -> new SetProperty(e.name, compile(e.object, interpreter), compile(e.value, interpreter));
+            case Expr.CallExpr e -> new Call(interpreter, Interpreter.line(e), compile(e.callee, interpreter),
+                    compileAll(e.arguments, interpreter));
+            case Expr.ArrayInitializerExpr e -> new ArrayLiteral(compileAll(e.elements, interpreter));
+            case Expr.MapInitializerExpr e -> {
+                String[] keys = new String[e.entries.size()];
+                List<Expr> values = new ArrayList<>(keys.length);
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = (String) Operators.literal(e.entries.get(i).key.literal);
+                    values.add(e.entries.get(i).value);
+                }
+                yield new MapLiteral(keys, compileAll(values, interpreter));
+            }
+            default -> throw new IllegalStateException(
+                    "[Programmatic error] unknown expression " + expr.getClass().getSimpleName());
+        };
+    }
+
+    private static Node[] compileAll(List<Expr> exprs, Interpreter interpreter) {
+        Node[] nodes = new Node[exprs.size()];
+        for (int i = 0; i < nodes.length; i++) nodes[i] = compile(exprs.get(i), interpreter);
+        return nodes;
+    }
+
+    private static Expr.VariableExpr target(Expr expr) {
+        while (expr instanceof Expr.GroupingExpr grouping) expr = grouping.expression;
+        return expr instanceof Expr.VariableExpr variable ? variable : null;
+    }
+
+    private static Node increment(Expr operand, int delta, Token op, boolean prefix, Interpreter interpreter) {
+        Expr.VariableExpr target = target(operand);
+        return target == null ? new InvalidTarget(op.line)
+                : new Increment(interpreter, interpreter.access(target), delta, op.line, prefix);
+    }
+
+    // roots
+
+    /** the top of a compiled expression, kept by the interpreter that compiled it for the rest of the run */
+    static final class Root extends Node {
+        Node child;
+
+        Root(Node child) {
+            this.child = adopt(child);
+        }
+
+        @Override
+        Object execute() throws YsharpError {
+            return child.execute();
+        }
+
+        @Override
+        boolean executeBool() throws YsharpError, UnexpectedResult {
+            return child.executeBool();
+        }
+
+        @Override
+        void replaceChild(Node old, Node replacement) {
+            child = replacement;
+        }
+
+        @Override
+        public String toString() {
+            return child.toString();
+        }
+    }
+
+    // values and variables
+
+    static final class Constant extends Node {
+        private final Object value;
+
+        Constant(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object execute() {
+            return value;
+        }
+    }
+
+    /** a plain local of the current frame */
+    static final class LocalRead extends Node {
+        private final Interpreter interpreter;
+        private final int slot;
+
+        LocalRead(Interpreter interpreter, int slot) {
+            this.interpreter = interpreter;
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute() {
+            return interpreter.frame.slots[slot];
+        }
+    }
+
+    /** a capture, a cell, or a variable of an outer frame */
+    static final class Read extends Node {
+        private final Interpreter interpreter;
+        private final Resolution.Access variable;
+
+        Read(Interpreter interpreter, Resolution.Access variable) {
+            this.interpreter = interpreter;
+            this.variable = variable;
+        }
+
+        @Override
+        Object execute() {
+            return interpreter.read(variable);
+        }
+    }
+
+    static final class Assign extends Node {
+        private final Interpreter interpreter;
+        private final Resolution.Access target;
+        private Node value;
+
+        Assign(Interpreter interpreter, Resolution.Access target, Node value) {
+            this.interpreter = interpreter;
+            this.target = target;
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute() throws YsharpError {
+            Object result = value.execute();
+            interpreter.write(target, result);
+            return result;
+        }
+
+        @Override
+        void replaceChild(Node old, Node replacement) {
+            value = replacement;
+        }
+
+        @Override
+        public String toString() {
+            return describe(value);
+        }
+    }
+
+    static final class Increment extends Node {
+        private final Interpreter interpreter;
+        private final Resolution.Access target;
+        private final int delta;
+        private final int line;
+        private final boolean prefix;
+
+        Increment(Interpreter interpreter, Resolution.Access target, int delta, int line, boolean prefix) {
+            this.interpreter = interpreter;
+            this.target = target;
+            this.delta = delta;
+            this.line = line;
+            this.prefix = prefix;
+        }
+
+        @Override
+        Object execute() throws YsharpError {
+            Object old = interpreter.read(target);
+            Object value = old instanceof Integer i ? Integer.valueOf(i + delta) : Operators.increment(old, delta, line);
+            interpreter.write(target, value);
+            return prefix ? value : old;
+        }
+    }
+
+    static final class InvalidTarget extends Node {
+        private final int line;
+
+        InvalidTarget(int line) {
+            this.line = line;
+        }
+
+        @Override
+        Object execute() throws YsharpError {
+            throw Operators.error(line, "Invalid assignment target.");
+        }
+    }
+
+    // binary operators
+
+    abstract static class Binary extends Node {
+        final Token.TokenType op;
+        final int line;
+        Node left;
+        Node right;
+
+        Binary(Token.TokenType op, int line, Node left, Node right) {
+            this.op = op;
+            this.line = line;
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        final void replaceChild(Node old, Node replacement) {
+            if (left == old) left = replacement;
+            else right = replacement;
+        }
+
+        @Override
+        public final String toString() {
+            return describe(left, right);
+        }
+
+        /** a speculation failed: from now on the operator runs generically */
+        final Object generalize(Object leftValue, Object rightValue) throws YsharpError {
+            replace(new GenericBinary(op, line, left, right));
+            return Operators.binary(op, leftValue, rightValue, line);
+        }
+    }
+
+    static final class UninitializedBinary extends Binary {
+        UninitializedBinary(Token.TokenType op, int line, Node left, Node right) {
+            super(op, line, left, right);
+        }
+
+        @Override
+        Object execute() throws YsharpError {
+            Object leftValue = left.execute();
+            Object rightValue = right.execute();
+            replace(specialize(leftValue, rightValue));
+            return Operators.binary(op, leftValue, rightValue, line);
+        }
+
+        private Binary specialize(Object leftValue, Object rightValue) {
+            boolean comparison = switch (op) {
+                case EQUAL_EQUAL, BANG_EQUAL, LESS_THAN, LESS_OR_EQUAL, GREATER_THAN, GREATER_OR_EQUAL -> true;
+                default -> false;
+            };
+            if (leftValue instanceof Integer && rightValue instanceof Integer) {
+                return comparison ? new IntComparison(op, line, left, right) : new IntArithmetic(op, line, left, right);
+            }
+            if (leftValue instanceof Double && rightValue instanceof Double) {
+                if (comparison) return new DoubleComparison(op, line, left, right);
+                switch (op) {
+                    case PLUS, MINUS, MULTIPLY, DIVIDE, MODULO -> {
+                        return new DoubleArithmetic(op, line, left, right);
+                    }
+                    default -> { }
+                }
+            }
+            if (op == Token.TokenType.PLUS && (leftValue instanceof String || rightValue instanceof String)) {
+                return new Concatenation(line, left, right);
+            }
+            return new GenericBinary(op, line, left, right);
+        }
+    }
+
+    static final class GenericBinary extends Binary {
+        GenericBinary(Token.TokenType op, int line, Node left, Node right) {
+            super(op, line, left, right);
+        }
+
+        @Override
+        Object execute() throws YsharpError {
+            Object leftValue = left.execute();
+            return Operators.binary(op, leftValue, right.execute(), line);
+        }
+    }
+
+    static final class IntArithmetic extends Binary {
+        IntArithmetic(Token.TokenType op, int line, Node left, Node right) {
+            super(op, line, left, right);
+        }
+
+        @Override
+        Object execute() throws YsharpError {
+            try {
+                return executeInt();
+            } catch (UnexpectedResult e) {
+                return e.value;
+            }
+        }
+
+        @Override
+        int executeInt() throws YsharpError, UnexpectedResult {
+            int a;
+            try {
+                a = left.executeInt();
+            } catch (UnexpectedResult e) {
+                return expectInt(generalize(e.value, right.execute()));
+            }
+            int b;
+            try {
+                b = right.executeInt();
+            } catch (UnexpectedResult e) {
+                return expectInt(generalize(a, e.value));
+            }
+            return switch (op) {
+                case PLUS -> a + b;
+                case MINUS -> a - b;
+                case MULTIPLY -> a * b;
+                case DIVIDE -> Operators.divide(a, b, line);
+                case MODULO -> Operators.modulo(a, b, line);
+                case LEFT_SHIFT -> a << b;
+                case RIGHT_SHIFT -> a >> b;
+                case BITWISE_AND -> a & b;
+                case BITWISE_OR -> a | b;
+                case BITWISE_XOR -> a ^ b;
+                default -> throw new IllegalStateException("[Programmatic error] not an int operator: " + op);
+            };
+        }
+    }
+
+    static final class IntComparison extends Binary {
+        IntComparison(Token.TokenType op, int line, Node left, Node right) {
+            super(op, line, left, right);
+        }
+
+        @Override
+        Object execute() throws YsharpError {
+            try {
+                return executeBool();
+            } catch (UnexpectedResult e) {
+                return e.value;
+            }
+        }
+
+        @Override
+        boolean executeBool() throws YsharpError, UnexpectedResult {
+            int a;
+            try {
+                a = left.executeInt();
+            } catch (UnexpectedResult e) {
+                return expectBool(generalize(e.value, right.execute()));
+            }
+            int b;
+            try {
+                b = right.executeInt();
+            } catch (UnexpectedResult e) {
+                return expectBool(generalize(a, e.value));
+            }
+            return switch (op) {
+                case EQUAL_EQUAL -> a == b;
+                case BANG_EQUAL -> a != b;
+                case LESS_THAN -> a < b;
+                case LESS_OR_EQUAL -> a <= b;
+                case GREATER_THAN -> a > b;
+                case GREATER_OR_EQUAL -> a >= b;
+                default -> throw new IllegalStateException("[Programmatic error] not a comparison: " + op);
+            };
+        }
+    }
+
+    static final class DoubleArithmetic extends Binary {
+        DoubleArithmetic(Token.TokenType op, int line, Node left, Node right) {
+            super(op, line, left, right);
+        }
+
+        @Override
+        Object execute() throws YsharpError {
+            try {
+                return executeDouble();
+            } catch (UnexpectedResult e) {
+                return e.value;
+            }
+        }
+
+        @Override
+        double executeDouble() throws YsharpError, UnexpectedResult {
+            double a;
+            try {
+                a = left.executeDouble();
+            } catch (UnexpectedResult e) {
+                return expectDouble(generalize(e.value, right.execute()));
+            }
+            double b;
+            try {
+                b = right.executeDouble();
+            } catch (UnexpectedResult e) {
+                return expectDouble(generalize(a, e.value));
+            }
+            return switch (op) {
+                case PLUS -> a + b;
+                case MINUS -> a - b;
+                case MULTIPLY -> a * b;
+                case DIVIDE -> a / b;
+                case MODULO -> a % b;
+                default -> throw new IllegalStateException("[Programmatic error] not a double operator: " + op);
+            };
+        }
+    }
+
+    /** NaN compares false, as in {@link Operators#compare} */
+    static final class DoubleComparison extends Binary {
+        DoubleComparison(Token.TokenType op, int line, Node left, Node right) {
+            super(op, line, left, right);
+        }
+
+        @Override
+        Object execute() throws YsharpError {
+            try {
+                return executeBool();
+            } catch (UnexpectedResult e) {
+                return e.value;
+            }
+        }
+
+        @Override
+        boolean executeBool() throws YsharpError, UnexpectedResult {
+            double a;
+            try {
+                a = left.executeDouble();
+            } catch (UnexpectedResult e) {
+                return expectBool(generalize(e.value, right.execute()));
+            }
+            double b;
+            try {
+                b = right.executeDouble();
+            } catch (UnexpectedResult e) {
+                return expectBool(generalize(a, e.value));
+            }
+            return switch (op) {
+                case EQUAL_EQUAL -> a == b;
+                case BANG_EQUAL -> a != b;
+                case LESS_THAN -> a < b;
+                case LESS_OR_EQUAL -> a <= b;
+                case GREATER_THAN -> a > b;
+                case GREATER_OR_EQUAL -> a >= b;
+                default -> throw new IllegalStateException("[Programmatic error] not a comparison: " + op);
+            };
+        }
+    }
+
+    /** {@code +} with a string on either side */
+    static final class Concatenation extends Binary {
+        Concatenation(int line, Node left, Node right) {
+            super(Token.TokenType.PLUS, line, left, right);
+        }
+
+        @Override
+        Object execute() throws YsharpError {
+            Object leftValue = left.execute();
+            Object rightValue = right.execute();
+            if (leftValue instanceof String || rightValue instanceof String) {
+                return Operators.stringify(leftValue).concat(Operators.stringify(rightValue));
+            }
+            return generalize(leftValue, rightValue);
+        }
+    }
+
+    // logical, unary and ternary operators
+
+    static final class Logical extends Node {
+        private final boolean and;
+        private final int line;
+        private Node left;
+        private Node right;
+
+        Logical(boolean and, int line, Node left, Node right) {
+            this.and = and;
+            this.line = line;
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        Object execute() throws YsharpError {
+            try {
+                return executeBool();
+            } catch (UnexpectedResult e) {
+                throw new IllegalStateException("[Programmatic error] logical operators are bools", e);
+            }
+        }
+
+        @Override
+        boolean executeBool() throws YsharpError, UnexpectedResult {
+            boolean value;
+            try {
+                value = left.executeBool();
+            } catch (UnexpectedResult e) {
+                value = Operators.requireBool(e.value, and ? "Operand of '&&'" : "Operand of '||'", line);
+            }
+            if (value != and) return value;
+            try {
+                return right.executeBool();
+            } catch (UnexpectedResult e) {
+                return Operators.requireBool(e.value, "Operand of logical operator", line);
+            }
+        }
+
+        @Override
+        void replaceChild(Node old, Node replacement) {
+            if (left == old) left = replacement;
+            else right = replacement;
+        }
+
+        @Override
+        public String toString() {
+            return describe(left, right);
+        }
+    }
+
+    abstract static class Unary extends Node {
+        final Token.TokenType op;
+        final int line;
+        Node operand;
+
+        Unary(Token.TokenType op, int line, Node operand) {
+            this.op = op;
+            this.line = line;
+            this.operand = adopt(operand);
+        }
+
+        @Override
+        final void replaceChild(Node old, Node replacement) {
+            operand = replacement;
+        }
+
+        @Override
+        public final String toString() {
+            return describe(operand);
+        }
+
+        final Object generalize(Object value) throws YsharpError {
+            replace(new GenericUnary(op, line, operand));
+            return Operators.unary(op, value, line);
+        }
+    }
+
+    static final class UninitializedUnary extends Unary {
+        UninitializedUnary(Token.TokenType op, int line, Node operand) {
+            super(op, line, operand);
+        }
+
+        @Override
+        Object execute() throws YsharpError {
+            Object value = operand.execute();
+            boolean arithmetic = op == Token.TokenType.MINUS || op == Token.TokenType.PLUS;
+            Unary specialized;
+            if (value instanceof Integer && (arithmetic || op == Token.TokenType.BITWISE_NOT)) {
+                specialized = new IntUnary(op, line, operand);
+            } else if (value instanceof Double && arithmetic) {
+                specialized = new DoubleUnary(op, line, operand);
+            } else if (value instanceof Boolean && op == Token.TokenType.BANG) {
+                specialized = new Not(line, operand);
+            } else {
+                specialized = new GenericUnary(op, line, operand);
+            }
+            replace(specialized);
+            return Operators.unary(op, value, line);
+        }
+    }
+
+    static final class GenericUnary extends Unary {
+        GenericUnary(Token.TokenType op, int line, Node operand) {
+            super(op, line, operand);
+        }
+
+        @Override
+        Object execute() throws YsharpError {
+            return Operators.unary(op, operand.execute(), line);
+        }
+    }
+
+    static final class IntUnary extends Unary {
+        IntUnary(Token.TokenType op, int line, Node operand) {
+            super(op, line, operand);
+        }
+
+        @Override
+        Object execute() throws YsharpError {
+            try {
+                return executeInt();
+            } catch (UnexpectedResult e) {
+                return e.value;
+            }
+        }
+
+        @Override
+        int executeInt() throws YsharpError, UnexpectedResult {
+            int value;
+            try {
+                value = operand.executeInt();
+            } catch (UnexpectedResult e) {
+                return expectInt(generalize(e.value));
+            }
+            return op == Token.TokenType.MINUS ? -value : op == Token.TokenType.BITWISE_NOT ? ~value : value;
+        }
+    }
+
+    static final class DoubleUnary extends Unary {
+        DoubleUnary(Token.TokenType op, int line, Node operand) {
+            super(op, line, operand);
+        }
+
+        @Override
+        Object execute() throws YsharpError {
+            try {
+                return executeDouble();
+            } catch (UnexpectedResult e) {
+                return e.value;
+            }
+        }
+
+        @Override
+        double executeDouble() throws YsharpError, UnexpectedResult {
+            double value;
+            try {
+                value = operand.executeDouble();
+            } catch (UnexpectedResult e) {
+                return expectDouble(generalize(e.value));
+            }
+            return op == Token.TokenType.MINUS ? -value : value;
+        }
+    }
+
+    static final class Not extends Unary {
+        Not(int line, Node operand) {
+            super(Token.TokenType.BANG, line, operand);
+        }
+
+        @Override
+        Object execute() throws YsharpError {
+            try {
+                return executeBool();
+            } catch (UnexpectedResult e) {
+                return e.value;
+            }
+        }
+
+        @Override
+        boolean executeBool() throws YsharpError, UnexpectedResult {
+            try {
+                return !operand.executeBool();
+            } catch (UnexpectedResult e) {
+                return expectBool(generalize(e.value));
+            }
+        }
+    }
+
+    static final class Ternary extends Node {
+        private final int line;
+        private Node condition;
+        private Node thenBranch;
+        private Node elseBranch;
+
+        Ternary(int line, Node condition, Node thenBranch, Node elseBranch) {
+            this.line = line;
+            this.condition = adopt(condition);
+            this.thenBranch = adopt(thenBranch);
+            this.elseBranch = adopt(elseBranch);
+        }
+
+        private boolean holds() throws YsharpError {
+            try {
+                return condition.executeBool();
+            } catch (UnexpectedResult e) {
+                return Operators.requireBool(e.value, "Condition", line);
+            }
+        }
+
+        @Override
+        Object execute() throws YsharpError {
+            return holds() ? thenBranch.execute() : elseBranch.execute();
+        }
+
+        @Override
+        int executeInt() throws YsharpError, UnexpectedResult {
+            return holds() ? thenBranch.executeInt() : elseBranch.executeInt();
+        }
+
+        @Override
+        double executeDouble() throws YsharpError, UnexpectedResult {
+            return holds() ? thenBranch.executeDouble() : elseBranch.executeDouble();
+        }
+
+        @Override
+        boolean executeBool() throws YsharpError, UnexpectedResult {
+            return holds() ? thenBranch.executeBool() : elseBranch.executeBool();
+        }
+
+        @Override
+        void replaceChild(Node old, Node replacement) {
+            if (condition == old) condition = replacement;
+            else if (thenBranch == old) thenBranch = replacement;
+            else elseBranch = replacement;
+        }
+
+        @Override
+        public String toString() {
+            return describe(condition, thenBranch, elseBranch);
+        }
+    }
+
+    // properties
+
+    abstract static class Get extends Node {
+        final Token name;
+        Node object;
+
+        Get(Token name, Node object) {
+            this.name = name;
+            this.object = adopt(object);
+        }
+
+        @Override
+        final void replaceChild(Node old, Node replacement) {
+            object = replacement;
+        }
+
+        @Override
+        public final String toString() {
+            return describe(object);
+        }
+    }
+
+    /** caches the slot of the first instance's class, if the first object is an instance */
+    static final class UninitializedGet extends Get {
+        UninitializedGet(Token name, Node object) {
+            super(name, object);
+        }
+
+        @Override
+        Object execute() throws YsharpError {
+            Object value = object.execute();
+            if (value instanceof Instance instance && instance.klass.slots.get(name.lexeme) instanceof Integer slot) {
+                replace(new CachedGet(name, object, instance.klass, slot, 1));
+            } else {
+                replace(new GenericGet(name, object));
+            }
+            return Interpreter.get(value, name);
+        }
+    }
+
+    /** a field load guarded by the class of the instance; another class moves the cache to it, a few times */
+    static final class CachedGet extends Get {
+        private final ClassValue shape;
+        private final int slot;
+        private final int shapes;
+
+        CachedGet(Token name, Node object, ClassValue shape, int slot, int shapes) {
+            super(name, object);
+            this.shape = shape;
+            this.slot = slot;
+            this.shapes = shapes;
+        }
+
+        @Override
+        Object execute() throws YsharpError {
+            Object value = object.execute();
+            if (value instanceof Instance instance && instance.klass == shape) return instance.fields[slot];
+
+            if (shapes < SHAPE_LIMIT && value instanceof Instance instance
+                    && instance.klass.slots.get(name.lexeme) instanceof Integer other) {
+                replace(new CachedGet(name, object, instance.klass, other, shapes + 1));
+            } else {
+                replace(new GenericGet(name, object));
+            }
+            return Interpreter.get(value, name);
+        }
+    }
+
+    static final class GenericGet extends Get {
+        GenericGet(Token name, Node object) {
+            super(name, object);
+        }
+
+        @Override
+        Object execute() throws YsharpError {
+            return Interpreter.get(object.execute(), name);
+        }
+    }
+
+    static final class SetProperty extends Node {
+        private final Token name;
+        private Node object;
+        private Node value;
+
+        SetProperty(Token name, Node object, Node value) {
+            this.name = name;
+            this.object = adopt(object);
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute() throws YsharpError {
+            Object target = object.execute();
+            return Interpreter.set(target, name, value.execute());
+        }
+
+        @Override
+        void replaceChild(Node old, Node replacement) {
+            if (object == old) object = replacement;
+            else value = replacement;
+        }
+    }
+
+    // calls and literals
+
+    static final class Call extends Node {
+        private final Interpreter interpreter;
+        private final int line;
+        private Node callee;
+        private final Node[] arguments;
+
+        Call(Interpreter interpreter, int line, Node callee, Node[] arguments) {
+            this.interpreter = interpreter;
+            this.line = line;
+            this.callee = adopt(callee);
+            this.arguments = arguments;
+            for (Node argument : arguments) adopt(argument);
+        }
+
+        @Override
+        Object execute() throws YsharpError {
+            Object function = callee.execute();
+            Object[] values = new Object[arguments.length];
+            for (int i = 0; i < values.length; i++) values[i] = arguments[i].execute();
+            return interpreter.call(function, values, line);
+        }
+
+        @Override
+        void replaceChild(Node old, Node replacement) {
+            if (callee == old) {
+                callee = replacement;
+                return;
+            }
+            replaceIn(arguments, old, replacement);
+        }
+    }
+
+    static final class ArrayLiteral extends Node {
+        private final Node[] elements;
+
+        ArrayLiteral(Node[] elements) {
+            this.elements = elements;
+            for (Node element : elements) adopt(element);
+        }
+
+        @Override
+        Object execute() throws YsharpError {
+            List<Object> array = new ArrayList<>(elements.length);
+            for (Node element : elements) array.add(element.execute());
+            return array;
+        }
+
+        @Override
+        void replaceChild(Node old, Node replacement) {
+            replaceIn(elements, old, replacement);
+        }
+    }
+
+    static final class MapLiteral extends Node {
+        private final String[] keys;
+        private final Node[] values;
+
+        MapLiteral(String[] keys, Node[] values) {
+            this.keys = keys;
+            this.values = values;
+            for (Node value : values) adopt(value);
+        }
+
+        @Override
+        Object execute() throws YsharpError {
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (int i = 0; i < keys.length; i++) map.put(keys[i], values[i].execute());
+            return map;
+        }
+
+        @Override
+        void replaceChild(Node old, Node replacement) {
+            replaceIn(values, old, replacement);
+        }
+    }
+
+    private static void replaceIn(Node[] children, Node old, Node replacement) {
+        for (int i = 0; i < children.length; i++) {
+            if (children[i] == old) {
+                children[i] = replacement;
+                return;
+            }
+        }
+    }
+}
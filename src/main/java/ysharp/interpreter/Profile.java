@@ -0,0 +1,365 @@
+package ysharp.interpreter;
+
+import ysharp.YsharpError;
+import ysharp.analysis.Type;
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+import ysharp.runtime.Operators;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * What a program did while it ran, per site: the operand types each binary
+ * operator saw, how often each condition held, which functions each call
+ * site reached, and how often each switch ran. Sites are the binary,
+ * logical, ternary and call expressions and the if, while, for and switch
+ * statements, numbered in source order (see {@link #site}), so the
+ * numbers of a program are the same in every process.
+ *
+ * <p>A profile belongs to one source text, identified by {@link #hash}, and
+ * is saved to and loaded from a small text file. Loading a file recorded
+ * for another source, or one that cannot be read as a profile, gives an
+ * empty profile, as does running a program whose site count differs from
+ * the one recorded; stale data is never applied.
+ *
+ * <p>The interpreter records into the profile set with
+ * {@link Interpreter#setProfile}, and starts from a loaded one set with
+ * {@link Interpreter#setWarmStart}: switches that ran get their dispatch
+ * tables before the program starts, functions called often enough are
+ * compiled up front, and operands that only held one primitive kind are
+ * evaluated unboxed.
+ */
+public final class Profile {
+
+    private static final String HEADER = "ysharp-profile 1";
+
+    private static final class Site {
+        long count;  // evaluations, executions or condition tests
+        long taken;  // conditions: times they held
+        int left;    // binary operators: Type bit sets of the operands seen
+        int right;
+        final Map<String, Long> callees = new TreeMap<>();
+    }
+
+    private final String sourceHash;
+    private int siteCount = -1;  // of the program recorded, -1 before any
+    private final Map<Integer, Site> sites = new TreeMap<>();
+    private Map<Object, Integer> numbers = Map.of();  // of the program last attached
+
+    public Profile(String sourceHash) {
+        this.sourceHash = sourceHash;
+    }
+
+    /** the key of a source text: its SHA-256, in hex */
+    public static String hash(String source) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public String sourceHash() {
+        return sourceHash;
+    }
+
+    public boolean isEmpty() {
+        return sites.isEmpty();
+    }
+
+    // sites
+
+    /** numbers the sites of {@code program}, by node */
+    static Map<Object, Integer> number(List<Stmt> program) {
+        Map<Object, Integer> sites = new IdentityHashMap<>();
+        for (Stmt stmt : program) number(stmt, sites);
+        return sites;
+    }
+
+    private static void number(Stmt stmt, Map<Object, Integer> sites) {
+        if (stmt == null || sites.containsKey(stmt)) return;
+        switch (stmt) {
+            case Stmt.IfStmt s -> {
+                addSite(s, sites);
+                number(s.condition, sites);
+                number(s.thenBranch, sites);
+                number(s.elseBranch, sites);
+            }
+            case Stmt.WhileStmt s -> {
+                addSite(s, sites);
+                number(s.condition, sites);
+                number(s.body, sites);
+            }
+            case Stmt.ForStmt s -> {
+                addSite(s, sites);
+                number(s.initializer, sites);
+                number(s.condition, sites);
+                number(s.increment, sites);
+                number(s.body, sites);
+            }
+            case Stmt.CountedForStmt s -> {
+                addSite(s, sites);
+                number(s.start, sites);
+                number(s.limit, sites);
+                for (Stmt.CountedForStmt.Derived derived : s.derived) number(derived.factor, sites);
+                number(s.body, sites);
+            }
+            case Stmt.SwitchStmt s -> {
+                addSite(s, sites);
+                number(s.subject, sites);
+                for (Stmt.SwitchStmt.Case c : s.cases) {
+                    number(c.value, sites);
+                    number(c.body, sites);
+                }
+                number(s.defaultBlock, sites);
+            }
+            case Stmt.ExpressionStmt s -> number(s.expression, sites);
+            case Stmt.VarStmt s -> number(s.initializer, sites);
+            case Stmt.ConstStmt s -> number(s.initializer, sites);
+            case Stmt.PrintStmt s -> number(s.expression, sites);
+            case Stmt.ReturnStmt s -> number(s.value, sites);
+            case Stmt.BlockStmt s -> s.statements.forEach(child -> number(child, sites));
+            case Stmt.TryStmt s -> {
+                number(s.body, sites);
+                number(s.catchBlock, sites);
+                number(s.finallyBlock, sites);
+            }
+            case Stmt.ClassStmt s -> s.members.forEach(member -> number(member, sites));
+            case Stmt.FunctionStmt s -> {
+                try {
+                    number(s.body(), sites);
+                } catch (YsharpError e) {
+                    // the resolver reports it; a body that does not parse never runs
+                }
+            }
+            default -> { }  // break, continue, use
+        }
+    }
+
+    private static void number(Expr expr, Map<Object, Integer> sites) {
+        if (expr == null || sites.containsKey(expr)) return;
+        switch (expr) {
+            case Expr.BinaryExpr e -> {
+                addSite(e, sites);
+                number(e.left, sites);
+                number(e.right, sites);
+            }
+            case Expr.LogicalExpr e -> {
+                addSite(e, sites);
+                number(e.left, sites);
+                number(e.right, sites);
+            }
+            case Expr.TernaryExpr e -> {
+                addSite(e, sites);
+                number(e.condition, sites);
+                number(e.thenBranch, sites);
+                number(e.elseBranch, sites);
+            }
+            case Expr.CallExpr e -> {
+                addSite(e, sites);
+                number(e.callee, sites);
+                e.arguments.forEach(argument -> number(argument, sites));
+            }
+            case Expr.GroupingExpr e -> number(e.expression, sites);
+            case Expr.UnaryExpr e -> number(e.expr, sites);
+            case Expr.PostfixExpr e -> number(e.operand, sites);
+            case Expr.AssignmentExpr e -> {
+                number(e.target, sites);
+                number(e.value, sites);
+            }
+            case Expr.GetExpr e -> number(e.object, sites);
+            case Expr.SetExpr e -> {
+                number(e.object, sites);
+                number(e.value, sites);
+            }
+            case Expr.ArrayInitializerExpr e -> e.elements.forEach(element -> number(element, sites));
+            case Expr.MapInitializerExpr e -> e.entries.forEach(entry -> number(entry.value, sites));
+            default -> { }  // literals and variables
+        }
+    }
+
+    private static void addSite(Object node, Map<Object, Integer> sites) {
+        sites.put(node, sites.size());
+    }
+
+    /** starts over unless the data was recorded for a program with as many sites as {@code numbers} */
+    void attach(Map<Object, Integer> numbers) {
+        this.numbers = numbers;
+        if (siteCount != numbers.size()) {
+            sites.clear();
+            siteCount = numbers.size();
+        }
+    }
+
+    /** the number of {@code node} in the program last run with this profile, -1 when it is not a site there */
+    public int site(Object node) {
+        Integer site = numbers.get(node);
+        return site == null ? -1 : site;
+    }
+
+    // recording
+
+    private Site at(int site) {
+        return sites.computeIfAbsent(site, s -> new Site());
+    }
+
+    void recordOperands(int site, Object left, Object right) {
+        Site s = at(site);
+        s.count++;
+        s.left |= 1 << typeOf(left).ordinal();
+        s.right |= 1 << typeOf(right).ordinal();
+    }
+
+    void recordBranch(int site, boolean taken) {
+        Site s = at(site);
+        s.count++;
+        if (taken) s.taken++;
+    }
+
+    void recordCall(int site, Object callee) {
+        Site s = at(site);
+        s.count++;
+        String name = switch (callee) {
+            case Closure closure -> closure.function.name.lexeme;
+            case ClassValue klass -> klass.declaration.name.lexeme;
+            case null, default -> "<" + Operators.typeName(callee) + ">";
+        };
+        s.callees.merge(name, 1L, Long::sum);
+    }
+
+    void recordExecution(int site) {
+        at(site).count++;
+    }
+
+    private static Type typeOf(Object value) {
+        return switch (value) {
+            case Integer ignored -> Type.INT;
+            case Double ignored -> Type.DOUBLE;
+            case Boolean ignored -> Type.BOOL;
+            case Character ignored -> Type.CHAR;
+            case String ignored -> Type.STRING;
+            case null, default -> Type.DYNAMIC;
+        };
+    }
+
+    // queries
+
+    /** how often the site ran: evaluations, calls, executions or condition tests */
+    public long count(int site) {
+        Site s = sites.get(site);
+        return s == null ? 0 : s.count;
+    }
+
+    /** how often the condition of a branch site held */
+    public long taken(int site) {
+        Site s = sites.get(site);
+        return s == null ? 0 : s.taken;
+    }
+
+    /** the types the left operand of a binary site had; DYNAMIC stands for any other value */
+    public Set<Type> leftTypes(int site) {
+        Site s = sites.get(site);
+        return types(s == null ? 0 : s.left);
+    }
+
+    public Set<Type> rightTypes(int site) {
+        Site s = sites.get(site);
+        return types(s == null ? 0 : s.right);
+    }
+
+    /** the functions and classes a call site reached, by name, with their counts */
+    public Map<String, Long> callees(int site) {
+        Site s = sites.get(site);
+        return s == null ? Map.of() : Collections.unmodifiableMap(s.callees);
+    }
+
+    private static Set<Type> types(int bits) {
+        Set<Type> types = EnumSet.noneOf(Type.class);
+        for (Type type : Type.values()) {
+            if ((bits & 1 << type.ordinal()) != 0) types.add(type);
+        }
+        return types;
+    }
+
+    // persistence
+
+    /**
+     * Writes the profile as text: a header, the source hash, the site
+     * count, then one line per site that ran:
+     * {@code site count taken left right [callee=count ...]}.
+     */
+    public void save(Path path) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(HEADER);
+        lines.add("source " + sourceHash);
+        lines.add("sites " + siteCount);
+        sites.forEach((site, s) -> {
+            StringBuilder line = new StringBuilder()
+                    .append(site).append(' ').append(s.count).append(' ').append(s.taken)
+                    .append(' ').append(s.left).append(' ').append(s.right);
+            s.callees.forEach((name, count) -> line.append(' ').append(name).append('=').append(count));
+            lines.add(line.toString());
+        });
+        Files.write(path, lines, StandardCharsets.UTF_8);
+    }
+
+    /** the profile saved at {@code path} for {@code sourceHash}; empty when there is none that fits */
+    public static Profile load(Path path, String sourceHash) throws IOException {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return new Profile(sourceHash);
+        }
+
+        Profile profile = new Profile(sourceHash);
+        if (lines.size() < 3 || !lines.get(0).equals(HEADER) || !lines.get(1).equals("source " + sourceHash)
+                || !lines.get(2).startsWith("sites ")) {
+            return profile;
+        }
+        try {
+            int count = Integer.parseInt(lines.get(2).substring("sites ".length()));
+            Map<Integer, Site> sites = new HashMap<>();
+            for (String line : lines.subList(3, lines.size())) {
+                String[] fields = line.split(" ");
+                int site = Integer.parseInt(fields[0]);
+                if (site < 0 || site >= count) return profile;
+                Site s = new Site();
+                s.count = Long.parseLong(fields[1]);
+                s.taken = Long.parseLong(fields[2]);
+                s.left = Integer.parseInt(fields[3]);
+                s.right = Integer.parseInt(fields[4]);
+                for (int i = 5; i < fields.length; i++) {
+                    int split = fields[i].lastIndexOf('=');
+                    s.callees.put(fields[i].substring(0, split), Long.parseLong(fields[i].substring(split + 1)));
+                }
+                sites.put(site, s);
+            }
+            profile.siteCount = count;
+            profile.sites.putAll(sites);
+        } catch (RuntimeException e) {
+            // unreadable: start over rather than apply part of it
+        }
+        return profile;
+    }
+}
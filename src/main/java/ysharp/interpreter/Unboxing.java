@@ -0,0 +1,282 @@
+package ysharp.interpreter;
+
+import ysharp.YsharpError;
+import ysharp.analysis.Type;
+import ysharp.analysis.TypeInference;
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Marks the expressions the interpreter evaluates on primitives with the
+ * kind each evaluates as. The marks live in this table, one per
+ * interpreter, rather than on the parser's nodes. Literals and variables take their kind from
+ * {@link TypeInference}; an operator, logical or ternary expression is
+ * marked when its operands are and the operator maps marked operands to a
+ * marked result the way {@link ysharp.runtime.Operators} does. Calls,
+ * assignments, increments and property access are never marked, so a
+ * marked subtree has no side effects.
+ *
+ * <p>Marks are only trusted as far as the values go: an unboxed read of a
+ * variable that holds anything but its exact kind (a declared int holding
+ * a string, a declaration not run yet) throws {@link #DEOPT}; the
+ * interpreter then clears the subtree's marks and evaluates it boxed,
+ * which it can do because nothing in it has had an effect.
+ *
+ * <p>That guard also lets a {@link Profile} stand in for inference: a
+ * variable inference leaves untyped is marked where it is an operand of a
+ * binary operator that, in the profiled run, only ever saw it hold one
+ * primitive kind.
+ */
+final class Unboxing {
+
+    static final byte BOXED = 0, INT = 1, DOUBLE = 2, BOOL = 3, CHAR = 4;
+
+    /** an unboxed expression met a value of another kind */
+    @SuppressWarnings("serial")  // control flow only, never serialized
+    static final class Deopt extends RuntimeException {
+        private Deopt() {
+            super(null, null, false, false);
+        }
+    }
+
+    static final Deopt DEOPT = new Deopt();
+
+    private final Map<Expr, Byte> marks = new IdentityHashMap<>();  // unmarked: boxed
+    private TypeInference.Result types;  // of the pass marking
+    private Profile profile;             // null when not warm-started
+
+    /** forgets every mark, as a new program starts */
+    void reset() {
+        marks.clear();
+    }
+
+    /** marks {@code program} from {@code types} */
+    void annotate(List<Stmt> program, TypeInference.Result types) {
+        annotate(program, types, null);
+    }
+
+    /** marks {@code program} from {@code types} and, where they know nothing, from {@code profile} */
+    void annotate(List<Stmt> program, TypeInference.Result types, Profile profile) {
+        this.types = types;
+        this.profile = profile;
+        for (Stmt stmt : program) mark(stmt);
+    }
+
+    /** the kind {@code expr} evaluates as */
+    byte kind(Expr expr) {
+        if (marks.isEmpty()) return BOXED;
+        Byte kind = marks.get(expr);
+        return kind == null ? BOXED : kind;
+    }
+
+    /** clears the marks of a marked subtree */
+    void clear(Expr expr) {
+        if (expr == null || marks.remove(expr) == null) return;
+        switch (expr) {
+            case Expr.GroupingExpr e -> clear(e.expression);
+            case Expr.UnaryExpr e -> clear(e.expr);
+            case Expr.BinaryExpr e -> {
+                clear(e.left);
+                clear(e.right);
+            }
+            case Expr.LogicalExpr e -> {
+                clear(e.left);
+                clear(e.right);
+            }
+            case Expr.TernaryExpr e -> {
+                clear(e.condition);
+                clear(e.thenBranch);
+                clear(e.elseBranch);
+            }
+            default -> { }  // literals and variables
+        }
+    }
+
+    static boolean isIntLike(byte kind) {
+        return kind == INT || kind == CHAR;
+    }
+
+    static boolean isNumeric(byte kind) {
+        return isIntLike(kind) || kind == DOUBLE;
+    }
+
+    private static byte of(Type type) {
+        return switch (type) {
+            case INT -> INT;
+            case DOUBLE -> DOUBLE;
+            case BOOL -> BOOL;
+            case CHAR -> CHAR;
+            case STRING, DYNAMIC -> BOXED;
+        };
+    }
+
+    // statements
+
+    private void mark(Stmt stmt) {
+        if (stmt == null) return;
+        switch (stmt) {
+            case Stmt.ExpressionStmt s -> mark(s.expression);
+            case Stmt.VarStmt s -> mark(s.initializer);
+            case Stmt.ConstStmt s -> mark(s.initializer);
+            case Stmt.PrintStmt s -> mark(s.expression);
+            case Stmt.ReturnStmt s -> mark(s.value);
+            case Stmt.BlockStmt s -> s.statements.forEach(this::mark);
+            case Stmt.IfStmt s -> {
+                mark(s.condition);
+                mark(s.thenBranch);
+                mark(s.elseBranch);
+            }
+            case Stmt.WhileStmt s -> {
+                mark(s.condition);
+                mark(s.body);
+            }
+            case Stmt.ForStmt s -> {
+                mark(s.initializer);
+                mark(s.condition);
+                mark(s.increment);
+                mark(s.body);
+            }
+            case Stmt.CountedForStmt s -> {
+                mark(s.start);
+                mark(s.limit);
+                for (Stmt.CountedForStmt.Derived derived : s.derived) mark(derived.factor);
+                mark(s.body);
+            }
+            case Stmt.SwitchStmt s -> {
+                mark(s.subject);
+                for (Stmt.SwitchStmt.Case c : s.cases) {
+                    mark(c.value);
+                    mark(c.body);
+                }
+                mark(s.defaultBlock);
+            }
+            case Stmt.TryStmt s -> {
+                mark(s.body);
+                mark(s.catchBlock);
+                mark(s.finallyBlock);
+            }
+            case Stmt.ClassStmt s -> s.members.forEach(this::mark);
+            case Stmt.FunctionStmt s -> {
+                if (!s.isParsed()) return;  // marked once resolved, on its first call
+                try {
+                    mark(s.body());
+                } catch (YsharpError e) {
+                    // the resolver reports it; a body that does not parse never runs
+                }
+            }
+            default -> { }  // break, continue, use
+        }
+    }
+
+    // expressions
+
+    /** marks {@code expr} and everything below it, and returns its mark */
+    private byte mark(Expr expr) {
+        if (expr == null) return BOXED;
+        byte kind = switch (expr) {
+            case Expr.LiteralExpr e -> of(types.typeOf(e));
+            case Expr.VariableExpr e -> of(types.typeOf(e));
+            case Expr.GroupingExpr e -> mark(e.expression);
+            case Expr.UnaryExpr e -> unary(e);
+            case Expr.BinaryExpr e -> binary(e);
+            case Expr.LogicalExpr e -> {
+                byte left = mark(e.left);
+                byte right = mark(e.right);
+                yield left == BOOL && right == BOOL ? BOOL : BOXED;
+            }
+            case Expr.TernaryExpr e -> {
+                byte condition = mark(e.condition);
+                byte then = mark(e.thenBranch);
+                byte otherwise = mark(e.elseBranch);
+                yield condition == BOOL && then == otherwise ? then : BOXED;
+            }
+            case Expr.PostfixExpr e -> {
+                mark(e.operand);
+                yield BOXED;
+            }
+            case Expr.AssignmentExpr e -> {
+                mark(e.target);
+                mark(e.value);
+                yield BOXED;
+            }
+            case Expr.GetExpr e -> {
+                mark(e.object);
+                yield BOXED;
+            }
+            case Expr.SetExpr e -> {
+                mark(e.object);
+                mark(e.value);
+                yield BOXED;
+            }
+            case Expr.CallExpr e -> {
+                mark(e.callee);
+                e.arguments.forEach(this::mark);
+                yield BOXED;
+            }
+            case Expr.ArrayInitializerExpr e -> {
+                e.elements.forEach(this::mark);
+                yield BOXED;
+            }
+            case Expr.MapInitializerExpr e -> {
+                e.entries.forEach(entry -> mark(entry.value));
+                yield BOXED;
+            }
+            default -> BOXED;
+        };
+        set(expr, kind);
+        return kind;
+    }
+
+    private byte unary(Expr.UnaryExpr expr) {
+        byte operand = mark(expr.expr);
+        return switch (expr.op.type) {
+            case MINUS, PLUS -> isIntLike(operand) ? INT : operand == DOUBLE ? DOUBLE : BOXED;
+            case BANG -> operand == BOOL ? BOOL : BOXED;
+            case BITWISE_NOT -> isIntLike(operand) ? INT : BOXED;
+            default -> BOXED;  // ++ and -- store
+        };
+    }
+
+    private byte binary(Expr.BinaryExpr expr) {
+        int site = profile == null ? -1 : profile.site(expr);
+        byte left = observed(expr.left, mark(expr.left), site < 0 ? null : profile.leftTypes(site));
+        byte right = observed(expr.right, mark(expr.right), site < 0 ? null : profile.rightTypes(site));
+        return switch (expr.op.type) {
+            case PLUS, MINUS, MULTIPLY, DIVIDE, MODULO -> {
+                if (isIntLike(left) && isIntLike(right)) yield INT;
+                yield isNumeric(left) && isNumeric(right) ? DOUBLE : BOXED;
+            }
+            case LEFT_SHIFT, RIGHT_SHIFT -> isIntLike(left) && isIntLike(right) ? INT : BOXED;
+            case BITWISE_AND, BITWISE_OR, BITWISE_XOR -> {
+                if (isIntLike(left) && isIntLike(right)) yield INT;
+                yield left == BOOL && right == BOOL ? BOOL : BOXED;
+            }
+            case EQUAL_EQUAL, BANG_EQUAL ->
+                    (isNumeric(left) && isNumeric(right)) || (left == BOOL && right == BOOL) ? BOOL : BOXED;
+            case GREATER_THAN, GREATER_OR_EQUAL, LESS_THAN, LESS_OR_EQUAL ->
+                    isNumeric(left) && isNumeric(right) ? BOOL : BOXED;
+            default -> BOXED;
+        };
+    }
+
+    /** the mark of an operand, taken from the one kind {@code seen} when inference left a variable boxed */
+    private byte observed(Expr operand, byte kind, Set<Type> seen) {
+        if (kind != BOXED || !(operand instanceof Expr.VariableExpr) || seen == null || seen.size() != 1) return kind;
+        byte observed = of(seen.iterator().next());
+        set(operand, observed);
+        return observed;
+    }
+
+    private void set(Expr expr, byte kind) {
+        if (kind == BOXED) {
+            marks.remove(expr);
+        } else {
+            marks.put(expr, kind);
+        }
+    }
+}
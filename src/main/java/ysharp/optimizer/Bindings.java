@@ -0,0 +1,137 @@
+package ysharp.optimizer;
+
+import ysharp.lexer.Token;
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Who binds and uses which name, counted by name over a whole program.
+ * Passes that reason by name rather than by resolver slot use it to find
+ * names that are bound exactly once, so every use means the same thing.
+ */
+final class Bindings extends TreeRewriter {
+
+    final Map<String, Integer> declarations = new HashMap<>();
+    final Map<String, Integer> uses = new HashMap<>();
+    final Map<String, Integer> calls = new HashMap<>();
+    final Set<String> assigned = new HashSet<>();
+    final Set<String> topLevel = new HashSet<>();
+
+    static Bindings of(List<Stmt> program) {
+        Bindings bindings = new Bindings();
+        for (Stmt stmt : program) {
+            switch (stmt) {
+                case Stmt.FunctionStmt function -> bindings.topLevel.add(function.name.lexeme);
+                case Stmt.VarStmt var -> bindings.topLevel.add(var.name.lexeme);
+                case Stmt.ConstStmt constant -> bindings.topLevel.add(constant.name.lexeme);
+                case Stmt.ClassStmt klass -> bindings.topLevel.add(klass.name.lexeme);
+                default -> { }
+            }
+        }
+        bindings.rewrite(program);
+        return bindings;
+    }
+
+    /** declared exactly once, anywhere */
+    boolean isUnique(String name) {
+        return declarations.getOrDefault(name, 0) == 1;
+    }
+
+    /** declared only at the top level, or not at all (builtins) */
+    boolean isGlobal(String name) {
+        int count = declarations.getOrDefault(name, 0);
+        return count == 0 || (count == 1 && topLevel.contains(name));
+    }
+
+    /** a top-level function that every use calls directly */
+    boolean isStatic(String name) {
+        return isUnique(name) && topLevel.contains(name) && !assigned.contains(name)
+                && uses.getOrDefault(name, 0).equals(calls.getOrDefault(name, 0));
+    }
+
+    static boolean isIncrement(Token op) {
+        return op.type == Token.TokenType.PLUS_PLUS || op.type == Token.TokenType.MINUS_MINUS;
+    }
+
+    private void declare(Token name) {
+        declarations.merge(name.lexeme, 1, Integer::sum);
+    }
+
+    private void assign(Expr target) {
+        if (target instanceof Expr.VariableExpr variable) assigned.add(variable.name.lexeme);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.VariableExpr expr) {
+        uses.merge(expr.name.lexeme, 1, Integer::sum);
+        return expr;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.CallExpr expr) {
+        if (expr.callee instanceof Expr.VariableExpr callee) calls.merge(callee.name.lexeme, 1, Integer::sum);
+        return super.visitCallExpr(expr);
+    }
+
+    @Override
+    public Expr visitAssignmentExpr(Expr.AssignmentExpr expr) {
+        assign(expr.target);
+        return super.visitAssignmentExpr(expr);
+    }
+
+    @Override
+    public Expr visitPostfixExpr(Expr.PostfixExpr expr) {
+        assign(expr.operand);
+        return super.visitPostfixExpr(expr);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.UnaryExpr expr) {
+        if (isIncrement(expr.op)) assign(expr.expr);
+        return super.visitUnaryExpr(expr);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.VarStmt stmt) {
+        declare(stmt.name);
+        return super.visitVarStmt(stmt);
+    }
+
+    @Override
+    public Stmt visitConstStmt(Stmt.ConstStmt stmt) {
+        declare(stmt.name);
+        return super.visitConstStmt(stmt);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.FunctionStmt stmt) {
+        declare(stmt.name);
+        stmt.params.forEach(this::declare);
+        return super.visitFunctionStmt(stmt);
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.ClassStmt stmt) {
+        declare(stmt.name);
+        return super.visitClassStmt(stmt);
+    }
+
+    @Override
+    public Stmt visitTryStmt(Stmt.TryStmt stmt) {
+        declare(stmt.catchName);
+        return super.visitTryStmt(stmt);
+    }
+
+    @Override
+    public Stmt visitCountedForStmt(Stmt.CountedForStmt stmt) {
+        declare(stmt.variable);
+        stmt.derived.forEach(d -> declare(d.name));
+        return super.visitCountedForStmt(stmt);
+    }
+}
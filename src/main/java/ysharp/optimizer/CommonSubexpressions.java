@@ -0,0 +1,446 @@
+package ysharp.optimizer;
+
+import ysharp.lexer.Token;
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Common subexpression elimination over the straight-line statements of a
+ * block. A side-effect-free subtree that is evaluated again while an earlier
+ * evaluation is still valid is computed once into a temporary: the first
+ * occurrence becomes {@code ($cseN = expr)} in place, later ones read
+ * {@code $cseN}, and {@code var $cseN;} is declared just before the
+ * statement holding the first occurrence. Evaluation order and conditional
+ * evaluation stay as written, so an expression that may fail still fails at
+ * the same point.
+ *
+ * <p>Assignments, ++ and --, calls, property writes and array or map
+ * literals are never shared. An evaluation is forgotten when a variable it
+ * reads is written. Property reads are forgotten on any property write or
+ * call, since two names may refer to the same object, and a call forgets
+ * everything. A value computed on one side of {@code &&}, {@code ||} or
+ * {@code ?:} is only reused on that side. Compound statements end the
+ * straight line; their blocks are handled on their own.
+ *
+ * <p>Runs before the resolver: temporaries are ordinary variables whose
+ * names the lexer can never produce.
+ */
+public final class CommonSubexpressions extends TreeRewriter {
+
+    private static final String PREFIX = "$cse";
+
+    private final Map<Expr, Info> infos = new IdentityHashMap<>();
+    private List<Stmt> members;  // the class body being rewritten: not a block
+    private int temps;
+
+    public static List<Stmt> eliminate(List<Stmt> program) {
+        return new CommonSubexpressions().rewrite(program);
+    }
+
+    @Override
+    public List<Stmt> rewrite(List<Stmt> statements) {
+        List<Stmt> rewritten = super.rewrite(statements);
+        if (statements == members) return rewritten;
+        return new Block(rewritten).run();
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.ClassStmt stmt) {
+        List<Stmt> outer = members;
+        members = stmt.members;
+        try {
+            return super.visitClassStmt(stmt);
+        } finally {
+            members = outer;
+        }
+    }
+
+    // structural keys
+
+    private record Key(Object label, List<Key> operands) {}
+    private record Name(String name) {}
+    private record Field(String name) {}
+
+    /** key is null for subtrees that may have side effects or allocate */
+    private record Info(Key key, Set<String> variables, boolean readsFields) {}
+
+    private static final Info IMPURE = new Info(null, Set.of(), false);
+
+    private Info info(Expr expr) {
+        Info info = infos.get(expr);
+        if (info == null) {
+            info = compute(expr);
+            infos.put(expr, info);
+        }
+        return info;
+    }
+
+    private Info compute(Expr expr) {
+        return switch (expr) {
+            case Expr.LiteralExpr literal -> new Info(new Key(literal.token.literal, List.of()), Set.of(), false);
+            case Expr.VariableExpr variable -> new Info(
+                    new Key(new Name(variable.name.lexeme), List.of()), Set.of(variable.name.lexeme), false);
+            case Expr.GroupingExpr grouping -> info(grouping.expression);
+            case Expr.UnaryExpr unary -> isIncrement(unary.op) ? IMPURE : combine(unary.op.type, false, unary.expr);
+            case Expr.BinaryExpr binary -> combine(binary.op.type, false, binary.left, binary.right);
+            case Expr.LogicalExpr logical -> combine(logical.op.type, false, logical.left, logical.right);
+            case Expr.TernaryExpr ternary -> combine("?:", false,
+                    ternary.condition, ternary.thenBranch, ternary.elseBranch);
+            case Expr.GetExpr get -> combine(new Field(get.name.lexeme), true, get.object);
+            default -> IMPURE;
+        };
+    }
+
+    private Info combine(Object label, boolean readsFields, Expr... operands) {
+        List<Key> keys = new ArrayList<>(operands.length);
+        Set<String> variables = new HashSet<>();
+        for (Expr operand : operands) {
+            Info info = info(operand);
+            if (info.key == null) return IMPURE;
+            keys.add(info.key);
+            variables.addAll(info.variables);
+            readsFields |= info.readsFields;
+        }
+        return new Info(new Key(label, keys), variables, readsFields);
+    }
+
+    private static boolean isIncrement(Token op) {
+        return op.type == Token.TokenType.PLUS_PLUS || op.type == Token.TokenType.MINUS_MINUS;
+    }
+
+    /** worth a temporary: an operation that reads something; constants are left to the folder */
+    private Info candidate(Expr expr) {
+        if (!(expr instanceof Expr.BinaryExpr || expr instanceof Expr.UnaryExpr || expr instanceof Expr.LogicalExpr
+                || expr instanceof Expr.TernaryExpr || expr instanceof Expr.GetExpr)) {
+            return null;
+        }
+        Info info = info(expr);
+        if (info.key == null || (info.variables.isEmpty() && !info.readsFields)) return null;
+        return info;
+    }
+
+    private static int line(Expr expr) {
+        return switch (expr) {
+            case Expr.BinaryExpr binary -> binary.op.line;
+            case Expr.UnaryExpr unary -> unary.op.line;
+            case Expr.LogicalExpr logical -> logical.op.line;
+            case Expr.TernaryExpr ternary -> line(ternary.condition);
+            case Expr.GroupingExpr grouping -> line(grouping.expression);
+            case Expr.GetExpr get -> get.name.line;
+            case Expr.VariableExpr variable -> variable.name.line;
+            case Expr.LiteralExpr literal -> literal.token.line;
+            default -> 0;
+        };
+    }
+
+    private static Token temp(String name, int line) {
+        return new Token(Token.TokenType.IDENTIFIER, name, new Token.Literal.Null(), line);
+    }
+
+    // one straight line of statements
+
+    private static final class Entry {
+        final Info info;
+        final int statement;  // index of the statement holding the first occurrence
+        int reuses;
+        String temp;          // set when reused at least once
+
+        Entry(Info info, int statement) {
+            this.info = info;
+            this.statement = statement;
+        }
+    }
+
+    private record Action(Entry entry, boolean first) {}
+
+    /**
+     * Two walks in the same evaluation order: the first records, for every
+     * candidate it reaches, whether an earlier evaluation is still valid; the
+     * second replays those decisions and rebuilds the statements.
+     */
+    private final class Block {
+
+        private final List<Stmt> statements;
+        private final List<Action> actions = new ArrayList<>();
+        private Map<Key, Entry> available = new HashMap<>();
+        private boolean scanning;
+        private int statement;
+        private int next;
+
+        Block(List<Stmt> statements) {
+            this.statements = statements;
+        }
+
+        List<Stmt> run() {
+            scanning = true;
+            for (statement = 0; statement < statements.size(); statement++) {
+                walk(statements.get(statement));
+            }
+
+            Map<Integer, List<Token>> declarations = new HashMap<>();
+            for (Action action : actions) {
+                Entry entry = action.entry;
+                if (action.first && entry.reuses > 0) {
+                    entry.temp = PREFIX + temps++;
+                    declarations.computeIfAbsent(entry.statement, k -> new ArrayList<>())
+                            .add(temp(entry.temp, lineOf(statements.get(entry.statement))));
+                }
+            }
+            if (declarations.isEmpty()) return statements;
+
+            scanning = false;
+            available.clear();
+            List<Stmt> result = new ArrayList<>(statements.size() + declarations.size());
+            for (statement = 0; statement < statements.size(); statement++) {
+                for (Token name : declarations.getOrDefault(statement, List.of())) {
+                    result.add(new Stmt.VarStmt(name, null, null));
+                }
+                result.add(walk(statements.get(statement)));
+            }
+            return result;
+        }
+
+        private int lineOf(Stmt stmt) {
+            return switch (stmt) {
+                case Stmt.ExpressionStmt s -> line(s.expression);
+                case Stmt.PrintStmt s -> s.keyword.line;
+                case Stmt.ReturnStmt s -> s.keyword.line;
+                case Stmt.VarStmt s -> s.name.line;
+                case Stmt.ConstStmt s -> s.name.line;
+                case Stmt.IfStmt s -> s.keyword.line;
+                case Stmt.SwitchStmt s -> s.keyword.line;
+                default -> 0;
+            };
+        }
+
+        // kills
+
+        private void kill(String name) {
+            available.values().removeIf(entry -> entry.info.variables.contains(name));
+        }
+
+        private void killFields() {
+            available.values().removeIf(entry -> entry.info.readsFields);
+        }
+
+        private void killTarget(Expr target) {
+            if (target instanceof Expr.VariableExpr variable) kill(variable.name.lexeme);
+            else killFields();
+        }
+
+        // statements
+
+        private Stmt walk(Stmt stmt) {
+            switch (stmt) {
+                case Stmt.ExpressionStmt s -> {
+                    Expr expression = walk(s.expression);
+                    return expression == s.expression ? s : new Stmt.ExpressionStmt(expression);
+                }
+                case Stmt.PrintStmt s -> {
+                    Expr expression = walk(s.expression);
+                    return expression == s.expression ? s : new Stmt.PrintStmt(s.keyword, expression);
+                }
+                case Stmt.ReturnStmt s -> {
+                    Expr value = walk(s.value);
+                    return value == s.value ? s : new Stmt.ReturnStmt(s.keyword, value);
+                }
+                case Stmt.VarStmt s -> {
+                    Expr initializer = walk(s.initializer);
+                    kill(s.name.lexeme);
+                    if (initializer == s.initializer) return s;
+                    Stmt.VarStmt copy = new Stmt.VarStmt(s.name, s.type, initializer);
+                    copy.slot = s.slot;
+                    return copy;
+                }
+                case Stmt.ConstStmt s -> {
+                    Expr initializer = walk(s.initializer);
+                    kill(s.name.lexeme);
+                    if (initializer == s.initializer) return s;
+                    Stmt.ConstStmt copy = new Stmt.ConstStmt(s.name, s.type, initializer);
+                    copy.slot = s.slot;
+                    return copy;
+                }
+                case Stmt.FunctionStmt s -> {
+                    kill(s.name.lexeme);
+                    return s;
+                }
+                case Stmt.ClassStmt s -> {
+                    kill(s.name.lexeme);
+                    return s;
+                }
+                // the condition and the subject run before the blocks do
+                case Stmt.IfStmt s -> {
+                    Expr condition = walk(s.condition);
+                    available.clear();
+                    if (condition == s.condition) return s;
+                    return new Stmt.IfStmt(s.keyword, condition, s.thenBranch, s.elseBranch);
+                }
+                case Stmt.SwitchStmt s -> {
+                    Expr subject = walk(s.subject);
+                    available.clear();
+                    if (subject == s.subject) return s;
+                    return new Stmt.SwitchStmt(s.keyword, subject, s.cases, s.defaultBlock);
+                }
+                default -> {
+                    available.clear();
+                    return stmt;
+                }
+            }
+        }
+
+        // expressions
+
+        private Expr walk(Expr expr) {
+            if (expr == null) return null;
+            Info info = candidate(expr);
+            if (info == null) return walkOperands(expr);
+
+            if (scanning) {
+                Entry entry = available.get(info.key);
+                if (entry != null) {
+                    entry.reuses++;
+                    actions.add(new Action(entry, false));
+                    return expr;
+                }
+                entry = new Entry(info, statement);
+                actions.add(new Action(entry, true));
+                walkOperands(expr);
+                available.put(info.key, entry);
+                return expr;
+            }
+
+            Action action = actions.get(next++);
+            if (!action.first) return new Expr.VariableExpr(temp(action.entry.temp, line(expr)));
+            Expr rewritten = walkOperands(expr);
+            if (action.entry.temp == null) return rewritten;
+            int line = line(expr);
+            return new Expr.AssignmentExpr(new Expr.VariableExpr(temp(action.entry.temp, line)),
+                    new Token(Token.TokenType.ASSIGN, "=", new Token.Literal.Null(), line), rewritten);
+        }
+
+        /** what runs conditionally is not available afterwards; what it overwrote stays forgotten */
+        private Expr region(Expr expr) {
+            Map<Key, Entry> before = new HashMap<>(available);
+            Expr rewritten = walk(expr);
+            before.entrySet().removeIf(e -> available.get(e.getKey()) != e.getValue());
+            available = before;
+            return rewritten;
+        }
+
+        /** a target is written, not read: it is never shared itself */
+        private Expr walkTarget(Expr target) {
+            if (target instanceof Expr.VariableExpr) return target;
+            if (target instanceof Expr.GetExpr get) {
+                Expr object = walk(get.object);
+                return object == get.object ? get : new Expr.GetExpr(object, get.name);
+            }
+            return walk(target);
+        }
+
+        private Expr walkOperands(Expr expr) {
+            switch (expr) {
+                case Expr.BinaryExpr e -> {
+                    Expr left = walk(e.left);
+                    Expr right = walk(e.right);
+                    if (left == e.left && right == e.right) return e;
+                    return new Expr.BinaryExpr(left, e.op, right);
+                }
+                case Expr.LogicalExpr e -> {
+                    Expr left = walk(e.left);
+                    Expr right = region(e.right);
+                    if (left == e.left && right == e.right) return e;
+                    return new Expr.LogicalExpr(left, e.op, right);
+                }
+                case Expr.TernaryExpr e -> {
+                    Expr condition = walk(e.condition);
+                    Expr thenBranch = region(e.thenBranch);
+                    Expr elseBranch = region(e.elseBranch);
+                    if (condition == e.condition && thenBranch == e.thenBranch && elseBranch == e.elseBranch) {
+                        return e;
+                    }
+                    return new Expr.TernaryExpr(condition, thenBranch, elseBranch);
+                }
+                case Expr.UnaryExpr e -> {
+                    Expr operand;
+                    if (isIncrement(e.op)) {
+                        operand = walkTarget(e.expr);
+                        killTarget(e.expr);
+                    } else {
+                        operand = walk(e.expr);
+                    }
+                    return operand == e.expr ? e : new Expr.UnaryExpr(e.op, operand);
+                }
+                case Expr.PostfixExpr e -> {
+                    Expr operand = walkTarget(e.operand);
+                    killTarget(e.operand);
+                    return operand == e.operand ? e : new Expr.PostfixExpr(operand, e.op);
+                }
+                case Expr.AssignmentExpr e -> {
+                    Expr target = walkTarget(e.target);
+                    Expr value = walk(e.value);
+                    killTarget(e.target);
+                    if (target == e.target && value == e.value) return e;
+                    return new Expr.AssignmentExpr(target, e.op, value);
+                }
+                case Expr.GroupingExpr e -> {
+                    Expr inner = walk(e.expression);
+                    return inner == e.expression ? e : new Expr.GroupingExpr(inner);
+                }
+                case Expr.GetExpr e -> {
+                    Expr object = walk(e.object);
+                    return object == e.object ? e : new Expr.GetExpr(object, e.name);
+                }
+                case Expr.SetExpr e -> {
+                    Expr object = walk(e.object);
+                    Expr value = walk(e.value);
+                    killFields();
+                    if (object == e.object && value == e.value) return e;
+                    return new Expr.SetExpr(object, e.name, value);
+                }
+                case Expr.CallExpr e -> {
+                    Expr callee = walk(e.callee);
+                    List<Expr> arguments = walk(e.arguments);
+                    available.clear();
+                    if (callee == e.callee && arguments == e.arguments) return e;
+                    return new Expr.CallExpr(callee, arguments);
+                }
+                case Expr.ArrayInitializerExpr e -> {
+                    List<Expr> elements = walk(e.elements);
+                    return elements == e.elements ? e : new Expr.ArrayInitializerExpr(elements);
+                }
+                case Expr.MapInitializerExpr e -> {
+                    List<Expr.MapInitializerExpr.Entry> entries = new ArrayList<>(e.entries.size());
+                    boolean changed = false;
+                    for (Expr.MapInitializerExpr.Entry entry : e.entries) {
+                        Expr value = walk(entry.value);
+                        changed |= value != entry.value;
+                        entries.add(value == entry.value ? entry : new Expr.MapInitializerExpr.Entry(entry.key, value));
+                    }
+                    return changed ? new Expr.MapInitializerExpr(entries) : e;
+                }
+                default -> {
+                    return expr;
+                }
+            }
+        }
+
+        private List<Expr> walk(List<Expr> exprs) {
+            List<Expr> result = new ArrayList<>(exprs.size());
+            boolean changed = false;
+            for (Expr expr : exprs) {
+                Expr rewritten = walk(expr);
+                changed |= rewritten != expr;
+                result.add(rewritten);
+            }
+            return changed ? result : exprs;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package ysharp.optimizer;
+
+import ysharp.lexer.Token;
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+import ysharp.runtime.Operators;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces reads of {@code const} names whose initializer folds to a literal
+ * with that literal, folds the result, and prunes what becomes unreachable:
+ * if/elif/else arms, loops whose condition is false, switch cases that can
+ * never match and statements after return, break or continue.
+ *
+ * <p>Every name a scope declares shadows outer constants from the start of
+ * the scope, so a function body never sees a constant that a later
+ * declaration in between would hide. Class members are never propagated,
+ * since a subclass may redeclare them.
+ *
+ * <p>Functions are hoisted, so a call may run a body before a constant it
+ * reads is initialized, and the body then reads null. A constant is
+ * therefore only propagated into function bodies when nothing ahead of its
+ * declaration in its scope can run code, that is contains a call or a use
+ * statement; reads outside function bodies run in order and always see it.
+ *
+ * <p>Switch cases match with {@link Operators#isEqual} in order, and a
+ * matching case runs only its own block.
+ */
+public final class ConstPropagator extends ConstantFolder {
+
+    private static final Object SHADOWED = new Object();
+    private static final Object NULL = new Object();  // a constant whose value is null
+
+    /** a constant that code may read before its declaration runs: not propagated into function bodies */
+    private record Late(Object value) {}
+
+    private final Deque<Map<String, Object>> scopes = new ArrayDeque<>();
+    // class bodies: members are instance slots and never become constants
+    private final Set<Map<String, Object>> memberScopes = Collections.newSetFromMap(new IdentityHashMap<>());
+    // function parameters: the scopes a function body starts from
+    private final Set<Map<String, Object>> functionScopes = Collections.newSetFromMap(new IdentityHashMap<>());
+    // constants declared after a statement that can run code
+    private final Set<Stmt.ConstStmt> late = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    public static List<Stmt> propagate(List<Stmt> program) {
+        ConstPropagator propagator = new ConstPropagator();
+        propagator.push(program);
+        List<Stmt> result = propagator.rewrite(program);
+        propagator.scopes.pop();
+        return result;
+    }
+
+    // scopes
+
+    private void push(List<Stmt> statements) {
+        Map<String, Object> scope = new HashMap<>();
+        boolean ran = false;
+        for (Stmt stmt : statements) {
+            Token name = declaredName(stmt);
+            if (name != null) scope.put(name.lexeme, SHADOWED);
+            if (ran && stmt instanceof Stmt.ConstStmt constant) late.add(constant);
+            ran = ran || Calls.in(stmt);
+        }
+        scopes.push(scope);
+    }
+
+    private void push(Token... names) {
+        Map<String, Object> scope = new HashMap<>();
+        for (Token name : names) {
+            if (name != null) scope.put(name.lexeme, SHADOWED);
+        }
+        scopes.push(scope);
+    }
+
+    private static Token declaredName(Stmt stmt) {
+        return switch (stmt) {
+            case Stmt.VarStmt var -> var.name;
+            case Stmt.ConstStmt constant -> constant.name;
+            case Stmt.FunctionStmt function -> function.name;
+            case Stmt.ClassStmt klass -> klass.name;
+            default -> null;
+        };
+    }
+
+    /** the constant's value, or SHADOWED when unknown, not constant or possibly read early */
+    private Object lookup(String name) {
+        boolean inFunction = false;
+        for (Map<String, Object> scope : scopes) {
+            Object value = scope.get(name);
+            if (value instanceof Late constant) return inFunction ? SHADOWED : constant.value();
+            if (value != null) return value;
+            inFunction = inFunction || functionScopes.contains(scope);
+        }
+        return SHADOWED;
+    }
+
+    /** finds statements that can run code when they execute; declarations run nothing until called */
+    static final class Calls extends TreeRewriter {
+        private boolean found;
+
+        static boolean in(Stmt stmt) {
+            Calls calls = new Calls();
+            stmt.accept(calls);
+            return calls.found;
+        }
+
+        @Override
+        public Expr visitCallExpr(Expr.CallExpr expr) {
+            found = true;
+            return expr;
+        }
+
+        @Override
+        public Stmt visitUseStmt(Stmt.UseStmt stmt) {
+            found = true;
+            return stmt;
+        }
+
+        @Override
+        public Stmt visitFunctionStmt(Stmt.FunctionStmt stmt) {
+            return stmt;
+        }
+
+        @Override
+        public Stmt visitClassStmt(Stmt.ClassStmt stmt) {
+            return stmt;
+        }
+    }
+
+    // expressions
+
+    @Override
+    public Expr visitVariableExpr(Expr.VariableExpr expr) {
+        Object value = lookup(expr.name.lexeme);
+        if (value == SHADOWED) return expr;
+        return Literals.of(value == NULL ? null : value, expr.name.line);
+    }
+
+    /** assignment targets stay variables; the resolver reports writes to constants */
+    private Expr rewriteTarget(Expr target) {
+        return target instanceof Expr.VariableExpr ? target : rewrite(target);
+    }
+
+    @Override
+    public Expr visitAssignmentExpr(Expr.AssignmentExpr expr) {
+        Expr target = rewriteTarget(expr.target);
+        Expr value = rewrite(expr.value);
+        if (target == expr.target && value == expr.value) return expr;
+        return new Expr.AssignmentExpr(target, expr.op, value);
+    }
+
+    @Override
+    public Expr visitPostfixExpr(Expr.PostfixExpr expr) {
+        Expr operand = rewriteTarget(expr.operand);
+        if (operand == expr.operand) return expr;
+        return new Expr.PostfixExpr(operand, expr.op);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.UnaryExpr expr) {
+        if (expr.op.type == Token.TokenType.PLUS_PLUS || expr.op.type == Token.TokenType.MINUS_MINUS) {
+            Expr operand = rewriteTarget(expr.expr);
+            return operand == expr.expr ? expr : new Expr.UnaryExpr(expr.op, operand);
+        }
+        return super.visitUnaryExpr(expr);
+    }
+
+    // statements
+
+    /** drops what follows return, break or continue; declarations stay, they are hoisted */
+    @Override
+    public List<Stmt> rewrite(List<Stmt> statements) {
+        List<Stmt> rewritten = super.rewrite(statements);
+
+        for (int i = 0; i < rewritten.size(); i++) {
+            if (terminates(rewritten.get(i))) {
+                List<Stmt> kept = new ArrayList<>(rewritten.subList(0, i + 1));
+                for (Stmt stmt : rewritten.subList(i + 1, rewritten.size())) {
+                    if (declaredName(stmt) != null) kept.add(stmt);
+                }
+                return kept.size() == rewritten.size() ? rewritten : kept;
+            }
+        }
+        return rewritten;
+    }
+
+    private static boolean terminates(Stmt stmt) {
+        return stmt instanceof Stmt.ReturnStmt
+                || stmt instanceof Stmt.BreakStmt
+                || stmt instanceof Stmt.ContinueStmt;
+    }
+
+    @Override
+    public Stmt visitConstStmt(Stmt.ConstStmt stmt) {
+        Stmt rewritten = super.visitConstStmt(stmt);
+        Expr initializer = ((Stmt.ConstStmt) rewritten).initializer;
+        Map<String, Object> scope = scopes.peek();
+        if (Literals.isLiteral(initializer) && !memberScopes.contains(scope)
+                && scope.get(stmt.name.lexeme) == SHADOWED) {
+            Object value = Literals.value(initializer);
+            if (value == null) value = NULL;
+            scope.put(stmt.name.lexeme, late.contains(stmt) ? new Late(value) : value);
+        }
+        return rewritten;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.BlockStmt stmt) {
+        push(stmt.statements);
+        try {
+            return super.visitBlockStmt(stmt);
+        } finally {
+            scopes.pop();
+        }
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.FunctionStmt stmt) {
+        push(stmt.params.toArray(new Token[0]));
+        functionScopes.add(scopes.peek());
+        try {
+            return super.visitFunctionStmt(stmt);
+        } finally {
+            functionScopes.remove(scopes.pop());
+        }
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.ClassStmt stmt) {
+        push(stmt.members);
+        memberScopes.add(scopes.peek());
+        try {
+            return super.visitClassStmt(stmt);
+        } finally {
+            memberScopes.remove(scopes.pop());
+        }
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.ForStmt stmt) {
+        push(stmt.initializer == null ? null : declaredName(stmt.initializer));
+        Stmt rewritten;
+        try {
+            rewritten = super.visitForStmt(stmt);
+        } finally {
+            scopes.pop();
+        }
+
+        if (rewritten instanceof Stmt.ForStmt loop && isFalse(loop.condition)) {
+            // only the initializer still runs
+            return loop.initializer == null ? null : new Stmt.BlockStmt(List.of(loop.initializer));
+        }
+        return rewritten;
+    }
+
+    @Override
+    public Stmt visitCountedForStmt(Stmt.CountedForStmt stmt) {
+        List<Token> names = new ArrayList<>();
+        names.add(stmt.variable);
+        for (Stmt.CountedForStmt.Derived derived : stmt.derived) names.add(derived.name);
+        push(names.toArray(new Token[0]));
+        try {
+            return super.visitCountedForStmt(stmt);
+        } finally {
+            scopes.pop();
+        }
+    }
+
+    @Override
+    public Stmt visitTryStmt(Stmt.TryStmt stmt) {
+        Stmt.BlockStmt body = rewriteBlock(stmt.body);
+        push(stmt.catchName);
+        Stmt.BlockStmt catchBlock;
+        try {
+            catchBlock = rewriteBlock(stmt.catchBlock);
+        } finally {
+            scopes.pop();
+        }
+        Stmt.BlockStmt finallyBlock = rewriteBlock(stmt.finallyBlock);
+
+        if (body == stmt.body && catchBlock == stmt.catchBlock && finallyBlock == stmt.finallyBlock) {
+            return stmt;
+        }
+        Stmt.TryStmt copy = new Stmt.TryStmt(body, stmt.catchName, catchBlock, finallyBlock);
+        copy.catchSlot = stmt.catchSlot;
+        return copy;
+    }
+
+    // pruning
+
+    private static boolean isTrue(Expr expr) {
+        return expr != null && Literals.isLiteral(expr) && Boolean.TRUE.equals(Literals.value(expr));
+    }
+
+    private static boolean isFalse(Expr expr) {
+        return expr != null && Literals.isLiteral(expr) && Boolean.FALSE.equals(Literals.value(expr));
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.IfStmt stmt) {
+        Stmt rewritten = super.visitIfStmt(stmt);
+        if (!(rewritten instanceof Stmt.IfStmt branch)) return rewritten;
+
+        if (isTrue(branch.condition)) return branch.thenBranch;
+        if (isFalse(branch.condition)) return branch.elseBranch;
+        return branch;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.WhileStmt stmt) {
+        Stmt rewritten = super.visitWhileStmt(stmt);
+        if (rewritten instanceof Stmt.WhileStmt loop && isFalse(loop.condition)) return null;
+        return rewritten;
+    }
+
+    @Override
+    public Stmt visitSwitchStmt(Stmt.SwitchStmt stmt) {
+        Stmt rewritten = super.visitSwitchStmt(stmt);
+        if (!(rewritten instanceof Stmt.SwitchStmt branch)) return rewritten;
+
+        boolean constantSubject = Literals.isLiteral(branch.subject);
+        Object subject = constantSubject ? Literals.value(branch.subject) : null;
+
+        List<Stmt.SwitchStmt.Case> cases = new ArrayList<>();
+        List<Object> seen = new ArrayList<>();
+        Stmt.BlockStmt taken = null;     // the case that certainly matches
+        boolean decided = false;
+
+        for (Stmt.SwitchStmt.Case c : branch.cases) {
+            if (Literals.isLiteral(c.value)) {
+                Object value = Literals.value(c.value);
+                if (seen.stream().anyMatch(v -> Operators.isEqual(v, value))) continue;  // shadowed
+                seen.add(value);
+
+                if (constantSubject) {
+                    if (!Operators.isEqual(subject, value)) continue;                // never matches
+                    cases.add(c);
+                    if (cases.size() == 1) taken = c.body;
+                    decided = true;
+                    break;                                                          // later cases are dead
+                }
+            }
+            cases.add(c);
+        }
+
+        Stmt.BlockStmt defaultBlock = decided ? null : branch.defaultBlock;
+
+        if (constantSubject) {
+            if (taken == null && cases.isEmpty()) taken = defaultBlock;
+            if (taken == null && cases.isEmpty() && defaultBlock == null) return null;
+            if (taken != null && (cases.size() <= 1) && !breaksOut(taken)) return taken;
+        }
+
+        if (cases.size() == branch.cases.size() && defaultBlock == branch.defaultBlock) return branch;
+        return new Stmt.SwitchStmt(branch.keyword, branch.subject, cases, defaultBlock);
+    }
+
+    /** a break that would leave the switch; breaks inside nested loops or switches don't */
+    private static boolean breaksOut(Stmt stmt) {
+        return switch (stmt) {
+            case Stmt.BreakStmt ignored -> true;
+            case Stmt.BlockStmt block -> block.statements.stream().anyMatch(ConstPropagator::breaksOut);
+            case Stmt.IfStmt branch -> breaksOut(branch.thenBranch)
+                    || (branch.elseBranch != null && breaksOut(branch.elseBranch));
+            case Stmt.TryStmt attempt -> breaksOut(attempt.body) || breaksOut(attempt.catchBlock)
+                    || (attempt.finallyBlock != null && breaksOut(attempt.finallyBlock));
+            default -> false;
+        };
+    }
+}
@@ -0,0 +1,122 @@
+package ysharp.optimizer;
+
+import ysharp.YsharpError;
+import ysharp.lexer.Token;
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+import ysharp.runtime.Operators;
+
+import java.util.List;
+
+/**
+ * Collapses literal-only subtrees into single literals, bottom-up. Values
+ * are computed with {@link Operators}, the same code every execution path
+ * uses, so int/double/char semantics cannot drift. An operation that would
+ * fail (division by zero, mismatched operands) is left in place to fail at
+ * run time.
+ *
+ * <p>{@code &&}, {@code ||} and {@code ?:} fold on a constant left operand or
+ * condition. {@code true && x} becomes {@code x} only when {@code x} always
+ * yields a bool, since the operator would otherwise reject it at run time.
+ */
+public class ConstantFolder extends TreeRewriter {
+
+    public static List<Stmt> fold(List<Stmt> program) {
+        return new ConstantFolder().rewrite(program);
+    }
+
+    public static Expr fold(Expr expr) {
+        return new ConstantFolder().rewrite(expr);
+    }
+
+    /** true when {@code expr} can only evaluate to a bool (or fail) */
+    static boolean yieldsBool(Expr expr) {
+        return switch (expr) {
+            case Expr.LiteralExpr literal -> literal.token.literal instanceof Token.Literal.Bool;
+            case Expr.LogicalExpr ignored -> true;
+            case Expr.GroupingExpr grouping -> yieldsBool(grouping.expression);
+            case Expr.UnaryExpr unary -> unary.op.type == Token.TokenType.BANG;
+            case Expr.BinaryExpr binary -> switch (binary.op.type) {
+                case EQUAL_EQUAL, BANG_EQUAL, GREATER_THAN, GREATER_OR_EQUAL, LESS_THAN, LESS_OR_EQUAL -> true;
+                default -> false;
+            };
+            default -> false;
+        };
+    }
+
+    private static Expr fold(Object value, int line, Expr otherwise) {
+        return Literals.representable(value) ? Literals.of(value, line) : otherwise;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.BinaryExpr expr) {
+        Expr rewritten = super.visitBinaryExpr(expr);
+        if (!(rewritten instanceof Expr.BinaryExpr binary)
+                || !Literals.isLiteral(binary.left) || !Literals.isLiteral(binary.right)) {
+            return rewritten;
+        }
+
+        try {
+            Object value = Operators.binary(binary.op.type,
+                    Literals.value(binary.left), Literals.value(binary.right), binary.op.line);
+            return fold(value, binary.op.line, binary);
+        } catch (YsharpError e) {
+            return binary;
+        }
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.UnaryExpr expr) {
+        Expr rewritten = super.visitUnaryExpr(expr);
+        if (!(rewritten instanceof Expr.UnaryExpr unary) || !Literals.isLiteral(unary.expr)) {
+            return rewritten;
+        }
+
+        // ++ and -- need a variable; leave the error to run time
+        if (unary.op.type == Token.TokenType.PLUS_PLUS || unary.op.type == Token.TokenType.MINUS_MINUS) {
+            return unary;
+        }
+
+        try {
+            Object value = Operators.unary(unary.op.type, Literals.value(unary.expr), unary.op.line);
+            return fold(value, unary.op.line, unary);
+        } catch (YsharpError e) {
+            return unary;
+        }
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.LogicalExpr expr) {
+        Expr rewritten = super.visitLogicalExpr(expr);
+        if (!(rewritten instanceof Expr.LogicalExpr logical)
+                || !(Literals.isLiteral(logical.left) && Literals.value(logical.left) instanceof Boolean left)) {
+            return rewritten;
+        }
+
+        boolean and = logical.op.type == Token.TokenType.LOGICAL_AND;
+        // false && x, true || x: the right side never runs
+        if (left != and) return logical.left;
+        // true && x, false || x: the result is x, once x is known to be a bool
+        return yieldsBool(logical.right) ? logical.right : logical;
+    }
+
+    @Override
+    public Expr visitTernaryExpr(Expr.TernaryExpr expr) {
+        Expr rewritten = super.visitTernaryExpr(expr);
+        if (rewritten instanceof Expr.TernaryExpr ternary
+                && Literals.isLiteral(ternary.condition)
+                && Literals.value(ternary.condition) instanceof Boolean condition) {
+            return condition ? ternary.thenBranch : ternary.elseBranch;
+        }
+        return rewritten;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.GroupingExpr expr) {
+        Expr rewritten = super.visitGroupingExpr(expr);
+        if (rewritten instanceof Expr.GroupingExpr grouping && Literals.isLiteral(grouping.expression)) {
+            return grouping.expression;
+        }
+        return rewritten;
+    }
+}
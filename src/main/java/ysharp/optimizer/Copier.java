@@ -0,0 +1,87 @@
+package ysharp.optimizer;
+
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+
+import java.util.List;
+
+/**
+ * Copies a program node for node. Resolving a program writes into its
+ * nodes (the slots, depths and captures of its variables), so programs
+ * run side by side must not share any. Every leaf is rebuilt,
+ * and with it, by {@link TreeRewriter}'s rule, every node above it; the few
+ * nodes with no leaf below them are rebuilt here too. A function body that
+ * does not parse is left shared, as a rewrite leaves it.
+ */
+final class Copier extends TreeRewriter {
+
+    private static final Copier INSTANCE = new Copier();
+
+    private Copier() {
+    }
+
+    static List<Stmt> copy(List<Stmt> program) {
+        return INSTANCE.rewrite(program);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.LiteralExpr expr) {
+        return new Expr.LiteralExpr(expr.token);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.VariableExpr expr) {
+        return new Expr.VariableExpr(expr.name);
+    }
+
+    @Override
+    public Expr visitArrayInitializerExpr(Expr.ArrayInitializerExpr expr) {
+        Expr rewritten = super.visitArrayInitializerExpr(expr);
+        return rewritten == expr ? new Expr.ArrayInitializerExpr(expr.elements) : rewritten;
+    }
+
+    @Override
+    public Expr visitMapInitializerExpr(Expr.MapInitializerExpr expr) {
+        Expr rewritten = super.visitMapInitializerExpr(expr);
+        return rewritten == expr ? new Expr.MapInitializerExpr(expr.entries) : rewritten;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.VarStmt stmt) {
+        Stmt rewritten = super.visitVarStmt(stmt);
+        return rewritten == stmt ? new Stmt.VarStmt(stmt.name, stmt.type, null) : rewritten;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.ClassStmt stmt) {
+        Stmt rewritten = super.visitClassStmt(stmt);
+        return rewritten == stmt ? new Stmt.ClassStmt(stmt.name, stmt.superclass, List.of()) : rewritten;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.BlockStmt stmt) {
+        Stmt rewritten = super.visitBlockStmt(stmt);
+        return rewritten == stmt ? new Stmt.BlockStmt(List.of()) : rewritten;
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.ReturnStmt stmt) {
+        Stmt rewritten = super.visitReturnStmt(stmt);
+        return rewritten == stmt ? new Stmt.ReturnStmt(stmt.keyword, null) : rewritten;
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Stmt.BreakStmt stmt) {
+        return new Stmt.BreakStmt(stmt.keyword);
+    }
+
+    @Override
+    public Stmt visitContinueStmt(Stmt.ContinueStmt stmt) {
+        return new Stmt.ContinueStmt(stmt.keyword);
+    }
+
+    @Override
+    public Stmt visitUseStmt(Stmt.UseStmt stmt) {
+        return new Stmt.UseStmt(stmt.path);
+    }
+}
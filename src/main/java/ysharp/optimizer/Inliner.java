@@ -0,0 +1,324 @@
+package ysharp.optimizer;
+
+import ysharp.YsharpError;
+import ysharp.analysis.Type;
+import ysharp.analysis.TypeInference;
+import ysharp.lexer.Token;
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces calls to small top-level functions with their bodies.
+ *
+ * <p>A function is inlined when its body is a single expression: only
+ * return, if, elif and else, which become nested {@code ?:} (falling off the
+ * end returns null). It must not assign anything. Its name must be bound
+ * once, at the top level, never assigned and only ever called, so every call
+ * site reaches it statically. Every other name the body reads must be bound
+ * nowhere but the top level, so it means the same at each call site. Outside
+ * function bodies, where names resolve in order, a call is only inlined
+ * after the declarations of every variable and constant its body reads.
+ * Recursive functions never qualify; calls to other qualifying functions
+ * are inlined into a body first.
+ *
+ * <p>Arguments are substituted for the parameters, never bound: a call is
+ * only inlined when that is unobservable. An argument qualifies if it is a
+ * literal, a variable, or an expression that cannot fail (see
+ * {@link SafeExpressions}) used at most once. If the body calls anything,
+ * only literal arguments qualify. A call site stays a call when the
+ * substituted body would be larger than {@link #MAX_NODES} nodes.
+ *
+ * <p>Inlined nodes keep the tokens of the function body, so run-time errors
+ * report the lines a real call would have. Works on a resolved program with
+ * its {@link TypeInference} result; run the resolver again on the output.
+ */
+public final class Inliner extends TreeRewriter {
+
+    /** size limit of an inlined body, in expression nodes, after substitution */
+    public static final int MAX_NODES = 32;
+
+    private final TypeInference.Result types;
+    private final Map<String, Stmt.FunctionStmt> candidates = new HashMap<>();
+    private final Map<String, Body> bodies = new HashMap<>();
+    private final Set<String> expanding = new HashSet<>();
+    private final Set<String> declared = new HashSet<>();  // outside function bodies, so far
+    private final Bindings bindings;
+    private int functionDepth;
+
+    private Inliner(TypeInference.Result types, Bindings bindings) {
+        this.types = types;
+        this.bindings = bindings;
+    }
+
+    public static List<Stmt> inline(List<Stmt> program, TypeInference.Result types) {
+        Inliner inliner = new Inliner(types, Bindings.of(program));
+        for (Stmt stmt : program) {
+            if (stmt instanceof Stmt.FunctionStmt function && inliner.bindings.isStatic(function.name.lexeme)) {
+                inliner.candidates.put(function.name.lexeme, function);
+            }
+            // hoisted
+            if (stmt instanceof Stmt.FunctionStmt function) inliner.declared.add(function.name.lexeme);
+            if (stmt instanceof Stmt.ClassStmt klass) inliner.declared.add(klass.name.lexeme);
+        }
+        return inliner.rewrite(program);
+    }
+
+    // bodies as expressions
+
+    /**
+     * a function body as one expression; {@code calls} when evaluating it may
+     * run other code, {@code reads} the names it reads besides its parameters
+     */
+    private record Body(Expr expr, boolean calls, Map<String, Integer> paramUses, Set<String> reads, int size) {}
+
+    /** the inlinable form of {@code name}, or null */
+    private Body body(String name) {
+        if (bodies.containsKey(name)) return bodies.get(name);
+        if (!expanding.add(name)) return null;  // recursive
+
+        Body body = null;
+        try {
+            Stmt.FunctionStmt function = candidates.get(name);
+            Expr expr = asExpression(function.body().statements, function.name.line);
+            if (expr != null) {
+                functionDepth++;
+                try {
+                    expr = rewrite(expr);  // callees first
+                } finally {
+                    functionDepth--;
+                }
+                body = describe(function, expr);
+            }
+        } catch (YsharpError e) {
+            // a body that does not parse stays a call, so the error surfaces there
+        } finally {
+            expanding.remove(name);
+        }
+        bodies.put(name, body);
+        return body;
+    }
+
+    /** the value the statements return, as an expression; null when they do anything else */
+    private static Expr asExpression(List<Stmt> statements, int line) {
+        if (statements.isEmpty()) return Literals.of(null, line);
+
+        Stmt first = statements.getFirst();
+        List<Stmt> rest = statements.subList(1, statements.size());
+        return switch (first) {
+            case Stmt.ReturnStmt ret -> ret.value != null ? ret.value : Literals.of(null, ret.keyword.line);
+            case Stmt.BlockStmt block -> asExpression(concat(block.statements, rest), line);
+            case Stmt.IfStmt branch -> {
+                Expr thenBranch = asExpression(concat(branch.thenBranch.statements, rest), branch.keyword.line);
+                Expr elseBranch = asExpression(
+                        branch.elseBranch == null ? rest : concat(List.of(branch.elseBranch), rest),
+                        branch.keyword.line);
+                yield thenBranch == null || elseBranch == null
+                        ? null : new Expr.TernaryExpr(branch.condition, thenBranch, elseBranch);
+            }
+            default -> null;
+        };
+    }
+
+    private static List<Stmt> concat(List<Stmt> a, List<Stmt> b) {
+        if (b.isEmpty()) return a;
+        List<Stmt> all = new ArrayList<>(a);
+        all.addAll(b);
+        return all;
+    }
+
+    private Body describe(Stmt.FunctionStmt function, Expr expr) {
+        Set<String> params = new HashSet<>();
+        for (Token param : function.params) params.add(param.lexeme);
+
+        Map<String, Integer> paramUses = new HashMap<>();
+        Set<String> reads = new HashSet<>();
+        boolean[] calls = { false };
+        boolean[] inlinable = { true };
+        int[] size = { 0 };
+
+        new TreeRewriter() {
+            @Override
+            public Expr rewrite(Expr expr) {
+                if (expr != null) size[0]++;
+                return super.rewrite(expr);
+            }
+
+            @Override
+            public Expr visitVariableExpr(Expr.VariableExpr expr) {
+                String name = expr.name.lexeme;
+                if (params.contains(name)) paramUses.merge(name, 1, Integer::sum);
+                else if (!bindings.isGlobal(name)) inlinable[0] = false;
+                else reads.add(name);
+                return expr;
+            }
+
+            @Override
+            public Expr visitCallExpr(Expr.CallExpr expr) {
+                calls[0] = true;
+                if (expr.callee instanceof Expr.VariableExpr callee && expanding.contains(callee.name.lexeme)) {
+                    inlinable[0] = false;  // recursive, possibly through other functions
+                }
+                return super.visitCallExpr(expr);
+            }
+
+            @Override
+            public Expr visitAssignmentExpr(Expr.AssignmentExpr expr) {
+                inlinable[0] = false;
+                return expr;
+            }
+
+            @Override
+            public Expr visitPostfixExpr(Expr.PostfixExpr expr) {
+                inlinable[0] = false;
+                return expr;
+            }
+
+            @Override
+            public Expr visitUnaryExpr(Expr.UnaryExpr expr) {
+                if (Bindings.isIncrement(expr.op)) inlinable[0] = false;
+                return super.visitUnaryExpr(expr);
+            }
+
+            @Override
+            public Expr visitSetExpr(Expr.SetExpr expr) {
+                inlinable[0] = false;
+                return expr;
+            }
+        }.rewrite(expr);
+
+        return inlinable[0] && size[0] <= MAX_NODES ? new Body(expr, calls[0], paramUses, reads, size[0]) : null;
+    }
+
+    // call sites
+
+    @Override
+    public Expr visitCallExpr(Expr.CallExpr expr) {
+        Expr rewritten = super.visitCallExpr(expr);
+        if (!(rewritten instanceof Expr.CallExpr call) || !(call.callee instanceof Expr.VariableExpr callee)) {
+            return rewritten;
+        }
+
+        Stmt.FunctionStmt function = candidates.get(callee.name.lexeme);
+        if (function == null || function.params.size() != call.arguments.size()) return rewritten;
+        Body body = body(callee.name.lexeme);
+        if (body == null || !declared(body)) return rewritten;
+
+        Map<String, Expr> arguments = new HashMap<>();
+        int size = body.size;
+        for (int i = 0; i < call.arguments.size(); i++) {
+            String param = function.params.get(i).lexeme;
+            Expr argument = call.arguments.get(i);
+            int uses = body.paramUses.getOrDefault(param, 0);
+            if (!substitutable(argument, uses, body.calls)) return rewritten;
+            size += uses * (nodes(argument) - 1);
+            arguments.put(param, argument);
+        }
+        if (size > MAX_NODES) return rewritten;
+
+        return new Substitution(arguments).rewrite(body.expr);
+    }
+
+    /** the names {@code body} reads resolve where it would be inlined */
+    private boolean declared(Body body) {
+        if (functionDepth > 0) return true;  // function bodies see every global
+        for (String name : body.reads) {
+            if (bindings.declarations.containsKey(name) && !declared.contains(name)) return false;
+        }
+        return true;
+    }
+
+    // declarations
+
+    @Override
+    public Stmt visitVarStmt(Stmt.VarStmt stmt) {
+        Stmt rewritten = super.visitVarStmt(stmt);
+        if (functionDepth == 0) declared.add(stmt.name.lexeme);
+        return rewritten;
+    }
+
+    @Override
+    public Stmt visitConstStmt(Stmt.ConstStmt stmt) {
+        Stmt rewritten = super.visitConstStmt(stmt);
+        if (functionDepth == 0) declared.add(stmt.name.lexeme);
+        return rewritten;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.FunctionStmt stmt) {
+        functionDepth++;
+        try {
+            return super.visitFunctionStmt(stmt);
+        } finally {
+            functionDepth--;
+        }
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.ClassStmt stmt) {
+        functionDepth++;  // fields and methods are not top-level declarations
+        try {
+            return super.visitClassStmt(stmt);
+        } finally {
+            functionDepth--;
+        }
+    }
+
+    private boolean substitutable(Expr argument, int uses, boolean calls) {
+        if (argument instanceof Expr.LiteralExpr) return true;
+        if (calls) return false;
+        if (argument instanceof Expr.VariableExpr) return true;
+        return uses <= 1 && SafeExpressions.safe(argument, this::typeOf);
+    }
+
+    private Type typeOf(Expr expr) {
+        return types.typeOf(expr);
+    }
+
+    private static int nodes(Expr expr) {
+        int[] count = { 0 };
+        new TreeRewriter() {
+            @Override
+            public Expr rewrite(Expr expr) {
+                if (expr != null) count[0]++;
+                return super.rewrite(expr);
+            }
+        }.rewrite(expr);
+        return count[0];
+    }
+
+    /**
+     * A fresh copy of an inlined body with the arguments in place of the
+     * parameters. Every leaf is a new node, so no node is shared between
+     * call sites and the resolver can annotate each one.
+     */
+    private static final class Substitution extends TreeRewriter {
+        private final Map<String, Expr> arguments;
+
+        Substitution(Map<String, Expr> arguments) {
+            this.arguments = arguments;
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.VariableExpr expr) {
+            Expr argument = arguments.get(expr.name.lexeme);
+            if (argument == null) return new Expr.VariableExpr(expr.name);
+            return switch (argument) {
+                case Expr.VariableExpr variable -> new Expr.VariableExpr(variable.name);
+                case Expr.LiteralExpr literal -> new Expr.LiteralExpr(literal.token);
+                default -> argument;  // used at most once
+            };
+        }
+
+        @Override
+        public Expr visitLiteralExpr(Expr.LiteralExpr expr) {
+            return new Expr.LiteralExpr(expr.token);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package ysharp.optimizer;
+
+import ysharp.lexer.Token;
+import ysharp.parser.Expr;
+import ysharp.runtime.Operators;
+
+/**
+ * Conversions between literal nodes and runtime values for passes that
+ * evaluate at compile time. Synthesized tokens carry the line of the code
+ * they replace, so run-time errors still point at the original source.
+ */
+public final class Literals {
+
+    private Literals() {}
+
+    public static boolean isLiteral(Expr expr) {
+        return expr instanceof Expr.LiteralExpr;
+    }
+
+    public static Object value(Expr expr) {
+        return Operators.literal(((Expr.LiteralExpr) expr).token.literal);
+    }
+
+    /** true for values a literal node can hold */
+    public static boolean representable(Object value) {
+        return value == null || value instanceof Integer || value instanceof Double
+                || value instanceof Boolean || value instanceof String || value instanceof Character;
+    }
+
+    public static Expr.LiteralExpr of(Object value, int line) {
+        Token token = switch (value) {
+            case null -> new Token(Token.TokenType.NULL_, "null", new Token.Literal.Null(), line);
+            case Integer i -> new Token(Token.TokenType.INT, Integer.toString(i), new Token.Literal.Int(i), line);
+            case Double d -> new Token(Token.TokenType.DOUBLE, Double.toString(d), new Token.Literal.Double(d), line);
+            case Boolean b -> new Token(b ? Token.TokenType.TRUE_ : Token.TokenType.FALSE_,
+                    Boolean.toString(b), new Token.Literal.Bool(b), line);
+            case String s -> new Token(Token.TokenType.STRING, "\"" + s + "\"", new Token.Literal.Str(s), line);
+            case Character c -> new Token(Token.TokenType.CHAR, "'" + c + "'", new Token.Literal.Chr(c), line);
+            default -> throw new IllegalArgumentException(
+                    "No literal for a value of type " + Operators.typeName(value) + ".");
+        };
+        return new Expr.LiteralExpr(token);
+    }
+}
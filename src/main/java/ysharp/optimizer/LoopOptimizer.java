@@ -0,0 +1,524 @@
+package ysharp.optimizer;
+
+import ysharp.YsharpError;
+import ysharp.analysis.Resolution;
+import ysharp.analysis.Type;
+import ysharp.analysis.TypeInference;
+import ysharp.lexer.Token;
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loop optimizations for while and for loops.
+ *
+ * <p>Invariant code motion: a subexpression of a loop's condition, increment
+ * or body moves in front of the loop, as {@code var $licmN = expr;} in a
+ * block around it, when no variable it reads can change while the loop runs
+ * and its operand types say it can neither fail nor have an effect. It may
+ * then run when the loop body would not have, which is unobservable. Inside
+ * a function, a variable of an outer frame may still be unset when the
+ * function runs (a global declared further down, say), so an operation on
+ * one is never judged safe there. A
+ * variable can change when the loop writes or declares its name, or when the
+ * loop calls anything and the variable is a global or may be captured by a
+ * closure. Property reads never move.
+ *
+ * <p>Counted loops: {@code for (var i = start; i < limit; i += step)} with
+ * an int {@code i} that only the increment writes, an invariant int limit
+ * and a constant step becomes a {@link Stmt.CountedForStmt}. Inside its body
+ * {@code i * k} with an invariant int {@code k} becomes a derived variable
+ * that advances by {@code step * k} instead of multiplying each time, and
+ * {@code i % 2^n} becomes {@code i & (2^n - 1)} where {@code i} is provably
+ * never negative in the body.
+ *
+ * <p>Works on a resolved program with its {@link TypeInference} result. New
+ * variables are unresolved: run the resolver again on the output.
+ */
+public final class LoopOptimizer extends TreeRewriter {
+
+    private final TypeInference.Result types;
+    private final Map<Expr, Type> temps = new IdentityHashMap<>();  // types of introduced variables
+    // per enclosing frame: locals no call can change (functions without closures)
+    private final Deque<Boolean> privateFrames = new ArrayDeque<>();
+    private int hoisted;
+    private int derived;
+
+    private LoopOptimizer(TypeInference.Result types) {
+        this.types = types;
+    }
+
+    public static List<Stmt> optimize(List<Stmt> program, TypeInference.Result types) {
+        LoopOptimizer optimizer = new LoopOptimizer(types);
+        optimizer.privateFrames.push(false);
+        return optimizer.rewrite(program);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.FunctionStmt stmt) {
+        Stmt.BlockStmt body;
+        try {
+            body = stmt.body();
+        } catch (YsharpError e) {
+            return stmt;
+        }
+        privateFrames.push(!scan(body).closures);
+        try {
+            return super.visitFunctionStmt(stmt);
+        } finally {
+            privateFrames.pop();
+        }
+    }
+
+    // loops
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.WhileStmt stmt) {
+        Effects effects = scan(stmt.condition, stmt.body);
+        List<Stmt> before = new ArrayList<>();
+        Hoister hoister = new Hoister(effects, before);
+
+        Expr condition = hoister.rewrite(stmt.condition);
+        Stmt body = hoister.rewriteRequired(stmt.body);
+        Stmt loop = condition == stmt.condition && body == stmt.body
+                ? stmt : new Stmt.WhileStmt(stmt.keyword, condition, body);
+        return wrap(before, super.visitWhileStmt((Stmt.WhileStmt) loop));
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.ForStmt stmt) {
+        Effects effects = scan(stmt.initializer, stmt.condition, stmt.increment, stmt.body);
+        List<Stmt> before = new ArrayList<>();
+        Hoister hoister = new Hoister(effects, before);
+
+        // the initializer runs once; nothing to gain there
+        Expr condition = hoister.rewrite(stmt.condition);
+        Expr increment = hoister.rewrite(stmt.increment);
+        Stmt body = hoister.rewriteRequired(stmt.body);
+
+        Stmt.CountedForStmt counted = counted(stmt, condition, increment, body, effects);
+        if (counted != null) return wrap(before, super.visitCountedForStmt(counted));
+
+        Stmt loop = condition == stmt.condition && increment == stmt.increment && body == stmt.body
+                ? stmt : new Stmt.ForStmt(stmt.keyword, stmt.initializer, condition, increment, body);
+        return wrap(before, super.visitForStmt((Stmt.ForStmt) loop));
+    }
+
+    private static Stmt wrap(List<Stmt> before, Stmt loop) {
+        if (before.isEmpty()) return loop;
+        before.add(loop);
+        return new Stmt.BlockStmt(before);
+    }
+
+    // what a loop may change
+
+    private static final class Effects extends TreeRewriter {
+        final Set<String> written = new HashSet<>();  // assigned or declared anywhere inside
+        boolean calls;
+        boolean closures;
+
+        @Override
+        public Expr visitAssignmentExpr(Expr.AssignmentExpr expr) {
+            write(expr.target);
+            return super.visitAssignmentExpr(expr);
+        }
+
+        @Override
+        public Expr visitPostfixExpr(Expr.PostfixExpr expr) {
+            write(expr.operand);
+            return super.visitPostfixExpr(expr);
+        }
+
+        @Override
+        public Expr visitUnaryExpr(Expr.UnaryExpr expr) {
+            if (isIncrement(expr.op)) write(expr.expr);
+            return super.visitUnaryExpr(expr);
+        }
+
+        @Override
+        public Expr visitCallExpr(Expr.CallExpr expr) {
+            calls = true;
+            return super.visitCallExpr(expr);
+        }
+
+        @Override
+        public Expr visitSetExpr(Expr.SetExpr expr) {
+            calls = true;
+            return super.visitSetExpr(expr);
+        }
+
+        private void write(Expr target) {
+            if (target instanceof Expr.VariableExpr variable) written.add(variable.name.lexeme);
+        }
+
+        @Override
+        public Stmt visitVarStmt(Stmt.VarStmt stmt) {
+            written.add(stmt.name.lexeme);
+            return super.visitVarStmt(stmt);
+        }
+
+        @Override
+        public Stmt visitConstStmt(Stmt.ConstStmt stmt) {
+            written.add(stmt.name.lexeme);
+            return super.visitConstStmt(stmt);
+        }
+
+        @Override
+        public Stmt visitFunctionStmt(Stmt.FunctionStmt stmt) {
+            written.add(stmt.name.lexeme);
+            for (Token param : stmt.params) written.add(param.lexeme);
+            closures = true;
+            return super.visitFunctionStmt(stmt);
+        }
+
+        @Override
+        public Stmt visitClassStmt(Stmt.ClassStmt stmt) {
+            written.add(stmt.name.lexeme);
+            closures = true;
+            return super.visitClassStmt(stmt);
+        }
+
+        @Override
+        public Stmt visitTryStmt(Stmt.TryStmt stmt) {
+            written.add(stmt.catchName.lexeme);
+            return super.visitTryStmt(stmt);
+        }
+
+        @Override
+        public Stmt visitCountedForStmt(Stmt.CountedForStmt stmt) {
+            written.add(stmt.variable.lexeme);
+            for (Stmt.CountedForStmt.Derived d : stmt.derived) written.add(d.name.lexeme);
+            return super.visitCountedForStmt(stmt);
+        }
+    }
+
+    private static Effects scan(Object... parts) {
+        Effects effects = new Effects();
+        for (Object part : parts) {
+            if (part instanceof Stmt stmt) stmt.accept(effects);
+            else if (part instanceof Expr expr) expr.accept(effects);
+        }
+        return effects;
+    }
+
+    private boolean invariant(Expr expr, Effects effects) {
+        return switch (expr) {
+            case Expr.LiteralExpr ignored -> true;
+            case Expr.VariableExpr variable -> !effects.written.contains(variable.name.lexeme)
+                    && (!effects.calls || unreachableByCalls(variable));
+            case Expr.GroupingExpr grouping -> invariant(grouping.expression, effects);
+            case Expr.UnaryExpr unary -> !isIncrement(unary.op) && invariant(unary.expr, effects);
+            case Expr.BinaryExpr binary -> invariant(binary.left, effects) && invariant(binary.right, effects);
+            case Expr.LogicalExpr logical -> invariant(logical.left, effects) && invariant(logical.right, effects);
+            case Expr.TernaryExpr ternary -> invariant(ternary.condition, effects)
+                    && invariant(ternary.thenBranch, effects) && invariant(ternary.elseBranch, effects);
+            default -> false;
+        };
+    }
+
+    /** introduced variables have no other users; locals of a function without closures have none either */
+    private boolean unreachableByCalls(Expr.VariableExpr variable) {
+        if (temps.containsKey(variable)) return true;
+        Resolution.Access access = types.resolution().of(variable);
+        return access != null && access.depth() == 0 && privateFrames.peek();
+    }
+
+    // failure-free operations, by operand types
+
+    private Type typeOf(Expr expr) {
+        Type type = temps.get(expr);
+        return type != null ? type : types.typeOf(expr);
+    }
+
+    private boolean safe(Expr expr) {
+        return SafeExpressions.safe(expr, this::settledType);
+    }
+
+    /** the type of {@code expr} wherever it is evaluated early */
+    private Type settledType(Expr expr) {
+        return expr instanceof Expr.VariableExpr variable && mayBeUnset(variable) ? Type.DYNAMIC : typeOf(expr);
+    }
+
+    /** a variable of an outer frame, read inside a function, holds null until its declaration runs */
+    private boolean mayBeUnset(Expr.VariableExpr variable) {
+        if (temps.containsKey(variable) || privateFrames.size() == 1) return false;
+        Resolution.Access access = types.resolution().of(variable);  // null: occurrences differ
+        return access == null || access.depth() != 0 || access.isCapture();
+    }
+
+    /** worth a variable: an operation that reads something */
+    private static boolean reads(Expr expr) {
+        return switch (expr) {
+            case Expr.VariableExpr ignored -> true;
+            case Expr.GroupingExpr grouping -> reads(grouping.expression);
+            case Expr.UnaryExpr unary -> reads(unary.expr);
+            case Expr.BinaryExpr binary -> reads(binary.left) || reads(binary.right);
+            case Expr.LogicalExpr logical -> reads(logical.left) || reads(logical.right);
+            case Expr.TernaryExpr ternary -> reads(ternary.condition)
+                    || reads(ternary.thenBranch) || reads(ternary.elseBranch);
+            default -> false;
+        };
+    }
+
+    /** structural identity of an invariant expression, so repeats share a variable */
+    private static Object key(Expr expr) {
+        return switch (expr) {
+            case Expr.LiteralExpr literal -> literal.token.literal;
+            case Expr.VariableExpr variable -> List.of("var", variable.name.lexeme);
+            case Expr.GroupingExpr grouping -> key(grouping.expression);
+            case Expr.UnaryExpr unary -> List.of(unary.op.type, key(unary.expr));
+            case Expr.BinaryExpr binary -> List.of(binary.op.type, key(binary.left), key(binary.right));
+            case Expr.LogicalExpr logical -> List.of(logical.op.type, key(logical.left), key(logical.right));
+            case Expr.TernaryExpr ternary ->
+                    List.of("?:", key(ternary.condition), key(ternary.thenBranch), key(ternary.elseBranch));
+            default -> throw new IllegalArgumentException("[Programmatic error] not an invariant expression");
+        };
+    }
+
+    private static boolean isIncrement(Token op) {
+        return op.type == Token.TokenType.PLUS_PLUS || op.type == Token.TokenType.MINUS_MINUS;
+    }
+
+    private Expr.VariableExpr variable(String name, int line, Type type) {
+        Expr.VariableExpr variable = new Expr.VariableExpr(
+                new Token(Token.TokenType.IDENTIFIER, name, new Token.Literal.Null(), line));
+        temps.put(variable, type);
+        return variable;
+    }
+
+    private static int line(Expr expr) {
+        return switch (expr) {
+            case Expr.BinaryExpr binary -> binary.op.line;
+            case Expr.UnaryExpr unary -> unary.op.line;
+            case Expr.LogicalExpr logical -> logical.op.line;
+            case Expr.TernaryExpr ternary -> line(ternary.condition);
+            case Expr.GroupingExpr grouping -> line(grouping.expression);
+            case Expr.VariableExpr variable -> variable.name.line;
+            case Expr.LiteralExpr literal -> literal.token.line;
+            default -> 0;
+        };
+    }
+
+    /** replaces maximal invariant subexpressions of one loop; nested function bodies are other frames */
+    private final class Hoister extends TreeRewriter {
+        private final Effects effects;
+        private final List<Stmt> before;
+        private final Map<Object, Expr.VariableExpr> moved = new HashMap<>();
+
+        Hoister(Effects effects, List<Stmt> before) {
+            this.effects = effects;
+            this.before = before;
+        }
+
+        @Override
+        public Expr rewrite(Expr expr) {
+            if (expr == null) return null;
+            if (!reads(expr) || expr instanceof Expr.VariableExpr || expr instanceof Expr.GroupingExpr
+                    || !invariant(expr, effects) || !safe(expr)) {
+                return super.rewrite(expr);
+            }
+
+            Object key = key(expr);
+            Expr.VariableExpr temp = moved.get(key);
+            if (temp == null) {
+                Type type = typeOf(expr);
+                temp = variable("$licm" + hoisted++, line(expr), type);
+                moved.put(key, temp);
+                before.add(new Stmt.VarStmt(temp.name, null, expr));
+            }
+            return variable(temp.name.lexeme, line(expr), temps.get(temp));
+        }
+
+        @Override
+        public Stmt visitFunctionStmt(Stmt.FunctionStmt stmt) {
+            return stmt;
+        }
+
+        @Override
+        public Stmt visitClassStmt(Stmt.ClassStmt stmt) {
+            return stmt;
+        }
+    }
+
+    // counted loops
+
+    private Stmt.CountedForStmt counted(Stmt.ForStmt loop, Expr condition, Expr increment, Stmt body,
+                                        Effects effects) {
+        if (!(loop.initializer instanceof Stmt.VarStmt init) || init.initializer == null) return null;
+        // the increment keeps an int an int; the body never writes it
+        // an annotation converts nothing, so the initializer has to be an int itself
+        if (typeOf(init.initializer) != Type.INT) return null;
+        String name = init.name.lexeme;
+
+        if (condition == null || !(SafeExpressions.unwrap(condition) instanceof Expr.BinaryExpr test)) return null;
+        Token comparison;
+        Expr limit;
+        if (isVariable(test.left, name)) {
+            comparison = test.op;
+            limit = test.right;
+        } else if (isVariable(test.right, name)) {
+            comparison = flip(test.op);
+            limit = test.left;
+        } else {
+            return null;
+        }
+        if (comparison == null || !isComparison(comparison) || !settledType(limit).isIntLike()
+                || !invariant(limit, effects) || !safe(limit)) {
+            return null;
+        }
+
+        Integer step = step(increment, name);
+        if (step == null || step == 0) return null;
+
+        // only the increment may write the variable, and nothing may capture it
+        Effects inside = scan(body);
+        if (inside.written.contains(name) || inside.closures) return null;
+
+        Reducer reducer = new Reducer(name, effects, nonNegative(init.initializer, comparison, limit, step));
+        Stmt reduced = reducer.rewriteRequired(body);
+        return new Stmt.CountedForStmt(loop.keyword, init.name, init.initializer, comparison, limit,
+                step, reducer.derived, reduced);
+    }
+
+    private static boolean isVariable(Expr expr, String name) {
+        return SafeExpressions.unwrap(expr) instanceof Expr.VariableExpr variable
+                && variable.name.lexeme.equals(name);
+    }
+
+    /** the comparison with its operands swapped, or null for anything else */
+    private static Token flip(Token op) {
+        Token.TokenType type = switch (op.type) {
+            case LESS_THAN -> Token.TokenType.GREATER_THAN;
+            case LESS_OR_EQUAL -> Token.TokenType.GREATER_OR_EQUAL;
+            case GREATER_THAN -> Token.TokenType.LESS_THAN;
+            case GREATER_OR_EQUAL -> Token.TokenType.LESS_OR_EQUAL;
+            default -> null;
+        };
+        if (type == null) return null;
+        String lexeme = switch (type) {
+            case LESS_THAN -> "<";
+            case LESS_OR_EQUAL -> "<=";
+            case GREATER_THAN -> ">";
+            default -> ">=";
+        };
+        return new Token(type, lexeme, op.literal, op.line);
+    }
+
+    private static boolean isComparison(Token op) {
+        return switch (op.type) {
+            case LESS_THAN, LESS_OR_EQUAL, GREATER_THAN, GREATER_OR_EQUAL -> true;
+            default -> false;
+        };
+    }
+
+    /** the constant the increment adds to {@code name}, or null */
+    private static Integer step(Expr increment, String name) {
+        if (increment == null) return null;
+        return switch (SafeExpressions.unwrap(increment)) {
+            case Expr.PostfixExpr postfix when isVariable(postfix.operand, name) ->
+                    postfix.op.type == Token.TokenType.PLUS_PLUS ? 1 : -1;
+            case Expr.UnaryExpr unary when isIncrement(unary.op) && isVariable(unary.expr, name) ->
+                    unary.op.type == Token.TokenType.PLUS_PLUS ? 1 : -1;
+            case Expr.AssignmentExpr assignment when isVariable(assignment.target, name)
+                    && SafeExpressions.literal(assignment.value) instanceof Integer amount
+                    && amount != Integer.MIN_VALUE ->
+                    switch (assignment.op.type) {
+                        case PLUS_ASSIGN -> amount;
+                        case MINUS_ASSIGN -> -amount;
+                        default -> null;
+                    };
+            default -> null;
+        };
+    }
+
+    /**
+     * True when the variable is never negative while the body runs: the
+     * body only runs when the comparison holds, and counting up from a
+     * non-negative start must not wrap around past the limit.
+     */
+    private static boolean nonNegative(Expr start, Token comparison, Expr limit, int step) {
+        Object bound = SafeExpressions.literal(limit);
+        long max = Integer.MAX_VALUE;
+        if (bound instanceof Integer l) {
+            if (comparison.type == Token.TokenType.GREATER_OR_EQUAL && l >= 0) return true;
+            if (comparison.type == Token.TokenType.GREATER_THAN && l >= -1) return true;
+        }
+        if (!(SafeExpressions.literal(start) instanceof Integer from) || from < 0 || step < 0) return false;
+        return switch (comparison.type) {
+            case LESS_THAN -> step == 1 || (bound instanceof Integer l && l - 1L + step <= max);
+            case LESS_OR_EQUAL -> bound instanceof Integer l && l + (long) step <= max;
+            default -> false;
+        };
+    }
+
+    /** strength reduction in the body of a counted loop */
+    private final class Reducer extends TreeRewriter {
+        private final String variable;
+        private final Effects effects;
+        private final boolean nonNegative;
+        private final List<Stmt.CountedForStmt.Derived> derived = new ArrayList<>();
+        private final Map<Object, String> names = new HashMap<>();
+
+        Reducer(String variable, Effects effects, boolean nonNegative) {
+            this.variable = variable;
+            this.effects = effects;
+            this.nonNegative = nonNegative;
+        }
+
+        @Override
+        public Expr visitBinaryExpr(Expr.BinaryExpr expr) {
+            Expr rewritten = super.visitBinaryExpr(expr);
+            if (!(rewritten instanceof Expr.BinaryExpr binary)) return rewritten;
+
+            if (binary.op.type == Token.TokenType.MULTIPLY) {
+                if (isVariable(binary.left, variable) && isFactor(binary.right)) {
+                    return derive(binary.right, binary.op.line);
+                }
+                if (isVariable(binary.right, variable) && isFactor(binary.left)) {
+                    return derive(binary.left, binary.op.line);
+                }
+            }
+
+            if (binary.op.type == Token.TokenType.MODULO && nonNegative && isVariable(binary.left, variable)
+                    && SafeExpressions.literal(binary.right) instanceof Integer divisor
+                    && divisor > 0 && Integer.bitCount(divisor) == 1) {
+                Token and = new Token(Token.TokenType.BITWISE_AND, "&", binary.op.literal, binary.op.line);
+                return new Expr.BinaryExpr(binary.left, and, Literals.of(divisor - 1, binary.op.line));
+            }
+            return binary;
+        }
+
+        private boolean isFactor(Expr expr) {
+            return settledType(expr).isIntLike() && invariant(expr, effects) && safe(expr);
+        }
+
+        private Expr derive(Expr factor, int line) {
+            String name = names.computeIfAbsent(key(factor), k -> {
+                String fresh = "$sr" + LoopOptimizer.this.derived++;
+                derived.add(new Stmt.CountedForStmt.Derived(
+                        new Token(Token.TokenType.IDENTIFIER, fresh, new Token.Literal.Null(), line), factor));
+                return fresh;
+            });
+            return variable(name, line, Type.INT);
+        }
+
+        @Override
+        public Stmt visitFunctionStmt(Stmt.FunctionStmt stmt) {
+            return stmt;
+        }
+
+        @Override
+        public Stmt visitClassStmt(Stmt.ClassStmt stmt) {
+            return stmt;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package ysharp.optimizer;
+
+import ysharp.YsharpError;
+import ysharp.analysis.Resolver;
+import ysharp.analysis.TypeInference;
+import ysharp.interpreter.Interpreter;
+import ysharp.lexer.Token;
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Specializes a program for known values of some of its globals.
+ * {@link #bind} only sets their initial values. {@link #specialize} also
+ * folds them in: a known global that is never assigned becomes a constant,
+ * and then, until nothing changes, constants are propagated and dead
+ * branches pruned ({@link ConstPropagator}), small functions are inlined
+ * ({@link Inliner}), and calls of pure top-level functions on literal
+ * arguments are run during specialization and replaced by their result. A
+ * call that fails, returns something no literal can hold, or runs past
+ * {@link #STEP_LIMIT} loop iterations and calls stays for run time, and so
+ * do calls of functions reading a global declared after code first runs,
+ * which may still be unset when they are called. A round whose output no
+ * longer resolves is dropped, and the program of the round before returned.
+ *
+ * <p>Both return a copy that shares no node with the input, as running a
+ * program writes into its nodes; run the resolver again on it before use
+ * (the interpreter does). A specialized program can be kept and run many
+ * times, each run on its own copy made by {@link #bind}; see
+ * {@link SpecializationCache}.
+ */
+public final class PartialEvaluator extends TreeRewriter {
+
+    /** budget of one pre-evaluated call, in loop iterations and calls */
+    public static final long STEP_LIMIT = 1_000_000;
+
+    private static final int MAX_ROUNDS = 8;
+
+    private final List<Stmt> program;
+    private final Map<String, Stmt.FunctionStmt> pure;
+    private Interpreter interpreter;
+    private boolean unavailable;  // the declarations could not be run
+
+    private PartialEvaluator(List<Stmt> program, Map<String, Stmt.FunctionStmt> pure) {
+        this.program = program;
+        this.pure = pure;
+    }
+
+    /**
+     * A copy of {@code program}, sharing no node with it, with the top-level
+     * variables and constants named in {@code values} initialized to those
+     * values instead.
+     *
+     * @throws IllegalArgumentException when a name is not a top-level
+     *         variable or constant, or a value cannot be a literal
+     */
+    public static List<Stmt> bind(List<Stmt> program, Map<String, ?> values) {
+        return bind(program, values, null);
+    }
+
+    public static List<Stmt> specialize(List<Stmt> program, Map<String, ?> known) {
+        List<Stmt> residual = bind(program, known, Bindings.of(program));
+        for (int round = 0; round < MAX_ROUNDS && resolves(residual); round++) {
+            List<Stmt> next = ConstPropagator.propagate(residual);
+            if (!resolves(next)) break;  // keep the last program that resolves
+            Resolver resolver = new Resolver();
+            resolver.resolve(next);
+            next = Inliner.inline(next, TypeInference.infer(next, resolver.resolution()));
+            if (!resolves(next)) break;
+            next = evaluateCalls(next);
+            if (next == residual) break;
+            residual = next;
+        }
+        return residual;
+    }
+
+    private static boolean resolves(List<Stmt> program) {
+        return new Resolver().resolve(program).isEmpty();
+    }
+
+    // binding
+
+    /** with {@code bindings}, known globals that are never assigned become constants */
+    private static List<Stmt> bind(List<Stmt> program, Map<String, ?> values, Bindings bindings) {
+        Set<String> unbound = new HashSet<>(values.keySet());
+        List<Stmt> result = new ArrayList<>(program.size());
+        for (Stmt stmt : program) {
+            Token name = switch (stmt) {
+                case Stmt.VarStmt var -> var.name;
+                case Stmt.ConstStmt constant -> constant.name;
+                default -> null;
+            };
+            if (name == null || !unbound.remove(name.lexeme)) {
+                result.add(stmt);
+                continue;
+            }
+
+            Token type = stmt instanceof Stmt.VarStmt var ? var.type : ((Stmt.ConstStmt) stmt).type;
+            Expr value = Literals.of(values.get(name.lexeme), name.line);
+            boolean constant = stmt instanceof Stmt.ConstStmt
+                    || (bindings != null && !bindings.assigned.contains(name.lexeme));
+            result.add(constant ? new Stmt.ConstStmt(name, type, value) : new Stmt.VarStmt(name, type, value));
+        }
+        if (!unbound.isEmpty()) {
+            throw new IllegalArgumentException("Not top-level variables of the program: " + unbound);
+        }
+        return Copier.copy(result);
+    }
+
+    // evaluating calls
+
+    private static List<Stmt> evaluateCalls(List<Stmt> program) {
+        Bindings bindings = Bindings.of(program);
+        Map<String, Stmt.FunctionStmt> pure = new HashMap<>();
+        Set<String> late = new HashSet<>();
+        boolean ran = false;
+        for (Stmt stmt : program) {
+            if (stmt instanceof Stmt.FunctionStmt function && function.pure
+                    && bindings.isUnique(function.name.lexeme) && !bindings.assigned.contains(function.name.lexeme)) {
+                pure.put(function.name.lexeme, function);
+            }
+            if (ran && stmt instanceof Stmt.VarStmt var) late.add(var.name.lexeme);
+            if (ran && stmt instanceof Stmt.ConstStmt constant) late.add(constant.name.lexeme);
+            ran = ran || ConstPropagator.Calls.in(stmt);
+        }
+
+        // code may run a function reading a late global before the global is set
+        boolean changed = !late.isEmpty();
+        while (changed) {
+            changed = false;
+            for (var it = pure.values().iterator(); it.hasNext(); ) {
+                Stmt.FunctionStmt function = it.next();
+                Set<String> reads = reads(function);
+                if (reads != null && reads.stream().noneMatch(late::contains)) continue;
+                it.remove();
+                late.add(function.name.lexeme);  // and so do its callers
+                changed = true;
+            }
+        }
+        return pure.isEmpty() ? program : new PartialEvaluator(program, pure).rewrite(program);
+    }
+
+    /** the names {@code function} reads, or null when its body does not parse */
+    private static Set<String> reads(Stmt.FunctionStmt function) {
+        List<Stmt> body;
+        try {
+            body = function.body().statements;
+        } catch (YsharpError e) {
+            return null;
+        }
+        Set<String> names = new HashSet<>();
+        new TreeRewriter() {
+            @Override
+            public Expr visitVariableExpr(Expr.VariableExpr expr) {
+                names.add(expr.name.lexeme);
+                return expr;
+            }
+        }.rewrite(body);
+        return names;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.CallExpr expr) {
+        Expr rewritten = super.visitCallExpr(expr);
+        if (!(rewritten instanceof Expr.CallExpr call) || !(call.callee instanceof Expr.VariableExpr callee)) {
+            return rewritten;
+        }
+        Stmt.FunctionStmt function = pure.get(callee.name.lexeme);
+        if (function == null || function.params.size() != call.arguments.size()) return call;
+
+        Object[] arguments = new Object[call.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            if (!Literals.isLiteral(call.arguments.get(i))) return call;
+            arguments[i] = Literals.value(call.arguments.get(i));
+        }
+
+        Interpreter interpreter = interpreter();
+        if (interpreter == null) return call;
+        Object value;
+        try {
+            value = interpreter.callFunction(callee.name.lexeme, arguments);
+        } catch (YsharpError e) {
+            return call;  // fails the same way at run time
+        }
+        return Literals.representable(value) ? Literals.of(value, callee.name.line) : call;
+    }
+
+    /**
+     * An interpreter that has run the declarations of the program, made the
+     * first time a call is evaluated. Pure functions read no variable with a
+     * computed initializer, so those are declared without one.
+     */
+    private Interpreter interpreter() {
+        if (interpreter != null || unavailable) return interpreter;
+
+        List<Stmt> declarations = new ArrayList<>();
+        for (Stmt stmt : program) {
+            switch (stmt) {
+                case Stmt.FunctionStmt function -> declarations.add(function);
+                case Stmt.ClassStmt klass -> declarations.add(klass);
+                case Stmt.VarStmt var -> declarations.add(Literals.isLiteral(var.initializer)
+                        ? var : new Stmt.VarStmt(var.name, null, null));
+                case Stmt.ConstStmt constant -> declarations.add(Literals.isLiteral(constant.initializer)
+                        ? constant : new Stmt.VarStmt(constant.name, null, null));
+                default -> { }
+            }
+        }
+
+        Interpreter candidate = new Interpreter(new PrintStream(OutputStream.nullOutputStream()));
+        candidate.setStepLimit(STEP_LIMIT);
+        try {
+            candidate.run(declarations);
+            interpreter = candidate;
+        } catch (YsharpError e) {
+            unavailable = true;
+        }
+        return interpreter;
+    }
+}
@@ -0,0 +1,80 @@
+package ysharp.optimizer;
+
+import ysharp.analysis.Type;
+import ysharp.lexer.Token;
+import ysharp.parser.Expr;
+
+import java.util.function.Function;
+
+/**
+ * Expressions that can neither fail nor have an effect, judged by the
+ * static types of their operands. Evaluating one earlier, later, more than
+ * once or not at all is unobservable as long as the variables it reads keep
+ * their values.
+ */
+final class SafeExpressions {
+
+    private SafeExpressions() {}
+
+    static boolean safe(Expr expr, Function<Expr, Type> typeOf) {
+        return switch (expr) {
+            case Expr.LiteralExpr ignored -> true;
+            case Expr.VariableExpr ignored -> true;
+            case Expr.GroupingExpr grouping -> safe(grouping.expression, typeOf);
+            case Expr.UnaryExpr unary -> {
+                Type operand = typeOf.apply(unary.expr);
+                boolean typed = switch (unary.op.type) {
+                    case MINUS, PLUS -> operand.isNumeric();
+                    case BANG -> operand == Type.BOOL;
+                    case BITWISE_NOT -> operand.isIntLike();
+                    default -> false;
+                };
+                yield typed && safe(unary.expr, typeOf);
+            }
+            case Expr.BinaryExpr binary ->
+                    safe(binary.op.type, typeOf.apply(binary.left), typeOf.apply(binary.right), binary.right)
+                    && safe(binary.left, typeOf) && safe(binary.right, typeOf);
+            case Expr.LogicalExpr logical ->
+                    typeOf.apply(logical.left) == Type.BOOL && typeOf.apply(logical.right) == Type.BOOL
+                    && safe(logical.left, typeOf) && safe(logical.right, typeOf);
+            case Expr.TernaryExpr ternary -> typeOf.apply(ternary.condition) == Type.BOOL
+                    && safe(ternary.condition, typeOf)
+                    && safe(ternary.thenBranch, typeOf) && safe(ternary.elseBranch, typeOf);
+            default -> false;
+        };
+    }
+
+    private static boolean safe(Token.TokenType op, Type left, Type right, Expr divisor) {
+        return switch (op) {
+            case EQUAL_EQUAL, BANG_EQUAL -> true;
+            case PLUS -> (left.isNumeric() && right.isNumeric())
+                    || ((left == Type.STRING || right == Type.STRING)
+                        && (left.isPrimitive() || left == Type.STRING)
+                        && (right.isPrimitive() || right == Type.STRING));
+            case MINUS, MULTIPLY,
+                 GREATER_THAN, GREATER_OR_EQUAL, LESS_THAN, LESS_OR_EQUAL -> left.isNumeric() && right.isNumeric();
+            case DIVIDE, MODULO -> left.isNumeric() && right.isNumeric()
+                    && (left == Type.DOUBLE || right == Type.DOUBLE || nonZero(divisor));
+            case LEFT_SHIFT, RIGHT_SHIFT -> left.isIntLike() && right.isIntLike();
+            case BITWISE_AND, BITWISE_OR, BITWISE_XOR ->
+                    (left.isIntLike() && right.isIntLike()) || (left == Type.BOOL && right == Type.BOOL);
+            default -> false;
+        };
+    }
+
+    private static boolean nonZero(Expr expr) {
+        Object value = literal(expr);
+        return value instanceof Integer i ? i != 0 : value instanceof Character c && c != 0;
+    }
+
+    /** the value of a possibly parenthesized literal, or null */
+    static Object literal(Expr expr) {
+        Expr inner = unwrap(expr);
+        return Literals.isLiteral(inner) ? Literals.value(inner) : null;
+    }
+
+    static Expr unwrap(Expr expr) {
+        while (expr instanceof Expr.GroupingExpr grouping) expr = grouping.expression;
+        return expr;
+    }
+}
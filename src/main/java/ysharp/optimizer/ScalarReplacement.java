@@ -0,0 +1,283 @@
+package ysharp.optimizer;
+
+import ysharp.analysis.TypeInference;
+import ysharp.lexer.Token;
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+import ysharp.runtime.Operators;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces array and map literals that never escape with plain local
+ * variables, so they are never allocated.
+ *
+ * <p>A local {@code var p = {"x": e1, "y": e2};} qualifies when its keys are
+ * all string constants, {@code p} is bound nowhere else in the program, and
+ * every use of {@code p} reads a key the literal has ({@code p.x}) in the
+ * same function and scope. The declaration becomes
+ * {@code var $p.x = e1; var $p.y = e2;} and each read becomes the matching
+ * variable. Arrays have no element access, so an array qualifies when its
+ * only uses are {@code .length}; its elements are kept as expression
+ * statements for their effects and {@code .length} becomes the constant
+ * size. Any other use (passing, returning, printing, assigning, reading
+ * from a nested function or reading a missing key) lets the literal escape
+ * and it stays. Globals are left alone since other modules may read them.
+ *
+ * <p>A property read straight off a literal ({@code {"x": 1}.x},
+ * {@code [a, b].length}) is folded when the other values cannot fail or
+ * have an effect (see {@link SafeExpressions}).
+ *
+ * <p>Works on a resolved program with its {@link TypeInference} result; run
+ * the resolver again on the output.
+ */
+public final class ScalarReplacement extends TreeRewriter {
+
+    private final TypeInference.Result types;
+    private final Map<String, Expr> replaced;           // name -> its literal
+    private final Map<String, Set<String>> readKeys;    // name -> keys read
+    private final Set<Stmt> declarations;
+
+    private ScalarReplacement(TypeInference.Result types, Escapes escapes) {
+        this.types = types;
+        this.replaced = new HashMap<>();
+        this.readKeys = escapes.reads;
+        this.declarations = Collections.newSetFromMap(new IdentityHashMap<>());
+        escapes.candidates.forEach((name, declaration) -> {
+            if (escapes.escaped.contains(name)) return;
+            replaced.put(name, initializer(declaration));
+            declarations.add(declaration);
+        });
+    }
+
+    public static List<Stmt> replace(List<Stmt> program, TypeInference.Result types) {
+        Escapes escapes = new Escapes(Bindings.of(program), program);
+        escapes.rewrite(program);
+        return new ScalarReplacement(types, escapes).rewrite(program);
+    }
+
+    // finding literals that escape
+
+    private static final class Escapes extends TreeRewriter {
+        final Map<String, Stmt> candidates = new HashMap<>();
+        final Map<String, Set<String>> reads = new HashMap<>();
+        final Set<String> escaped = new HashSet<>();
+
+        private final Bindings bindings;
+        private final List<Stmt> program;
+        private List<Stmt> members;
+        private Set<String> live = new HashSet<>();  // candidates in scope in this function
+
+        Escapes(Bindings bindings, List<Stmt> program) {
+            this.bindings = bindings;
+            this.program = program;
+        }
+
+        @Override
+        public List<Stmt> rewrite(List<Stmt> statements) {
+            boolean local = statements != program && statements != members;
+            List<String> declared = new ArrayList<>();
+            for (Stmt stmt : statements) {
+                stmt.accept(this);
+                if (!local || initializer(stmt) == null) continue;
+                String name = name(stmt);
+                if (bindings.isUnique(name)) {
+                    candidates.put(name, stmt);
+                    reads.put(name, new HashSet<>());
+                    live.add(name);
+                    declared.add(name);
+                }
+            }
+            declared.forEach(live::remove);
+            return statements;
+        }
+
+        @Override
+        public Expr visitGetExpr(Expr.GetExpr expr) {
+            if (SafeExpressions.unwrap(expr.object) instanceof Expr.VariableExpr variable
+                    && live.contains(variable.name.lexeme)) {
+                String name = variable.name.lexeme;
+                if (has(initializer(candidates.get(name)), expr.name.lexeme)) {
+                    reads.get(name).add(expr.name.lexeme);
+                } else {
+                    escaped.add(name);
+                }
+                return expr;
+            }
+            return super.visitGetExpr(expr);
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.VariableExpr expr) {
+            escaped.add(expr.name.lexeme);
+            return expr;
+        }
+
+        @Override
+        public Expr visitAssignmentExpr(Expr.AssignmentExpr expr) {
+            pin(expr.target);
+            return super.visitAssignmentExpr(expr);
+        }
+
+        @Override
+        public Expr visitPostfixExpr(Expr.PostfixExpr expr) {
+            pin(expr.operand);
+            return super.visitPostfixExpr(expr);
+        }
+
+        @Override
+        public Expr visitUnaryExpr(Expr.UnaryExpr expr) {
+            if (Bindings.isIncrement(expr.op)) pin(expr.expr);
+            return super.visitUnaryExpr(expr);
+        }
+
+        /** a property used as a target keeps its object, so the error it raises stays */
+        private void pin(Expr target) {
+            if (SafeExpressions.unwrap(target) instanceof Expr.GetExpr get
+                    && SafeExpressions.unwrap(get.object) instanceof Expr.VariableExpr variable) {
+                escaped.add(variable.name.lexeme);
+            }
+        }
+
+        @Override
+        public Stmt visitFunctionStmt(Stmt.FunctionStmt stmt) {
+            Set<String> outer = live;
+            live = new HashSet<>();
+            super.visitFunctionStmt(stmt);
+            live = outer;
+            return stmt;
+        }
+
+        @Override
+        public Stmt visitClassStmt(Stmt.ClassStmt stmt) {
+            Set<String> outer = live;
+            List<Stmt> outerMembers = members;
+            live = new HashSet<>();
+            members = stmt.members;
+            super.visitClassStmt(stmt);
+            live = outer;
+            members = outerMembers;
+            return stmt;
+        }
+    }
+
+    /** the literal a declaration starts with when it could be replaced, or null */
+    private static Expr initializer(Stmt stmt) {
+        Expr initializer = switch (stmt) {
+            case Stmt.VarStmt var -> var.initializer;
+            case Stmt.ConstStmt constant -> constant.initializer;
+            default -> null;
+        };
+        if (initializer instanceof Expr.ArrayInitializerExpr) return initializer;
+        if (initializer instanceof Expr.MapInitializerExpr map && distinctKeys(map)) return initializer;
+        return null;
+    }
+
+    private static String name(Stmt stmt) {
+        return stmt instanceof Stmt.VarStmt var ? var.name.lexeme : ((Stmt.ConstStmt) stmt).name.lexeme;
+    }
+
+    private static boolean distinctKeys(Expr.MapInitializerExpr map) {
+        Set<String> keys = new HashSet<>();
+        for (Expr.MapInitializerExpr.Entry entry : map.entries) {
+            if (entry.key.type != Token.TokenType.STRING || !keys.add(key(entry))) return false;
+        }
+        return true;
+    }
+
+    private static String key(Expr.MapInitializerExpr.Entry entry) {
+        return (String) Operators.literal(entry.key.literal);
+    }
+
+    /** whether reading {@code property} off the literal succeeds */
+    private static boolean has(Expr literal, String property) {
+        if (literal instanceof Expr.ArrayInitializerExpr) return property.equals("length");
+        for (Expr.MapInitializerExpr.Entry entry : ((Expr.MapInitializerExpr) literal).entries) {
+            if (key(entry).equals(property)) return true;
+        }
+        return false;
+    }
+
+    private static Token scalar(String name, String key, int line) {
+        return new Token(Token.TokenType.IDENTIFIER, "$" + name + "." + key, new Token.Literal.Null(), line);
+    }
+
+    // rewriting
+
+    @Override
+    public List<Stmt> rewrite(List<Stmt> statements) {
+        List<Stmt> result = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (Stmt stmt : statements) {
+            if (declarations.contains(stmt)) {
+                result.addAll(split(name(stmt), rewrite(initializer(stmt))));
+                changed = true;
+                continue;
+            }
+            Stmt rewritten = stmt.accept(this);
+            changed |= rewritten != stmt;
+            if (rewritten != null) result.add(rewritten);
+        }
+        return changed ? result : statements;
+    }
+
+    private List<Stmt> split(String name, Expr literal) {
+        List<Stmt> result = new ArrayList<>();
+        Set<String> read = readKeys.get(name);
+        if (literal instanceof Expr.MapInitializerExpr map) {
+            for (Expr.MapInitializerExpr.Entry entry : map.entries) {
+                if (read.contains(key(entry))) {
+                    result.add(new Stmt.VarStmt(scalar(name, key(entry), entry.key.line), null, entry.value));
+                } else if (!SafeExpressions.safe(entry.value, types::typeOf)) {
+                    result.add(new Stmt.ExpressionStmt(entry.value));
+                }
+            }
+        } else {
+            for (Expr element : ((Expr.ArrayInitializerExpr) literal).elements) {
+                if (!SafeExpressions.safe(element, types::typeOf)) result.add(new Stmt.ExpressionStmt(element));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.GetExpr expr) {
+        if (SafeExpressions.unwrap(expr.object) instanceof Expr.VariableExpr variable
+                && replaced.containsKey(variable.name.lexeme)) {
+            String name = variable.name.lexeme;
+            int line = expr.name.line;
+            if (replaced.get(name) instanceof Expr.ArrayInitializerExpr array) {
+                return Literals.of(array.elements.size(), line);
+            }
+            return new Expr.VariableExpr(scalar(name, expr.name.lexeme, line));
+        }
+
+        Expr rewritten = super.visitGetExpr(expr);
+        if (!(rewritten instanceof Expr.GetExpr get)) return rewritten;
+        String property = get.name.lexeme;
+        switch (SafeExpressions.unwrap(get.object)) {
+            case Expr.ArrayInitializerExpr array when property.equals("length")
+                    && array.elements.stream().allMatch(e -> SafeExpressions.safe(e, types::typeOf)) -> {
+                return Literals.of(array.elements.size(), get.name.line);
+            }
+            case Expr.MapInitializerExpr map when distinctKeys(map) && has(map, property) -> {
+                Expr value = null;
+                for (Expr.MapInitializerExpr.Entry entry : map.entries) {
+                    if (key(entry).equals(property)) value = entry.value;
+                    else if (!SafeExpressions.safe(entry.value, types::typeOf)) return get;
+                }
+                return value;
+            }
+            default -> {
+                return get;
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package ysharp.optimizer;
+
+import ysharp.parser.Stmt;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The specializations of one program, one per set of known global values
+ * (one per tenant, say), each made by {@link PartialEvaluator#specialize}
+ * the first time those values are asked for. Per-run inputs are then set
+ * with {@link PartialEvaluator#bind}.
+ *
+ * <p>The cache may be shared between threads; a specialization is made
+ * once, by the first caller asking for its values and outside any lock of
+ * the map, and callers asking for the same values meanwhile wait for it.
+ * One that fails is not kept, so the next caller tries again.
+ * Running a program writes into its nodes, so the cached specializations
+ * are never handed out: {@link #get} returns a copy, and so does
+ * {@link PartialEvaluator#bind}, which any number of interpreters can run
+ * side by side.
+ */
+public final class SpecializationCache {
+
+    private final List<Stmt> program;
+    private final Map<Map<String, Object>, FutureTask<List<Stmt>>> specializations = new ConcurrentHashMap<>();
+
+    public SpecializationCache(List<Stmt> program) {
+        this.program = program;
+    }
+
+    public List<Stmt> get(Map<String, ?> known) {
+        Map<String, Object> key = new HashMap<>(known);
+        FutureTask<List<Stmt>> task = specializations.get(key);
+        if (task == null) {
+            FutureTask<List<Stmt>> made = new FutureTask<>(() -> PartialEvaluator.specialize(program, key));
+            task = specializations.putIfAbsent(key, made);
+            if (task == null) {
+                task = made;
+                made.run();
+            }
+        }
+
+        try {
+            return Copier.copy(task.get());
+        } catch (ExecutionException e) {
+            specializations.remove(key, task);
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            if (e.getCause() instanceof Error cause) throw cause;
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a specialization.", e);
+        }
+    }
+
+    public int size() {
+        return specializations.size();
+    }
+}
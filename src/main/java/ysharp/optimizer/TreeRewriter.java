@@ -0,0 +1,376 @@
+package ysharp.optimizer;
+
+import ysharp.YsharpError;
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base for tree-to-tree passes. Every visit rewrites the children and
+ * rebuilds a node only when one of them changed, so untouched subtrees keep
+ * their identity. Resolver annotations are carried over to rebuilt
+ * statements.
+ *
+ * <p>A statement visit may return null to delete the statement; where a
+ * statement is required (a loop body, a branch) an empty block takes its
+ * place. Function bodies are parsed on demand; a body that fails to parse is
+ * left untouched so the error still surfaces where it would have.
+ */
+public abstract class TreeRewriter implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+    public List<Stmt> rewrite(List<Stmt> statements) {
+        List<Stmt> result = null;
+        for (int i = 0; i < statements.size(); i++) {
+            Stmt stmt = statements.get(i);
+            Stmt rewritten = stmt.accept(this);
+            if (rewritten != stmt && result == null) {
+                result = new ArrayList<>(statements.subList(0, i));
+            }
+            if (result != null && rewritten != null) {
+                result.add(rewritten);
+            }
+        }
+        return result == null ? statements : result;
+    }
+
+    public Expr rewrite(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    /** null stays null; a deleted statement becomes an empty block */
+    protected Stmt rewriteRequired(Stmt stmt) {
+        if (stmt == null) return null;
+        Stmt rewritten = stmt.accept(this);
+        return rewritten == null ? new Stmt.BlockStmt(List.of()) : rewritten;
+    }
+
+    protected Stmt.BlockStmt rewriteBlock(Stmt.BlockStmt block) {
+        if (block == null) return null;
+        return asBlock(block.accept(this));
+    }
+
+    protected static Stmt.BlockStmt asBlock(Stmt stmt) {
+        if (stmt == null) return new Stmt.BlockStmt(List.of());
+        if (stmt instanceof Stmt.BlockStmt block) return block;
+        return new Stmt.BlockStmt(List.of(stmt));
+    }
+
+    private List<Expr> rewriteExprs(List<Expr> exprs) {
+        List<Expr> result = null;
+        for (int i = 0; i < exprs.size(); i++) {
+            Expr expr = exprs.get(i);
+            Expr rewritten = rewrite(expr);
+            if (rewritten != expr && result == null) {
+                result = new ArrayList<>(exprs.subList(0, i));
+            }
+            if (result != null) result.add(rewritten);
+        }
+        return result == null ? exprs : result;
+    }
+
+    // expressions
+
+    @Override
+    public Expr visitBinaryExpr(Expr.BinaryExpr expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.BinaryExpr(left, expr.op, right);
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.LogicalExpr expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.LogicalExpr(left, expr.op, right);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.UnaryExpr expr) {
+        Expr operand = rewrite(expr.expr);
+        if (operand == expr.expr) return expr;
+        return new Expr.UnaryExpr(expr.op, operand);
+    }
+
+    @Override
+    public Expr visitTernaryExpr(Expr.TernaryExpr expr) {
+        Expr condition = rewrite(expr.condition);
+        Expr thenBranch = rewrite(expr.thenBranch);
+        Expr elseBranch = rewrite(expr.elseBranch);
+        if (condition == expr.condition && thenBranch == expr.thenBranch && elseBranch == expr.elseBranch) {
+            return expr;
+        }
+        return new Expr.TernaryExpr(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Expr visitPostfixExpr(Expr.PostfixExpr expr) {
+        Expr operand = rewrite(expr.operand);
+        if (operand == expr.operand) return expr;
+        return new Expr.PostfixExpr(operand, expr.op);
+    }
+
+    @Override
+    public Expr visitAssignmentExpr(Expr.AssignmentExpr expr) {
+        Expr target = rewrite(expr.target);
+        Expr value = rewrite(expr.value);
+        if (target == expr.target && value == expr.value) return expr;
+        return new Expr.AssignmentExpr(target, expr.op, value);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.GroupingExpr expr) {
+        Expr inner = rewrite(expr.expression);
+        if (inner == expr.expression) return expr;
+        return new Expr.GroupingExpr(inner);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.GetExpr expr) {
+        Expr object = rewrite(expr.object);
+        if (object == expr.object) return expr;
+        return new Expr.GetExpr(object, expr.name);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.SetExpr expr) {
+        Expr object = rewrite(expr.object);
+        Expr value = rewrite(expr.value);
+        if (object == expr.object && value == expr.value) return expr;
+        return new Expr.SetExpr(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.CallExpr expr) {
+        Expr callee = rewrite(expr.callee);
+        List<Expr> arguments = rewriteExprs(expr.arguments);
+        if (callee == expr.callee && arguments == expr.arguments) return expr;
+        return new Expr.CallExpr(callee, arguments);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.LiteralExpr expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.VariableExpr expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitArrayInitializerExpr(Expr.ArrayInitializerExpr expr) {
+        List<Expr> elements = rewriteExprs(expr.elements);
+        if (elements == expr.elements) return expr;
+        return new Expr.ArrayInitializerExpr(elements);
+    }
+
+    @Override
+    public Expr visitMapInitializerExpr(Expr.MapInitializerExpr expr) {
+        List<Expr.MapInitializerExpr.Entry> entries = null;
+        for (int i = 0; i < expr.entries.size(); i++) {
+            Expr.MapInitializerExpr.Entry entry = expr.entries.get(i);
+            Expr value = rewrite(entry.value);
+            if (value != entry.value && entries == null) {
+                entries = new ArrayList<>(expr.entries.subList(0, i));
+            }
+            if (entries != null) {
+                entries.add(value == entry.value ? entry : new Expr.MapInitializerExpr.Entry(entry.key, value));
+            }
+        }
+        if (entries == null) return expr;
+        return new Expr.MapInitializerExpr(entries);
+    }
+
+    // statements
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.ExpressionStmt stmt) {
+        Expr expression = rewrite(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+        return new Stmt.ExpressionStmt(expression);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.VarStmt stmt) {
+        Expr initializer = rewrite(stmt.initializer);
+        if (initializer == stmt.initializer) return stmt;
+        Stmt.VarStmt copy = new Stmt.VarStmt(stmt.name, stmt.type, initializer);
+        copy.slot = stmt.slot;
+        return copy;
+    }
+
+    @Override
+    public Stmt visitConstStmt(Stmt.ConstStmt stmt) {
+        Expr initializer = rewrite(stmt.initializer);
+        if (initializer == stmt.initializer) return stmt;
+        Stmt.ConstStmt copy = new Stmt.ConstStmt(stmt.name, stmt.type, initializer);
+        copy.slot = stmt.slot;
+        return copy;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.FunctionStmt stmt) {
+        Stmt.BlockStmt body;
+        try {
+            body = stmt.body();
+        } catch (YsharpError e) {
+            return stmt;
+        }
+
+        Stmt.BlockStmt rewritten = rewriteBlock(body);
+        if (rewritten == body) return stmt;
+        Stmt.FunctionStmt copy = new Stmt.FunctionStmt(stmt.name, stmt.params, rewritten);
+        copy.slot = stmt.slot;
+        copy.frameSize = stmt.frameSize;
+        copy.captures = stmt.captures;
+        copy.cells = stmt.cells;
+        copy.pure = stmt.pure;
+        return copy;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.ClassStmt stmt) {
+        List<Stmt> members = rewrite(stmt.members);
+        if (members == stmt.members) return stmt;
+        Stmt.ClassStmt copy = new Stmt.ClassStmt(stmt.name, stmt.superclass, members);
+        copy.slot = stmt.slot;
+        copy.superclassDepth = stmt.superclassDepth;
+        copy.superclassSlot = stmt.superclassSlot;
+        copy.fieldCount = stmt.fieldCount;
+        return copy;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.BlockStmt stmt) {
+        List<Stmt> statements = rewrite(stmt.statements);
+        if (statements == stmt.statements) return stmt;
+        return new Stmt.BlockStmt(statements);
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.IfStmt stmt) {
+        Expr condition = rewrite(stmt.condition);
+        Stmt.BlockStmt thenBranch = rewriteBlock(stmt.thenBranch);
+        Stmt elseBranch = stmt.elseBranch == null ? null : stmt.elseBranch.accept(this);
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+        return new Stmt.IfStmt(stmt.keyword, condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.WhileStmt stmt) {
+        Expr condition = rewrite(stmt.condition);
+        Stmt body = rewriteRequired(stmt.body);
+        if (condition == stmt.condition && body == stmt.body) return stmt;
+        return new Stmt.WhileStmt(stmt.keyword, condition, body);
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.ForStmt stmt) {
+        Stmt initializer = stmt.initializer == null ? null : stmt.initializer.accept(this);
+        Expr condition = rewrite(stmt.condition);
+        Expr increment = rewrite(stmt.increment);
+        Stmt body = rewriteRequired(stmt.body);
+        if (initializer == stmt.initializer && condition == stmt.condition
+                && increment == stmt.increment && body == stmt.body) {
+            return stmt;
+        }
+        return new Stmt.ForStmt(stmt.keyword, initializer, condition, increment, body);
+    }
+
+    @Override
+    public Stmt visitCountedForStmt(Stmt.CountedForStmt stmt) {
+        Expr start = rewrite(stmt.start);
+        Expr limit = rewrite(stmt.limit);
+        boolean changed = start != stmt.start || limit != stmt.limit;
+
+        List<Stmt.CountedForStmt.Derived> derived = new ArrayList<>(stmt.derived.size());
+        for (Stmt.CountedForStmt.Derived d : stmt.derived) {
+            Expr factor = rewrite(d.factor);
+            if (factor == d.factor) {
+                derived.add(d);
+            } else {
+                Stmt.CountedForStmt.Derived copy = new Stmt.CountedForStmt.Derived(d.name, factor);
+                copy.slot = d.slot;
+                derived.add(copy);
+                changed = true;
+            }
+        }
+
+        Stmt body = rewriteRequired(stmt.body);
+        if (!changed && body == stmt.body) return stmt;
+        Stmt.CountedForStmt copy = new Stmt.CountedForStmt(stmt.keyword, stmt.variable, start,
+                stmt.comparison, limit, stmt.step, derived, body);
+        copy.slot = stmt.slot;
+        return copy;
+    }
+
+    @Override
+    public Stmt visitTryStmt(Stmt.TryStmt stmt) {
+        Stmt.BlockStmt body = rewriteBlock(stmt.body);
+        Stmt.BlockStmt catchBlock = rewriteBlock(stmt.catchBlock);
+        Stmt.BlockStmt finallyBlock = rewriteBlock(stmt.finallyBlock);
+        if (body == stmt.body && catchBlock == stmt.catchBlock && finallyBlock == stmt.finallyBlock) {
+            return stmt;
+        }
+        Stmt.TryStmt copy = new Stmt.TryStmt(body, stmt.catchName, catchBlock, finallyBlock);
+        copy.catchSlot = stmt.catchSlot;
+        return copy;
+    }
+
+    @Override
+    public Stmt visitSwitchStmt(Stmt.SwitchStmt stmt) {
+        Expr subject = rewrite(stmt.subject);
+        boolean changed = subject != stmt.subject;
+
+        List<Stmt.SwitchStmt.Case> cases = new ArrayList<>(stmt.cases.size());
+        for (Stmt.SwitchStmt.Case c : stmt.cases) {
+            Expr value = rewrite(c.value);
+            Stmt.BlockStmt body = rewriteBlock(c.body);
+            if (value == c.value && body == c.body) {
+                cases.add(c);
+            } else {
+                cases.add(new Stmt.SwitchStmt.Case(value, body));
+                changed = true;
+            }
+        }
+
+        Stmt.BlockStmt defaultBlock = rewriteBlock(stmt.defaultBlock);
+        if (!changed && defaultBlock == stmt.defaultBlock) return stmt;
+        return new Stmt.SwitchStmt(stmt.keyword, subject, cases, defaultBlock);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.PrintStmt stmt) {
+        Expr expression = rewrite(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+        return new Stmt.PrintStmt(stmt.keyword, expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.ReturnStmt stmt) {
+        Expr value = rewrite(stmt.value);
+        if (value == stmt.value) return stmt;
+        return new Stmt.ReturnStmt(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Stmt.BreakStmt stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitContinueStmt(Stmt.ContinueStmt stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitUseStmt(Stmt.UseStmt stmt) {
+        return stmt;
+    }
+}
@@ -0,0 +1,228 @@
+package ysharp.parser;
+
+import ysharp.lexer.Token;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Flat binary image of a token stream and its {@link FlatAst}. The same
+ * layout backs the on-disk {@link ParseCache} (mapped from a file) and the
+ * {@link OffHeapStore} (a direct buffer); a read never copies the columns,
+ * it only slices views over the image.
+ *
+ * <pre>
+ * header   magic, format version, key[32], flags,
+ *          token count, lexeme char count, node count, root count
+ * tokens   type (u8)[tokens], line[tokens], lexeme start[tokens + 1], lexeme chars (UTF-16)
+ * nodes    kind (u8)[nodes], first child[nodes], next sibling[nodes], token index[nodes]
+ * roots    node[roots]
+ * </pre>
+ *
+ * All integers are little-endian and every section starts 4-byte aligned.
+ * Token literals are not stored; they are re-derived from the lexeme.
+ */
+final class AstImage {
+
+    static final int KEY_SIZE = 32;
+
+    private static final int MAGIC = 0x31435359;  // "YSC1"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int FLAG_PROGRAM = 1;
+
+    private AstImage() {}
+
+    private static long align(long size) {
+        return (size + 3) & ~3;
+    }
+
+    private static long size(long tokenCount, long charCount, long nodeCount, long rootCount) {
+        return HEADER_SIZE
+                + align(tokenCount)
+                + 4 * tokenCount
+                + 4 * (tokenCount + 1)
+                + align(2 * charCount)
+                + align(nodeCount)
+                + 12 * nodeCount
+                + 4 * rootCount;
+    }
+
+    private static int charCount(FlatAst ast) {
+        int count = 0;
+        for (Token token : ast.tokens()) {
+            count += token.lexeme.length();
+        }
+        return count;
+    }
+
+    /** bytes needed to hold {@code ast} */
+    static int size(FlatAst ast) {
+        return Math.toIntExact(size(ast.tokens().size(), charCount(ast), ast.size(), ast.rootCount()));
+    }
+
+    /** fills {@code out} from index 0; its capacity must be {@link #size(FlatAst)} */
+    static void write(FlatAst ast, byte[] key, ByteBuffer out) {
+        var tokens = ast.tokens();
+        int tokenCount = tokens.size();
+        int nodeCount = ast.size();
+        int rootCount = ast.rootCount();
+
+        out.clear().order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(MAGIC).putInt(FORMAT_VERSION).put(key)
+                .putInt(ast.isProgram() ? FLAG_PROGRAM : 0)
+                .putInt(tokenCount).putInt(charCount(ast)).putInt(nodeCount).putInt(rootCount);
+        out.position(HEADER_SIZE);
+
+        for (Token token : tokens) out.put((byte) token.type.ordinal());
+        out.position((int) align(out.position()));
+        for (Token token : tokens) out.putInt(token.line);
+        int start = 0;
+        for (Token token : tokens) {
+            out.putInt(start);
+            start += token.lexeme.length();
+        }
+        out.putInt(start);
+        for (Token token : tokens) {
+            for (int i = 0; i < token.lexeme.length(); i++) out.putChar(token.lexeme.charAt(i));
+        }
+        out.position((int) align(out.position()));
+
+        for (int i = 0; i < nodeCount; i++) out.put(ast.kind(i));
+        out.position((int) align(out.position()));
+        for (int i = 0; i < nodeCount; i++) out.putInt(ast.firstChild(i));
+        for (int i = 0; i < nodeCount; i++) out.putInt(ast.nextSibling(i));
+        for (int i = 0; i < nodeCount; i++) out.putInt(ast.tokenIndex(i));
+        for (int i = 0; i < rootCount; i++) out.putInt(ast.root(i));
+        out.flip();
+    }
+
+    /**
+     * @param retainTokens keep materialized tokens so repeated reads (and the
+     *                     parser of a lazy body) see identical objects
+     * @return null when the image is truncated or written for another key or format
+     */
+    static FlatAst read(ByteBuffer image, byte[] key, boolean retainTokens) {
+        image.order(ByteOrder.LITTLE_ENDIAN);
+        if (image.capacity() < HEADER_SIZE) return null;
+        if (image.getInt(0) != MAGIC || image.getInt(4) != FORMAT_VERSION) return null;
+        byte[] stored = new byte[KEY_SIZE];
+        image.get(8, stored);
+        if (!Arrays.equals(stored, key)) return null;
+
+        int flags = image.getInt(8 + KEY_SIZE);
+        int tokenCount = image.getInt(12 + KEY_SIZE);
+        int charCount = image.getInt(16 + KEY_SIZE);
+        int nodeCount = image.getInt(20 + KEY_SIZE);
+        int rootCount = image.getInt(24 + KEY_SIZE);
+        if (tokenCount < 0 || charCount < 0 || nodeCount < 0 || rootCount < 0) return null;
+        if (size(tokenCount, charCount, nodeCount, rootCount) != image.capacity()) return null;
+
+        int offset = HEADER_SIZE;
+        ByteBuffer types = image.slice(offset, tokenCount);
+        offset += (int) align(tokenCount);
+        IntBuffer lines = ints(image, offset, tokenCount);
+        offset += 4 * tokenCount;
+        IntBuffer lexemeStarts = ints(image, offset, tokenCount + 1);
+        offset += 4 * (tokenCount + 1);
+        CharBuffer chars = image.slice(offset, 2 * charCount).order(ByteOrder.LITTLE_ENDIAN).asCharBuffer();
+        offset += (int) align(2L * charCount);
+
+        ByteBuffer kinds = image.slice(offset, nodeCount);
+        offset += (int) align(nodeCount);
+        IntBuffer firstChild = ints(image, offset, nodeCount);
+        offset += 4 * nodeCount;
+        IntBuffer nextSibling = ints(image, offset, nodeCount);
+        offset += 4 * nodeCount;
+        IntBuffer tokenIndex = ints(image, offset, nodeCount);
+        offset += 4 * nodeCount;
+        IntBuffer roots = ints(image, offset, rootCount);
+
+        return new FlatAst(
+                new Tokens(types, lines, lexemeStarts, chars, retainTokens),
+                (flags & FLAG_PROGRAM) != 0,
+                kinds, firstChild, nextSibling, tokenIndex, roots);
+    }
+
+    private static IntBuffer ints(ByteBuffer image, int offset, int count) {
+        return image.slice(offset, 4 * count).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    /**
+     * Token stream view over the token columns of an image. Without
+     * retention every access builds a fresh, equal token, so nothing but the
+     * columns outlives a pass.
+     */
+    static final class Tokens extends AbstractList<Token> implements RandomAccess {
+
+        private static final Token.TokenType[] TYPES = Token.TokenType.values();
+
+        private final int size;
+        private ByteBuffer types;
+        private IntBuffer lines;
+        private IntBuffer lexemeStarts;
+        private CharBuffer chars;
+        private final Token[] retained;
+
+        Tokens(ByteBuffer types, IntBuffer lines, IntBuffer lexemeStarts, CharBuffer chars, boolean retain) {
+            this.size = lines.limit();
+            this.types = types;
+            this.lines = lines;
+            this.lexemeStarts = lexemeStarts;
+            this.chars = chars;
+            this.retained = retain ? new Token[size] : null;
+        }
+
+        /** drops the views; later reads fail instead of touching freed memory */
+        void release() {
+            types = null;
+            lines = null;
+            lexemeStarts = null;
+            chars = null;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        // racing readers may both build a token; Token is immutable, either copy is fine
+        @Override
+        public Token get(int index) {
+            Token token = retained == null ? null : retained[index];
+            if (token != null) return token;
+
+            if (chars == null) {
+                throw new IllegalStateException("Token storage has been released.");
+            }
+
+            int start = lexemeStarts.get(index);
+            char[] lexeme = new char[lexemeStarts.get(index + 1) - start];
+            chars.get(start, lexeme);
+
+            Token.TokenType type = TYPES[types.get(index) & 0xFF];
+            String text = new String(lexeme);
+            token = new Token(type, text, literal(type, text), lines.get(index));
+            if (retained != null) retained[index] = token;
+            return token;
+        }
+
+        /** mirrors the literals the lexer attaches */
+        private static Token.Literal literal(Token.TokenType type, String lexeme) {
+            return switch (type) {
+                case INT -> new Token.Literal.Int(Integer.parseInt(lexeme));
+                case DOUBLE -> new Token.Literal.Double(Double.parseDouble(lexeme));
+                case STRING -> new Token.Literal.Str(lexeme.substring(1, lexeme.length() - 1));
+                case CHAR -> new Token.Literal.Chr(lexeme.charAt(1));
+                case TRUE_ -> new Token.Literal.Bool(true);
+                case FALSE_ -> new Token.Literal.Bool(false);
+                default -> new Token.Literal.Null();
+            };
+        }
+    }
+}
@@ -27,13 +27,13 @@ abstract public class Expr {
 
     public abstract <R> R accept(Visitor<R> visitor);
 
-    static final class BinaryExpr extends Expr {
+    public static final class BinaryExpr extends Expr {
 
-        final Expr left;
-        final Token op;
-        final Expr right;
+        public final Expr left;
+        public final Token op;
+        public final Expr right;
 
-        BinaryExpr(Expr left, Token op, Expr right) {
+        public BinaryExpr(Expr left, Token op, Expr right) {
             this.left = left;
             this.op = op;
             this.right = right;
@@ -45,12 +45,12 @@ abstract public class Expr {
         }
     }
 
-    static final class UnaryExpr extends Expr {
+    public static final class UnaryExpr extends Expr {
 
-        final Token op;
-        final Expr expr;
+        public final Token op;
+        public final Expr expr;
 
-        UnaryExpr(Token op, Expr expr) {
+        public UnaryExpr(Token op, Expr expr) {
             this.op = op;
             this.expr = expr;
         }
@@ -61,13 +61,13 @@ abstract public class Expr {
         }
     }
 
-    static final class TernaryExpr extends Expr {
+    public static final class TernaryExpr extends Expr {
 
-        final Expr condition;
-        final Expr thenBranch;
-        final Expr elseBranch;
+        public final Expr condition;
+        public final Expr thenBranch;
+        public final Expr elseBranch;
 
-        TernaryExpr(Expr condition, Expr thenBranch, Expr elseBranch) {
+        public TernaryExpr(Expr condition, Expr thenBranch, Expr elseBranch) {
             this.condition = condition;
             this.thenBranch = thenBranch;
             this.elseBranch = elseBranch;
@@ -79,12 +79,12 @@ abstract public class Expr {
         }
     }
 
-    static final class PostfixExpr extends Expr {
+    public static final class PostfixExpr extends Expr {
 
-        final Expr operand;
-        final Token op;
+        public final Expr operand;
+        public final Token op;
 
-        PostfixExpr(Expr operand, Token op) {
+        public PostfixExpr(Expr operand, Token op) {
             this.operand = operand;
             this.op = op;
         }
@@ -95,13 +95,13 @@ abstract public class Expr {
         }
     }
 
-    static final class AssignmentExpr extends Expr {
+    public static final class AssignmentExpr extends Expr {
 
-        final Expr target;
-        final Token op;
-        final Expr value;
+        public final Expr target;
+        public final Token op;
+        public final Expr value;
 
-        AssignmentExpr(Expr target, Token op, Expr value) {
+        public AssignmentExpr(Expr target, Token op, Expr value) {
             this.target = target;
             this.op = op;
             this.value = value;
@@ -113,13 +113,13 @@ abstract public class Expr {
         }
     }
 
-    static final class LogicalExpr extends Expr {
+    public static final class LogicalExpr extends Expr {
 
-        final Expr left;
-        final Token op;
-        final Expr right;
+        public final Expr left;
+        public final Token op;
+        public final Expr right;
 
-        LogicalExpr(Expr left, Token op, Expr right) {
+        public LogicalExpr(Expr left, Token op, Expr right) {
             this.left = left;
             this.op = op;
             this.right = right;
@@ -131,11 +131,11 @@ abstract public class Expr {
         }
     }
 
-    static final class GroupingExpr extends Expr {
+    public static final class GroupingExpr extends Expr {
 
-        final Expr expression;
+        public final Expr expression;
 
-        GroupingExpr(Expr expression) {
+        public GroupingExpr(Expr expression) {
             this.expression = expression;
         }
 
@@ -145,11 +145,11 @@ abstract public class Expr {
         }
     }
 
-    static class GetExpr extends Expr {
-        final Expr object;
-        final Token name;
+    public static class GetExpr extends Expr {
+        public final Expr object;
+        public final Token name;
 
-        GetExpr(Expr object, Token name) {
+        public GetExpr(Expr object, Token name) {
             this.object = object;
             this.name = name;
         }
@@ -159,12 +159,12 @@ abstract public class Expr {
         }
     }
 
-    static class SetExpr extends Expr {
-        final Expr object;
-        final Token name;
-        final Expr value;
+    public static class SetExpr extends Expr {
+        public final Expr object;
+        public final Token name;
+        public final Expr value;
 
-        SetExpr(Expr object, Token name, Expr value) {
+        public SetExpr(Expr object, Token name, Expr value) {
             this.object = object;
             this.name = name;
             this.value = value;
@@ -176,11 +176,12 @@ abstract public class Expr {
         }
     }
 
-    static class CallExpr extends Expr {
-        final Expr callee;
-        final List<Expr> arguments;
+    public static class CallExpr extends Expr {
+        public final Expr callee;
+        public final List<Expr> arguments;
+        public boolean tail;  // set by the resolver: a return hands the call's value back as is
 
-        CallExpr(Expr callee, List<Expr> arguments) {
+        public CallExpr(Expr callee, List<Expr> arguments) {
             this.callee = callee;
             this.arguments = arguments;
         }
@@ -190,11 +191,11 @@ abstract public class Expr {
         }
     }
 
-    static final class LiteralExpr extends Expr {
+    public static final class LiteralExpr extends Expr {
 
-        final Token token;
+        public final Token token;
 
-        LiteralExpr(Token token) {
+        public LiteralExpr(Token token) {
             this.token = token;
         }
 
@@ -204,11 +205,12 @@ abstract public class Expr {
         }
     }
 
-    static final class VariableExpr extends Expr {
+    /** where each occurrence reads and writes is found by the resolver (ysharp.analysis.Resolution) */
+    public static final class VariableExpr extends Expr {
 
-        final Token name;
+        public final Token name;
 
-        VariableExpr(Token name) {
+        public VariableExpr(Token name) {
             this.name = name;
         }
 
@@ -218,11 +220,11 @@ abstract public class Expr {
         }
     }
 
-    static final class ArrayInitializerExpr extends Expr {
+    public static final class ArrayInitializerExpr extends Expr {
 
-        final List<Expr> elements;
+        public final List<Expr> elements;
 
-        ArrayInitializerExpr(List<Expr> elements) {
+        public ArrayInitializerExpr(List<Expr> elements) {
             this.elements = elements;
         }
 
@@ -232,21 +234,21 @@ abstract public class Expr {
         }
     }
 
-    static final class MapInitializerExpr extends Expr {
+    public static final class MapInitializerExpr extends Expr {
 
-        static final class Entry {
-            final Token key;
-            final Expr value;
+        public static final class Entry {
+            public final Token key;
+            public final Expr value;
 
-            Entry(Token key, Expr value) {
+            public Entry(Token key, Expr value) {
                 this.key = key;
                 this.value = value;
             }
         }
 
-        final List<Entry> entries;
+        public final List<Entry> entries;
 
-        MapInitializerExpr(List<Entry> entries) {
+        public MapInitializerExpr(List<Entry> entries) {
             this.entries = entries;
         }
 
@@ -0,0 +1,743 @@
+package ysharp.parser;
+
+import ysharp.YsharpError;
+import ysharp.lexer.Token;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact syntax tree stored in parallel primitive columns. Nodes are laid
+ * out in pre-order, so a full-tree pass is a linear scan over the columns.
+ * Each node has a kind, its first child, its next sibling and the index of
+ * its token in the token stream ({@link #NONE} when it has none). Columns
+ * are buffers so they can live on the heap or in a mapped file alike.
+ *
+ * <p>{@link #parseProgram} fills the columns while it parses, one top-level
+ * statement at a time. {@link #encode} and {@link #encodeProgram} flatten a
+ * tree that already exists, so the whole tree and its columns are on the
+ * heap together while they run.
+ *
+ * <pre>
+ * BINARY, LOGICAL     left, right                       op
+ * UNARY, POSTFIX      operand                           op
+ * TERNARY             cond, then, else                  -
+ * ASSIGNMENT          target, value                     op
+ * GROUPING            expression                        -
+ * GET                 object                            name
+ * SET                 object, value                     name
+ * CALL                callee, arguments...              -
+ * LITERAL, VARIABLE   -                                 literal / name
+ * ARRAY               elements...                       -
+ * MAP                 MAP_ENTRY...                      -
+ * MAP_ENTRY           value                             key
+ *
+ * EXPRESSION_STMT     expression                        -
+ * VAR, CONST          type?, initializer?               name
+ * FUNCTION            NAME (params)..., BLOCK | LAZY    name
+ * LAZY_BODY           first child = end token index     'do'
+ * CLASS               superclass NAME?, members...      name
+ * BLOCK               statements...                     -
+ * IF                  cond, BLOCK, else?                keyword
+ * WHILE               cond, body                        keyword
+ * FOR                 init?, cond?, increment?, body    keyword
+ * TRY                 BLOCK, catch BLOCK, finally?      catch name
+ * SWITCH              subject, default?, CASE...        keyword
+ * CASE                value, BLOCK                      -
+ * PRINT, RETURN       value? (always for PRINT)         keyword
+ * BREAK, CONTINUE     -                                 keyword
+ * USE                 -                                 path
+ * NAME                -                                 type / param / superclass
+ * EMPTY               -                                 -      (absent optional child)
+ * </pre>
+ */
+public final class FlatAst {
+
+    public static final int NONE = -1;
+
+    public static final byte BINARY     = 0;
+    public static final byte UNARY      = 1;
+    public static final byte TERNARY    = 2;
+    public static final byte POSTFIX    = 3;
+    public static final byte ASSIGNMENT = 4;
+    public static final byte LOGICAL    = 5;
+    public static final byte GROUPING   = 6;
+    public static final byte GET        = 7;
+    public static final byte SET        = 8;
+    public static final byte CALL       = 9;
+    public static final byte LITERAL    = 10;
+    public static final byte VARIABLE   = 11;
+    public static final byte ARRAY      = 12;
+    public static final byte MAP        = 13;
+    public static final byte MAP_ENTRY  = 14;
+
+    public static final byte EXPRESSION_STMT = 15;
+    public static final byte VAR             = 16;
+    public static final byte CONST           = 17;
+    public static final byte FUNCTION        = 18;
+    public static final byte LAZY_BODY       = 19;
+    public static final byte CLASS           = 20;
+    public static final byte BLOCK           = 21;
+    public static final byte IF              = 22;
+    public static final byte WHILE           = 23;
+    public static final byte FOR             = 24;
+    public static final byte TRY             = 25;
+    public static final byte SWITCH          = 26;
+    public static final byte CASE            = 27;
+    public static final byte PRINT           = 28;
+    public static final byte RETURN          = 29;
+    public static final byte BREAK           = 30;
+    public static final byte CONTINUE        = 31;
+    public static final byte USE             = 32;
+    public static final byte NAME            = 33;
+    public static final byte EMPTY           = 34;
+
+    private final List<Token> tokens;
+    private final boolean program;
+
+    // not final: an OffHeapStore swaps them for empty buffers when it closes
+    private ByteBuffer kinds;
+    private IntBuffer firstChild;
+    private IntBuffer nextSibling;
+    private IntBuffer tokenIndex;
+    private IntBuffer roots;
+
+    FlatAst(List<Token> tokens, boolean program,
+            ByteBuffer kinds, IntBuffer firstChild, IntBuffer nextSibling,
+            IntBuffer tokenIndex, IntBuffer roots) {
+        this.tokens = tokens;
+        this.program = program;
+        this.kinds = kinds;
+        this.firstChild = firstChild;
+        this.nextSibling = nextSibling;
+        this.tokenIndex = tokenIndex;
+        this.roots = roots;
+    }
+
+    // accessors
+
+    public List<Token> tokens()           { return tokens; }
+    /** roots are statements (parseProgram) rather than expressions (parse) */
+    public boolean isProgram()            { return program; }
+    public int size()                     { return kinds.limit(); }
+    public int rootCount()                { return roots.limit(); }
+    public int root(int i)                { return roots.get(i); }
+
+    public byte kind(int node)            { return kinds.get(node); }
+    public int firstChild(int node)       { return firstChild.get(node); }
+    public int nextSibling(int node)      { return nextSibling.get(node); }
+    public int tokenIndex(int node)       { return tokenIndex.get(node); }
+
+    public Token token(int node) {
+        int index = tokenIndex.get(node);
+        return index == NONE ? null : tokens.get(index);
+    }
+
+    public int childCount(int node) {
+        int count = 0;
+        for (int child = firstChild(node); child != NONE; child = nextSibling(child)) {
+            count++;
+        }
+        return count;
+    }
+
+    /** detaches the columns; afterwards every node access is out of bounds */
+    void release() {
+        kinds = ByteBuffer.allocate(0);
+        firstChild = IntBuffer.allocate(0);
+        nextSibling = IntBuffer.allocate(0);
+        tokenIndex = IntBuffer.allocate(0);
+        roots = IntBuffer.allocate(0);
+    }
+
+    // adapter: materializes a subtree so existing visitors keep working
+
+    public <R> R accept(int node, Expr.Visitor<R> visitor) {
+        return toExpr(node).accept(visitor);
+    }
+
+    public <R> R accept(int node, Stmt.Visitor<R> visitor) {
+        return toStmt(node).accept(visitor);
+    }
+
+    public List<Expr> toExprs() {
+        if (program) throw new IllegalStateException("Roots are statements, use toStmts().");
+        List<Expr> list = new ArrayList<>(rootCount());
+        for (int i = 0; i < rootCount(); i++) {
+            list.add(toExpr(root(i)));
+        }
+        return list;
+    }
+
+    public List<Stmt> toStmts() {
+        if (!program) throw new IllegalStateException("Roots are expressions, use toExprs().");
+        List<Stmt> list = new ArrayList<>(rootCount());
+        for (int i = 0; i < rootCount(); i++) {
+            list.add(toStmt(root(i)));
+        }
+        return list;
+    }
+
+    public Expr toExpr(int node) {
+        int first = firstChild(node);
+        Token token = token(node);
+
+        return switch (kind(node)) {
+            case BINARY -> new Expr.BinaryExpr(
+                    toExpr(first), token, toExpr(nextSibling(first)));
+            case LOGICAL -> new Expr.LogicalExpr(
+                    toExpr(first), token, toExpr(nextSibling(first)));
+            case UNARY -> new Expr.UnaryExpr(token, toExpr(first));
+            case POSTFIX -> new Expr.PostfixExpr(toExpr(first), token);
+            case TERNARY -> {
+                int then = nextSibling(first);
+                yield new Expr.TernaryExpr(
+                        toExpr(first), toExpr(then), toExpr(nextSibling(then)));
+            }
+            case ASSIGNMENT -> new Expr.AssignmentExpr(
+                    toExpr(first), token, toExpr(nextSibling(first)));
+            case GROUPING -> new Expr.GroupingExpr(toExpr(first));
+            case GET -> new Expr.GetExpr(toExpr(first), token);
+            case SET -> new Expr.SetExpr(
+                    toExpr(first), token, toExpr(nextSibling(first)));
+            case CALL -> new Expr.CallExpr(toExpr(first), toExprList(nextSibling(first)));
+            case LITERAL -> new Expr.LiteralExpr(token);
+            case VARIABLE -> new Expr.VariableExpr(token);
+            case ARRAY -> new Expr.ArrayInitializerExpr(toExprList(first));
+            case MAP -> {
+                List<Expr.MapInitializerExpr.Entry> entries = new ArrayList<>();
+                for (int entry = first; entry != NONE; entry = nextSibling(entry)) {
+                    entries.add(new Expr.MapInitializerExpr.Entry(
+                            token(entry), toExpr(firstChild(entry))));
+                }
+                yield new Expr.MapInitializerExpr(entries);
+            }
+            default -> throw new IllegalStateException(
+                    "[Programmatic error] not an expression node: " + kind(node));
+        };
+    }
+
+    private List<Expr> toExprList(int first) {
+        List<Expr> list = new ArrayList<>();
+        for (int node = first; node != NONE; node = nextSibling(node)) {
+            list.add(toExpr(node));
+        }
+        return list;
+    }
+
+    private Expr toOptionalExpr(int node) {
+        return kind(node) == EMPTY ? null : toExpr(node);
+    }
+
+    private Token optionalToken(int node) {
+        return kind(node) == EMPTY ? null : token(node);
+    }
+
+    public Stmt toStmt(int node) {
+        int first = firstChild(node);
+        Token token = token(node);
+
+        return switch (kind(node)) {
+            case EXPRESSION_STMT -> new Stmt.ExpressionStmt(toExpr(first));
+            case VAR -> new Stmt.VarStmt(
+                    token, optionalToken(first), toOptionalExpr(nextSibling(first)));
+            case CONST -> new Stmt.ConstStmt(
+                    token, optionalToken(first), toExpr(nextSibling(first)));
+            case FUNCTION -> {
+                List<Token> params = new ArrayList<>();
+                int child = first;
+                while (kind(child) == NAME) {
+                    params.add(token(child));
+                    child = nextSibling(child);
+                }
+                if (kind(child) == LAZY_BODY) {
+                    yield new Stmt.FunctionStmt(token, params,
+                            tokens, false, tokenIndex(child), firstChild(child));
+                }
+                yield new Stmt.FunctionStmt(token, params, toBlock(child));
+            }
+            case CLASS -> new Stmt.ClassStmt(
+                    token, optionalToken(first), toStmtList(nextSibling(first)));
+            case BLOCK -> toBlock(node);
+            case IF -> {
+                int then = nextSibling(first);
+                int otherwise = nextSibling(then);
+                yield new Stmt.IfStmt(token, toExpr(first), toBlock(then),
+                        kind(otherwise) == EMPTY ? null : toStmt(otherwise));
+            }
+            case WHILE -> new Stmt.WhileStmt(token, toExpr(first), toStmt(nextSibling(first)));
+            case FOR -> {
+                int condition = nextSibling(first);
+                int increment = nextSibling(condition);
+                yield new Stmt.ForStmt(token,
+                        kind(first) == EMPTY ? null : toStmt(first),
+                        toOptionalExpr(condition),
+                        toOptionalExpr(increment),
+                        toStmt(nextSibling(increment)));
+            }
+            case TRY -> {
+                int catchBlock = nextSibling(first);
+                int finallyBlock = nextSibling(catchBlock);
+                yield new Stmt.TryStmt(toBlock(first), token, toBlock(catchBlock),
+                        kind(finallyBlock) == EMPTY ? null : toBlock(finallyBlock));
+            }
+            case SWITCH -> {
+                int defaultBlock = nextSibling(first);
+                List<Stmt.SwitchStmt.Case> cases = new ArrayList<>();
+                for (int c = nextSibling(defaultBlock); c != NONE; c = nextSibling(c)) {
+                    int value = firstChild(c);
+                    cases.add(new Stmt.SwitchStmt.Case(toExpr(value), toBlock(nextSibling(value))));
+                }
+                yield new Stmt.SwitchStmt(token, toExpr(first), cases,
+                        kind(defaultBlock) == EMPTY ? null : toBlock(defaultBlock));
+            }
+            case PRINT -> new Stmt.PrintStmt(token, toExpr(first));
+            case RETURN -> new Stmt.ReturnStmt(token, toOptionalExpr(first));
+            case BREAK -> new Stmt.BreakStmt(token);
+            case CONTINUE -> new Stmt.ContinueStmt(token);
+            case USE -> new Stmt.UseStmt(token);
+            default -> throw new IllegalStateException(
+                    "[Programmatic error] not a statement node: " + kind(node));
+        };
+    }
+
+    private Stmt.BlockStmt toBlock(int node) {
+        return new Stmt.BlockStmt(toStmtList(firstChild(node)));
+    }
+
+    private List<Stmt> toStmtList(int first) {
+        List<Stmt> list = new ArrayList<>();
+        for (int node = first; node != NONE; node = nextSibling(node)) {
+            list.add(toStmt(node));
+        }
+        return list;
+    }
+
+    // encoder
+
+    public static FlatAst encode(List<Token> tokens, List<Expr> exprs) {
+        Encoder encoder = new Encoder(tokens);
+        int[] roots = new int[exprs.size()];
+        for (int i = 0; i < roots.length; i++) {
+            roots[i] = exprs.get(i).accept(encoder);
+        }
+        return encoder.build(roots, false);
+    }
+
+    /**
+     * Parses {@code tokens} as a program straight into columns: each
+     * top-level statement is encoded as soon as it is parsed, so only one of
+     * them is ever held as a heap tree, and function bodies stay lazy.
+     */
+    public static FlatAst parseProgram(List<Token> tokens) throws YsharpError {
+        Parser parser = new Parser(tokens);
+        Encoder encoder = new Encoder(tokens);
+        int[] roots = new int[16];
+        int count = 0;
+        while (!parser.isAtEnd()) {
+            if (count == roots.length) roots = Arrays.copyOf(roots, count * 2);
+            roots[count++] = parser.parseTopLevel().accept(encoder);
+        }
+        return encoder.build(Arrays.copyOf(roots, count), true);
+    }
+
+    /** lazily parsed function bodies stay lazy: only their token range is stored */
+    public static FlatAst encodeProgram(List<Token> tokens, List<Stmt> statements) {
+        Encoder encoder = new Encoder(tokens);
+        int[] roots = new int[statements.size()];
+        for (int i = 0; i < roots.length; i++) {
+            roots[i] = statements.get(i).accept(encoder);
+        }
+        return encoder.build(roots, true);
+    }
+
+    /**
+     * Emits nodes in pre-order. Tokens are resolved in source order so the
+     * common case is a forward scan of the stream; trees that reference
+     * tokens out of order (shared or rewritten subtrees) fall back to an
+     * identity map.
+     */
+    private static final class Encoder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+
+        private final List<Token> tokens;
+
+        private byte[] kinds;
+        private int[] firstChild;
+        private int[] nextSibling;
+        private int[] tokenIndex;
+        private int size;
+
+        private int scan = 0;
+        private Map<Token, Integer> index;
+
+        Encoder(List<Token> tokens) {
+            this.tokens = tokens;
+            int capacity = Math.max(16, tokens.size());
+            this.kinds = new byte[capacity];
+            this.firstChild = new int[capacity];
+            this.nextSibling = new int[capacity];
+            this.tokenIndex = new int[capacity];
+        }
+
+        FlatAst build(int[] roots, boolean program) {
+            return new FlatAst(tokens, program,
+                    ByteBuffer.wrap(Arrays.copyOf(kinds, size)),
+                    IntBuffer.wrap(Arrays.copyOf(firstChild, size)),
+                    IntBuffer.wrap(Arrays.copyOf(nextSibling, size)),
+                    IntBuffer.wrap(Arrays.copyOf(tokenIndex, size)),
+                    IntBuffer.wrap(roots));
+        }
+
+        private int add(byte kind) {
+            if (size == kinds.length) {
+                int capacity = size * 2;
+                kinds = Arrays.copyOf(kinds, capacity);
+                firstChild = Arrays.copyOf(firstChild, capacity);
+                nextSibling = Arrays.copyOf(nextSibling, capacity);
+                tokenIndex = Arrays.copyOf(tokenIndex, capacity);
+            }
+            int node = size++;
+            kinds[node] = kind;
+            firstChild[node] = NONE;
+            nextSibling[node] = NONE;
+            tokenIndex[node] = NONE;
+            return node;
+        }
+
+        private int add(byte kind, Token token) {
+            int node = add(kind);
+            tokenIndex[node] = indexOf(token);
+            return node;
+        }
+
+        private int indexOf(Token token) {
+            if (index == null) {
+                for (int i = scan; i < tokens.size(); i++) {
+                    if (tokens.get(i) == token) {
+                        scan = i + 1;
+                        return i;
+                    }
+                }
+
+                index = new IdentityHashMap<>(tokens.size());
+                for (int i = 0; i < tokens.size(); i++) {
+                    index.put(tokens.get(i), i);
+                }
+            }
+
+            Integer i = index.get(token);
+            if (i == null) {
+                throw new IllegalArgumentException(
+                        "Token '" + token.lexeme + "' at line " + token.line + " is not part of the stream.");
+            }
+            return i;
+        }
+
+        private void link(int parent, int... children) {
+            firstChild[parent] = children[0];
+            for (int i = 1; i < children.length; i++) {
+                nextSibling[children[i - 1]] = children[i];
+            }
+        }
+
+        /** appends children after {@code previous} (NONE: as first children) */
+        private int linkAfter(int parent, int previous, int child) {
+            if (previous == NONE) firstChild[parent] = child;
+            else nextSibling[previous] = child;
+            return child;
+        }
+
+        private int linkList(int parent, int previous, List<? extends Expr> exprs) {
+            for (Expr expr : exprs) {
+                previous = linkAfter(parent, previous, expr.accept(this));
+            }
+            return previous;
+        }
+
+        private int linkStmts(int parent, int previous, List<Stmt> stmts) {
+            for (Stmt stmt : stmts) {
+                previous = linkAfter(parent, previous, stmt.accept(this));
+            }
+            return previous;
+        }
+
+        private int optional(Expr expr) {
+            return expr == null ? add(EMPTY) : expr.accept(this);
+        }
+
+        private int optional(Stmt stmt) {
+            return stmt == null ? add(EMPTY) : stmt.accept(this);
+        }
+
+        private int optional(Token token) {
+            return token == null ? add(EMPTY) : add(NAME, token);
+        }
+
+        // expressions
+
+        private int binary(byte kind, Expr left, Token op, Expr right) {
+            int node = add(kind);
+            int l = left.accept(this);
+            tokenIndex[node] = indexOf(op);
+            int r = right.accept(this);
+            link(node, l, r);
+            return node;
+        }
+
+        @Override
+        public Integer visitBinaryExpr(Expr.BinaryExpr expr) {
+            return binary(BINARY, expr.left, expr.op, expr.right);
+        }
+
+        @Override
+        public Integer visitLogicalExpr(Expr.LogicalExpr expr) {
+            return binary(LOGICAL, expr.left, expr.op, expr.right);
+        }
+
+        @Override
+        public Integer visitAssignmentExpr(Expr.AssignmentExpr expr) {
+            return binary(ASSIGNMENT, expr.target, expr.op, expr.value);
+        }
+
+        @Override
+        public Integer visitUnaryExpr(Expr.UnaryExpr expr) {
+            int node = add(UNARY, expr.op);
+            link(node, expr.expr.accept(this));
+            return node;
+        }
+
+        @Override
+        public Integer visitPostfixExpr(Expr.PostfixExpr expr) {
+            int node = add(POSTFIX);
+            link(node, expr.operand.accept(this));
+            tokenIndex[node] = indexOf(expr.op);
+            return node;
+        }
+
+        @Override
+        public Integer visitTernaryExpr(Expr.TernaryExpr expr) {
+            int node = add(TERNARY);
+            link(node,
+                    expr.condition.accept(this),
+                    expr.thenBranch.accept(this),
+                    expr.elseBranch.accept(this));
+            return node;
+        }
+
+        @Override
+        public Integer visitGroupingExpr(Expr.GroupingExpr expr) {
+            int node = add(GROUPING);
+            link(node, expr.expression.accept(this));
+            return node;
+        }
+
+        @Override
+        public Integer visitGetExpr(Expr.GetExpr expr) {
+            int node = add(GET);
+            link(node, expr.object.accept(this));
+            tokenIndex[node] = indexOf(expr.name);
+            return node;
+        }
+
+        @Override
+        public Integer visitSetExpr(Expr.SetExpr expr) {
+            int node = add(SET);
+            int object = expr.object.accept(this);
+            tokenIndex[node] = indexOf(expr.name);
+            link(node, object, expr.value.accept(this));
+            return node;
+        }
+
+        @Override
+        public Integer visitCallExpr(Expr.CallExpr expr) {
+            int node = add(CALL);
+            int callee = linkAfter(node, NONE, expr.callee.accept(this));
+            linkList(node, callee, expr.arguments);
+            return node;
+        }
+
+        @Override
+        public Integer visitLiteralExpr(Expr.LiteralExpr expr) {
+            return add(LITERAL, expr.token);
+        }
+
+        @Override
+        public Integer visitVariableExpr(Expr.VariableExpr expr) {
+            return add(VARIABLE, expr.name);
+        }
+
+        @Override
+        public Integer visitArrayInitializerExpr(Expr.ArrayInitializerExpr expr) {
+            int node = add(ARRAY);
+            linkList(node, NONE, expr.elements);
+            return node;
+        }
+
+        @Override
+        public Integer visitMapInitializerExpr(Expr.MapInitializerExpr expr) {
+            int node = add(MAP);
+            int previous = NONE;
+            for (Expr.MapInitializerExpr.Entry entry : expr.entries) {
+                int child = add(MAP_ENTRY, entry.key);
+                link(child, entry.value.accept(this));
+                previous = linkAfter(node, previous, child);
+            }
+            return node;
+        }
+
+        // statements
+
+        @Override
+        public Integer visitExpressionStmt(Stmt.ExpressionStmt stmt) {
+            int node = add(EXPRESSION_STMT);
+            link(node, stmt.expression.accept(this));
+            return node;
+        }
+
+        @Override
+        public Integer visitVarStmt(Stmt.VarStmt stmt) {
+            int node = add(VAR, stmt.name);
+            int type = optional(stmt.type);
+            link(node, type, optional(stmt.initializer));
+            return node;
+        }
+
+        @Override
+        public Integer visitConstStmt(Stmt.ConstStmt stmt) {
+            int node = add(CONST, stmt.name);
+            int type = optional(stmt.type);
+            link(node, type, stmt.initializer.accept(this));
+            return node;
+        }
+
+        @Override
+        public Integer visitFunctionStmt(Stmt.FunctionStmt stmt) {
+            int node = add(FUNCTION, stmt.name);
+            int previous = NONE;
+            for (Token param : stmt.params) {
+                previous = linkAfter(node, previous, add(NAME, param));
+            }
+
+            int body;
+            if (stmt.isParsed()) {
+                try {
+                    body = stmt.body().accept(this);
+                } catch (ysharp.YsharpError e) {
+                    throw new IllegalStateException("[Programmatic error] parsed body failed", e);
+                }
+            } else {
+                body = add(LAZY_BODY);
+                tokenIndex[body] = stmt.bodyStart();
+                firstChild[body] = stmt.bodyEnd();
+            }
+            linkAfter(node, previous, body);
+            return node;
+        }
+
+        @Override
+        public Integer visitClassStmt(Stmt.ClassStmt stmt) {
+            int node = add(CLASS, stmt.name);
+            int superclass = linkAfter(node, NONE, optional(stmt.superclass));
+            linkStmts(node, superclass, stmt.members);
+            return node;
+        }
+
+        @Override
+        public Integer visitBlockStmt(Stmt.BlockStmt stmt) {
+            int node = add(BLOCK);
+            linkStmts(node, NONE, stmt.statements);
+            return node;
+        }
+
+        @Override
+        public Integer visitIfStmt(Stmt.IfStmt stmt) {
+            int node = add(IF, stmt.keyword);
+            link(node,
+                    stmt.condition.accept(this),
+                    stmt.thenBranch.accept(this),
+                    optional(stmt.elseBranch));
+            return node;
+        }
+
+        @Override
+        public Integer visitWhileStmt(Stmt.WhileStmt stmt) {
+            int node = add(WHILE, stmt.keyword);
+            link(node, stmt.condition.accept(this), stmt.body.accept(this));
+            return node;
+        }
+
+        @Override
+        public Integer visitForStmt(Stmt.ForStmt stmt) {
+            int node = add(FOR, stmt.keyword);
+            link(node,
+                    optional(stmt.initializer),
+                    optional(stmt.condition),
+                    optional(stmt.increment),
+                    stmt.body.accept(this));
+            return node;
+        }
+
+        @Override
+        public Integer visitCountedForStmt(Stmt.CountedForStmt stmt) {
+            throw new IllegalArgumentException(
+                    "Counted loop at line " + stmt.keyword.line + " is optimizer output and has no encoding.");
+        }
+
+        @Override
+        public Integer visitTryStmt(Stmt.TryStmt stmt) {
+            int node = add(TRY);
+            int body = stmt.body.accept(this);
+            tokenIndex[node] = indexOf(stmt.catchName);
+            link(node, body, stmt.catchBlock.accept(this), optional(stmt.finallyBlock));
+            return node;
+        }
+
+        @Override
+        public Integer visitSwitchStmt(Stmt.SwitchStmt stmt) {
+            int node = add(SWITCH, stmt.keyword);
+            int previous = linkAfter(node, NONE, stmt.subject.accept(this));
+            // the default block is linked ahead of the cases, so it is emitted ahead of them too
+            previous = linkAfter(node, previous, optional(stmt.defaultBlock));
+            for (Stmt.SwitchStmt.Case c : stmt.cases) {
+                int child = add(CASE);
+                link(child, c.value.accept(this), c.body.accept(this));
+                previous = linkAfter(node, previous, child);
+            }
+            return node;
+        }
+
+        @Override
+        public Integer visitPrintStmt(Stmt.PrintStmt stmt) {
+            int node = add(PRINT, stmt.keyword);
+            link(node, stmt.expression.accept(this));
+            return node;
+        }
+
+        @Override
+        public Integer visitReturnStmt(Stmt.ReturnStmt stmt) {
+            int node = add(RETURN, stmt.keyword);
+            link(node, optional(stmt.value));
+            return node;
+        }
+
+        @Override
+        public Integer visitBreakStmt(Stmt.BreakStmt stmt) {
+            return add(BREAK, stmt.keyword);
+        }
+
+        @Override
+        public Integer visitContinueStmt(Stmt.ContinueStmt stmt) {
+            return add(CONTINUE, stmt.keyword);
+        }
+
+        @Override
+        public Integer visitUseStmt(Stmt.UseStmt stmt) {
+            return add(USE, stmt.path);
+        }
+    }
+}
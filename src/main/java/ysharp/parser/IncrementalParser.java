@@ -0,0 +1,166 @@
+package ysharp.parser;
+
+import ysharp.YsharpError;
+import ysharp.lexer.Token;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Re-parses a token stream after an edit, reusing every expression of the
+ * previous tree whose tokens (and the lookahead token that ended it) lie
+ * outside the edited range. Only the constructs enclosing the edit are
+ * parsed again.
+ *
+ * <p>A tree is a list of expressions ({@link #parse}) or a program
+ * ({@link #parseProgram}), where statements and declarations are reused
+ * the same way. Program trees parse function bodies at once instead of on
+ * first use, so an edit inside one body keeps the other functions and the
+ * untouched statements of that body; a syntax error in any body fails the
+ * parse.
+ */
+public final class IncrementalParser {
+
+    public static final class Tree {
+
+        private final List<Token> tokens;
+        private final List<Expr> expressions;
+        private final List<Stmt> statements;  // null for a list of expressions
+        private final int[] starts;    // first token index of each top-level expression or statement
+        private final Expr[] nodes;    // node parsed at a token index, or null
+        private final int[] lengths;   // tokens spanned by nodes[i]
+        private final Stmt[] statementNodes;   // likewise for statements; null for expressions
+        private final int[] statementLengths;
+
+        private Tree(List<Token> tokens, List<Expr> expressions, List<Stmt> statements, int[] starts,
+                     Expr[] nodes, int[] lengths, Stmt[] statementNodes, int[] statementLengths) {
+            this.tokens = tokens;
+            this.expressions = expressions;
+            this.statements = statements;
+            this.starts = starts;
+            this.nodes = nodes;
+            this.lengths = lengths;
+            this.statementNodes = statementNodes;
+            this.statementLengths = statementLengths;
+        }
+
+        public List<Token> tokens()     { return tokens; }
+
+        /** the top-level expressions; empty for a program */
+        public List<Expr> expressions() { return expressions; }
+
+        /** the top-level statements; empty for a list of expressions */
+        public List<Stmt> statements()  { return statements == null ? List.of() : statements; }
+    }
+
+    private IncrementalParser() {}
+
+    public static Tree parse(List<Token> tokens) throws YsharpError {
+        return run(tokens, new Expr[tokens.size()], new int[tokens.size()], null, null);
+    }
+
+    public static Tree parseProgram(List<Token> tokens) throws YsharpError {
+        return run(tokens, new Expr[tokens.size()], new int[tokens.size()],
+                new Stmt[tokens.size()], new int[tokens.size()]);
+    }
+
+    /**
+     * @param tokens   the complete token stream after the edit
+     * @param start    index of the first changed token (same in both streams);
+     *                 an edit between tokens is an empty range at the next one
+     * @param oldEnd   exclusive end of the changed range in the previous stream
+     * @param newEnd   exclusive end of the changed range in {@code tokens}
+     */
+    public static Tree reparse(Tree previous, List<Token> tokens,
+                               int start, int oldEnd, int newEnd) throws YsharpError {
+        int oldSize = previous.tokens.size();
+        int newSize = tokens.size();
+
+        if (start < 0 || start > oldEnd || start > newEnd
+                || oldEnd > oldSize || newEnd > newSize
+                || oldSize - oldEnd != newSize - newEnd) {
+            throw new IllegalArgumentException("Invalid edit range ["
+                    + start + ", " + oldEnd + ") -> [" + start + ", " + newEnd + ")");
+        }
+
+        // nodes whose span or lookahead token reaches into the edit are
+        // dropped; they can only start inside the last top-level unit before it
+        int unit = Arrays.binarySearch(previous.starts, start);
+        unit = unit >= 0 ? unit - 1 : -unit - 2;
+        int from = unit >= 0 ? previous.starts[unit] : start;
+
+        // the suffix is shifted by the size delta, but only reusable if the
+        // edit did not move it to other lines (tokens carry their line number)
+        boolean suffix = oldEnd < oldSize
+                && previous.tokens.get(oldEnd).line == tokens.get(newEnd).line;
+
+        Expr[] nodes = new Expr[newSize];
+        int[] lengths = new int[newSize];
+        carry(previous.nodes, previous.lengths, nodes, lengths, from, start, oldEnd, newEnd, suffix);
+        if (previous.statements == null) return run(tokens, nodes, lengths, null, null);
+
+        Stmt[] statementNodes = new Stmt[newSize];
+        int[] statementLengths = new int[newSize];
+        carry(previous.statementNodes, previous.statementLengths, statementNodes, statementLengths,
+                from, start, oldEnd, newEnd, suffix);
+        return run(tokens, nodes, lengths, statementNodes, statementLengths);
+    }
+
+    /** copies the reusable entries of one previous reuse table into a new one */
+    private static <T> void carry(T[] previousNodes, int[] previousLengths, T[] nodes, int[] lengths,
+                                  int from, int start, int oldEnd, int newEnd, boolean suffix) {
+        // prefix: everything before the edit keeps its index
+        System.arraycopy(previousNodes, 0, nodes, 0, start);
+        System.arraycopy(previousLengths, 0, lengths, 0, start);
+        for (int i = from; i < start; i++) {
+            if (nodes[i] != null && i + lengths[i] >= start) {
+                nodes[i] = null;
+            }
+        }
+
+        if (suffix) {
+            int size = previousNodes.length - oldEnd;
+            System.arraycopy(previousNodes, oldEnd, nodes, newEnd, size);
+            System.arraycopy(previousLengths, oldEnd, lengths, newEnd, size);
+        }
+    }
+
+    private static Tree run(List<Token> tokens, Expr[] nodes, int[] lengths,
+                            Stmt[] statementNodes, int[] statementLengths) throws YsharpError {
+        Parser parser = new Parser(tokens);
+        parser.nodes = nodes;
+        parser.lengths = lengths;
+        parser.statementNodes = statementNodes;
+        parser.statementLengths = statementLengths;
+
+        List<Expr> expressions = new ArrayList<>();
+        List<Stmt> statements = statementNodes == null ? null : new ArrayList<>();
+        int count = 0;
+        int[] starts = new int[16];
+
+        while (!parser.isAtEnd()) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, starts.length * 2);
+            }
+            starts[count++] = parser.position();
+            if (statements == null) {
+                expressions.add(parser.parseExpression());
+            } else {
+                statements.add(parser.parseTopLevel());
+            }
+        }
+
+        return new Tree(
+                tokens,
+                Collections.unmodifiableList(expressions),
+                statements == null ? null : Collections.unmodifiableList(statements),
+                Arrays.copyOf(starts, count),
+                nodes,
+                lengths,
+                statementNodes,
+                statementLengths
+        );
+    }
+}
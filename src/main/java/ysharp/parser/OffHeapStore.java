@@ -0,0 +1,96 @@
+package ysharp.parser;
+
+import ysharp.lexer.Lexer;
+import ysharp.lexer.Preprocess;
+import ysharp.lexer.Token;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Keeps a parsed program outside the Java heap: the token columns and the
+ * node records of its {@link FlatAst} live in one direct buffer holding an
+ * {@link AstImage}. Tokens are rebuilt on access and never retained, so a
+ * large script costs the collector a handful of objects instead of millions.
+ *
+ * <p>{@link #close()} frees the buffer at once. Afterwards the tree and its
+ * token view reject every access, as do lazy function bodies that have not
+ * been parsed yet. Like a confined arena, a store must not be closed while
+ * another thread is still reading it.
+ */
+public final class OffHeapStore implements AutoCloseable {
+
+    private static final byte[] KEY = new byte[AstImage.KEY_SIZE];
+
+    // sun.misc.Unsafe.invokeCleaner, when the platform exposes it
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // the buffer is then freed by its cleaner once unreachable
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private ByteBuffer image;
+    private final FlatAst ast;
+    private final int byteSize;
+
+    private OffHeapStore(ByteBuffer image, FlatAst ast) {
+        this.image = image;
+        this.ast = ast;
+        this.byteSize = image.capacity();
+    }
+
+    /** copies {@code ast} off heap; the source tree can be dropped afterwards */
+    public static OffHeapStore of(FlatAst ast) {
+        ByteBuffer image = ByteBuffer.allocateDirect(AstImage.size(ast));
+        AstImage.write(ast, KEY, image);
+        return new OffHeapStore(image, AstImage.read(image, KEY, false));
+    }
+
+    /** lexes and parses {@code source}; only the off-heap copy outlives the call */
+    public static OffHeapStore parse(String source) throws Exception {
+        var buf = Preprocess.removeComments(Preprocess.mergeContinuation(source));
+        List<Token> tokens = new Lexer(buf).scanTokens();
+        return of(FlatAst.parseProgram(tokens));
+    }
+
+    public FlatAst ast() {
+        if (image == null) throw new IllegalStateException("Off-heap store is closed.");
+        return ast;
+    }
+
+    public int byteSize()   { return byteSize; }
+    public boolean isOpen() { return image != null; }
+
+    @Override
+    public void close() {
+        if (image == null) return;
+
+        ast.release();
+        ((AstImage.Tokens) ast.tokens()).release();
+
+        ByteBuffer freed = image;
+        image = null;
+        if (INVOKE_CLEANER != null) {
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, freed);
+            } catch (ReflectiveOperationException e) {
+                // left to the buffer's cleaner
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package ysharp.parser;
+
+import ysharp.lexer.Lexer;
+import ysharp.lexer.Preprocess;
+import ysharp.lexer.Token;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * On-disk cache of parsed programs. A source file is keyed by the SHA-256 of
+ * its text and {@link #COMPILER_VERSION}; a hit maps the cached
+ * {@link AstImage} and reads the token stream and the {@link FlatAst}
+ * columns straight out of the mapping, so neither the lexer nor the parser
+ * runs. Function bodies that were still unparsed when the entry was written
+ * stay lazy.
+ */
+public final class ParseCache {
+
+    /** part of every key: bump when the grammar, TokenType or the node layout changes */
+    public static final String COMPILER_VERSION = "ysharp-parse-2";
+
+    private final Path directory;
+
+    public ParseCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /** the parsed program for {@code source}, from the cache when possible */
+    public FlatAst load(String source) throws Exception {
+        byte[] key = key(source);
+        Path file = fileFor(key);
+
+        FlatAst cached = read(file, key);
+        if (cached != null) return cached;
+
+        var buf = Preprocess.removeComments(Preprocess.mergeContinuation(source));
+        List<Token> tokens = new Lexer(buf).scanTokens();
+        FlatAst ast = FlatAst.parseProgram(tokens);
+
+        Files.createDirectories(directory);
+        write(file, key, ast);
+        return ast;
+    }
+
+    public Path fileFor(String source) {
+        return fileFor(key(source));
+    }
+
+    private Path fileFor(byte[] key) {
+        return directory.resolve(HexFormat.of().formatHex(key) + ".ysast");
+    }
+
+    private static byte[] key(String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(COMPILER_VERSION.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(source.getBytes(StandardCharsets.UTF_8));
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /** written to a temporary file first, so readers never see a partial entry */
+    private static void write(Path file, byte[] key, FlatAst ast) throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(AstImage.size(ast));
+        AstImage.write(ast, key, out);
+
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (out.hasRemaining()) channel.write(out);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /** null when the file is missing or not a valid entry for {@code key} */
+    private static FlatAst read(Path file, byte[] key) throws IOException {
+        ByteBuffer map;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) return null;
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        return AstImage.read(map, key, true);
+    }
+}
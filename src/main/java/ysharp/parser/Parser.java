@@ -4,7 +4,12 @@ import ysharp.YsharpError;
 import ysharp.lexer.Token;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class Parser {
 
@@ -12,6 +17,16 @@ public class Parser {
 
     private int current = 0;
 
+    // reuse table for IncrementalParser: node parsed by parseAssignment at a
+    // token index and the number of tokens it spans (null when not incremental)
+    Expr[] nodes;
+    int[] lengths;
+
+    // the same for statements parsed by parseDeclaration; while set,
+    // function bodies are parsed at once so their statements are reused too
+    Stmt[] statementNodes;
+    int[] statementLengths;
+
     private Token peek(){
         if(current >= tokenStream.size()) return tokenStream.getLast();
         return tokenStream.get(current);
@@ -57,8 +72,26 @@ public class Parser {
     }
 
 
+    // hash-consing: structurally identical pure subtrees share one node
+    private final Map<NodeKey, Expr> interned;
+    private final Set<Expr> pure;
+
+    private record NodeKey(Class<?> kind, Object op, Expr left, Expr middle, Expr right) {}
+
     public Parser(List<Token> tokenStream) {
+        this(tokenStream, false);
+    }
+
+    /**
+     * @param hashCons intern structurally identical pure subtrees (literals,
+     *                 variables, property reads, operators over them) so they
+     *                 share one node. Shared nodes keep the tokens, and so the
+     *                 line numbers, of their first occurrence.
+     */
+    public Parser(List<Token> tokenStream, boolean hashCons) {
         this.tokenStream = tokenStream;
+        this.interned = hashCons ? new HashMap<>() : null;
+        this.pure = hashCons ? Collections.newSetFromMap(new IdentityHashMap<>()) : null;
     }
 
     private void sync(){
@@ -78,9 +111,101 @@ public class Parser {
         return list;
     }
 
+    // entry points for IncrementalParser
+
+    int position() {
+        return current;
+    }
+
+    boolean isAtEnd() {
+        return peek().type == Token.TokenType.END_OF_FILE;
+    }
+
+    Expr parseExpression() throws YsharpError {
+        return parseAssignment();
+    }
+
+    Stmt parseTopLevel() throws YsharpError {
+        return parseDeclaration();
+    }
+
+    // node factories
+
+    private Expr intern(Expr expr, Object op, Expr left, Expr middle, Expr right) {
+        if(interned == null) return expr;
+
+        // children are interned already, so identity is structural equality
+        if((left != null && !pure.contains(left))
+                || (middle != null && !pure.contains(middle))
+                || (right != null && !pure.contains(right))) {
+            return expr;
+        }
+
+        Expr shared = interned.putIfAbsent(
+                new NodeKey(expr.getClass(), op, left, middle, right), expr);
+        if(shared != null) return shared;
+
+        pure.add(expr);
+        return expr;
+    }
+
+    private Expr binary(Expr left, Token op, Expr right) {
+        return intern(new Expr.BinaryExpr(left, op, right), op.type, left, null, right);
+    }
+
+    private Expr logical(Expr left, Token op, Expr right) {
+        return intern(new Expr.LogicalExpr(left, op, right), op.type, left, null, right);
+    }
+
+    private Expr ternary(Expr condition, Expr thenBranch, Expr elseBranch) {
+        return intern(new Expr.TernaryExpr(condition, thenBranch, elseBranch),
+                null, condition, thenBranch, elseBranch);
+    }
+
+    private Expr unary(Token op, Expr right) {
+        Expr expr = new Expr.UnaryExpr(op, right);
+        if(op.type == Token.TokenType.PLUS_PLUS || op.type == Token.TokenType.MINUS_MINUS) {
+            return expr;
+        }
+        return intern(expr, op.type, null, null, right);
+    }
+
+    private Expr grouping(Expr expr) {
+        return intern(new Expr.GroupingExpr(expr), null, null, null, expr);
+    }
+
+    private Expr get(Expr object, Token name) {
+        return intern(new Expr.GetExpr(object, name), name.lexeme, object, null, null);
+    }
+
+    private Expr literal(Token token) {
+        return intern(new Expr.LiteralExpr(token),
+                List.of(token.type, token.literal), null, null, null);
+    }
+
+    private Expr variable(Token name) {
+        return intern(new Expr.VariableExpr(name), name.lexeme, null, null, null);
+    }
+
     // expression parser
 
-    private Expr parseAssignment() throws YsharpError{
+    private Expr parseAssignment() throws YsharpError {
+        if(nodes == null) return parseAssignmentNode();
+
+        int start = current;
+        Expr reused = nodes[start];
+        if(reused != null) {
+            current = start + lengths[start];
+            return reused;
+        }
+
+        Expr expr = parseAssignmentNode();
+        nodes[start] = expr;
+        lengths[start] = current - start;
+        return expr;
+    }
+
+    private Expr parseAssignmentNode() throws YsharpError{
         Expr expr = parseTernary();
 
         if (match(peek(),
@@ -120,7 +245,7 @@ public class Parser {
     }
 
     private Expr parseTernary() throws YsharpError {
-        Expr logicalOr = parseLogicalOr();
+        Expr logicalOr = parseBinary(Precedence.LOOSEST);
 
         // consume ?
         if(match(peek(), Token.TokenType.QUESTION_MARK)) {
@@ -131,7 +256,7 @@ public class Parser {
 
             Expr else_ = parseTernary();
 
-            return new Expr.TernaryExpr(
+            return ternary(
                     logicalOr, // condition
                     then,
                     else_
@@ -141,338 +266,23 @@ public class Parser {
         return  logicalOr;
     }
 
-    private Expr parseLogicalOr() throws YsharpError {
-        Expr expr = parseLogicalAnd();
-
-        if(match(peek(), Token.TokenType.LOGICAL_OR)) {
-            Token op = previous();
-            Expr logicalAnd = parseLogicalAnd();
-            Expr.LogicalExpr logicalExpr = new Expr.LogicalExpr(
-                    expr,
-                    op,
-                    logicalAnd
-                    );
-            while (match(peek(), Token.TokenType.LOGICAL_OR)) {
-                op = previous();
-                logicalAnd = parseLogicalAnd();
-                 Expr.LogicalExpr logicalExpr_ = new Expr.LogicalExpr(
-                         logicalExpr,
-                        op,
-                        logicalAnd
-                );
-                 logicalExpr = logicalExpr_;
-            }
-
-            return logicalExpr;
-        }
-
-        return  expr;
-    }
-
-    private Expr parseLogicalAnd() throws YsharpError {
-        Expr expr = parseBitwiseOr();
-
-        if(match(peek(), Token.TokenType.LOGICAL_AND)) {
-            Token op = previous();
-            Expr bitwiseOr = parseBitwiseOr();
-            Expr.LogicalExpr logicalExpr = new Expr.LogicalExpr(
-                    expr,
-                    op,
-                    bitwiseOr
-            );
-            while (match(peek(), Token.TokenType.LOGICAL_AND)) {
-                op = previous();
-                bitwiseOr = parseBitwiseOr();
-                Expr.LogicalExpr logicalExpr_ = new Expr.LogicalExpr(
-                        logicalExpr,
-                        op,
-                        bitwiseOr
-                );
-                logicalExpr = logicalExpr_;
-            }
-
-            return logicalExpr;
-        }
-
-        return  expr;
-    }
-
-    private Expr parseBitwiseOr() throws YsharpError {
-        Expr expr = parseBitwiseXor();
+    private Expr parseBinary(Precedence level) throws YsharpError {
+        Expr expr = parseOperand(level);
 
-        if(match(peek(), Token.TokenType.BITWISE_OR)) {
+        while (match(peek(), level.operators)) {
             Token op = previous();
-            Expr bitwiseXOr = parseBitwiseXor();
-            Expr.BinaryExpr binaryExpr = new Expr.BinaryExpr(
-                    expr,
-                    op,
-                    bitwiseXOr
-            );
-            while (match(peek(), Token.TokenType.BITWISE_OR)) {
-                op = previous();
-                bitwiseXOr = parseBitwiseXor();
-                Expr.BinaryExpr binaryExpr_ = new Expr.BinaryExpr(
-                        binaryExpr,
-                        op,
-                        bitwiseXOr
-                );
-                binaryExpr = binaryExpr_;
-            }
-
-            return binaryExpr;
-        }
-
-        return  expr;
-    }
-
-    private Expr parseBitwiseXor() throws YsharpError {
-        Expr expr = parseBitwiseAnd();
-
-        if(match(peek(), Token.TokenType.BITWISE_XOR)) {
-            Token op = previous();
-            Expr bitwiseAnd = parseBitwiseAnd();
-            Expr.BinaryExpr binaryExpr = new Expr.BinaryExpr(
-                    expr,
-                    op,
-                    bitwiseAnd
-            );
-            while (match(peek(), Token.TokenType.BITWISE_XOR)) {
-                op = previous();
-                bitwiseAnd = parseBitwiseAnd();
-                Expr.BinaryExpr binaryExpr_ = new Expr.BinaryExpr(
-                        binaryExpr,
-                         op,
-                        bitwiseAnd
-                );
-                binaryExpr = binaryExpr_;
-            }
-
-            return binaryExpr;
-        }
-
-        return  expr;
-    }
-
-    private Expr parseBitwiseAnd() throws YsharpError {
-        Expr expr = parseEquality();
-
-        if(match(peek(), Token.TokenType.BITWISE_AND)) {
-            Token op = previous();
-            Expr equality = parseEquality();
-            Expr.BinaryExpr binaryExpr = new Expr.BinaryExpr(
-                    expr,
-                    op,
-                    equality
-            );
-            while (match(peek(), Token.TokenType.BITWISE_AND)) {
-                op = previous();
-                equality = parseEquality();
-                Expr.BinaryExpr binaryExpr_ = new Expr.BinaryExpr(
-                        binaryExpr,
-                        op,
-                        equality
-                );
-                binaryExpr = binaryExpr_;
-            }
-
-            return binaryExpr;
-        }
-
-        return  expr;
-    }
-
-    private Expr parseEquality() throws YsharpError {
-        Expr expr = parseComparison();
-
-        if (match(peek(),
-                Token.TokenType.EQUAL_EQUAL,
-                Token.TokenType.BANG_EQUAL)) {
-
-            Token op = previous();
-
-            Expr comparison = parseComparison();
-            Expr.BinaryExpr binaryExpr = new Expr.BinaryExpr(
-                    expr,
-                    op,
-                    comparison
-            );
-
-            while (match(peek(),
-                    Token.TokenType.EQUAL_EQUAL,
-                    Token.TokenType.BANG_EQUAL)) {
-
-                op = previous();
-
-                comparison = parseComparison();
-                Expr.BinaryExpr binaryExpr_ = new Expr.BinaryExpr(
-                        binaryExpr,
-                        op,
-                        comparison
-                );
-
-                binaryExpr = binaryExpr_;
-            }
-
-            return binaryExpr;
+            Expr right = parseOperand(level);
+            expr = level.logical
+                    ? logical(expr, op, right)
+                    : binary(expr, op, right);
         }
 
         return expr;
     }
 
-    private Expr parseComparison() throws YsharpError {
-        Expr expr = parseBitwiseShift();
-
-        if (match(peek(),
-                Token.TokenType.GREATER_THAN,
-                Token.TokenType.GREATER_OR_EQUAL,
-                Token.TokenType.LESS_THAN,
-                Token.TokenType.LESS_OR_EQUAL)) {
-
-            Token op = previous();
-
-            Expr right = parseBitwiseShift();
-            Expr.BinaryExpr binaryExpr = new Expr.BinaryExpr(
-                    expr,
-                    op,
-                    right
-            );
-
-            while (match(peek(),
-                    Token.TokenType.GREATER_THAN,
-                    Token.TokenType.GREATER_OR_EQUAL,
-                    Token.TokenType.LESS_THAN,
-                    Token.TokenType.LESS_OR_EQUAL)) {
-
-                op = previous();
-
-                right = parseBitwiseShift();
-                Expr.BinaryExpr binaryExpr_ = new Expr.BinaryExpr(
-                        binaryExpr,
-                        op,
-                        right
-                );
-
-                binaryExpr = binaryExpr_;
-            }
-
-            return binaryExpr;
-        }
-
-        return expr;
-    }
-
-    private Expr parseBitwiseShift() throws YsharpError {
-        Expr expr = parseTerm();
-
-        if (match(peek(),
-                Token.TokenType.RIGHT_SHIFT,
-                Token.TokenType.LEFT_SHIFT)) {
-
-            Token op = previous();
-
-            Expr term = parseTerm();
-            Expr.BinaryExpr binaryExpr = new Expr.BinaryExpr(
-                    expr,
-                    op,
-                    term
-            );
-
-            while (match(peek(),
-                    Token.TokenType.RIGHT_SHIFT,
-                    Token.TokenType.LEFT_SHIFT)) {
-
-                op = previous();
-
-                term = parseTerm();
-                Expr.BinaryExpr binaryExpr_ = new Expr.BinaryExpr(
-                        binaryExpr,
-                        op,
-                        term
-                );
-
-                binaryExpr = binaryExpr_;
-            }
-
-            return binaryExpr;
-        }
-
-        return expr;
-    }
-
-    private Expr parseTerm() throws YsharpError {
-        Expr expr = parseFactor();
-
-        if (match(peek(),
-                Token.TokenType.PLUS,
-                Token.TokenType.MINUS)) {
-
-            Token op = previous();
-
-            Expr factor = parseFactor();
-            Expr.BinaryExpr binaryExpr = new Expr.BinaryExpr(
-                    expr,
-                    op,
-                    factor
-            );
-
-            while (match(peek(),
-                    Token.TokenType.PLUS,
-                    Token.TokenType.MINUS)) {
-
-                factor = parseFactor();
-                Expr.BinaryExpr binaryExpr_ = new Expr.BinaryExpr(
-                        binaryExpr,
-                        previous(),
-                        factor
-                );
-
-                binaryExpr = binaryExpr_;
-            }
-
-            return binaryExpr;
-        }
-
-        return expr;
-    }
-
-    private Expr parseFactor() throws YsharpError {
-        Expr expr = parseUnary();
-
-        if (match(peek(),
-                Token.TokenType.DIVIDE,
-                Token.TokenType.MULTIPLY,
-                Token.TokenType.MODULO)) {
-
-            Token op = previous();
-
-            Expr unary = parseUnary();
-            Expr.BinaryExpr binaryExpr = new Expr.BinaryExpr(
-                    expr,
-                    op,
-                    unary
-            );
-
-            while (match(peek(),
-                    Token.TokenType.DIVIDE,
-                    Token.TokenType.MULTIPLY,
-                    Token.TokenType.MODULO)) {
-
-                op = previous();
-
-                unary = parseUnary();
-                Expr.BinaryExpr binaryExpr_ = new Expr.BinaryExpr(
-                        binaryExpr,
-                        op,
-                        unary
-                );
-
-                binaryExpr = binaryExpr_;
-            }
-
-            return binaryExpr;
-        }
-
-        return expr;
+    private Expr parseOperand(Precedence level) throws YsharpError {
+        Precedence next = level.next();
+        return next == null ? parseUnary() : parseBinary(next);
     }
 
     private Expr parseUnary() throws YsharpError {
@@ -486,7 +296,7 @@ public class Parser {
 
             Token op = previous();
             Expr right = parseUnary();
-            return new Expr.UnaryExpr(op, right);
+            return unary(op, right);
         }
 
         return parsePostfix();
@@ -539,15 +349,16 @@ public class Parser {
 
             }
             else if(match(peek(), Token.TokenType.DOT)) {
-                Token identifier = advance();
+                Token identifier = peek();
                 if(identifier.type != Token.TokenType.IDENTIFIER) {
                     throw new YsharpError(
                             YsharpError.YsharpErrorType.SYNTAX,
                             identifier.line,
-                            "");
+                            "Expected property name after '.'.");
                 }
+                advance(); // consume property name
 
-                Expr.GetExpr getExpr = new Expr.GetExpr(
+                Expr getExpr = get(
                         calee,
                         identifier
                 );
@@ -652,18 +463,18 @@ public class Parser {
                 Token.TokenType.TRUE_,
                 Token.TokenType.FALSE_)) {
 
-            return new Expr.LiteralExpr(previous());
+            return literal(previous());
         }
 
         if (match(peek(), Token.TokenType.IDENTIFIER)) {
-            return new Expr.VariableExpr(previous());
+            return variable(previous());
         }
 
         if (match(peek(), Token.TokenType.LEFT_PAREN)) {
             Expr expr = parseAssignment();
             consume(Token.TokenType.RIGHT_PAREN,
                     "Expected ')' after expression.");
-            return new Expr.GroupingExpr(expr);
+            return grouping(expr);
         }
 
         throw new YsharpError(
@@ -674,5 +485,328 @@ public class Parser {
     }
 
     // stmt parser
-}
 
+    public List<Stmt> parseProgram() throws YsharpError {
+        List<Stmt> statements = new ArrayList<>();
+        while (peek().type != Token.TokenType.END_OF_FILE) {
+            statements.add(parseDeclaration());
+        }
+        return statements;
+    }
+
+    // used by FunctionStmt to materialize a skipped body
+    Stmt.BlockStmt parseFunctionBody(int start, int end) throws YsharpError {
+        current = start;
+        Stmt.BlockStmt body = parseBlock();
+        if (current != end) {
+            throw new IllegalStateException(
+                    "[Programmatic error] function body ended at token " + current + ", expected " + end);
+        }
+        return body;
+    }
+
+    private Stmt parseDeclaration() throws YsharpError {
+        if (statementNodes == null) return parseDeclarationNode();
+
+        int start = current;
+        Stmt reused = statementNodes[start];
+        if (reused != null) {
+            current = start + statementLengths[start];
+            return reused;
+        }
+
+        Stmt stmt = parseDeclarationNode();
+        statementNodes[start] = stmt;
+        statementLengths[start] = current - start;
+        return stmt;
+    }
+
+    private Stmt parseDeclarationNode() throws YsharpError {
+        if (match(peek(), Token.TokenType.CLASS))     return parseClassDeclaration();
+        if (match(peek(), Token.TokenType.FUNCTION))  return parseFunction();
+        if (match(peek(), Token.TokenType.VAR))       return parseVarDeclaration();
+        if (match(peek(), Token.TokenType.CONST_))    return parseConstDeclaration();
+        return parseStatement();
+    }
+
+    private Stmt parseClassDeclaration() throws YsharpError {
+        Token name = peek();
+        consume(Token.TokenType.IDENTIFIER, "Expected class name.");
+
+        Token superclass = null;
+        if (match(peek(), Token.TokenType.EXTENDS)) {
+            superclass = peek();
+            consume(Token.TokenType.IDENTIFIER, "Expected superclass name after 'extends'.");
+        }
+
+        consume(Token.TokenType.LEFT_CURLY_BRACE, "Expected '{' before class body.");
+
+        List<Stmt> members = new ArrayList<>();
+        while (peek().type != Token.TokenType.RIGHT_CURLY_BRACE
+                && peek().type != Token.TokenType.END_OF_FILE) {
+
+            if (match(peek(), Token.TokenType.VAR)) {
+                members.add(parseVarDeclaration());
+            } else if (match(peek(), Token.TokenType.CONST_)) {
+                members.add(parseConstDeclaration());
+            } else if (peek().type == Token.TokenType.IDENTIFIER) {
+                members.add(parseFunction());
+            } else {
+                throw new YsharpError(
+                        YsharpError.YsharpErrorType.SYNTAX,
+                        peek().line,
+                        "Expected method, 'var' or 'const' in class body.");
+            }
+        }
+
+        consume(Token.TokenType.RIGHT_CURLY_BRACE, "Expected '}' after class body.");
+        return new Stmt.ClassStmt(name, superclass, members);
+    }
+
+    // the body is skipped by matching do/end and parsed on first use
+    private Stmt.FunctionStmt parseFunction() throws YsharpError {
+        Token name = peek();
+        consume(Token.TokenType.IDENTIFIER, "Expected function name.");
+        consume(Token.TokenType.LEFT_PAREN, "Expected '(' after function name.");
+
+        List<Token> params = new ArrayList<>();
+        if (peek().type != Token.TokenType.RIGHT_PAREN) {
+            do {
+                Token param = peek();
+                consume(Token.TokenType.IDENTIFIER, "Expected parameter name.");
+                params.add(param);
+            } while (match(peek(), Token.TokenType.COMMA));
+        }
+        consume(Token.TokenType.RIGHT_PAREN, "Expected ')' after parameters.");
+
+        if (peek().type != Token.TokenType.DO) {
+            throw new YsharpError(
+                    YsharpError.YsharpErrorType.SYNTAX,
+                    peek().line,
+                    "Expected 'do' before function body.");
+        }
+
+        int start = current;
+        int depth = 0;
+        do {
+            Token token = peek();
+            if (token.type == Token.TokenType.END_OF_FILE) {
+                throw new YsharpError(
+                        YsharpError.YsharpErrorType.SYNTAX,
+                        name.line,
+                        "Expected 'end' after body of function '" + name.lexeme + "'.");
+            }
+            if (token.type == Token.TokenType.DO)   depth++;
+            if (token.type == Token.TokenType.END_) depth--;
+            advance();
+        } while (depth > 0);
+
+        if (statementNodes != null) {
+            return new Stmt.FunctionStmt(name, params, parseFunctionBody(start, current));
+        }
+        return new Stmt.FunctionStmt(name, params, tokenStream, interned != null, start, current);
+    }
+
+    private Stmt parseVarDeclaration() throws YsharpError {
+        Token name = peek();
+        consume(Token.TokenType.IDENTIFIER, "Expected variable name.");
+        Token type = parseTypeAnnotation();
+
+        Expr initializer = null;
+        if (match(peek(), Token.TokenType.ASSIGN)) {
+            initializer = parseAssignment();
+        }
+
+        consume(Token.TokenType.SEMI_COLON, "Expected ';' after variable declaration.");
+        return new Stmt.VarStmt(name, type, initializer);
+    }
+
+    private Stmt parseConstDeclaration() throws YsharpError {
+        Token name = peek();
+        consume(Token.TokenType.IDENTIFIER, "Expected constant name.");
+        Token type = parseTypeAnnotation();
+
+        consume(Token.TokenType.ASSIGN, "Expected '=' after constant name.");
+        Expr initializer = parseAssignment();
+
+        consume(Token.TokenType.SEMI_COLON, "Expected ';' after constant declaration.");
+        return new Stmt.ConstStmt(name, type, initializer);
+    }
+
+    private Token parseTypeAnnotation() throws YsharpError {
+        if (!match(peek(), Token.TokenType.COLON)) return null;
+
+        Token type = peek();
+        if (!match(peek(),
+                Token.TokenType.TYPE_INT,
+                Token.TokenType.TYPE_DOUBLE,
+                Token.TokenType.TYPE_STRING,
+                Token.TokenType.TYPE_CHAR,
+                Token.TokenType.TYPE_BOOL,
+                Token.TokenType.TYPE_FUN,
+                Token.TokenType.IDENTIFIER)) {
+            throw new YsharpError(
+                    YsharpError.YsharpErrorType.SYNTAX,
+                    type.line,
+                    "Expected type after ':'.");
+        }
+        return type;
+    }
+
+    private Stmt parseStatement() throws YsharpError {
+        Token keyword = peek();
+
+        if (match(peek(), Token.TokenType.FOR))      return parseForStatement(keyword);
+        if (match(peek(), Token.TokenType.WHILE))    return parseWhileStatement(keyword);
+        if (match(peek(), Token.TokenType.TRY))      return parseTryStatement();
+        if (match(peek(), Token.TokenType.IF))       return parseIfStatement(keyword);
+        if (match(peek(), Token.TokenType.SWITCH))   return parseSwitchStatement(keyword);
+
+        if (match(peek(), Token.TokenType.PRINT, Token.TokenType.PRINTLN)) {
+            Expr value = parseAssignment();
+            consume(Token.TokenType.SEMI_COLON, "Expected ';' after value.");
+            return new Stmt.PrintStmt(keyword, value);
+        }
+
+        if (match(peek(), Token.TokenType.RETURN)) {
+            Expr value = null;
+            if (peek().type != Token.TokenType.SEMI_COLON) {
+                value = parseAssignment();
+            }
+            consume(Token.TokenType.SEMI_COLON, "Expected ';' after return value.");
+            return new Stmt.ReturnStmt(keyword, value);
+        }
+
+        if (match(peek(), Token.TokenType.BREAK)) {
+            consume(Token.TokenType.SEMI_COLON, "Expected ';' after 'break'.");
+            return new Stmt.BreakStmt(keyword);
+        }
+
+        if (match(peek(), Token.TokenType.CONTINUE)) {
+            consume(Token.TokenType.SEMI_COLON, "Expected ';' after 'continue'.");
+            return new Stmt.ContinueStmt(keyword);
+        }
+
+        if (match(peek(), Token.TokenType.USE)) {
+            Token path = peek();
+            consume(Token.TokenType.STRING, "Expected module path after 'use'.");
+            consume(Token.TokenType.SEMI_COLON, "Expected ';' after module path.");
+            return new Stmt.UseStmt(path);
+        }
+
+        if (peek().type == Token.TokenType.DO) return parseBlock();
+
+        return parseExpressionStatement();
+    }
+
+    private Stmt parseExpressionStatement() throws YsharpError {
+        Expr expr = parseAssignment();
+        consume(Token.TokenType.SEMI_COLON, "Expected ';' after expression.");
+        return new Stmt.ExpressionStmt(expr);
+    }
+
+    private Stmt.BlockStmt parseBlock() throws YsharpError {
+        consume(Token.TokenType.DO, "Expected 'do' before block.");
+
+        List<Stmt> statements = new ArrayList<>();
+        while (peek().type != Token.TokenType.END_
+                && peek().type != Token.TokenType.END_OF_FILE) {
+            statements.add(parseDeclaration());
+        }
+
+        consume(Token.TokenType.END_, "Expected 'end' after block.");
+        return new Stmt.BlockStmt(statements);
+    }
+
+    private Stmt parseForStatement(Token keyword) throws YsharpError {
+        consume(Token.TokenType.LEFT_PAREN, "Expected '(' after 'for'.");
+
+        Stmt initializer;
+        if (match(peek(), Token.TokenType.SEMI_COLON)) {
+            initializer = null;
+        } else if (match(peek(), Token.TokenType.VAR)) {
+            initializer = parseVarDeclaration();
+        } else {
+            initializer = parseExpressionStatement();
+        }
+
+        Expr condition = null;
+        if (peek().type != Token.TokenType.SEMI_COLON) {
+            condition = parseAssignment();
+        }
+        consume(Token.TokenType.SEMI_COLON, "Expected ';' after loop condition.");
+
+        Expr increment = null;
+        if (peek().type != Token.TokenType.RIGHT_PAREN) {
+            increment = parseAssignment();
+        }
+        consume(Token.TokenType.RIGHT_PAREN, "Expected ')' after for clauses.");
+
+        Stmt body = parseStatement();
+        return new Stmt.ForStmt(keyword, initializer, condition, increment, body);
+    }
+
+    private Stmt parseWhileStatement(Token keyword) throws YsharpError {
+        consume(Token.TokenType.LEFT_PAREN, "Expected '(' after 'while'.");
+        Expr condition = parseAssignment();
+        consume(Token.TokenType.RIGHT_PAREN, "Expected ')' after condition.");
+
+        Stmt body = parseStatement();
+        return new Stmt.WhileStmt(keyword, condition, body);
+    }
+
+    private Stmt parseTryStatement() throws YsharpError {
+        Stmt.BlockStmt body = parseBlock();
+
+        consume(Token.TokenType.CATCH, "Expected 'catch' after try block.");
+        consume(Token.TokenType.LEFT_PAREN, "Expected '(' after 'catch'.");
+        Token name = peek();
+        consume(Token.TokenType.IDENTIFIER, "Expected error variable name.");
+        consume(Token.TokenType.RIGHT_PAREN, "Expected ')' after error variable.");
+        Stmt.BlockStmt catchBlock = parseBlock();
+
+        Stmt.BlockStmt finallyBlock = null;
+        if (match(peek(), Token.TokenType.FINALLY)) {
+            finallyBlock = parseBlock();
+        }
+
+        return new Stmt.TryStmt(body, name, catchBlock, finallyBlock);
+    }
+
+    private Stmt parseIfStatement(Token keyword) throws YsharpError {
+        Expr condition = parseAssignment();
+        consume(Token.TokenType.THEN, "Expected 'then' after if condition.");
+        Stmt.BlockStmt thenBranch = parseBlock();
+
+        Stmt elseBranch = null;
+        Token next = peek();
+        if (match(peek(), Token.TokenType.ELIF)) {
+            elseBranch = parseIfStatement(next);
+        } else if (match(peek(), Token.TokenType.ELSE)) {
+            elseBranch = parseBlock();
+        }
+
+        return new Stmt.IfStmt(keyword, condition, thenBranch, elseBranch);
+    }
+
+    private Stmt parseSwitchStatement(Token keyword) throws YsharpError {
+        Expr subject = parseAssignment();
+        consume(Token.TokenType.DO, "Expected 'do' after switch value.");
+
+        List<Stmt.SwitchStmt.Case> cases = new ArrayList<>();
+        while (match(peek(), Token.TokenType.CASE)) {
+            Expr value = parseAssignment();
+            consume(Token.TokenType.COLON, "Expected ':' after case value.");
+            cases.add(new Stmt.SwitchStmt.Case(value, parseBlock()));
+        }
+
+        Stmt.BlockStmt defaultBlock = null;
+        if (match(peek(), Token.TokenType.DEFAULT)) {
+            consume(Token.TokenType.COLON, "Expected ':' after 'default'.");
+            defaultBlock = parseBlock();
+        }
+
+        consume(Token.TokenType.END_, "Expected 'end' after switch cases.");
+        return new Stmt.SwitchStmt(keyword, subject, cases, defaultBlock);
+    }
+}
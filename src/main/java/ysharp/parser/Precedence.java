@@ -0,0 +1,56 @@
+package ysharp.parser;
+
+import ysharp.lexer.Token;
+
+/**
+ * Binary operator levels of the expression grammar (docs/CFG.md), loosest
+ * binding first. Parser and the single-pass compiler both walk this table,
+ * so they always agree on precedence and associativity (all left).
+ */
+public enum Precedence {
+
+    LOGICAL_OR  (true,  Token.TokenType.LOGICAL_OR),
+    LOGICAL_AND (true,  Token.TokenType.LOGICAL_AND),
+    BITWISE_OR  (false, Token.TokenType.BITWISE_OR),
+    BITWISE_XOR (false, Token.TokenType.BITWISE_XOR),
+    BITWISE_AND (false, Token.TokenType.BITWISE_AND),
+    EQUALITY    (false, Token.TokenType.EQUAL_EQUAL,
+                        Token.TokenType.BANG_EQUAL),
+    COMPARISON  (false, Token.TokenType.GREATER_THAN,
+                        Token.TokenType.GREATER_OR_EQUAL,
+                        Token.TokenType.LESS_THAN,
+                        Token.TokenType.LESS_OR_EQUAL),
+    SHIFT       (false, Token.TokenType.RIGHT_SHIFT,
+                        Token.TokenType.LEFT_SHIFT),
+    TERM        (false, Token.TokenType.PLUS,
+                        Token.TokenType.MINUS),
+    FACTOR      (false, Token.TokenType.DIVIDE,
+                        Token.TokenType.MULTIPLY,
+                        Token.TokenType.MODULO);
+
+    public static final Precedence LOOSEST = LOGICAL_OR;
+
+    private static final Precedence[] LEVELS = values();
+
+    /** short-circuit operators (LogicalExpr) rather than BinaryExpr */
+    public final boolean logical;
+    final Token.TokenType[] operators;
+
+    Precedence(boolean logical, Token.TokenType... operators) {
+        this.logical = logical;
+        this.operators = operators;
+    }
+
+    public boolean matches(Token.TokenType type) {
+        for (Token.TokenType operator : operators) {
+            if (operator == type) return true;
+        }
+        return false;
+    }
+
+    /** next tighter level, or null when operands are unary expressions */
+    public Precedence next() {
+        int next = ordinal() + 1;
+        return next < LEVELS.length ? LEVELS[next] : null;
+    }
+}
@@ -0,0 +1,447 @@
+package ysharp.parser;
+
+import ysharp.YsharpError;
+import ysharp.lexer.Token;
+
+import java.util.List;
+
+abstract public class Stmt {
+
+    public interface Visitor<R> {
+
+        R visitExpressionStmt(ExpressionStmt stmt);
+        R visitVarStmt(VarStmt stmt);
+        R visitConstStmt(ConstStmt stmt);
+        R visitFunctionStmt(FunctionStmt stmt);
+        R visitClassStmt(ClassStmt stmt);
+        R visitBlockStmt(BlockStmt stmt);
+        R visitIfStmt(IfStmt stmt);
+        R visitWhileStmt(WhileStmt stmt);
+        R visitForStmt(ForStmt stmt);
+        R visitCountedForStmt(CountedForStmt stmt);
+        R visitTryStmt(TryStmt stmt);
+        R visitSwitchStmt(SwitchStmt stmt);
+        R visitPrintStmt(PrintStmt stmt);
+        R visitReturnStmt(ReturnStmt stmt);
+        R visitBreakStmt(BreakStmt stmt);
+        R visitContinueStmt(ContinueStmt stmt);
+        R visitUseStmt(UseStmt stmt);
+    }
+
+    public abstract <R> R accept(Visitor<R> visitor);
+
+    public static final class ExpressionStmt extends Stmt {
+
+        public final Expr expression;
+
+        public ExpressionStmt(Expr expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitExpressionStmt(this);
+        }
+    }
+
+    public static final class VarStmt extends Stmt {
+
+        public final Token name;
+        public final Token type;        // null when not annotated
+        public final Expr initializer;  // null when omitted
+        public int slot = -1;           // set by the resolver
+
+        public VarStmt(Token name, Token type, Expr initializer) {
+            this.name = name;
+            this.type = type;
+            this.initializer = initializer;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitVarStmt(this);
+        }
+    }
+
+    public static final class ConstStmt extends Stmt {
+
+        public final Token name;
+        public final Token type;        // null when not annotated
+        public final Expr initializer;
+        public int slot = -1;           // set by the resolver
+
+        public ConstStmt(Token name, Token type, Expr initializer) {
+            this.name = name;
+            this.type = type;
+            this.initializer = initializer;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitConstStmt(this);
+        }
+    }
+
+    /**
+     * A function whose body may still be unparsed: the parser only records the
+     * token range of its do ... end block, and {@link #body()} parses it on
+     * first use. Materialization happens once even under concurrent callers.
+     */
+    public static final class FunctionStmt extends Stmt {
+
+        public final Token name;
+        public final List<Token> params;
+
+        /**
+         * A variable a closure copies when it is created: slot {@code index}
+         * of the declaring frame when {@code local}, else entry {@code index}
+         * of the declaring function's own captures.
+         */
+        public record Capture(String name, boolean local, int index) {}
+
+        // set by the resolver: the name's slot in the enclosing frame, and the
+        // size of the function's own frame (params occupy slots 0..n-1)
+        public int slot = -1;
+        public int frameSize = -1;
+
+        // set by the resolver: what the closure captures, in capture order
+        // (null when the function sits inside a class and reaches outer frames
+        // by depth instead), and which of its own slots hold shared cells
+        // (null when none do)
+        public List<Capture> captures;
+        public boolean[] cells;
+
+        // set by the resolver: calls have no effect and depend only on the arguments
+        public boolean pure;
+
+        private volatile BlockStmt body;
+
+        // pending body: token range [bodyStart, bodyEnd) of the do ... end block
+        private List<Token> tokens;
+        private final boolean hashCons;
+        private final int bodyStart;
+        private final int bodyEnd;
+
+        public FunctionStmt(Token name, List<Token> params, BlockStmt body) {
+            this.name = name;
+            this.params = params;
+            this.body = body;
+            this.hashCons = false;
+            this.bodyStart = -1;
+            this.bodyEnd = -1;
+        }
+
+        FunctionStmt(Token name, List<Token> params,
+                     List<Token> tokens, boolean hashCons, int bodyStart, int bodyEnd) {
+            this.name = name;
+            this.params = params;
+            this.tokens = tokens;
+            this.hashCons = hashCons;
+            this.bodyStart = bodyStart;
+            this.bodyEnd = bodyEnd;
+        }
+
+        public boolean isParsed() {
+            return body != null;
+        }
+
+        int bodyStart() { return bodyStart; }
+        int bodyEnd()   { return bodyEnd; }
+
+        /** syntax errors inside the body surface here, on first use */
+        public BlockStmt body() throws YsharpError {
+            BlockStmt result = body;
+            if (result != null) return result;
+
+            synchronized (this) {
+                result = body;
+                if (result == null) {
+                    result = new Parser(tokens, hashCons).parseFunctionBody(bodyStart, bodyEnd);
+                    body = result;
+                    tokens = null;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitFunctionStmt(this);
+        }
+    }
+
+    public static final class ClassStmt extends Stmt {
+
+        public final Token name;
+        public final Token superclass;  // null without extends
+        public final List<Stmt> members;  // FunctionStmt, VarStmt, ConstStmt
+
+        // set by the resolver; instance slots start with the superclass members
+        public int slot = -1;
+        public int superclassDepth = -1;
+        public int superclassSlot = -1;
+        public int fieldCount = -1;
+
+        public ClassStmt(Token name, Token superclass, List<Stmt> members) {
+            this.name = name;
+            this.superclass = superclass;
+            this.members = members;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitClassStmt(this);
+        }
+    }
+
+    public static final class BlockStmt extends Stmt {
+
+        public final List<Stmt> statements;
+
+        public BlockStmt(List<Stmt> statements) {
+            this.statements = statements;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitBlockStmt(this);
+        }
+    }
+
+    /** elif chains are nested IfStmts in the else branch */
+    public static final class IfStmt extends Stmt {
+
+        public final Token keyword;
+        public final Expr condition;
+        public final BlockStmt thenBranch;
+        public final Stmt elseBranch;   // BlockStmt, IfStmt or null
+
+        public IfStmt(Token keyword, Expr condition, BlockStmt thenBranch, Stmt elseBranch) {
+            this.keyword = keyword;
+            this.condition = condition;
+            this.thenBranch = thenBranch;
+            this.elseBranch = elseBranch;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitIfStmt(this);
+        }
+    }
+
+    public static final class WhileStmt extends Stmt {
+
+        public final Token keyword;
+        public final Expr condition;
+        public final Stmt body;
+
+        public WhileStmt(Token keyword, Expr condition, Stmt body) {
+            this.keyword = keyword;
+            this.condition = condition;
+            this.body = body;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitWhileStmt(this);
+        }
+    }
+
+    public static final class ForStmt extends Stmt {
+
+        public final Token keyword;
+        public final Stmt initializer;  // VarStmt, ExpressionStmt or null
+        public final Expr condition;    // null means true
+        public final Expr increment;    // null when omitted
+        public final Stmt body;
+
+        public ForStmt(Token keyword, Stmt initializer, Expr condition, Expr increment, Stmt body) {
+            this.keyword = keyword;
+            this.initializer = initializer;
+            this.condition = condition;
+            this.increment = increment;
+            this.body = body;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitForStmt(this);
+        }
+    }
+
+    /**
+     * A for loop the loop optimizer proved counted; the parser never builds
+     * one. {@code variable} is an int that only the loop changes: it starts
+     * at {@code start} and advances by the constant {@code step} while
+     * {@code variable comparison limit} holds, with {@code limit} evaluated
+     * once after {@code start}. Each derived variable holds
+     * {@code variable * factor}, its factor evaluated once, and advances by
+     * {@code step * factor} alongside.
+     */
+    public static final class CountedForStmt extends Stmt {
+
+        public static final class Derived {
+            public final Token name;
+            public final Expr factor;
+            public int slot = -1;           // set by the resolver
+
+            public Derived(Token name, Expr factor) {
+                this.name = name;
+                this.factor = factor;
+            }
+        }
+
+        public final Token keyword;
+        public final Token variable;
+        public final Expr start;
+        public final Token comparison;  // <, <=, > or >=
+        public final Expr limit;
+        public final int step;
+        public final List<Derived> derived;
+        public final Stmt body;
+        public int slot = -1;           // set by the resolver
+
+        public CountedForStmt(Token keyword, Token variable, Expr start, Token comparison, Expr limit,
+                              int step, List<Derived> derived, Stmt body) {
+            this.keyword = keyword;
+            this.variable = variable;
+            this.start = start;
+            this.comparison = comparison;
+            this.limit = limit;
+            this.step = step;
+            this.derived = derived;
+            this.body = body;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitCountedForStmt(this);
+        }
+    }
+
+    public static final class TryStmt extends Stmt {
+
+        public final BlockStmt body;
+        public final Token catchName;
+        public final BlockStmt catchBlock;
+        public final BlockStmt finallyBlock;  // null without finally
+        public int catchSlot = -1;            // set by the resolver
+
+        public TryStmt(BlockStmt body, Token catchName, BlockStmt catchBlock, BlockStmt finallyBlock) {
+            this.body = body;
+            this.catchName = catchName;
+            this.catchBlock = catchBlock;
+            this.finallyBlock = finallyBlock;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitTryStmt(this);
+        }
+    }
+
+    public static final class SwitchStmt extends Stmt {
+
+        public static final class Case {
+            public final Expr value;
+            public final BlockStmt body;
+
+            public Case(Expr value, BlockStmt body) {
+                this.value = value;
+                this.body = body;
+            }
+        }
+
+        public final Token keyword;
+        public final Expr subject;
+        public final List<Case> cases;
+        public final BlockStmt defaultBlock;  // null without default
+
+        public SwitchStmt(Token keyword, Expr subject, List<Case> cases, BlockStmt defaultBlock) {
+            this.keyword = keyword;
+            this.subject = subject;
+            this.cases = cases;
+            this.defaultBlock = defaultBlock;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitSwitchStmt(this);
+        }
+    }
+
+    /** print and println; {@code keyword} tells them apart */
+    public static final class PrintStmt extends Stmt {
+
+        public final Token keyword;
+        public final Expr expression;
+
+        public PrintStmt(Token keyword, Expr expression) {
+            this.keyword = keyword;
+            this.expression = expression;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitPrintStmt(this);
+        }
+    }
+
+    public static final class ReturnStmt extends Stmt {
+
+        public final Token keyword;
+        public final Expr value;  // null for a bare return
+
+        public ReturnStmt(Token keyword, Expr value) {
+            this.keyword = keyword;
+            this.value = value;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitReturnStmt(this);
+        }
+    }
+
+    public static final class BreakStmt extends Stmt {
+
+        public final Token keyword;
+
+        public BreakStmt(Token keyword) {
+            this.keyword = keyword;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitBreakStmt(this);
+        }
+    }
+
+    public static final class ContinueStmt extends Stmt {
+
+        public final Token keyword;
+
+        public ContinueStmt(Token keyword) {
+            this.keyword = keyword;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitContinueStmt(this);
+        }
+    }
+
+    public static final class UseStmt extends Stmt {
+
+        public final Token path;
+
+        public UseStmt(Token path) {
+            this.path = path;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitUseStmt(this);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package ysharp.runtime;
+
+import ysharp.YsharpError;
+
+/**
+ * Anything a Y# call expression can invoke.
+ */
+public interface Callable {
+
+    /** number of parameters, or -1 when any number is accepted */
+    int arity();
+
+    Object call(Object[] arguments) throws YsharpError;
+}
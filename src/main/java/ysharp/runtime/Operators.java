@@ -0,0 +1,313 @@
+package ysharp.runtime;
+
+import ysharp.YsharpError;
+import ysharp.lexer.Token;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Operator semantics on runtime values, shared by every execution path and
+ * by compile-time folding so they can never disagree.
+ *
+ * <p>Values are {@code Integer}, {@code Double}, {@code Character},
+ * {@code Boolean}, {@code String}, {@code null}, {@code List} (arrays),
+ * {@code Map<String, Object>} (maps) and {@link Callable}. Arithmetic follows
+ * Java: chars promote to int, int op int stays int (wrapping, integer
+ * division), anything with a double is double. Conditions and logical
+ * operators require booleans.
+ */
+public final class Operators {
+
+    private Operators() {}
+
+    public static Object literal(Token.Literal literal) {
+        return switch (literal) {
+            case Token.Literal.Null   ignored -> null;
+            case Token.Literal.Int    l       -> l.value();
+            case Token.Literal.Double l       -> l.value();
+            case Token.Literal.Bool   l       -> l.value();
+            case Token.Literal.Str    l       -> l.value();
+            case Token.Literal.Chr    l       -> l.value();
+        };
+    }
+
+    // classification
+
+    public static boolean isIntLike(Object value) {
+        return value instanceof Integer || value instanceof Character;
+    }
+
+    public static boolean isNumber(Object value) {
+        return isIntLike(value) || value instanceof Double;
+    }
+
+    public static int asInt(Object value) {
+        return value instanceof Character c ? c : (Integer) value;
+    }
+
+    public static double asDouble(Object value) {
+        if (value instanceof Double d) return d;
+        return asInt(value);
+    }
+
+    public static String typeName(Object value) {
+        if (value == null)                 return "null";
+        if (value instanceof Integer)      return "int";
+        if (value instanceof Double)       return "double";
+        if (value instanceof Character)    return "char";
+        if (value instanceof Boolean)      return "bool";
+        if (value instanceof String)       return "string";
+        if (value instanceof List<?>)      return "array";
+        if (value instanceof Map<?, ?>)    return "map";
+        if (value instanceof Callable)     return "function";
+        return value.getClass().getSimpleName();
+    }
+
+    public static String stringify(Object value) {
+        if (value == null) return "null";
+        if (value instanceof List<?> list) {
+            StringBuilder sb = new StringBuilder("[");
+            for (int i = 0; i < list.size(); i++) {
+                if (i > 0) sb.append(", ");
+                sb.append(stringify(list.get(i)));
+            }
+            return sb.append(']').toString();
+        }
+        if (value instanceof Map<?, ?> map) {
+            StringBuilder sb = new StringBuilder("{");
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if (!first) sb.append(", ");
+                sb.append('"').append(entry.getKey()).append("\": ").append(stringify(entry.getValue()));
+                first = false;
+            }
+            return sb.append('}').toString();
+        }
+        if (value instanceof Callable) return "<function>";
+        return value.toString();
+    }
+
+    public static boolean requireBool(Object value, String context, int line) throws YsharpError {
+        if (value instanceof Boolean b) return b;
+        throw error(line, context + " must be a bool, got " + typeName(value) + ".");
+    }
+
+    // binary
+
+    public static Object binary(Token.TokenType op, Object left, Object right, int line) throws YsharpError {
+        return switch (op) {
+            case PLUS             -> add(left, right, line);
+            case MINUS            -> subtract(left, right, line);
+            case MULTIPLY         -> multiply(left, right, line);
+            case DIVIDE           -> divide(left, right, line);
+            case MODULO           -> modulo(left, right, line);
+            case LEFT_SHIFT       -> shiftLeft(left, right, line);
+            case RIGHT_SHIFT      -> shiftRight(left, right, line);
+            case BITWISE_AND      -> bitwiseAnd(left, right, line);
+            case BITWISE_OR       -> bitwiseOr(left, right, line);
+            case BITWISE_XOR      -> bitwiseXor(left, right, line);
+            case EQUAL_EQUAL      -> isEqual(left, right);
+            case BANG_EQUAL       -> !isEqual(left, right);
+            case GREATER_THAN     -> compare(left, right, ">", line) > 0;
+            case GREATER_OR_EQUAL -> compare(left, right, ">=", line) >= 0;
+            case LESS_THAN        -> compare(left, right, "<", line) < 0;
+            case LESS_OR_EQUAL    -> compare(left, right, "<=", line) <= 0;
+            default -> throw new IllegalStateException(
+                    "[Programmatic error] not a binary operator: " + op);
+        };
+    }
+
+    /** arithmetic operator behind a compound assignment such as {@code +=} */
+    public static Token.TokenType compoundOperator(Token.TokenType assignment) {
+        return switch (assignment) {
+            case PLUS_ASSIGN        -> Token.TokenType.PLUS;
+            case MINUS_ASSIGN       -> Token.TokenType.MINUS;
+            case MULTIPLY_ASSIGN    -> Token.TokenType.MULTIPLY;
+            case DIVIDE_ASSIGN      -> Token.TokenType.DIVIDE;
+            case MODULO_ASSIGN      -> Token.TokenType.MODULO;
+            case LEFT_SHIFT_ASSIGN  -> Token.TokenType.LEFT_SHIFT;
+            case RIGHT_SHIFT_ASSIGN -> Token.TokenType.RIGHT_SHIFT;
+            case BITWISE_AND_ASSIGN -> Token.TokenType.BITWISE_AND;
+            case BITWISE_OR_ASSIGN  -> Token.TokenType.BITWISE_OR;
+            case BITWISE_XOR_ASSIGN -> Token.TokenType.BITWISE_XOR;
+            default -> null;
+        };
+    }
+
+    public static Object add(Object left, Object right, int line) throws YsharpError {
+        if (left instanceof String || right instanceof String) {
+            return stringify(left) + stringify(right);
+        }
+        if (isIntLike(left) && isIntLike(right)) return asInt(left) + asInt(right);
+        if (isNumber(left) && isNumber(right))   return asDouble(left) + asDouble(right);
+        throw operands("+", "numbers or strings", left, right, line);
+    }
+
+    public static Object subtract(Object left, Object right, int line) throws YsharpError {
+        if (isIntLike(left) && isIntLike(right)) return asInt(left) - asInt(right);
+        if (isNumber(left) && isNumber(right))   return asDouble(left) - asDouble(right);
+        throw operands("-", "numbers", left, right, line);
+    }
+
+    public static Object multiply(Object left, Object right, int line) throws YsharpError {
+        if (isIntLike(left) && isIntLike(right)) return asInt(left) * asInt(right);
+        if (isNumber(left) && isNumber(right))   return asDouble(left) * asDouble(right);
+        throw operands("*", "numbers", left, right, line);
+    }
+
+    public static Object divide(Object left, Object right, int line) throws YsharpError {
+        if (isIntLike(left) && isIntLike(right)) return divide(asInt(left), asInt(right), line);
+        if (isNumber(left) && isNumber(right)) return asDouble(left) / asDouble(right);
+        throw operands("/", "numbers", left, right, line);
+    }
+
+    public static Object modulo(Object left, Object right, int line) throws YsharpError {
+        if (isIntLike(left) && isIntLike(right)) return modulo(asInt(left), asInt(right), line);
+        if (isNumber(left) && isNumber(right)) return asDouble(left) % asDouble(right);
+        throw operands("%", "numbers", left, right, line);
+    }
+
+    /** int division and remainder, also used directly on unboxed operands */
+    public static int divide(int left, int right, int line) throws YsharpError {
+        if (right == 0) throw error(line, "Division by zero.");
+        return left / right;
+    }
+
+    public static int modulo(int left, int right, int line) throws YsharpError {
+        if (right == 0) throw error(line, "Division by zero.");
+        return left % right;
+    }
+
+    public static Object shiftLeft(Object left, Object right, int line) throws YsharpError {
+        if (isIntLike(left) && isIntLike(right)) return asInt(left) << asInt(right);
+        throw operands("<<", "integers", left, right, line);
+    }
+
+    public static Object shiftRight(Object left, Object right, int line) throws YsharpError {
+        if (isIntLike(left) && isIntLike(right)) return asInt(left) >> asInt(right);
+        throw operands(">>", "integers", left, right, line);
+    }
+
+    public static Object bitwiseAnd(Object left, Object right, int line) throws YsharpError {
+        if (isIntLike(left) && isIntLike(right)) return asInt(left) & asInt(right);
+        if (left instanceof Boolean a && right instanceof Boolean b) return a & b;
+        throw operands("&", "integers or bools", left, right, line);
+    }
+
+    public static Object bitwiseOr(Object left, Object right, int line) throws YsharpError {
+        if (isIntLike(left) && isIntLike(right)) return asInt(left) | asInt(right);
+        if (left instanceof Boolean a && right instanceof Boolean b) return a | b;
+        throw operands("|", "integers or bools", left, right, line);
+    }
+
+    public static Object bitwiseXor(Object left, Object right, int line) throws YsharpError {
+        if (isIntLike(left) && isIntLike(right)) return asInt(left) ^ asInt(right);
+        if (left instanceof Boolean a && right instanceof Boolean b) return a ^ b;
+        throw operands("^", "integers or bools", left, right, line);
+    }
+
+    public static int compare(Object left, Object right, String op, int line) throws YsharpError {
+        if (isIntLike(left) && isIntLike(right)) return Integer.compare(asInt(left), asInt(right));
+        if (isNumber(left) && isNumber(right)) {
+            double a = asDouble(left), b = asDouble(right);
+            // keep IEEE semantics: every comparison with NaN is false
+            if (Double.isNaN(a) || Double.isNaN(b)) return op.startsWith("<") ? 1 : -1;
+            return a < b ? -1 : (a > b ? 1 : 0);
+        }
+        if (left instanceof String a && right instanceof String b) return a.compareTo(b);
+        throw operands(op, "numbers or strings", left, right, line);
+    }
+
+    public static boolean isEqual(Object left, Object right) {
+        if (isIntLike(left) && isIntLike(right)) return asInt(left) == asInt(right);
+        if (isNumber(left) && isNumber(right))   return asDouble(left) == asDouble(right);
+        if (left == null || right == null)       return left == right;
+        if (left instanceof String || left instanceof Boolean) return left.equals(right);
+        return left == right;
+    }
+
+    // unary
+
+    public static Object negate(Object value, int line) throws YsharpError {
+        if (isIntLike(value))          return -asInt(value);
+        if (value instanceof Double d) return -d;
+        throw operand("-", "a number", value, line);
+    }
+
+    public static Object plus(Object value, int line) throws YsharpError {
+        if (isIntLike(value))          return asInt(value);
+        if (value instanceof Double)   return value;
+        throw operand("+", "a number", value, line);
+    }
+
+    public static Object not(Object value, int line) throws YsharpError {
+        if (value instanceof Boolean b) return !b;
+        throw operand("!", "a bool", value, line);
+    }
+
+    public static Object bitwiseNot(Object value, int line) throws YsharpError {
+        if (isIntLike(value)) return ~asInt(value);
+        throw operand("~", "an integer", value, line);
+    }
+
+    /** {@code ++}/{@code --}: like Java, a char stays a char */
+    public static Object increment(Object value, int delta, int line) throws YsharpError {
+        if (value instanceof Integer i)   return i + delta;
+        if (value instanceof Double d)    return d + delta;
+        if (value instanceof Character c) return (char) (c + delta);
+        throw operand(delta > 0 ? "++" : "--", "a number", value, line);
+    }
+
+    public static Object unary(Token.TokenType op, Object value, int line) throws YsharpError {
+        return switch (op) {
+            case MINUS       -> negate(value, line);
+            case PLUS        -> plus(value, line);
+            case BANG        -> not(value, line);
+            case BITWISE_NOT -> bitwiseNot(value, line);
+            case PLUS_PLUS   -> increment(value, 1, line);
+            case MINUS_MINUS -> increment(value, -1, line);
+            default -> throw new IllegalStateException(
+                    "[Programmatic error] not a unary operator: " + op);
+        };
+    }
+
+    // objects
+
+    public static Object getProperty(Object object, String name, int line) throws YsharpError {
+        if (object instanceof Map<?, ?> map) {
+            if (!map.containsKey(name)) throw error(line, "Undefined property '" + name + "'.");
+            return map.get(name);
+        }
+        if ("length".equals(name)) {
+            if (object instanceof List<?> list) return list.size();
+            if (object instanceof String s)     return s.length();
+        }
+        throw error(line, "Cannot read property '" + name + "' of " + typeName(object) + ".");
+    }
+
+    public static Object call(Object callee, Object[] arguments, int line) throws YsharpError {
+        if (!(callee instanceof Callable callable)) {
+            throw error(line, "Cannot call a value of type " + typeName(callee) + ".");
+        }
+        if (callable.arity() >= 0 && callable.arity() != arguments.length) {
+            throw error(line, "Expected " + callable.arity() + " arguments but got " + arguments.length + ".");
+        }
+        return callable.call(arguments);
+    }
+
+    // errors
+
+    public static YsharpError error(int line, String message) {
+        return new YsharpError(YsharpError.YsharpErrorType.RUNTIME, line, message);
+    }
+
+    private static YsharpError operands(String op, String expected, Object left, Object right, int line) {
+        return error(line, "Operands of '" + op + "' must be " + expected
+                + ", got " + typeName(left) + " and " + typeName(right) + ".");
+    }
+
+    private static YsharpError operand(String op, String expected, Object value, int line) {
+        return error(line, "Operand of '" + op + "' must be " + expected + ", got " + typeName(value) + ".");
+    }
+}
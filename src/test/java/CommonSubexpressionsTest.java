@@ -0,0 +1,134 @@
+import org.junit.jupiter.api.Test;
+import ysharp.analysis.Resolver;
+import ysharp.optimizer.CommonSubexpressions;
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommonSubexpressionsTest {
+
+    private List<Stmt> optimize(String input) throws Exception {
+        var program = CommonSubexpressions.eliminate(Sources.parse(input));
+        assertEquals(List.of(), new Resolver().resolve(program));
+        return program;
+    }
+
+    private static Expr initializer(Stmt stmt) {
+        return assertInstanceOf(Stmt.VarStmt.class, stmt).initializer;
+    }
+
+    private static void assertTemp(String name, Expr expr) {
+        assertEquals(name, assertInstanceOf(Expr.VariableExpr.class, expr).name.lexeme);
+    }
+
+    private static Expr assertComputes(String temp, Expr expr) {
+        var assignment = assertInstanceOf(Expr.AssignmentExpr.class, expr);
+        assertTemp(temp, assignment.target);
+        return assignment.value;
+    }
+
+    @Test
+    void repeatedProductIsComputedOnce() throws Exception {
+        var program = optimize(
+                "var price = 3; var qty = 4;\n" +
+                "var total = price * qty + price * qty / 10;\n");
+
+        assertEquals(4, program.size());
+        var temp = assertInstanceOf(Stmt.VarStmt.class, program.get(2));
+        assertEquals("$cse0", temp.name.lexeme);
+        assertNull(temp.initializer);
+        assertEquals(2, temp.name.line);
+
+        var sum = assertInstanceOf(Expr.BinaryExpr.class, initializer(program.get(3)));
+        assertInstanceOf(Expr.BinaryExpr.class, assertComputes("$cse0", sum.left));
+        var quotient = assertInstanceOf(Expr.BinaryExpr.class, sum.right);
+        assertTemp("$cse0", quotient.left);
+    }
+
+    @Test
+    void reuseSpansStatementsAndPropertyChains() throws Exception {
+        var program = optimize(
+                "var a = {\"b\": {\"c\": 1}};\n" +
+                "var x = a.b.c + 1;\n" +
+                "print a.b.c;\n");
+
+        assertEquals(4, program.size());
+        var x = assertInstanceOf(Expr.BinaryExpr.class, initializer(program.get(2)));
+        assertInstanceOf(Expr.GetExpr.class, assertComputes("$cse0", x.left));
+        assertTemp("$cse0", assertInstanceOf(Stmt.PrintStmt.class, program.get(3)).expression);
+    }
+
+    @Test
+    void writesAndCallsInvalidate() throws Exception {
+        var program = optimize(
+                "var a = 1; var b = 2; var m = {\"k\": 1};\n" +
+                "function f() do return 0; end\n" +
+                "var x = a + b;\n" +
+                "a = 5;\n" +
+                "var y = a + b;\n" +
+                "var p = m.k;\n" +
+                "f();\n" +
+                "var q = m.k;\n" +
+                "var r = a++ + a++;\n");
+
+        // nothing is shared: every repeat follows a write or a call
+        assertEquals(11, program.size());
+        for (Stmt stmt : program) {
+            if (stmt instanceof Stmt.VarStmt var) assertFalse(var.name.lexeme.startsWith("$"));
+        }
+    }
+
+    @Test
+    void conditionalValuesStayOnTheirSide() throws Exception {
+        var program = optimize(
+                "var a = 1; var b = 2;\n" +
+                "var x = a > 0 && a * b > 2 ? a * b : 0;\n" +
+                "var y = a - b > 0 || a - b < -5;\n");
+
+        // a * b is first computed right of &&, so the ?: branch may not rely on it;
+        // a - b is computed left of ||, so the right side reuses it
+        assertEquals(5, program.size());
+        var temp = assertInstanceOf(Stmt.VarStmt.class, program.get(3));
+        assertEquals("$cse0", temp.name.lexeme);
+
+        var ternary = assertInstanceOf(Expr.TernaryExpr.class, initializer(program.get(2)));
+        assertInstanceOf(Expr.BinaryExpr.class, ternary.thenBranch);
+
+        var or = assertInstanceOf(Expr.LogicalExpr.class, initializer(program.get(4)));
+        var left = assertInstanceOf(Expr.BinaryExpr.class, or.left);
+        assertInstanceOf(Expr.BinaryExpr.class, assertComputes("$cse0", left.left));
+        var right = assertInstanceOf(Expr.BinaryExpr.class, or.right);
+        assertTemp("$cse0", right.left);
+    }
+
+    @Test
+    void blocksAndFunctionBodiesAreHandledOnTheirOwn() throws Exception {
+        var program = optimize(
+                "function area(w, h) do\n" +
+                "    print w * h;\n" +
+                "    return w * h;\n" +
+                "end\n" +
+                "class Box { var w = 1; var h = 2; size() do return w * h + w * h; end }\n" +
+                "var w = 1; var h = 2;\n" +
+                "if w * h > 1 then do print w * h; end\n");
+
+        var body = assertInstanceOf(Stmt.FunctionStmt.class, program.get(0)).body().statements;
+        assertEquals(3, body.size());
+        assertTemp("$cse0", assertInstanceOf(Stmt.ReturnStmt.class, body.get(2)).value);
+
+        // the class body gains no members; the method body gets its own temporary
+        var box = assertInstanceOf(Stmt.ClassStmt.class, program.get(1));
+        assertEquals(3, box.members.size());
+        var size = assertInstanceOf(Stmt.FunctionStmt.class, box.members.get(2)).body().statements;
+        assertEquals(2, size.size());
+
+        // the branch block is a separate straight line
+        assertEquals(5, program.size());
+        var branch = assertInstanceOf(Stmt.IfStmt.class, program.get(4));
+        var printed = assertInstanceOf(Stmt.PrintStmt.class, branch.thenBranch.statements.get(0));
+        assertInstanceOf(Expr.BinaryExpr.class, printed.expression);
+    }
+}
@@ -0,0 +1,143 @@
+import org.junit.jupiter.api.Test;
+import ysharp.interpreter.Interpreter;
+import ysharp.lexer.Token;
+import ysharp.optimizer.ConstPropagator;
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConstPropagatorTest {
+
+    private List<Stmt> optimize(String input) throws Exception {
+        return ConstPropagator.propagate(Sources.parse(input));
+    }
+
+    private static Token.Literal printed(Stmt stmt) {
+        var print = assertInstanceOf(Stmt.PrintStmt.class, stmt);
+        return assertInstanceOf(Expr.LiteralExpr.class, print.expression).token.literal;
+    }
+
+    @Test
+    void disabledBranchesDisappear() throws Exception {
+        var program = optimize(
+                "const DEBUG = false;\n" +
+                "const LEVEL = 2;\n" +
+                "if DEBUG then do print 1; end\n" +
+                "elif LEVEL > 1 && !DEBUG then do print 2; end\n" +
+                "else do print 3; end\n" +
+                "while (DEBUG) do print 4; end\n" +
+                "for (var i = 0; DEBUG; i++) do print 5; end\n");
+
+        assertEquals(4, program.size());
+        var taken = assertInstanceOf(Stmt.BlockStmt.class, program.get(2));
+        assertEquals(new Token.Literal.Int(2), printed(taken.statements.get(0)));
+
+        // the for initializer still runs
+        var initializer = assertInstanceOf(Stmt.BlockStmt.class, program.get(3));
+        assertInstanceOf(Stmt.VarStmt.class, initializer.statements.get(0));
+    }
+
+    @Test
+    void constantsChainAndFold() throws Exception {
+        var program = optimize(
+                "const MINUTE = 60;\n" +
+                "const DAY = MINUTE * 60 * 24;\n" +
+                "print DAY;\n");
+        assertEquals(new Token.Literal.Int(86400), printed(program.get(2)));
+    }
+
+    @Test
+    void shadowingBlocksPropagation() throws Exception {
+        var program = optimize(
+                "const N = 1;\n" +
+                "function f(N) do print N; end\n" +
+                "do function g() do print N; end var N = 5; end\n" +
+                "do const N = 7; print N; end\n" +
+                "class C { const N = 3; m() do print N; end }\n");
+
+        var f = (Stmt.FunctionStmt) program.get(1);
+        assertInstanceOf(Expr.VariableExpr.class, ((Stmt.PrintStmt) f.body().statements.get(0)).expression);
+
+        var block = (Stmt.BlockStmt) program.get(2);
+        var g = (Stmt.FunctionStmt) block.statements.get(0);
+        assertInstanceOf(Expr.VariableExpr.class, ((Stmt.PrintStmt) g.body().statements.get(0)).expression);
+
+        var inner = (Stmt.BlockStmt) program.get(3);
+        assertEquals(new Token.Literal.Int(7), printed(inner.statements.get(1)));
+
+        var method = (Stmt.FunctionStmt) ((Stmt.ClassStmt) program.get(4)).members.get(1);
+        assertInstanceOf(Expr.VariableExpr.class, ((Stmt.PrintStmt) method.body().statements.get(0)).expression);
+    }
+
+    @Test
+    void deadCodeAfterJumps() throws Exception {
+        var program = optimize(
+                "function f(x) do\n" +
+                "    return helper(x);\n" +
+                "    print 1;\n" +
+                "    function helper(y) do return y; end\n" +
+                "end\n" +
+                "while (true) do break; print 2; end\n");
+
+        var body = ((Stmt.FunctionStmt) program.get(0)).body().statements;
+        assertEquals(2, body.size());
+        assertInstanceOf(Stmt.FunctionStmt.class, body.get(1));
+
+        var loop = (Stmt.WhileStmt) program.get(1);
+        assertEquals(1, ((Stmt.BlockStmt) loop.body).statements.size());
+    }
+
+    @Test
+    void switchCases() throws Exception {
+        var program = optimize(
+                "const MODE = 2;\n" +
+                "switch MODE do case 1: do print 1; end case 2: do print 2; end default: do print 0; end end\n" +
+                "switch x do case 1: do print 1; end case 1.0: do print 9; end case y: do end end\n" +
+                "while (true) do switch MODE do case 2: do break; end end end\n" +
+                "switch MODE do case 5: do print 5; end end\n");
+
+        assertEquals(4, program.size());
+        var taken = assertInstanceOf(Stmt.BlockStmt.class, program.get(1));
+        assertEquals(new Token.Literal.Int(2), printed(taken.statements.get(0)));
+
+        // 1.0 == 1, so that case can never match
+        var dynamic = assertInstanceOf(Stmt.SwitchStmt.class, program.get(2));
+        assertEquals(2, dynamic.cases.size());
+
+        // the break belongs to the switch, so the switch stays
+        var loop = (Stmt.WhileStmt) program.get(3);
+        var inner = ((Stmt.BlockStmt) loop.body).statements.get(0);
+        var kept = assertInstanceOf(Stmt.SwitchStmt.class, inner);
+        assertEquals(1, kept.cases.size());
+    }
+
+    private static String run(List<Stmt> program) throws Exception {
+        var bytes = new ByteArrayOutputStream();
+        new Interpreter(new PrintStream(bytes, true)).run(program);
+        return bytes.toString().replace("\r\n", "\n");
+    }
+
+    @Test
+    void constantsCalledBeforeTheirDeclarationStayInFunctions() throws Exception {
+        String source = "println f(); const X = 5; function f() do return X; end println X;\n" +
+                "const Y = 6; function g() do return Y; end println g();\n";
+        var program = optimize(source);
+        assertEquals("null\n5\n6\n", run(program));
+
+        // both follow a call that may read them before they are initialized
+        var f = (Stmt.FunctionStmt) program.get(2);
+        assertInstanceOf(Expr.VariableExpr.class, ((Stmt.ReturnStmt) f.body().statements.get(0)).value);
+        assertEquals(new Token.Literal.Int(5), printed(program.get(3)));
+        var g = (Stmt.FunctionStmt) program.get(5);
+        assertInstanceOf(Expr.VariableExpr.class, ((Stmt.ReturnStmt) g.body().statements.get(0)).value);
+
+        program = optimize("const Z = 7; function h() do return Z; end println h();\n");
+        var h = (Stmt.FunctionStmt) program.get(1);
+        assertInstanceOf(Expr.LiteralExpr.class, ((Stmt.ReturnStmt) h.body().statements.get(0)).value);
+    }
+}
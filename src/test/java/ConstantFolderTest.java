@@ -0,0 +1,77 @@
+import org.junit.jupiter.api.Test;
+import ysharp.lexer.Token;
+import ysharp.optimizer.ConstantFolder;
+import ysharp.parser.Expr;
+import ysharp.parser.Parser;
+import ysharp.parser.Stmt;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConstantFolderTest {
+
+    private Expr fold(String input) throws Exception {
+        return ConstantFolder.fold(new Parser(Sources.lex(input)).parse().get(0));
+    }
+
+    private Token.Literal literal(String input) throws Exception {
+        var folded = fold(input);
+        assertInstanceOf(Expr.LiteralExpr.class, folded, input);
+        return ((Expr.LiteralExpr) folded).token.literal;
+    }
+
+    @Test
+    void arithmeticFollowsLiteralTypes() throws Exception {
+        assertEquals(new Token.Literal.Int(86400), literal("60 * 60 * 24"));
+        assertEquals(new Token.Literal.Int(1024), literal("1 << 10"));
+        assertEquals(new Token.Literal.Int(3), literal("7 / 2"));
+        assertEquals(new Token.Literal.Double(3.5), literal("7 / 2.0"));
+        assertEquals(new Token.Literal.Int(98), literal("'a' + 1"));
+        assertEquals(new Token.Literal.Int(-5), literal("-(2 + 3)"));
+        assertEquals(new Token.Literal.Int(Integer.MIN_VALUE), literal("2147483647 + 1"));
+        assertEquals(new Token.Literal.Str("n=1"), literal("\"n=\" + 1"));
+    }
+
+    @Test
+    void comparisonsAndLogic() throws Exception {
+        assertEquals(new Token.Literal.Bool(false), literal("!true"));
+        assertEquals(new Token.Literal.Bool(true), literal("\"a\" == \"a\""));
+        assertEquals(new Token.Literal.Bool(true), literal("1 == 1.0"));
+        assertEquals(new Token.Literal.Bool(false), literal("false && f()"));
+        assertEquals(new Token.Literal.Bool(true), literal("true || f()"));
+        assertEquals(new Token.Literal.Int(1), literal("1 < 2 ? 1 : f()"));
+    }
+
+    @Test
+    void failingOperationsAreKept() throws Exception {
+        var division = fold("10 / (5 - 5)");
+        var binary = assertInstanceOf(Expr.BinaryExpr.class, division);
+        assertInstanceOf(Expr.LiteralExpr.class, binary.right);
+
+        assertInstanceOf(Expr.BinaryExpr.class, fold("1 + true"));
+        assertInstanceOf(Expr.UnaryExpr.class, fold("-\"s\""));
+    }
+
+    @Test
+    void shortCircuitKeepsTypeChecks() throws Exception {
+        // x may not be a bool, so && must still check it
+        assertInstanceOf(Expr.LogicalExpr.class, fold("true && x"));
+        assertInstanceOf(Expr.BinaryExpr.class, fold("true && x < 1"));
+        assertInstanceOf(Expr.LogicalExpr.class, fold("x && true"));
+    }
+
+    @Test
+    void partialFoldingAndStatements() throws Exception {
+        var sum = assertInstanceOf(Expr.BinaryExpr.class, fold("x + 2 * 3"));
+        assertEquals(new Token.Literal.Int(6), ((Expr.LiteralExpr) sum.right).token.literal);
+
+        var program = new Parser(Sources.lex(
+                "var unchanged = x;\n" +
+                "function f() do return 2 * 3; end\n")).parseProgram();
+        var folded = ConstantFolder.fold(program);
+        assertSame(program.get(0), folded.get(0));
+
+        var body = ((Stmt.FunctionStmt) folded.get(1)).body();
+        var ret = (Stmt.ReturnStmt) body.statements.get(0);
+        assertEquals(new Token.Literal.Int(6), ((Expr.LiteralExpr) ret.value).token.literal);
+    }
+}
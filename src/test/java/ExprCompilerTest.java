@@ -0,0 +1,98 @@
+import org.junit.jupiter.api.Test;
+import ysharp.YsharpError;
+import ysharp.compiler.ExprCompiler;
+import ysharp.compiler.VM;
+import ysharp.runtime.Callable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExprCompilerTest {
+
+    private Object eval(String input, Map<String, Object> globals) throws Exception {
+        var chunk = ExprCompiler.compile(Sources.lex(input));
+        return VM.run(chunk, globals);
+    }
+
+    private Object eval(String input) throws Exception {
+        return eval(input, new HashMap<>());
+    }
+
+    @Test
+    void arithmeticPrecedence() throws Exception {
+        assertEquals(7, eval("4 + 3"));
+        assertEquals(14, eval("2 + 3 * 4"));
+        assertEquals(20, eval("(2 + 3) * 4"));
+        assertEquals(-1, eval("1 - 2 + 3 - 3"));
+        assertEquals(1024, eval("1 << 10"));
+        assertEquals(2, eval("7 / 3"));
+        assertEquals(3.5, eval("7 / 2.0"));
+        assertEquals(98, eval("'a' + 1"));
+        assertEquals("ab1", eval("\"a\" + \"b\" + 1"));
+        assertEquals(true, eval("1 + 2 == 3 && 2 < 3"));
+        assertEquals(7, eval("1 | 2 & 3 ^ 4"));
+    }
+
+    @Test
+    void unaryAndTernary() throws Exception {
+        assertEquals(false, eval("!true"));
+        assertEquals(-5, eval("-5"));
+        assertEquals(~5, eval("~5"));
+        assertEquals("yes", eval("1 < 2 ? \"yes\" : \"no\""));
+        assertEquals(3, eval("false ? 1 : true ? 3 : 4"));
+    }
+
+    @Test
+    void shortCircuit() throws Exception {
+        Map<String, Object> globals = new HashMap<>();
+        globals.put("n", 0);
+        assertEquals(false, eval("false && (n = 1) == 1", globals));
+        assertEquals(true, eval("true || (n = 1) == 1", globals));
+        assertEquals(0, globals.get("n"));
+    }
+
+    @Test
+    void globalsAndAssignment() throws Exception {
+        Map<String, Object> globals = new HashMap<>();
+        globals.put("x", 10);
+        globals.put("c", 'a');
+        assertEquals(15, eval("x += 5", globals));
+        assertEquals(15, eval("x++", globals));
+        assertEquals(16, globals.get("x"));
+        assertEquals(15, eval("--x", globals));
+        assertEquals('b', eval("++c", globals));
+        assertEquals(7, eval("x = 7", globals));
+        assertEquals(7, globals.get("x"));
+    }
+
+    @Test
+    void collectionsAndCalls() throws Exception {
+        Map<String, Object> globals = new HashMap<>();
+        globals.put("max", new Callable() {
+            @Override public int arity() { return 2; }
+            @Override public Object call(Object[] arguments) {
+                return Math.max((Integer) arguments[0], (Integer) arguments[1]);
+            }
+        });
+        assertEquals(9, eval("max(4, 9)", globals));
+        assertEquals(List.of(1, 2, 3), eval("[1, 2, 1 + 2]", globals));
+        assertEquals(5, eval("{\"a\": {\"b\": 5}}.a.b", globals));
+        assertEquals(3, eval("[1, 2, 3].length", globals));
+    }
+
+    @Test
+    void errors() {
+        var syntax = assertThrows(YsharpError.class, () -> eval("(a) = 1"));
+        assertEquals(YsharpError.YsharpErrorType.SYNTAX, syntax.getType());
+        assertThrows(YsharpError.class, () -> eval("1 2"));
+        assertThrows(YsharpError.class, () -> eval("f()++"));
+
+        var runtime = assertThrows(YsharpError.class, () -> eval("1 / 0"));
+        assertEquals(YsharpError.YsharpErrorType.RUNTIME, runtime.getType());
+        assertThrows(YsharpError.class, () -> eval("undefined + 1"));
+        assertThrows(YsharpError.class, () -> eval("1 && true"));
+    }
+}
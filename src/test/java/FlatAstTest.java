@@ -0,0 +1,123 @@
+import org.junit.jupiter.api.Test;
+import ysharp.parser.FlatAst;
+import ysharp.parser.Parser;
+import ysharp.parser.Stmt;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlatAstTest {
+
+    private FlatAst encode(String input) throws Exception {
+        var tokens = Sources.lex(input);
+        return FlatAst.encode(tokens, new Parser(tokens).parse());
+    }
+
+    @Test
+    void binaryLayout() throws Exception {
+        var ast = encode("a + b * 2");
+        assertEquals(1, ast.rootCount());
+        assertEquals(5, ast.size());
+
+        int root = ast.root(0);
+        assertEquals(FlatAst.BINARY, ast.kind(root));
+        assertEquals("+", ast.token(root).lexeme);
+
+        int left = ast.firstChild(root);
+        assertEquals(FlatAst.VARIABLE, ast.kind(left));
+        assertEquals(0, ast.tokenIndex(left));
+
+        int right = ast.nextSibling(left);
+        assertEquals(FlatAst.BINARY, ast.kind(right));
+        assertEquals("*", ast.token(right).lexeme);
+        assertEquals(FlatAst.NONE, ast.nextSibling(right));
+    }
+
+    @Test
+    void callArgumentsAreSiblings() throws Exception {
+        var ast = encode("f(1, [2, 3], {\"k\": x})");
+        int call = ast.root(0);
+        assertEquals(FlatAst.CALL, ast.kind(call));
+        assertEquals(FlatAst.NONE, ast.tokenIndex(call));
+        assertEquals(4, ast.childCount(call));
+
+        int callee = ast.firstChild(call);
+        int array = ast.nextSibling(ast.nextSibling(callee));
+        assertEquals(FlatAst.ARRAY, ast.kind(array));
+        assertEquals(2, ast.childCount(array));
+
+        int map = ast.nextSibling(array);
+        int entry = ast.firstChild(map);
+        assertEquals(FlatAst.MAP_ENTRY, ast.kind(entry));
+        assertEquals("\"k\"", ast.token(entry).lexeme);
+        assertEquals(FlatAst.VARIABLE, ast.kind(ast.firstChild(entry)));
+    }
+
+    @Test
+    void adapterRoundTrip() throws Exception {
+        var tokens = Sources.lex("x = c ? -a++ : (b.d) f(g)(h) {} []");
+        var ast = FlatAst.encode(tokens, new Parser(tokens).parse());
+        var again = FlatAst.encode(tokens, ast.toExprs());
+
+        assertEquals(ast.size(), again.size());
+        assertEquals(ast.rootCount(), again.rootCount());
+        for (int node = 0; node < ast.size(); node++) {
+            assertEquals(ast.kind(node), again.kind(node));
+            assertEquals(ast.firstChild(node), again.firstChild(node));
+            assertEquals(ast.nextSibling(node), again.nextSibling(node));
+            assertEquals(ast.tokenIndex(node), again.tokenIndex(node));
+        }
+    }
+
+    @Test
+    void programsParseStraightIntoColumns() throws Exception {
+        var tokens = Sources.lex("var n = 3;\n" +
+                "function f(x) do return x * n; end\n" +
+                "class C { var v = 1; get() do return v; end }\n" +
+                "for (var i = 0; i < n; i++) do println f(i); end\n");
+        var streamed = FlatAst.parseProgram(tokens);
+        var encoded = FlatAst.encodeProgram(tokens, new Parser(tokens).parseProgram());
+
+        assertTrue(streamed.isProgram());
+        assertEquals(encoded.rootCount(), streamed.rootCount());
+        assertEquals(encoded.size(), streamed.size());
+        for (int node = 0; node < encoded.size(); node++) {
+            assertEquals(encoded.kind(node), streamed.kind(node));
+            assertEquals(encoded.firstChild(node), streamed.firstChild(node));
+            assertEquals(encoded.nextSibling(node), streamed.nextSibling(node));
+            assertEquals(encoded.tokenIndex(node), streamed.tokenIndex(node));
+        }
+    }
+
+    @Test
+    void switchDefaultRoundTripsInPreOrder() throws Exception {
+        var tokens = Sources.lex("switch x do case 1: do println a; end case 2: do println b; end default: do println c; end end");
+        List<Stmt> program = new Parser(tokens).parseProgram();
+        var ast = FlatAst.encodeProgram(tokens, program);
+
+        // following the child links visits the nodes in column order
+        int[] next = {0};
+        for (int i = 0; i < ast.rootCount(); i++) walk(ast, ast.root(i), next);
+        assertEquals(ast.size(), next[0]);
+
+        var again = FlatAst.encodeProgram(tokens, ast.toStmts());
+        assertEquals(ast.size(), again.size());
+        for (int node = 0; node < ast.size(); node++) {
+            assertEquals(ast.kind(node), again.kind(node));
+            assertEquals(ast.firstChild(node), again.firstChild(node));
+            assertEquals(ast.nextSibling(node), again.nextSibling(node));
+            assertEquals(ast.tokenIndex(node), again.tokenIndex(node));
+        }
+        var decoded = (Stmt.SwitchStmt) again.toStmts().get(0);
+        assertEquals(2, decoded.cases.size());
+        assertNotNull(decoded.defaultBlock);
+    }
+
+    private void walk(FlatAst ast, int node, int[] next) {
+        assertEquals(next[0]++, node);
+        for (int child = ast.firstChild(node); child != FlatAst.NONE; child = ast.nextSibling(child)) {
+            walk(ast, child, next);
+        }
+    }
+}
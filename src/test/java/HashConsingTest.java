@@ -0,0 +1,49 @@
+import org.junit.jupiter.api.Test;
+import ysharp.lexer.Token;
+import ysharp.parser.Expr;
+import ysharp.parser.Parser;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashConsingTest {
+
+    private List<Expr> parse(String input, boolean hashCons) throws Exception {
+        List<Token> tokens = Sources.lex(input);
+        return new Parser(tokens, hashCons).parse();
+    }
+
+    @Test
+    void identicalPureSubtreesAreShared() throws Exception {
+        var exprs = parse("a.b.c + 1 a.b.c + 1 !(x * 2.5 == y) !(x * 2.5 == y)", true);
+        assertEquals(4, exprs.size());
+        assertSame(exprs.get(0), exprs.get(1));
+        assertSame(exprs.get(2), exprs.get(3));
+        assertNotSame(exprs.get(0), exprs.get(2));
+    }
+
+    @Test
+    void disabledByDefault() throws Exception {
+        var exprs = parse("a.b.c + 1 a.b.c + 1", false);
+        assertNotSame(exprs.get(0), exprs.get(1));
+    }
+
+    @Test
+    void differentLiteralsAreNotShared() throws Exception {
+        var exprs = parse("x + 1 x + 1.0 x + '1' x + \"1\"", true);
+        for (int i = 0; i < exprs.size(); i++) {
+            for (int j = i + 1; j < exprs.size(); j++) {
+                assertNotSame(exprs.get(i), exprs.get(j));
+            }
+        }
+    }
+
+    @Test
+    void impureSubtreesAreNotShared() throws Exception {
+        var exprs = parse("f(x) + 1 f(x) + 1 x++ x++ ++x ++x [1] [1] {} {}", true);
+        for (int i = 0; i < exprs.size(); i += 2) {
+            assertNotSame(exprs.get(i), exprs.get(i + 1));
+        }
+    }
+}
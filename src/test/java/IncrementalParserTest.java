@@ -0,0 +1,137 @@
+import org.junit.jupiter.api.Test;
+import ysharp.parser.IncrementalParser;
+import ysharp.parser.Stmt;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IncrementalParserTest {
+
+    @Test
+    void untouchedExpressionsAreReused() throws Exception {
+        var tree = IncrementalParser.parse(Sources.lex("a + 1 f(x, y) b * 2"));
+        assertEquals(3, tree.expressions().size());
+
+        // "y" -> "z" at token index 6
+        var tokens = Sources.lex("a + 1 f(x, z) b * 2");
+        var next = IncrementalParser.reparse(tree, tokens, 6, 7, 7);
+
+        assertEquals(3, next.expressions().size());
+        assertSame(tree.expressions().get(0), next.expressions().get(0));
+        assertNotSame(tree.expressions().get(1), next.expressions().get(1));
+        assertSame(tree.expressions().get(2), next.expressions().get(2));
+    }
+
+    @Test
+    void insertionShiftsSuffix() throws Exception {
+        var tree = IncrementalParser.parse(Sources.lex("a b c"));
+
+        // insert "+ 1" after "a"
+        var tokens = Sources.lex("a + 1 b c");
+        var next = IncrementalParser.reparse(tree, tokens, 1, 1, 3);
+
+        assertEquals(3, next.expressions().size());
+        assertNotSame(tree.expressions().get(0), next.expressions().get(0));
+        assertSame(tree.expressions().get(1), next.expressions().get(1));
+        assertSame(tree.expressions().get(2), next.expressions().get(2));
+    }
+
+    @Test
+    void editMergingExpressions() throws Exception {
+        var tree = IncrementalParser.parse(Sources.lex("a b c"));
+
+        // "b" -> "+ b" joins the first two expressions
+        var tokens = Sources.lex("a + b c");
+        var next = IncrementalParser.reparse(tree, tokens, 1, 2, 3);
+
+        assertEquals(2, next.expressions().size());
+        assertSame(tree.expressions().get(2), next.expressions().get(1));
+    }
+
+    @Test
+    void lineShiftDisablesSuffixReuse() throws Exception {
+        var tree = IncrementalParser.parse(Sources.lex("a\nb"));
+
+        // blank line inserted before token 1
+        var tokens = Sources.lex("a\n\nb");
+        var next = IncrementalParser.reparse(tree, tokens, 1, 1, 1);
+
+        assertEquals(2, next.expressions().size());
+        assertNotSame(tree.expressions().get(1), next.expressions().get(1));
+    }
+
+    @Test
+    void editInsideNestedCall() throws Exception {
+        var tree = IncrementalParser.parse(Sources.lex("f(g(1, 2), h(3)) x"));
+
+        // "3" -> "4" at token index 12
+        var tokens = Sources.lex("f(g(1, 2), h(4)) x");
+        var next = IncrementalParser.reparse(tree, tokens, 12, 13, 13);
+
+        assertEquals(2, next.expressions().size());
+        assertNotSame(tree.expressions().get(0), next.expressions().get(0));
+        assertSame(tree.expressions().get(1), next.expressions().get(1));
+
+        // the rebuilt tree is itself a valid base for the next edit
+        var again = IncrementalParser.reparse(next, Sources.lex("f(g(1, 5), h(4)) x"), 6, 7, 7);
+        assertSame(next.expressions().get(1), again.expressions().get(1));
+    }
+
+    private static final String FUNCTIONS =
+            "function a(x) do return x + 1; end\n" +
+            "function b(x) do var y = x * 2; println y; return y; end\n" +
+            "function c(x) do return x - 1; end\n" +
+            "println a(1) + b(2) + c(3);\n";
+
+    private static List<Stmt> body(Stmt function) throws Exception {
+        return ((Stmt.FunctionStmt) function).body().statements;
+    }
+
+    @Test
+    void editInsideOneFunctionBody() throws Exception {
+        var tree = IncrementalParser.parseProgram(Sources.lex(FUNCTIONS));
+        assertEquals(4, tree.statements().size());
+
+        // "println y" -> "println x" in b, at token index 26
+        var tokens = Sources.lex(FUNCTIONS.replace("println y", "println x"));
+        var next = IncrementalParser.reparse(tree, tokens, 26, 27, 27);
+
+        var before = tree.statements();
+        var after = next.statements();
+        assertEquals(4, after.size());
+        assertSame(before.get(0), after.get(0));
+        assertNotSame(before.get(1), after.get(1));
+        assertSame(before.get(2), after.get(2));
+        assertSame(before.get(3), after.get(3));
+
+        // within b only the edited statement is new
+        assertSame(body(before.get(1)).get(0), body(after.get(1)).get(0));
+        assertNotSame(body(before.get(1)).get(1), body(after.get(1)).get(1));
+        assertSame(body(before.get(1)).get(2), body(after.get(1)).get(2));
+    }
+
+    @Test
+    void statementInsertedIntoFunctionBody() throws Exception {
+        var tree = IncrementalParser.parseProgram(Sources.lex(FUNCTIONS));
+
+        // "y++;" inserted before "return y" in b, at token index 28
+        var tokens = Sources.lex(FUNCTIONS.replace("return y", "y++; return y"));
+        var next = IncrementalParser.reparse(tree, tokens, 28, 28, 31);
+
+        var before = body(tree.statements().get(1));
+        var after = body(next.statements().get(1));
+        assertEquals(4, after.size());
+        assertSame(before.get(0), after.get(0));
+        assertInstanceOf(Stmt.ExpressionStmt.class, after.get(2));
+        assertSame(before.get(2), after.get(3));
+        assertSame(tree.statements().get(2), next.statements().get(2));
+    }
+
+    @Test
+    void invalidRangeIsRejected() throws Exception {
+        var tree = IncrementalParser.parse(Sources.lex("a b"));
+        assertThrows(IllegalArgumentException.class,
+                () -> IncrementalParser.reparse(tree, Sources.lex("a b c"), 0, 1, 1));
+    }
+}
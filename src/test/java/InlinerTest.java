@@ -0,0 +1,166 @@
+import org.junit.jupiter.api.Test;
+import ysharp.analysis.Resolver;
+import ysharp.analysis.TypeInference;
+import ysharp.interpreter.Interpreter;
+import ysharp.lexer.Token;
+import ysharp.optimizer.Inliner;
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InlinerTest {
+
+    private List<Stmt> inline(String input) throws Exception {
+        var program = Sources.parse(input);
+        var resolver = new Resolver();
+        assertEquals(List.of(), resolver.resolve(program));
+
+        var inlined = Inliner.inline(program, TypeInference.infer(program, resolver.resolution()));
+        assertEquals(List.of(), new Resolver().resolve(inlined));
+        return inlined;
+    }
+
+    private static Expr printed(Stmt stmt) {
+        return assertInstanceOf(Stmt.PrintStmt.class, stmt).expression;
+    }
+
+    private static void assertVariable(String name, Expr expr) {
+        assertEquals(name, assertInstanceOf(Expr.VariableExpr.class, expr).name.lexeme);
+    }
+
+    @Test
+    void clampBecomesAConditional() throws Exception {
+        var program = inline(
+                "function clamp(x, lo, hi) do\n" +
+                "    if x < lo then do return lo; end\n" +
+                "    elif x > hi then do return hi; end\n" +
+                "    return x;\n" +
+                "end\n" +
+                "var v = 300;\n" +
+                "println clamp(v, 0, 255);\n");
+
+        var outer = assertInstanceOf(Expr.TernaryExpr.class, printed(program.get(2)));
+        var below = assertInstanceOf(Expr.BinaryExpr.class, outer.condition);
+        assertVariable("v", below.left);
+        assertEquals(new Token.Literal.Int(0), assertInstanceOf(Expr.LiteralExpr.class, below.right).token.literal);
+        // the tokens of the function body keep their lines
+        assertEquals(2, below.op.line);
+
+        var inner = assertInstanceOf(Expr.TernaryExpr.class, outer.elseBranch);
+        assertEquals(3, assertInstanceOf(Expr.BinaryExpr.class, inner.condition).op.line);
+        assertVariable("v", inner.elseBranch);
+
+        // the declaration stays for any other use
+        assertInstanceOf(Stmt.FunctionStmt.class, program.get(0));
+    }
+
+    @Test
+    void callsInsideBodiesAreInlinedFirst() throws Exception {
+        var program = inline(
+                "function sq(x) do return x * x; end\n" +
+                "function norm(a, b) do return sq(a) + sq(b); end\n" +
+                "var p = 3; var q = 4;\n" +
+                "println norm(p, q);\n");
+
+        var sum = assertInstanceOf(Expr.BinaryExpr.class, printed(program.get(4)));
+        var left = assertInstanceOf(Expr.BinaryExpr.class, sum.left);
+        assertVariable("p", left.left);
+        assertVariable("p", left.right);
+        assertNotSame(left.left, left.right);
+        assertVariable("q", assertInstanceOf(Expr.BinaryExpr.class, sum.right).left);
+    }
+
+    @Test
+    void argumentsAreOnlySubstitutedWhenUnobservable() throws Exception {
+        var program = inline(
+                "function sq(x) do return x * x; end\n" +
+                "function inc(x) do return x + 1; end\n" +
+                "function get() do println 5; return 5; end\n" +
+                "var k = 2;\n" +
+                "println sq(get());\n" +
+                "println inc(k * 3);\n" +
+                "println sq(k * 3);\n" +
+                "println sq(7);\n");
+
+        // a call argument must run exactly once
+        var call = assertInstanceOf(Expr.CallExpr.class, printed(program.get(4)));
+        assertVariable("sq", call.callee);
+        assertInstanceOf(Expr.CallExpr.class, call.arguments.get(0));
+
+        // k * 3 cannot fail: fine once, but not duplicated
+        var inc = assertInstanceOf(Expr.BinaryExpr.class, printed(program.get(5)));
+        assertInstanceOf(Expr.BinaryExpr.class, inc.left);
+        assertInstanceOf(Expr.CallExpr.class, printed(program.get(6)));
+
+        var square = assertInstanceOf(Expr.BinaryExpr.class, printed(program.get(7)));
+        assertInstanceOf(Expr.LiteralExpr.class, square.left);
+    }
+
+    @Test
+    void onlyStaticNonRecursiveExpressionFunctionsQualify() throws Exception {
+        var program = inline(
+                "function fact(n) do if n <= 1 then do return 1; end return n * fact(n - 1); end\n" +
+                "function twice(x) do return x + x; end\n" +
+                "function noisy(x) do println x; return x; end\n" +
+                "var scale = 2;\n" +
+                "function scaled(x) do return x * scale; end\n" +
+                "function user() do var scale = 5; return scaled(1); end\n" +
+                "var alias = twice;\n" +
+                "println fact(5);\n" +
+                "println twice(1);\n" +
+                "println noisy(1);\n" +
+                "println scaled(1);\n");
+
+        for (int i = 7; i < program.size(); i++) {
+            assertInstanceOf(Expr.CallExpr.class, printed(program.get(i)), "statement " + i);
+        }
+    }
+
+    @Test
+    void largeBodiesStayCalls() throws Exception {
+        StringBuilder sum = new StringBuilder("x");
+        for (int i = 0; i < Inliner.MAX_NODES; i++) sum.append(" + x");
+        var program = inline(
+                "function big(x) do return " + sum + "; end\n" +
+                "function small(x) do return x + x + x; end\n" +
+                "println big(1);\n" +
+                "println small(1);\n");
+
+        assertInstanceOf(Expr.CallExpr.class, printed(program.get(2)));
+        assertInstanceOf(Expr.BinaryExpr.class, printed(program.get(3)));
+    }
+
+    private static String run(List<Stmt> program) throws Exception {
+        var bytes = new ByteArrayOutputStream();
+        new Interpreter(new PrintStream(bytes, true)).run(program);
+        return bytes.toString().replace("\r\n", "\n");
+    }
+
+    @Test
+    void topLevelCallsWaitForTheGlobalsTheyRead() throws Exception {
+        String source =
+                "function area(r) do return PI * r * r; end\n" +
+                "var ready = false;\n" +
+                "if ready then do println area(2); end\n" +
+                "var PI = 3;\n" +
+                "println area(1);\n" +
+                "function later() do return area(3); end\n" +
+                "println later();\n";
+        var program = inline(source);
+        assertEquals(run(Sources.parse(source)), run(program));
+        assertEquals("3\n27\n", run(program));
+
+        // before PI is declared the call stays, after it is inlined
+        var skipped = (Stmt.IfStmt) program.get(2);
+        var early = skipped.thenBranch.statements.get(0);
+        assertInstanceOf(Expr.CallExpr.class, printed(early));
+        assertInstanceOf(Expr.BinaryExpr.class, printed(program.get(4)));
+        var later = (Stmt.FunctionStmt) program.get(5);
+        assertInstanceOf(Expr.BinaryExpr.class, ((Stmt.ReturnStmt) later.body().statements.get(0)).value);
+    }
+}
@@ -0,0 +1,129 @@
+import org.junit.jupiter.api.Test;
+import ysharp.YsharpError;
+import ysharp.analysis.Resolver;
+import ysharp.analysis.TypeInference;
+import ysharp.interpreter.Interpreter;
+import ysharp.optimizer.LoopOptimizer;
+import ysharp.parser.Stmt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InterpreterTest {
+
+    private String run(List<Stmt> program) throws Exception {
+        var bytes = new ByteArrayOutputStream();
+        new Interpreter(new PrintStream(bytes, true)).run(program);
+        return bytes.toString().replace("\r\n", "\n");
+    }
+
+    private String run(String input) throws Exception {
+        return run(Sources.parse(input));
+    }
+
+    @Test
+    void statementsAndOperators() throws Exception {
+        assertEquals("7\n2.5\nab3\n10\nbig\n", run(
+                "var a = 3; var b = 4;\n" +
+                "println a + b;\n" +
+                "println 5 / 2.0;\n" +
+                "println \"ab\" + a;\n" +
+                "var s = 0;\n" +
+                "for (var i = 0; i < 5; i++) do if i == 3 then do continue; end s += i; end\n" +
+                "while (true) do s += 3; break; end\n" +
+                "println s;\n" +
+                "if s > 100 then do println \"huge\"; end elif s > 5 then do println \"big\"; end\n" +
+                "else do println \"small\"; end\n"));
+    }
+
+    @Test
+    void closuresShareOnlyAssignedCaptures() throws Exception {
+        assertEquals("1 2 12\n0 10\n", run(
+                "function counter(start) do\n" +
+                "    var count = start;\n" +
+                "    var fixed = 10;\n" +
+                "    function next() do count++; return count; end\n" +
+                "    function offset() do return fixed + count; end\n" +
+                "    function both() do return next() + \" \" + next() + \" \" + offset(); end\n" +
+                "    return both;\n" +
+                "end\n" +
+                "println counter(0)();\n" +
+                "function make() do\n" +
+                "    var first = null;\n" +
+                "    var last = null;\n" +
+                "    for (var i = 0; i < 3; i++) do\n" +
+                "        var v = i * 5;\n" +
+                "        function get() do return v; end\n" +
+                "        if i == 0 then do first = get; end\n" +
+                "        last = get;\n" +
+                "    end\n" +
+                "    return first() + \" \" + last();\n" +
+                "end\n" +
+                "println make();\n"));
+    }
+
+    @Test
+    void switchTryAndClasses() throws Exception {
+        assertEquals("two\nother\ncaught Division by zero.\nfinally\n7\n3\n", run(
+                "function name(n) do\n" +
+                "    switch n do\n" +
+                "        case 1: do return \"one\"; end\n" +
+                "        case 2: do return \"two\"; end\n" +
+                "        default: do return \"other\"; end\n" +
+                "    end\n" +
+                "end\n" +
+                "println name(2);\n" +
+                "println name(9);\n" +
+                "try do var x = 1 / 0; end catch (e) do println \"caught \" + e; end\n" +
+                "finally do println \"finally\"; end\n" +
+                "class Point { var x = 0; var y = 0; init(a, b) do x = a; y = b; end sum() do return x + y; end }\n" +
+                "class Point3 extends Point { var z = 0; sum() do return x + y + z + 1; end }\n" +
+                "println Point(3, 4).sum();\n" +
+                "println Point3(1, 1).sum();\n"));
+    }
+
+    @Test
+    void tailCallsRunInConstantStack() throws Exception {
+        assertEquals("1000000\ntrue\ndone\n", run(
+                "function loop(n, acc) do\n" +
+                "    if n == 0 then do return acc; end\n" +
+                "    return loop(n - 1, acc + 1);\n" +
+                "end\n" +
+                "function even(n) do return n == 0 ? true : odd(n - 1); end\n" +
+                "function odd(n) do return n == 0 ? false : (even(n - 1)); end\n" +
+                "function count(n) do return n == 0 ? \"done\" : count(n - 1); end\n" +
+                "println loop(1000000, 0);\n" +
+                "println even(1000000);\n" +
+                "println count(1000000);\n"));
+    }
+
+    @Test
+    void deepNonTailRecursionIsARuntimeError() throws Exception {
+        assertEquals("Stack overflow.\n", run(
+                "function sum(n) do return n == 0 ? 0 : 1 + sum(n - 1); end\n" +
+                "try do println sum(10000000); end catch (e) do println e; end\n"));
+
+        var error = assertThrows(YsharpError.class, () -> run("var x = 1;\nx = x + null;\n"));
+        assertEquals(YsharpError.YsharpErrorType.RUNTIME, error.getType());
+        assertEquals(2, error.getLine());
+    }
+
+    @Test
+    void countedLoopsRunLikeTheLoopsTheyReplace() throws Exception {
+        String source =
+                "var n = 20; var k = 3; var s = 0;\n" +
+                "for (var i = 0; i < n; i++) do s += i * k + i % 8; end\n" +
+                "for (var j = 10; 0 <= j; j -= 2) do s += j % 4; end\n" +
+                "println s;\n";
+        var program = Sources.parse(source);
+        var resolver = new Resolver();
+        resolver.resolve(program);
+        var optimized = LoopOptimizer.optimize(program, TypeInference.infer(program, resolver.resolution()));
+        assertInstanceOf(Stmt.CountedForStmt.class, optimized.get(3));
+
+        assertEquals(run(source), run(optimized));
+    }
+}
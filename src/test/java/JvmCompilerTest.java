@@ -0,0 +1,163 @@
+import org.junit.jupiter.api.Test;
+import ysharp.YsharpError;
+import ysharp.analysis.Resolver;
+import ysharp.analysis.TypeInference;
+import ysharp.compiler.JvmCompiler;
+import ysharp.compiler.JvmFunction;
+import ysharp.interpreter.Interpreter;
+import ysharp.optimizer.LoopOptimizer;
+import ysharp.parser.Stmt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JvmCompilerTest {
+
+    /** runs {@code program}, compiling functions after {@code threshold} calls (negative: never) */
+    private String run(List<Stmt> program, int threshold) {
+        var bytes = new ByteArrayOutputStream();
+        var interpreter = new Interpreter(new PrintStream(bytes, true));
+        interpreter.setCompilation(threshold);
+        try {
+            interpreter.run(program);
+        } catch (YsharpError e) {
+            return bytes + "!" + e;
+        }
+        return bytes.toString().replace("\r\n", "\n");
+    }
+
+    /** compiled functions print what interpreted ones print, and fail where they fail */
+    private void agrees(String source) throws Exception {
+        String interpreted = run(Sources.parse(source), -1);
+        assertEquals(interpreted, run(Sources.parse(source), 0));
+        assertEquals(interpreted, run(Sources.parse(source), 3));
+    }
+
+    @Test
+    void arithmeticMatchesTheInterpreter() throws Exception {
+        agrees("var g = 1;\n" +
+                "function main(unused) do\n" +
+                "    var s = 0; var d = 0.5; var text = \"\"; var big = 2147483647; var v = 1; var b = true;\n" +
+                "    for (var i = 0; i < 50; i++) do\n" +
+                "        s += i % 7 * 3 - (i >> 1) ^ (i & 5) | 2; d = d * 1.5 - i / 4;\n" +
+                "        if i % 10 == 0 && !(d < 0) then do text = text + i + \",\"; end\n" +
+                "        v = i < 25 ? v + 1 : v + 0.5;\n" +
+                "        b = b != (i > 3) || false;\n" +
+                "        g += i; g++;\n" +
+                "    end\n" +
+                "    println s; println d; println text; println big + 1; println v; println b; println g;\n" +
+                "    println -'a' + 1; println 0.0 / 0 < 1; println 0.0 / 0 >= 1; println [1, \"a\", s];\n" +
+                "    println {\"k\": s > 0, \"n\": null}; println unused;\n" +
+                "    var c = 'a'; c++; println c; println ~s; println -d; println 7 % -3; println 7.5 % 2;\n" +
+                "    var x = 1; x = x++ + ++x; println x; var y = 2; y += (y = 5); println y;\n" +
+                "    var m = {\"n\": 3}; println m.n + [1, 2].length + \"abc\".length;\n" +
+                "end\n" +
+                "main(null); main(\"again\");\n");
+    }
+
+    @Test
+    void loopsSwitchesAndCallsMatchTheInterpreter() throws Exception {
+        agrees("function fib(n) do if n < 2 then do return n; end return fib(n - 1) + fib(n - 2); end\n" +
+                "function count(n, acc) do if n == 0 then do return acc; end return count(n - 1, acc + 1); end\n" +
+                "function even(n) do return n == 0 ? true : odd(n - 1); end\n" +
+                "function odd(n) do return n == 0 ? false : even(n - 1); end\n" +
+                "function h(n) do return 100; end\n" +
+                "function f(n) do if n == 0 then do return 0; end return f(n - 1) + 1; end\n" +
+                "function name(k) do\n" +
+                "    var text = \"\";\n" +
+                "    switch k do case 1: do text = \"one\"; end case 3: do text = \"three\"; break; end\n" +
+                "        case -7: do text = \"minus seven\"; end case 'a': do text = \"a\"; end\n" +
+                "        default: do text = \"\" + k; end end\n" +
+                "    switch k * 0.5 do case 1: do text += \"!\"; end case \"x\": do text += \"?\"; end end\n" +
+                "    return text;\n" +
+                "end\n" +
+                "function loops(limit) do\n" +
+                "    var n = 0; var out = \"\";\n" +
+                "    while (true) do n++; if n % 2 == 0 then do continue; end if n > limit then do break; end out += n; end\n" +
+                "    for (var k = 0; k < 12; k++) do out += \" \" + name(k); if k == 9 then do break; end end\n" +
+                "    return out;\n" +
+                "end\n" +
+                "println fib(20); println count(200000, 0); println even(100001); println loops(9);\n" +
+                "println name(97) + name(-7) + name(2.0) + name(\"x\");\n" +
+                "println f(5); var saved = f; f = h; println saved(5); println fib;\n");
+    }
+
+    @Test
+    void countedLoopsMatchTheInterpreter() throws Exception {
+        String source =
+                "function sums(scale) do\n" +
+                "    var n = 10; var k = 3; var s = 0; var t = 0.0; var text = \"\";\n" +
+                "    for (var i = 0; i < n; i++) do s += i * k + i % 8; t += i * scale; end\n" +
+                "    for (var j = 10; 0 <= j; j -= 2) do text += j % 4; end\n" +
+                "    return s + \" \" + t + \" \" + text;\n" +
+                "end\n" +
+                "println sums(1); println sums(0.5);\n";
+        var optimized = Sources.parse(source);
+        var resolver = new Resolver();
+        resolver.resolve(optimized);
+        optimized = LoopOptimizer.optimize(optimized, TypeInference.infer(optimized, resolver.resolution()));
+        Stmt.FunctionStmt sums = (Stmt.FunctionStmt) optimized.get(0);
+        assertInstanceOf(Stmt.CountedForStmt.class, sums.body().statements.get(5));
+        assertEquals(run(Sources.parse(source), -1), run(optimized, 0));
+    }
+
+    @Test
+    void errorsMatchTheInterpreter() throws Exception {
+        agrees("function divide(a, b) do return a / b; end\n" +
+                "function deep(n) do return 1 + deep(n + 1); end\n" +
+                "function test(x) do if x then do return 1; end return 2; end\n" +
+                "function both(x) do return x && true; end\n" +
+                "function read(m) do return m.missing; end\n" +
+                "function apply(f, x) do return f(x); end\n" +
+                "try do println divide(1, 0); end catch (e) do println e; end\n" +
+                "try do println divide(1.0, 0); end catch (e) do println e; end\n" +
+                "try do deep(0); end catch (e) do println e; end\n" +
+                "try do test(1); end catch (e) do println e; end\n" +
+                "try do both(null); end catch (e) do println e; end\n" +
+                "try do read({\"k\": 1}); end catch (e) do println e; end\n" +
+                "try do apply(5, 1); end catch (e) do println e; end\n" +
+                "try do apply(divide, 1); end catch (e) do println e; end\n" +
+                "println divide(\"a\", 2);\n");
+    }
+
+    @Test
+    void unsupportedFunctionsStayInterpreted() throws Exception {
+        String source =
+                "function counter() do var n = 0; function next() do n += 1; return n; end return next; end\n" +
+                "function guarded(x) do try do return 10 / x; end catch (e) do return e; end end\n" +
+                "var next = counter(); next(); println next(); println guarded(0); println guarded(5);\n";
+        agrees(source);
+
+        var program = Sources.parse(source);
+        var resolver = new Resolver();
+        resolver.resolve(program);
+        var resolution = resolver.resolution();
+        var error = assertThrows(YsharpError.class,
+                () -> JvmCompiler.compile((Stmt.FunctionStmt) program.get(0), resolution));
+        assertEquals(YsharpError.YsharpErrorType.SEMANTIC, error.getType());
+        assertThrows(YsharpError.class, () -> JvmCompiler.compile((Stmt.FunctionStmt) program.get(1), resolution));
+    }
+
+    @Test
+    void functionsCompileToHiddenClasses() throws Exception {
+        var program = Sources.parse("function add(a, b) do var s = 0; for (var i = 0; i < 3; i++) do s += i; end return a + b + s; end\n");
+        var resolver = new Resolver();
+        resolver.resolve(program);
+        JvmFunction add = JvmCompiler.compile((Stmt.FunctionStmt) program.get(0), resolver.resolution());
+        assertTrue(add.getClass().isHidden());
+
+        var host = new JvmFunction.Host() {
+            public Object[] globals() { return new Object[1]; }
+            public PrintStream out() { return System.out; }
+            public Object call(Object callee, Object[] arguments, int line) { throw new AssertionError(); }
+            public Object tail(Object callee, Object[] arguments, int line) { throw new AssertionError(); }
+            public Object finish() { throw new AssertionError(); }
+            public Object get(Object object, String name, int line) { throw new AssertionError(); }
+        };
+        assertEquals(6, add.call(host, add, new Object[]{1, 2}));
+        assertEquals("xy3", add.call(host, add, new Object[]{"x", "y"}));
+    }
+}
@@ -0,0 +1,147 @@
+import org.junit.jupiter.api.Test;
+import ysharp.YsharpError;
+import ysharp.interpreter.Interpreter;
+import ysharp.parser.Stmt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LazyFunctionTest {
+
+    @Test
+    void bodyIsParsedOnFirstUse() throws Exception {
+        var program = Sources.parse(
+                "function clamp(x, lo, hi) do\n" +
+                "    if x < lo then do return lo; end\n" +
+                "    elif x > hi then do return hi; end\n" +
+                "    return x;\n" +
+                "end\n" +
+                "var y = clamp(5, 0, 3);\n");
+
+        assertEquals(2, program.size());
+        var function = (Stmt.FunctionStmt) program.get(0);
+        assertEquals("clamp", function.name.lexeme);
+        assertEquals(3, function.params.size());
+        assertFalse(function.isParsed());
+
+        var body = function.body();
+        assertTrue(function.isParsed());
+        assertEquals(2, body.statements.size());
+        assertInstanceOf(Stmt.IfStmt.class, body.statements.get(0));
+        assertSame(body, function.body());
+    }
+
+    @Test
+    void nestedBlocksAreSkipped() throws Exception {
+        var program = Sources.parse(
+                "function f() do\n" +
+                "    while (true) do switch 1 do case 1: do break; end end end\n" +
+                "end\n" +
+                "println f;\n");
+
+        assertEquals(2, program.size());
+        assertInstanceOf(Stmt.PrintStmt.class, program.get(1));
+        var loop = (Stmt.WhileStmt) ((Stmt.FunctionStmt) program.get(0)).body().statements.get(0);
+        assertInstanceOf(Stmt.BlockStmt.class, loop.body);
+    }
+
+    @Test
+    void syntaxErrorsInBodiesSurfaceOnUse() throws Exception {
+        var program = Sources.parse("function broken() do var = ; end");
+        var function = (Stmt.FunctionStmt) program.get(0);
+        assertThrows(YsharpError.class, function::body);
+        assertFalse(function.isParsed());
+    }
+
+    @Test
+    void unterminatedBodyIsReportedEagerly() {
+        assertThrows(YsharpError.class, () -> Sources.parse("function f() do if x then do end"));
+    }
+
+    @Test
+    void concurrentCallersShareOneBody() throws Exception {
+        var function = (Stmt.FunctionStmt) Sources.parse("function f(a) do return a + 1; end").get(0);
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Stmt.BlockStmt>> results = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                results.add(pool.submit(function::body));
+            }
+            var first = results.get(0).get();
+            for (var result : results) {
+                assertSame(first, result.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void declarationsAndStatements() throws Exception {
+        var program = Sources.parse(
+                "use \"lib.ys\";\n" +
+                "const LIMIT : int = 10;\n" +
+                "var total;\n" +
+                "class Point extends Shape { var x : double; const ORIGIN = 0; norm() do return x; end }\n" +
+                "for (var i = 0; i < LIMIT; i++) do total += i; end\n" +
+                "try do print total; end catch (e) do println e; end finally do end\n" +
+                "switch total do case 1: do end default: do end end\n");
+
+        assertEquals(7, program.size());
+        var klass = (Stmt.ClassStmt) program.get(3);
+        assertEquals("Shape", klass.superclass.lexeme);
+        assertEquals(3, klass.members.size());
+        var loop = (Stmt.ForStmt) program.get(4);
+        assertInstanceOf(Stmt.VarStmt.class, loop.initializer);
+        var cases = (Stmt.SwitchStmt) program.get(6);
+        assertEquals(1, cases.cases.size());
+        assertNotNull(cases.defaultBlock);
+    }
+
+    @Test
+    void interpreterParsesBodiesOnFirstCall() throws Exception {
+        var program = Sources.parse(
+                "function unused() do var = ; end\n" +
+                "function sum(n) do var s = 0; for (var i = 0; i < 4; i++) do s += i * n; end return s; end\n" +
+                "class Box { var v = 2; get() do return v; end }\n" +
+                "println \"ok\"; println sum(4); println Box().get();\n");
+        var bytes = new ByteArrayOutputStream();
+        var interpreter = new Interpreter(new PrintStream(bytes, true));
+        interpreter.run(program);
+        assertEquals("ok\n24\n2\n", bytes.toString().replace("\r\n", "\n"));
+
+        assertFalse(((Stmt.FunctionStmt) program.get(0)).isParsed());
+        var sum = (Stmt.FunctionStmt) program.get(1);
+        assertTrue(sum.isParsed());
+        // resolved on its first call, and still evaluated unboxed
+        var loop = (Stmt.ForStmt) sum.body().statements.get(1);
+        assertTrue(interpreter.isUnboxed(loop.condition));
+    }
+
+    @Test
+    void errorsInBodiesSurfaceOnFirstCall() throws Exception {
+        var bytes = new ByteArrayOutputStream();
+        var interpreter = new Interpreter(new PrintStream(bytes, true));
+
+        var error = assertThrows(YsharpError.class, () -> interpreter.run(Sources.parse(
+                "function broken() do var = ; end\n" +
+                "println \"before\";\n" +
+                "try do broken(); end catch (e) do println \"caught\"; end\n")));
+        assertEquals(YsharpError.YsharpErrorType.SYNTAX, error.getType());
+        assertEquals("before\n", bytes.toString().replace("\r\n", "\n"));
+
+        error = assertThrows(YsharpError.class, () -> interpreter.run(Sources.parse(
+                "function f() do return missing; end\n" +
+                "try do f(); end catch (e) do println e; end\n")));
+        assertEquals(YsharpError.YsharpErrorType.SEMANTIC, error.getType());
+        assertTrue(error.getMessage().contains("missing"));
+    }
+}
@@ -0,0 +1,193 @@
+import org.junit.jupiter.api.Test;
+import ysharp.analysis.Resolver;
+import ysharp.analysis.TypeInference;
+import ysharp.interpreter.Interpreter;
+import ysharp.lexer.Token;
+import ysharp.optimizer.LoopOptimizer;
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoopOptimizerTest {
+
+    private List<Stmt> optimize(String input) throws Exception {
+        var program = Sources.parse(input);
+        var resolver = new Resolver();
+        assertEquals(List.of(), resolver.resolve(program));
+
+        var optimized = LoopOptimizer.optimize(program, TypeInference.infer(program, resolver.resolution()));
+        assertEquals(List.of(), resolver.resolve(optimized));
+        assertEquals(List.of(), TypeInference.infer(optimized, resolver.resolution()).errors());
+        return optimized;
+    }
+
+    private static Stmt.VarStmt declaration(Stmt stmt, String name) {
+        var var = assertInstanceOf(Stmt.VarStmt.class, stmt);
+        assertEquals(name, var.name.lexeme);
+        return var;
+    }
+
+    private static void assertVariable(String name, Expr expr) {
+        assertEquals(name, assertInstanceOf(Expr.VariableExpr.class, expr).name.lexeme);
+    }
+
+    @Test
+    void invariantProductMovesOutOfTheLoop() throws Exception {
+        var program = optimize(
+                "var rate : double = 0.2; var base = 10; var sum = 0.0; var k = 0;\n" +
+                "while (k < 100) do\n" +
+                "    sum += base * rate + k;\n" +
+                "    println base * rate;\n" +
+                "    k++;\n" +
+                "end\n");
+
+        var block = assertInstanceOf(Stmt.BlockStmt.class, program.get(4));
+        assertEquals(2, block.statements.size());
+        var hoisted = declaration(block.statements.get(0), "$licm0");
+        assertEquals(Token.TokenType.MULTIPLY, assertInstanceOf(Expr.BinaryExpr.class, hoisted.initializer).op.type);
+        assertEquals(3, hoisted.name.line);
+
+        var loop = assertInstanceOf(Stmt.WhileStmt.class, block.statements.get(1));
+        var body = assertInstanceOf(Stmt.BlockStmt.class, loop.body).statements;
+        var sum = assertInstanceOf(Expr.AssignmentExpr.class,
+                assertInstanceOf(Stmt.ExpressionStmt.class, body.get(0)).expression);
+        assertVariable("$licm0", assertInstanceOf(Expr.BinaryExpr.class, sum.value).left);
+        assertVariable("$licm0", assertInstanceOf(Stmt.PrintStmt.class, body.get(1)).expression);
+    }
+
+    @Test
+    void onlyFailureFreeExpressionsMove() throws Exception {
+        var program = optimize(
+                "var a = 10; var b = 2; var s = \"x\"; var m = {\"k\": 1}; var k = 0;\n" +
+                "while (k < 3) do\n" +
+                "    println a / b;\n" +
+                "    println a / 2;\n" +
+                "    println m.k + 1;\n" +
+                "    println s + a;\n" +
+                "    k++;\n" +
+                "end\n");
+
+        // a / b may divide by zero and m.k may be missing; a / 2 and s + a cannot fail
+        var block = assertInstanceOf(Stmt.BlockStmt.class, program.get(5));
+        assertEquals(3, block.statements.size());
+        declaration(block.statements.get(0), "$licm0");
+        declaration(block.statements.get(1), "$licm1");
+
+        var body = assertInstanceOf(Stmt.BlockStmt.class,
+                assertInstanceOf(Stmt.WhileStmt.class, block.statements.get(2)).body).statements;
+        assertInstanceOf(Expr.BinaryExpr.class, assertInstanceOf(Stmt.PrintStmt.class, body.get(0)).expression);
+        assertVariable("$licm0", assertInstanceOf(Stmt.PrintStmt.class, body.get(1)).expression);
+        assertInstanceOf(Expr.BinaryExpr.class, assertInstanceOf(Stmt.PrintStmt.class, body.get(2)).expression);
+        assertVariable("$licm1", assertInstanceOf(Stmt.PrintStmt.class, body.get(3)).expression);
+    }
+
+    @Test
+    void callsPinGlobalsButNotPrivateLocals() throws Exception {
+        var program = optimize(
+                "var a = 1; var b = 2; var k = 0;\n" +
+                "function tick() do a = a + 1; end\n" +
+                "while (k < 3) do println a * b; tick(); k++; end\n" +
+                "function scaled(n) do\n" +
+                "    var x = 3; var y = 4; var j = 0;\n" +
+                "    while (j < n) do println x * y; tick(); j++; end\n" +
+                "end\n");
+
+        assertInstanceOf(Stmt.WhileStmt.class, program.get(4));
+
+        var body = assertInstanceOf(Stmt.FunctionStmt.class, program.get(5)).body().statements;
+        var block = assertInstanceOf(Stmt.BlockStmt.class, body.get(3));
+        declaration(block.statements.get(0), "$licm0");
+    }
+
+    @Test
+    void countedLoopReducesMultiplicationAndModulo() throws Exception {
+        var program = optimize(
+                "var n = 10; var k = 3; var s = 0;\n" +
+                "for (var i = 0; i < n; i++) do s += i * k + i % 8; end\n");
+
+        var loop = assertInstanceOf(Stmt.CountedForStmt.class, program.get(3));
+        assertEquals("i", loop.variable.lexeme);
+        assertEquals(Token.TokenType.LESS_THAN, loop.comparison.type);
+        assertVariable("n", loop.limit);
+        assertEquals(1, loop.step);
+        assertTrue(loop.slot >= 0);
+
+        assertEquals(1, loop.derived.size());
+        var derived = loop.derived.get(0);
+        assertEquals("$sr0", derived.name.lexeme);
+        assertVariable("k", derived.factor);
+        assertTrue(derived.slot >= 0);
+
+        var body = assertInstanceOf(Stmt.BlockStmt.class, loop.body).statements;
+        var sum = assertInstanceOf(Expr.BinaryExpr.class, assertInstanceOf(Expr.AssignmentExpr.class,
+                assertInstanceOf(Stmt.ExpressionStmt.class, body.get(0)).expression).value);
+        assertVariable("$sr0", sum.left);
+        var mask = assertInstanceOf(Expr.BinaryExpr.class, sum.right);
+        assertEquals(Token.TokenType.BITWISE_AND, mask.op.type);
+        assertEquals(new Token.Literal.Int(7), assertInstanceOf(Expr.LiteralExpr.class, mask.right).token.literal);
+    }
+
+    @Test
+    void countingDownNormalizesTheComparison() throws Exception {
+        var program = optimize(
+                "for (var i = 10; 0 <= i; i -= 2) do println i % 4; end\n" +
+                "for (var j = -5; j < 5; j++) do println j % 4; end\n");
+
+        var down = assertInstanceOf(Stmt.CountedForStmt.class, program.get(0));
+        assertEquals(Token.TokenType.GREATER_OR_EQUAL, down.comparison.type);
+        assertEquals(-2, down.step);
+        var printed = assertInstanceOf(Stmt.PrintStmt.class,
+                assertInstanceOf(Stmt.BlockStmt.class, down.body).statements.get(0));
+        assertEquals(Token.TokenType.BITWISE_AND,
+                assertInstanceOf(Expr.BinaryExpr.class, printed.expression).op.type);
+
+        // j starts negative: % keeps its sign semantics
+        var up = assertInstanceOf(Stmt.CountedForStmt.class, program.get(1));
+        printed = assertInstanceOf(Stmt.PrintStmt.class,
+                assertInstanceOf(Stmt.BlockStmt.class, up.body).statements.get(0));
+        assertEquals(Token.TokenType.MODULO,
+                assertInstanceOf(Expr.BinaryExpr.class, printed.expression).op.type);
+    }
+
+    @Test
+    void loopsThatAreNotCountedStayForLoops() throws Exception {
+        var program = optimize(
+                "var n = 10;\n" +
+                "for (var i = 0; i < n; i++) do if i == 3 then do i = 5; end end\n" +
+                "for (var d = 0.0; d < n; d++) do println d; end\n" +
+                "for (var c = 0; c < n; c++) do function f() do return c; end end\n" +
+                "for (var e = 0; e != n; e++) do println e; end\n");
+
+        for (int i = 1; i < program.size(); i++) {
+            assertInstanceOf(Stmt.ForStmt.class, program.get(i));
+        }
+    }
+
+    @Test
+    void loopsThatNeverRunGainNoFailures() throws Exception {
+        String source =
+                "var y : int; var k = 0;\n" +
+                "while (k < 0) do println y * 3; k++; end\n" +
+                "function early() do var j = 0; while (j < 0) do println late * 2; j++; end return \"ok\"; end\n" +
+                "println early();\n" +
+                "var late = 20;\n" +
+                "println \"done\";\n";
+        var program = optimize(source);
+        assertInstanceOf(Stmt.WhileStmt.class, program.get(2));
+        var early = (Stmt.FunctionStmt) program.get(3);
+        assertInstanceOf(Stmt.WhileStmt.class, early.body().statements.get(1));
+
+        assertEquals("ok\ndone\n", run(program));
+    }
+
+    private static String run(List<Stmt> program) throws Exception {
+        var bytes = new ByteArrayOutputStream();
+        new Interpreter(new PrintStream(bytes, true)).run(program);
+        return bytes.toString().replace("\r\n", "\n");
+    }
+}
@@ -0,0 +1,103 @@
+import org.junit.jupiter.api.Test;
+import ysharp.interpreter.Interpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MemoizationTest {
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final Interpreter interpreter = new Interpreter(new PrintStream(bytes, true));
+
+    private String run(String input) throws Exception {
+        bytes.reset();
+        interpreter.run(Sources.parse(input));
+        return bytes.toString().replace("\r\n", "\n");
+    }
+
+    private static final String FIB =
+            "function fib(n) do return n < 2 ? n : fib(n - 1) + fib(n - 2); end\n" +
+            "println fib(60);\n";
+
+    @Test
+    void pureFunctionsCacheTheirResults() throws Exception {
+        interpreter.memoize("fib", 100);
+
+        // fib(60) overflows int, which the cached results must reproduce exactly
+        String expected = run(
+                "function slow(n) do var a = 0; var b = 1;\n" +
+                "    for (var i = 0; i < n; i++) do var t = a + b; a = b; b = t; end return a; end\n" +
+                "println slow(60);\n");
+        assertEquals(expected, run(FIB));
+
+        var cache = interpreter.memoCache("fib");
+        assertNotNull(cache);
+        assertEquals(61, cache.size());
+        assertEquals(61, cache.misses());
+        assertEquals(58, cache.hits());
+    }
+
+    @Test
+    void leastRecentlyUsedResultsAreEvicted() throws Exception {
+        interpreter.memoize("sq", 2);
+        assertEquals("1 4 1 9 4\n", run(
+                "function sq(n) do return n * n; end\n" +
+                "println sq(1) + \" \" + sq(2) + \" \" + sq(1) + \" \" + sq(3) + \" \" + sq(2);\n"));
+
+        // sq(3) evicted sq(2), which sq(1)'s hit had made the eldest
+        var cache = interpreter.memoCache("sq");
+        assertEquals(1, cache.hits());
+        assertEquals(4, cache.misses());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void onlyOptedInPureFunctionsAndImmutableArgumentsAreCached() throws Exception {
+        interpreter.memoize("noisy", 10);
+        interpreter.memoize("len", 10);
+        assertEquals("a\na\n3 3 1\n", run(
+                "function noisy(a) do println a; return a; end\n" +
+                "function len(s) do return s.length; end\n" +
+                "function plain(a) do return a; end\n" +
+                "noisy(\"a\"); noisy(\"a\");\n" +
+                "var xs = [1, 2, 3];\n" +
+                "println len(xs) + \" \" + len(xs) + \" \" + plain(1);\n"));
+
+        assertNull(interpreter.memoCache("noisy"));
+        assertNull(interpreter.memoCache("plain"));
+        var cache = interpreter.memoCache("len");
+        assertEquals(0, cache.hits() + cache.misses());
+    }
+
+    @Test
+    void functionsReadingLaterGlobalsAreNotCached() throws Exception {
+        interpreter.memoize("f", 16);
+        assertEquals("v1null\nv15\n", run(
+                "function f(x) do return \"v\" + x + G; end\n" +
+                "println f(1);\n" +
+                "var G = 5;\n" +
+                "println f(1);\n"));
+        assertNull(interpreter.memoCache("f"));
+
+        // declared before any call, the global is fixed
+        assertEquals("v15\nv15\n", run(
+                "function f(x) do return \"v\" + x + G; end\n" +
+                "var G = 5;\n" +
+                "println f(1);\n" +
+                "println f(1);\n"));
+        assertEquals(1, interpreter.memoCache("f").hits());
+    }
+
+    @Test
+    void killSwitchBypassesEveryCache() throws Exception {
+        interpreter.memoize("fib", 100);
+        interpreter.setMemoization(false);
+        run("function fib(n) do return n < 2 ? n : fib(n - 1) + fib(n - 2); end\nprintln fib(15);\n");
+
+        var cache = interpreter.memoCache("fib");
+        assertEquals(0, cache.hits() + cache.misses());
+        assertThrows(IllegalArgumentException.class, () -> interpreter.memoize("fib", 0));
+    }
+}
@@ -0,0 +1,77 @@
+import org.junit.jupiter.api.Test;
+import ysharp.parser.FlatAst;
+import ysharp.parser.OffHeapStore;
+import ysharp.parser.Parser;
+import ysharp.parser.Stmt;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapStoreTest {
+
+    private static final String PROGRAM =
+            "var total = 0;\n" +
+            "function add(a, b) do return a + b; end\n" +
+            "for (var i = 0; i < 10; i++) do total = add(total, i); end\n" +
+            "println \"total: \" + total;\n";
+
+    private FlatAst encode(String input) throws Exception {
+        var tokens = Sources.lex(input);
+        return FlatAst.encodeProgram(tokens, new Parser(tokens).parseProgram());
+    }
+
+    @Test
+    void columnsMatchHeapTree() throws Exception {
+        var heap = encode(PROGRAM);
+        try (var store = OffHeapStore.parse(PROGRAM)) {
+            var ast = store.ast();
+            assertTrue(store.byteSize() > 0);
+            assertEquals(heap.size(), ast.size());
+            assertEquals(heap.rootCount(), ast.rootCount());
+            for (int n = 0; n < heap.size(); n++) {
+                assertEquals(heap.kind(n), ast.kind(n));
+                assertEquals(heap.firstChild(n), ast.firstChild(n));
+                assertEquals(heap.nextSibling(n), ast.nextSibling(n));
+                assertEquals(heap.tokenIndex(n), ast.tokenIndex(n));
+            }
+            for (int i = 0; i < heap.tokens().size(); i++) {
+                assertEquals(heap.tokens().get(i).lexeme, ast.tokens().get(i).lexeme);
+                assertEquals(heap.tokens().get(i).literal, ast.tokens().get(i).literal);
+            }
+        }
+    }
+
+    @Test
+    void tokensAreNotRetained() throws Exception {
+        try (var store = OffHeapStore.parse(PROGRAM)) {
+            var tokens = store.ast().tokens();
+            assertNotSame(tokens.get(0), tokens.get(0));
+            assertEquals(tokens.get(0).lexeme, tokens.get(0).lexeme);
+        }
+    }
+
+    @Test
+    void lazyBodiesParseFromOffHeapTokens() throws Exception {
+        try (var store = OffHeapStore.parse(PROGRAM)) {
+            var function = (Stmt.FunctionStmt) store.ast().toStmts().get(1);
+            assertFalse(function.isParsed());
+            var ret = (Stmt.ReturnStmt) function.body().statements.get(0);
+            assertNotNull(ret.value);
+        }
+    }
+
+    @Test
+    void closeReleasesEverything() throws Exception {
+        var store = OffHeapStore.parse(PROGRAM);
+        var ast = store.ast();
+        var tokens = ast.tokens();
+        var function = (Stmt.FunctionStmt) ast.toStmts().get(1);
+
+        store.close();
+        assertFalse(store.isOpen());
+        assertThrows(IllegalStateException.class, store::ast);
+        assertThrows(IllegalStateException.class, () -> tokens.get(0));
+        assertThrows(IndexOutOfBoundsException.class, () -> ast.kind(0));
+        assertThrows(IllegalStateException.class, function::body);
+        store.close();
+    }
+}
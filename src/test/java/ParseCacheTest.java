@@ -0,0 +1,101 @@
+import org.junit.jupiter.api.Test;
+import ysharp.parser.FlatAst;
+import ysharp.parser.ParseCache;
+import ysharp.parser.Stmt;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParseCacheTest {
+
+    private static final String PROGRAM =
+            "use \"lib.ys\";\n" +
+            "const LIMIT : int = 10;\n" +
+            "var total = 0.5;\n" +
+            "function clamp(x, lo, hi) do\n" +
+            "    if x < lo then do return lo; end\n" +
+            "    elif x > hi then do return hi; end\n" +
+            "    return x;\n" +
+            "end\n" +
+            "class Point extends Shape { var x : double; norm() do return x; end }\n" +
+            "for (var i = 0; i < LIMIT; i++) do total += clamp(i, 'a', 3); end\n" +
+            "try do print {\"k\": [1, 2]}; end catch (e) do println e; end\n" +
+            "switch total do case 1: do break; end default: do end end\n";
+
+    private static void assertSameTree(FlatAst expected, FlatAst actual) {
+        assertEquals(expected.isProgram(), actual.isProgram());
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.rootCount(), actual.rootCount());
+        for (int i = 0; i < expected.rootCount(); i++) {
+            assertEquals(expected.root(i), actual.root(i));
+        }
+        for (int n = 0; n < expected.size(); n++) {
+            assertEquals(expected.kind(n), actual.kind(n));
+            assertEquals(expected.firstChild(n), actual.firstChild(n));
+            assertEquals(expected.nextSibling(n), actual.nextSibling(n));
+            assertEquals(expected.tokenIndex(n), actual.tokenIndex(n));
+        }
+
+        assertEquals(expected.tokens().size(), actual.tokens().size());
+        for (int i = 0; i < expected.tokens().size(); i++) {
+            var a = expected.tokens().get(i);
+            var b = actual.tokens().get(i);
+            assertEquals(a.type, b.type);
+            assertEquals(a.lexeme, b.lexeme);
+            assertEquals(a.literal, b.literal);
+            assertEquals(a.line, b.line);
+        }
+    }
+
+    @Test
+    void warmLoadMatchesColdParse() throws Exception {
+        var cache = new ParseCache(Files.createTempDirectory("ysast"));
+
+        var cold = cache.load(PROGRAM);
+        assertTrue(Files.exists(cache.fileFor(PROGRAM)));
+
+        var warm = cache.load(PROGRAM);
+        assertNotSame(cold, warm);
+        assertSameTree(cold, warm);
+
+        // the decoded program re-encodes to the same columns
+        assertSameTree(warm, FlatAst.encodeProgram(warm.tokens(), warm.toStmts()));
+    }
+
+    @Test
+    void cachedFunctionBodiesStayLazy() throws Exception {
+        var cache = new ParseCache(Files.createTempDirectory("ysast"));
+        cache.load(PROGRAM);
+
+        var program = cache.load(PROGRAM).toStmts();
+        var function = (Stmt.FunctionStmt) program.get(3);
+        assertEquals("clamp", function.name.lexeme);
+        assertFalse(function.isParsed());
+
+        var body = function.body();
+        assertEquals(2, body.statements.size());
+        assertInstanceOf(Stmt.IfStmt.class, body.statements.get(0));
+    }
+
+    @Test
+    void keyDependsOnSource() throws Exception {
+        var cache = new ParseCache(Files.createTempDirectory("ysast"));
+        assertNotEquals(cache.fileFor("var a = 1;"), cache.fileFor("var a = 2;"));
+        assertEquals(cache.fileFor("var a = 1;"), cache.fileFor("var a = 1;"));
+    }
+
+    @Test
+    void corruptEntryIsReplaced() throws Exception {
+        var cache = new ParseCache(Files.createTempDirectory("ysast"));
+        var cold = cache.load(PROGRAM);
+
+        Path file = cache.fileFor(PROGRAM);
+        Files.write(file, new byte[] { 1, 2, 3 });
+
+        var reloaded = cache.load(PROGRAM);
+        assertSameTree(cold, reloaded);
+        assertSameTree(cold, cache.load(PROGRAM));
+    }
+}
@@ -0,0 +1,168 @@
+import org.junit.jupiter.api.Test;
+import ysharp.analysis.Resolver;
+import ysharp.interpreter.Interpreter;
+import ysharp.lexer.Token;
+import ysharp.optimizer.PartialEvaluator;
+import ysharp.optimizer.SpecializationCache;
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartialEvaluatorTest {
+
+    private List<Stmt> specialize(String input, Map<String, ?> known) throws Exception {
+        var specialized = PartialEvaluator.specialize(Sources.parse(input), known);
+        assertEquals(List.of(), new Resolver().resolve(specialized));
+        return specialized;
+    }
+
+    private String run(List<Stmt> program) throws Exception {
+        var bytes = new ByteArrayOutputStream();
+        new Interpreter(new PrintStream(bytes, true)).run(program);
+        return bytes.toString().replace("\r\n", "\n");
+    }
+
+    private static Expr printed(Stmt stmt) throws Exception {
+        return assertInstanceOf(Stmt.PrintStmt.class, stmt).expression;
+    }
+
+    private static final String PRICING =
+            "var rate = 0;\n" +
+            "var discount = false;\n" +
+            "var amount = 10;\n" +
+            "function fee(a) do if discount then do return a * rate - 1; end return a * rate; end\n" +
+            "function fib(n) do return n < 2 ? n : fib(n - 1) + fib(n - 2); end\n" +
+            "if discount then do println \"discounted\"; end else do println \"full price\"; end\n" +
+            "println fib(rate * 5);\n" +
+            "println fee(amount);\n";
+
+    @Test
+    void knownGlobalsFoldBranchesAndCalls() throws Exception {
+        var specialized = specialize(PRICING, Map.of("rate", 4, "discount", true));
+
+        var rate = assertInstanceOf(Stmt.ConstStmt.class, specialized.get(0));
+        assertEquals(new Token.Literal.Int(4), ((Expr.LiteralExpr) rate.initializer).token.literal);
+
+        // the if is gone, fib(20) was run, and fee's call became its folded body
+        assertFalse(specialized.stream().anyMatch(s -> s instanceof Stmt.IfStmt));
+        var fib = assertInstanceOf(Expr.LiteralExpr.class, printed(specialized.get(specialized.size() - 2)));
+        assertEquals(new Token.Literal.Int(6765), fib.token.literal);
+        assertFalse(printed(specialized.get(specialized.size() - 1)) instanceof Expr.CallExpr);
+
+        assertEquals("discounted\n6765\n39\n", run(specialized));
+        assertEquals(run(PartialEvaluator.bind(Sources.parse(PRICING), Map.of("rate", 4, "discount", true))),
+                run(specialized));
+    }
+
+    @Test
+    void callsThatFailOrRunAwayStay() throws Exception {
+        var specialized = specialize(
+                "var zero = 1;\n" +
+                "function divide(a) do var q = 10 / a; return q; end\n" +
+                "function spin(n) do while (true) do n++; end return n; end\n" +
+                "function show(n) do println n; return n; end\n" +
+                "println divide(zero);\n" +
+                "println spin(zero);\n" +
+                "println show(zero);\n",
+                Map.of("zero", 0));
+
+        for (int i = 4; i <= 6; i++) assertInstanceOf(Expr.CallExpr.class, printed(specialized.get(i)));
+    }
+
+    @Test
+    void assignedGlobalsOnlyChangeTheirStart() throws Exception {
+        var specialized = specialize(
+                "var count = 0;\n" +
+                "count++;\n" +
+                "println count;\n",
+                Map.of("count", 41));
+
+        var count = assertInstanceOf(Stmt.VarStmt.class, specialized.get(0));
+        assertEquals(new Token.Literal.Int(41), ((Expr.LiteralExpr) count.initializer).token.literal);
+        assertEquals("42\n", run(specialized));
+        assertThrows(IllegalArgumentException.class, () -> PartialEvaluator.bind(specialized, Map.of("missing", 1)));
+    }
+
+    @Test
+    void residualProgramsStillResolve() throws Exception {
+        // globals read before their declaration, directly and through calls
+        String source =
+                "var scale = 1;\n" +
+                "function area(r) do return PI * r * r * scale; end\n" +
+                "function limit() do return LIMIT; end\n" +
+                "var ready = false;\n" +
+                "if ready then do println area(2); end\n" +
+                "println limit();\n" +
+                "const LIMIT = 5;\n" +
+                "var PI = 3;\n" +
+                "println area(1) + limit();\n";
+        var specialized = specialize(source, Map.of("scale", 2));
+        assertEquals(run(PartialEvaluator.bind(Sources.parse(source), Map.of("scale", 2))), run(specialized));
+        assertEquals("null\n11\n", run(specialized));
+    }
+
+    @Test
+    void specializationsAreCachedPerKnownValues() throws Exception {
+        var cache = new SpecializationCache(Sources.parse(PRICING));
+        var tenant = cache.get(Map.of("rate", 2, "discount", false));
+        cache.get(Map.of("discount", false, "rate", 2));
+        assertEquals(1, cache.size());
+        cache.get(Map.of("rate", 3, "discount", false));
+        assertEquals(2, cache.size());
+
+        // per request, only the remaining inputs are bound
+        assertEquals("full price\n55\n14\n", run(PartialEvaluator.bind(tenant, Map.of("amount", 7))));
+        assertEquals("full price\n55\n6\n", run(PartialEvaluator.bind(tenant, Map.of("amount", 3))));
+    }
+
+    @Test
+    void failedSpecializationsAreNotCached() throws Exception {
+        var cache = new SpecializationCache(Sources.parse(PRICING));
+        assertThrows(IllegalArgumentException.class, () -> cache.get(Map.of("missing", 1)));
+        assertThrows(IllegalArgumentException.class, () -> cache.get(Map.of("missing", 1)));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void runsShareNoNodes() throws Exception {
+        var cache = new SpecializationCache(Sources.parse(PRICING));
+        var first = cache.get(Map.of("rate", 2));
+        var second = cache.get(Map.of("rate", 2));
+        var bound = PartialEvaluator.bind(first, Map.of("amount", 7));
+        assertEquals(1, cache.size());
+        for (int i = 0; i < first.size(); i++) {
+            assertNotSame(first.get(i), second.get(i));
+            assertNotSame(first.get(i), bound.get(i));
+        }
+        var fee = (Stmt.FunctionStmt) first.get(3);
+        assertNotSame(fee.body().statements.get(0), ((Stmt.FunctionStmt) second.get(3)).body().statements.get(0));
+
+        // interpreters running side by side, each on its own copy
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> runs = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                int amount = i;
+                runs.add(pool.submit(() -> run(PartialEvaluator.bind(
+                        cache.get(Map.of("rate", 2, "discount", amount % 2 == 0)), Map.of("amount", amount)))));
+            }
+            for (int i = 0; i < runs.size(); i++) {
+                String expected = i % 2 == 0 ? "discounted\n55\n" + (i * 2 - 1) + "\n" : "full price\n55\n" + i * 2 + "\n";
+                assertEquals(expected, runs.get(i).get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(3, cache.size());
+    }
+}
@@ -0,0 +1,156 @@
+import org.junit.jupiter.api.Test;
+import ysharp.analysis.Type;
+import ysharp.interpreter.Interpreter;
+import ysharp.interpreter.Profile;
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProfileTest {
+
+    private static final String SOURCE =
+            "function half(n) do return n / 2; end\n" +
+            "function twice(n) do return n * 2; end\n" +
+            "var s = 0;\n" +
+            "for (var i = 0; i < 10; i++) do\n" +
+            "    if i % 3 == 0 then do s += half(i); end else do s += twice(i * 1.5); end\n" +
+            "end\n" +
+            "println s;\n";
+
+    private List<Stmt> run(String source, Profile profile) throws Exception {
+        var program = Sources.parse(source);
+        var interpreter = new Interpreter(new PrintStream(new ByteArrayOutputStream(), true));
+        interpreter.setProfile(profile);
+        interpreter.run(program);
+        return program;
+    }
+
+    private static Stmt.IfStmt branch(List<Stmt> program) {
+        var loop = (Stmt.ForStmt) program.get(3);
+        return (Stmt.IfStmt) ((Stmt.BlockStmt) loop.body).statements.get(0);
+    }
+
+    private static Expr.CallExpr call(Stmt stmt) {
+        var add = (Expr.AssignmentExpr) ((Stmt.ExpressionStmt) stmt).expression;
+        return (Expr.CallExpr) add.value;
+    }
+
+    @Test
+    void sitesRecordTypesBranchesAndCallees() throws Exception {
+        var profile = new Profile(Profile.hash(SOURCE));
+        var program = run(SOURCE, profile);
+
+        var loop = (Stmt.ForStmt) program.get(3);
+        assertEquals(11, profile.count(profile.site(loop)));
+        assertEquals(10, profile.taken(profile.site(loop)));
+
+        var branch = branch(program);
+        assertEquals(10, profile.count(profile.site(branch)));
+        assertEquals(4, profile.taken(profile.site(branch)));
+
+        var modulo = (Expr.BinaryExpr) ((Expr.BinaryExpr) branch.condition).left;
+        assertEquals(Set.of(Type.INT), profile.leftTypes(profile.site(modulo)));
+        var product = (Expr.BinaryExpr) call(((Stmt.BlockStmt) branch.elseBranch).statements.get(0)).arguments.get(0);
+        assertEquals(Set.of(Type.INT), profile.leftTypes(profile.site(product)));
+        assertEquals(Set.of(Type.DOUBLE), profile.rightTypes(profile.site(product)));
+
+        assertEquals(Map.of("half", 4L), profile.callees(profile.site(call(branch.thenBranch.statements.get(0)))));
+
+        // the same source numbers its sites the same way in every run
+        var other = new Profile("other");
+        assertEquals(profile.site(branch), other.site(branch(run(SOURCE, other))));
+    }
+
+    @Test
+    void savedProfilesLoadOnlyForTheirSource() throws Exception {
+        var path = Files.createTempFile("ysharp", ".profile");
+        try {
+            String hash = Profile.hash(SOURCE);
+            var profile = new Profile(hash);
+            var program = run(SOURCE, profile);
+            profile.save(path);
+
+            var loaded = Profile.load(path, hash);
+            int branchSite = profile.site(branch(program));
+            assertEquals(profile.taken(branchSite), loaded.taken(branchSite));
+            int thenSite = profile.site(call(branch(program).thenBranch.statements.get(0)));
+            assertEquals(profile.callees(thenSite), loaded.callees(thenSite));
+
+            // a warm start keeps counting from the loaded profile
+            run(SOURCE, loaded);
+            assertEquals(8, loaded.taken(branchSite));
+
+            assertTrue(Profile.load(path, Profile.hash(SOURCE + "\n")).isEmpty());
+            Files.writeString(path, "ysharp-profile 1\nsource " + hash + "\nsites 40\n3 x\n");
+            assertTrue(Profile.load(path, hash).isEmpty());
+            Files.delete(path);
+            assertTrue(Profile.load(path, hash).isEmpty());
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    void anotherProgramStartsOver() throws Exception {
+        var profile = new Profile("shared");
+        run(SOURCE, profile);
+        assertFalse(profile.isEmpty());
+
+        run("println 1 + 2;\n", profile);
+        assertEquals(1, profile.count(0));
+        assertEquals(0, profile.count(1));
+    }
+
+    @Test
+    void warmStartsSkipTheWarmUp() throws Exception {
+        var path = Files.createTempFile("ysharp", ".profile");
+        try {
+            String hash = Profile.hash(SOURCE);
+            var recorded = new Profile(hash);
+            int branchSite = recorded.site(branch(run(SOURCE, recorded)));
+            recorded.save(path);
+
+            // twice ran 6 times: cold, a threshold of 6 never compiles it
+            var cold = Sources.parse(SOURCE);
+            var coldBytes = new ByteArrayOutputStream();
+            var interpreter = new Interpreter(new PrintStream(coldBytes, true));
+            interpreter.setCompilation(6);
+            interpreter.run(cold);
+            assertFalse(interpreter.isCompiled("twice"));
+            var halved = (Expr.BinaryExpr) ((Stmt.ReturnStmt) ((Stmt.FunctionStmt) cold.get(0)).body().statements.get(0)).value;
+            assertFalse(interpreter.isUnboxed(halved));
+
+            var bytes = new ByteArrayOutputStream();
+            var warm = Sources.parse(SOURCE);
+            interpreter = new Interpreter(new PrintStream(bytes, true));
+            interpreter.setCompilation(6);
+            interpreter.setWarmStart(Profile.load(path, hash));
+            interpreter.run(warm);
+            assertEquals("89.0\n", bytes.toString().replace("\r\n", "\n"));
+            assertEquals(coldBytes.toString(), bytes.toString());
+
+            // compiled before its first call, and n read unboxed from the first division on
+            assertTrue(interpreter.isCompiled("twice"));
+            assertFalse(interpreter.isCompiled("half"));
+            halved = (Expr.BinaryExpr) ((Stmt.ReturnStmt) ((Stmt.FunctionStmt) warm.get(0)).body().statements.get(0)).value;
+            assertTrue(interpreter.isUnboxed(halved));
+            assertTrue(interpreter.isUnboxed(halved.left));
+
+            // reading a profile records nothing into it
+            var loaded = Profile.load(path, hash);
+            interpreter.setWarmStart(loaded);
+            interpreter.run(Sources.parse(SOURCE));
+            assertEquals(recorded.taken(branchSite), loaded.taken(branchSite));
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
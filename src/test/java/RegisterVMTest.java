@@ -0,0 +1,161 @@
+import org.junit.jupiter.api.Test;
+import ysharp.YsharpError;
+import ysharp.analysis.Resolver;
+import ysharp.analysis.TypeInference;
+import ysharp.compiler.RegisterCompiler;
+import ysharp.compiler.RegisterProgram;
+import ysharp.compiler.RegisterVM;
+import ysharp.interpreter.Interpreter;
+import ysharp.optimizer.LoopOptimizer;
+import ysharp.parser.Stmt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RegisterVMTest {
+
+    private String interpret(List<Stmt> program) {
+        var bytes = new ByteArrayOutputStream();
+        try {
+            new Interpreter(new PrintStream(bytes, true)).run(program);
+        } catch (YsharpError e) {
+            return bytes + "!" + e;
+        }
+        return bytes.toString().replace("\r\n", "\n");
+    }
+
+    private String execute(List<Stmt> program) throws Exception {
+        RegisterProgram compiled = RegisterCompiler.compile(program);
+        var bytes = new ByteArrayOutputStream();
+        try {
+            new RegisterVM(new PrintStream(bytes, true)).run(compiled);
+        } catch (YsharpError e) {
+            return bytes + "!" + e;
+        }
+        return bytes.toString().replace("\r\n", "\n");
+    }
+
+    /** the VM prints what the interpreter prints, and fails where it fails */
+    private void agrees(String source) throws Exception {
+        assertEquals(interpret(Sources.parse(source)), execute(Sources.parse(source)));
+    }
+
+    @Test
+    void arithmeticMatchesTheInterpreter() throws Exception {
+        agrees("var s = 0; var d = 0.5; var text = \"\"; var big = 2147483647; var v = 1; var b = true;\n" +
+                "for (var i = 0; i < 50; i++) do\n" +
+                "    s += i % 7 * 3 - (i >> 1) ^ (i & 5) | 2; d = d * 1.5 - i / 4;\n" +
+                "    if i % 10 == 0 && !(d < 0) then do text = text + i + \",\"; end\n" +
+                "    v = i < 25 ? v + 1 : v + 0.5;\n" +
+                "    b = b != (i > 3) || false;\n" +
+                "end\n" +
+                "println s; println d; println text; println big + 1; println v; println b;\n" +
+                "println -'a' + 1; println 0.0 / 0 < 1; println [1, \"a\", s]; println {\"k\": s > 0, \"n\": null};\n" +
+                "var c = 'a'; c++; println c; println ~s; println -d; println 7 % -3; println 7.5 % 2;\n" +
+                "var x = 1; x = x++ + ++x; println x; var y = 2; y += (y = 5); println y;\n");
+    }
+
+    @Test
+    void loopsSwitchesAndFunctionsMatchTheInterpreter() throws Exception {
+        agrees("function fib(n) do if n < 2 then do return n; end return fib(n - 1) + fib(n - 2); end\n" +
+                "function count(n, acc) do if n == 0 then do return acc; end return count(n - 1, acc + 1); end\n" +
+                "function pick(n) do return n > 0 ? count(n, 0) : fib(10); end\n" +
+                "var twice = pick; println fib(15); println count(200000, 0); println twice(0) + twice(3);\n" +
+                "var n = 0;\n" +
+                "while (true) do n++; if n % 2 == 0 then do continue; end if n > 9 then do break; end print n; end\n" +
+                "println \"\";\n" +
+                "for (var k = 0; k < 12; k++) do\n" +
+                "    switch k do case 1: do print \"one \"; end case 3: do print \"three \"; break; end\n" +
+                "        case 10: do print \"ten \"; end default: do print k + \" \"; end end\n" +
+                "    switch k * 0.5 do case 1: do print \"a \"; end case \"x\": do print \"b \"; end end\n" +
+                "end\n" +
+                "println \"\"; println fib;\n");
+    }
+
+    @Test
+    void countedLoopsMatchTheInterpreter() throws Exception {
+        String source =
+                "var n = 10; var k = 3; var s = 0; var t = 0.0;\n" +
+                "for (var i = 0; i < n; i++) do s += i * k + i % 8; end\n" +
+                "for (var j = 10; 0 <= j; j -= 2) do print j % 4; end\n" +
+                "println \"\"; println s; println t;\n";
+        var optimized = Sources.parse(source);
+        var resolver = new Resolver();
+        resolver.resolve(optimized);
+        optimized = LoopOptimizer.optimize(optimized, TypeInference.infer(optimized, resolver.resolution()));
+        assertInstanceOf(Stmt.CountedForStmt.class, optimized.get(4));
+        assertEquals(interpret(Sources.parse(source)), execute(optimized));
+    }
+
+    @Test
+    void errorsAreCaughtAndFinallyBlocksRun() throws Exception {
+        agrees("function risky(n) do\n" +
+                "    try do if n > 1 then do return 1 / (n - n); end return n; end\n" +
+                "    catch (e) do print e + 1 / 0; end finally do print \"[f\" + n + \"]\"; end\n" +
+                "end\n" +
+                "function deep(n) do return 1 + deep(n + 1); end\n" +
+                "try do println risky(0); println risky(2); end catch (e) do println e; end\n" +
+                "try do deep(0); end catch (e) do println e; end\n" +
+                "for (var i = 0; i < 4; i++) do\n" +
+                "    try do if i == 1 then do continue; end if i == 3 then do break; end println i; end\n" +
+                "    catch (e) do end finally do println \"after \" + i; end\n" +
+                "end\n" +
+                "try do try do println 1 + null; end catch (e) do println e + null; end finally do println \"inner\"; end end\n" +
+                "catch (e) do println \"outer \" + e; end\n" +
+                "try do if 1 then do end end catch (e) do println e; end\n" +
+                "try do println 1 && true; end catch (e) do println e; end\n" +
+                "try do risky(1, 2); end catch (e) do println e; end\n" +
+                "try do 5(); end catch (e) do println e; end\n" +
+                "println 10 / 0;\n");
+    }
+
+    @Test
+    void typedRegistersCompileToTypedInstructions() throws Exception {
+        var program = RegisterCompiler.compile(Sources.parse(
+                "var s = 0; var d = 1.0;\n" +
+                "for (var i = 0; i < 100; i++) do s = s + i * 2; d = d * 0.5; end\n" +
+                "println s;\n"));
+        String code = program.disassemble();
+        assertTrue(code.contains("MUL_I"), code);
+        assertTrue(code.contains("ADD_I"), code);
+        assertTrue(code.contains("MUL_D"), code);
+        assertTrue(code.contains("ADDI_I i1 i1 1"), code);
+        assertTrue(code.contains("JUMP_UNLESS_GE"), code);
+        assertTrue(code.contains("PRINT_I"), code);
+        assertFalse(code.contains("BINARY"), code);
+        assertFalse(code.contains("BOX"), code);
+    }
+
+    @Test
+    void unsupportedConstructsAreRejected() throws Exception {
+        var error = assertThrows(YsharpError.class, () -> RegisterCompiler.compile(Sources.parse(
+                "function counter() do var n = 0; function next() do n += 1; return n; end return next; end\n")));
+        assertEquals(YsharpError.YsharpErrorType.SEMANTIC, error.getType());
+        assertThrows(YsharpError.class, () -> RegisterCompiler.compile(Sources.parse("class A { var x = 0; }\n")));
+    }
+
+    @Test
+    void unsupportedProgramsFallBackToTheInterpreter() throws Exception {
+        var sources = List.of(
+                "function counter() do var n = 0; function next() do n += 1; return n; end return next; end\n" +
+                "var next = counter(); next(); println next();\n",
+                "class Box { var v = 0; init(a) do v = a; end get() do return v * 2; end }\n" +
+                "println Box(21).get();\n",
+                "var total = 0; for (var i = 0; i < 4; i++) do total += i; end println total;\n" +
+                "println missing;\n");
+        for (String source : sources) {
+            var bytes = new ByteArrayOutputStream();
+            String output;
+            try {
+                new RegisterVM(new PrintStream(bytes, true)).run(Sources.parse(source));
+                output = bytes.toString().replace("\r\n", "\n");
+            } catch (YsharpError e) {
+                output = bytes + "!" + e;
+            }
+            assertEquals(interpret(Sources.parse(source)), output);
+        }
+    }
+}
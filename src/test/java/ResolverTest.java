@@ -0,0 +1,314 @@
+import org.junit.jupiter.api.Test;
+import ysharp.analysis.Resolution;
+import ysharp.analysis.Resolver;
+import ysharp.interpreter.Interpreter;
+import ysharp.parser.Expr;
+import ysharp.parser.Parser;
+import ysharp.parser.Stmt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResolverTest {
+
+    private static Expr.VariableExpr variable(Stmt stmt) {
+        var expression = ((Stmt.ExpressionStmt) stmt).expression;
+        if (expression instanceof Expr.AssignmentExpr assignment) {
+            return (Expr.VariableExpr) assignment.target;
+        }
+        return (Expr.VariableExpr) expression;
+    }
+
+    private static Resolution.Access access(Resolver resolver, Stmt owner, Expr variable) {
+        return resolver.resolution().of(owner, (Expr.VariableExpr) variable);
+    }
+
+    /** the access of the variable an expression statement reads or assigns */
+    private static Resolution.Access access(Resolver resolver, Stmt stmt) {
+        return access(resolver, stmt, variable(stmt));
+    }
+
+    @Test
+    void globalsAndLocalsGetSlots() throws Exception {
+        var program = Sources.parse(
+                "var a = 1;\n" +
+                "var b = 2;\n" +
+                "function f(x, y) do\n" +
+                "    var z = x;\n" +
+                "    do var w = y; w; end\n" +
+                "    b;\n" +
+                "    z;\n" +
+                "end\n");
+
+        var resolver = new Resolver();
+        assertTrue(resolver.resolve(program).isEmpty());
+        assertEquals(3, resolver.globalCount());
+
+        // functions are hoisted, so f takes the first global slot
+        var f = (Stmt.FunctionStmt) program.get(2);
+        assertEquals(0, f.slot);
+        assertEquals(4, f.frameSize);
+
+        var body = f.body().statements;
+        var z = (Stmt.VarStmt) body.get(0);
+        assertEquals(2, z.slot);
+        var read = access(resolver, z, z.initializer);
+        assertEquals(0, read.depth());
+        assertEquals(0, read.slot());
+
+        var block = (Stmt.BlockStmt) body.get(1);
+        assertEquals(3, ((Stmt.VarStmt) block.statements.get(0)).slot);
+        assertEquals(3, access(resolver, block.statements.get(1)).slot());
+
+        var global = access(resolver, body.get(2));
+        assertEquals(1, global.depth());
+        assertEquals(2, global.slot());
+    }
+
+    @Test
+    void functionsSeeLaterDeclarations() throws Exception {
+        var program = Sources.parse(
+                "function even(n) do return n == 0 ? true : odd(n - 1); end\n" +
+                "function odd(n) do return n == 0 ? false : even(n - 1); end\n" +
+                "var limit = 10;\n" +
+                "function check() do return even(limit); end\n");
+        assertTrue(new Resolver().resolve(program).isEmpty());
+    }
+
+    @Test
+    void builtinsComeFirst() throws Exception {
+        var program = Sources.parse("len;");
+        var resolver = new Resolver(List.of("clock", "len"));
+        assertTrue(resolver.resolve(program).isEmpty());
+        assertEquals(1, access(resolver, program.get(0)).slot());
+    }
+
+    @Test
+    void errorsAreCollected() throws Exception {
+        var program = Sources.parse(
+                "const k = 1;\n" +
+                "k = 2;\n" +
+                "var a = a;\n" +
+                "missing;\n" +
+                "var k2; var k2;\n" +
+                "break;\n" +
+                "return;\n" +
+                "function f() do return unknown; end\n");
+
+        var errors = new Resolver().resolve(program);
+        assertEquals(7, errors.size());
+        assertEquals(2, errors.get(0).getLine());
+        assertTrue(errors.get(0).getMessage().contains("constant"));
+        assertTrue(errors.get(1).getMessage().contains("own initializer"));
+        assertTrue(errors.get(2).getMessage().contains("missing"));
+        assertTrue(errors.get(6).getMessage().contains("unknown"));
+    }
+
+    @Test
+    void classMembersFollowSuperclassLayout() throws Exception {
+        var program = Sources.parse(
+                "class Shape { var x; var y; area() do return 0; end }\n" +
+                "class Square extends Shape { var side; area() do return side * side + x; end }\n");
+
+        var resolver = new Resolver();
+        assertTrue(resolver.resolve(program).isEmpty());
+        var shape = (Stmt.ClassStmt) program.get(0);
+        var square = (Stmt.ClassStmt) program.get(1);
+        assertEquals(3, shape.fieldCount);
+        assertEquals(4, square.fieldCount);
+        assertEquals(0, square.superclassDepth);
+        assertEquals(shape.slot, square.superclassSlot);
+
+        var override = (Stmt.FunctionStmt) square.members.get(1);
+        assertEquals(((Stmt.FunctionStmt) shape.members.get(2)).slot, override.slot);
+
+        var ret = (Stmt.ReturnStmt) override.body().statements.get(0);
+        var sum = (Expr.BinaryExpr) ret.value;
+        var x = access(resolver, ret, sum.right);
+        assertEquals(1, x.depth());
+        assertEquals(1, x.slot());  // after the hoisted method
+    }
+
+    @Test
+    void closuresCaptureOnlyWhatTheyRead() throws Exception {
+        var program = Sources.parse(
+                "var g = 0;\n" +
+                "function counter(start, step) do\n" +
+                "    var unused = 0;\n" +
+                "    var count = start;\n" +
+                "    function next() do\n" +
+                "        count = count + step;\n" +
+                "        return count + g;\n" +
+                "    end\n" +
+                "    return next;\n" +
+                "end\n");
+        var resolver = new Resolver();
+        assertTrue(resolver.resolve(program).isEmpty());
+
+        var counter = (Stmt.FunctionStmt) program.get(1);
+        assertEquals(List.of(), counter.captures);
+        var next = (Stmt.FunctionStmt) counter.body().statements.get(2);
+        assertEquals(2, next.slot);
+        assertEquals(List.of(new Stmt.FunctionStmt.Capture("count", true, 4),
+                             new Stmt.FunctionStmt.Capture("step", true, 1)), next.captures);
+
+        // count is assigned, so it lives in a cell; step is copied
+        var cells = new boolean[counter.frameSize];
+        cells[4] = true;
+        assertArrayEquals(cells, counter.cells);
+
+        var statement = (Stmt.ExpressionStmt) next.body().statements.get(0);
+        var sum = (Expr.BinaryExpr) ((Expr.AssignmentExpr) statement.expression).value;
+        var count = access(resolver, statement, sum.left);
+        assertEquals(0, count.capture());
+        assertTrue(count.boxed());
+        var step = access(resolver, statement, sum.right);
+        assertEquals(1, step.capture());
+        assertFalse(step.boxed());
+
+        var ret = (Stmt.ReturnStmt) next.body().statements.get(1);
+        var global = access(resolver, ret, ((Expr.BinaryExpr) ret.value).right);
+        assertEquals(Resolution.Access.UNRESOLVED, global.capture());
+        assertEquals(2, global.depth());
+    }
+
+    @Test
+    void capturesPassThroughIntermediateClosures() throws Exception {
+        var program = Sources.parse(
+                "function outer(x) do\n" +
+                "    function middle() do\n" +
+                "        function inner() do return x + later; end\n" +
+                "        return inner;\n" +
+                "    end\n" +
+                "    var later = 2;\n" +
+                "    return middle;\n" +
+                "end\n");
+        assertTrue(new Resolver().resolve(program).isEmpty());
+
+        var outer = (Stmt.FunctionStmt) program.get(0);
+        var middle = (Stmt.FunctionStmt) outer.body().statements.get(0);
+        var inner = (Stmt.FunctionStmt) middle.body().statements.get(0);
+        assertEquals(List.of(new Stmt.FunctionStmt.Capture("x", true, 0),
+                             new Stmt.FunctionStmt.Capture("later", true, 2)), middle.captures);
+        assertEquals(List.of(new Stmt.FunctionStmt.Capture("x", false, 0),
+                             new Stmt.FunctionStmt.Capture("later", false, 1)), inner.captures);
+
+        // middle is created on entering outer's body, before later is defined
+        assertTrue(outer.cells[2]);
+        assertFalse(outer.cells[0]);
+    }
+
+    @Test
+    void classMembersReachOuterFramesByDepth() throws Exception {
+        var program = Sources.parse(
+                "function make(v) do\n" +
+                "    class Box { get() do return v; end }\n" +
+                "    return Box;\n" +
+                "end\n");
+        var resolver = new Resolver();
+        assertTrue(resolver.resolve(program).isEmpty());
+
+        var make = (Stmt.FunctionStmt) program.get(0);
+        var box = (Stmt.ClassStmt) make.body().statements.get(0);
+        var get = (Stmt.FunctionStmt) box.members.get(0);
+        assertNull(get.captures);
+        assertNull(make.cells);
+
+        var ret = (Stmt.ReturnStmt) get.body().statements.get(0);
+        var v = access(resolver, ret, ret.value);
+        assertEquals(Resolution.Access.UNRESOLVED, v.capture());
+        assertEquals(2, v.depth());
+        assertEquals(0, v.slot());
+    }
+
+    @Test
+    void returnedCallsAreTailCalls() throws Exception {
+        var program = Sources.parse(
+                "function f(n) do\n" +
+                "    if n > 1 then do return n > 2 ? f(n - 1) : (f(0)); end\n" +
+                "    try do return f(1); end catch (e) do return f(2); end\n" +
+                "    return 1 + f(3);\n" +
+                "end\n");
+        assertTrue(new Resolver().resolve(program).isEmpty());
+
+        var body = ((Stmt.FunctionStmt) program.get(0)).body().statements;
+        var branch = (Stmt.ReturnStmt) ((Stmt.IfStmt) body.get(0)).thenBranch.statements.get(0);
+        var ternary = (Expr.TernaryExpr) branch.value;
+        assertTrue(((Expr.CallExpr) ternary.thenBranch).tail);
+        assertTrue(((Expr.CallExpr) ((Expr.GroupingExpr) ternary.elseBranch).expression).tail);
+
+        var guarded = (Stmt.TryStmt) body.get(1);
+        assertFalse(((Expr.CallExpr) ((Stmt.ReturnStmt) guarded.body.statements.get(0)).value).tail);
+        assertFalse(((Expr.CallExpr) ((Stmt.ReturnStmt) guarded.catchBlock.statements.get(0)).value).tail);
+
+        var sum = (Expr.BinaryExpr) ((Stmt.ReturnStmt) body.get(2)).value;
+        assertFalse(((Expr.CallExpr) sum.right).tail);
+    }
+
+    @Test
+    void pureFunctionsAreMarked() throws Exception {
+        var program = Sources.parse(
+                "var rate = 3;\n" +
+                "const name = \"x\";\n" +
+                "var total = 0;\n" +
+                "var bumped = 1;\n" +
+                "function fib(n) do return n < 2 ? n : fib(n - 1) + fib(n - 2); end\n" +
+                "function price(a) do var s = 0; for (var i = 0; i < a; i++) do s += i * rate; end return s + fib(a); end\n" +
+                "function label(a) do return name + a; end\n" +
+                "function prints(a) do println a; return a; end\n" +
+                "function callsPrints(a) do return prints(a) + 1; end\n" +
+                "function adds(a) do total += a; return total; end\n" +
+                "function readsAssigned(a) do return a + bumped; end\n" +
+                "function makes(a) do return [a]; end\n" +
+                "function nests(a) do function g() do return a; end return g; end\n" +
+                "function callsArgument(f) do return f(1); end\n" +
+                "bumped = 2;\n" +
+                "class C { m() do return 1; end }\n");
+        assertTrue(new Resolver().resolve(program).isEmpty());
+
+        for (int i = 4; i <= 13; i++) {
+            var function = (Stmt.FunctionStmt) program.get(i);
+            assertEquals(i <= 6, function.pure, function.name.lexeme);
+        }
+        var method = (Stmt.FunctionStmt) ((Stmt.ClassStmt) program.get(15)).members.get(0);
+        assertFalse(method.pure);
+    }
+
+    @Test
+    void sharedNodesResolvePerOccurrence() throws Exception {
+        var source = "function f(n) do\n" +
+                "    var m = n;\n" +
+                "    do var n = 3; m += n * 2; end\n" +
+                "    return m + n * 2;\n" +
+                "end\n" +
+                "println f(10);\n";
+        var program = new Parser(Sources.lex(source), true).parseProgram();
+        var resolver = new Resolver();
+        assertTrue(resolver.resolve(program).isEmpty());
+
+        // one node for n * 2, the block's variable in there and the parameter after it
+        var body = ((Stmt.FunctionStmt) program.get(0)).body().statements;
+        var add = (Stmt.ExpressionStmt) ((Stmt.BlockStmt) body.get(1)).statements.get(1);
+        var ret = (Stmt.ReturnStmt) body.get(2);
+        var doubled = (Expr.BinaryExpr) ((Expr.AssignmentExpr) add.expression).value;
+        assertSame(doubled, ((Expr.BinaryExpr) ret.value).right);
+        assertEquals(new Resolution.Access(0, 2, Resolution.Access.UNRESOLVED, false),
+                access(resolver, add, doubled.left));
+        assertEquals(new Resolution.Access(0, 0, Resolution.Access.UNRESOLVED, false),
+                access(resolver, ret, doubled.left));
+        assertNull(resolver.resolution().of((Expr.VariableExpr) doubled.left));
+
+        for (int mode = 0; mode < 3; mode++) {
+            var bytes = new ByteArrayOutputStream();
+            var interpreter = new Interpreter(new PrintStream(bytes, true));
+            interpreter.setUnboxing(mode == 0);
+            interpreter.setSpecialization(mode == 1);
+            if (mode == 2) interpreter.setCompilation(0);
+            interpreter.run(new Parser(Sources.lex(source), true).parseProgram());
+            assertEquals("36\n", bytes.toString().replace("\r\n", "\n"));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+import org.junit.jupiter.api.Test;
+import ysharp.analysis.Resolver;
+import ysharp.analysis.TypeInference;
+import ysharp.lexer.Token;
+import ysharp.optimizer.ScalarReplacement;
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScalarReplacementTest {
+
+    private List<Stmt> replace(String input) throws Exception {
+        var program = Sources.parse(input);
+        var resolver = new Resolver();
+        assertEquals(List.of(), resolver.resolve(program));
+
+        var replaced = ScalarReplacement.replace(program, TypeInference.infer(program, resolver.resolution()));
+        assertEquals(List.of(), new Resolver().resolve(replaced));
+        return replaced;
+    }
+
+    private static List<Stmt> body(Stmt stmt) throws Exception {
+        return assertInstanceOf(Stmt.FunctionStmt.class, stmt).body().statements;
+    }
+
+    private static void assertVariable(String name, Expr expr) {
+        assertEquals(name, assertInstanceOf(Expr.VariableExpr.class, expr).name.lexeme);
+    }
+
+    @Test
+    void localMapBecomesVariables() throws Exception {
+        var program = replace(
+                "function norm(a) do\n" +
+                "    var p = {\"x\": a,\n" +
+                "             \"y\": 2,\n" +
+                "             \"z\": 3};\n" +
+                "    return p.x + p.y;\n" +
+                "end\n");
+
+        var body = body(program.get(0));
+        assertEquals(3, body.size());
+        var x = assertInstanceOf(Stmt.VarStmt.class, body.get(0));
+        assertEquals("$p.x", x.name.lexeme);
+        assertEquals(2, x.name.line);
+        assertVariable("a", x.initializer);
+        assertEquals("$p.y", assertInstanceOf(Stmt.VarStmt.class, body.get(1)).name.lexeme);
+
+        // z is never read and its value cannot fail, so it is gone
+        var sum = assertInstanceOf(Expr.BinaryExpr.class,
+                assertInstanceOf(Stmt.ReturnStmt.class, body.get(2)).value);
+        assertVariable("$p.x", sum.left);
+        assertVariable("$p.y", sum.right);
+        assertEquals(5, assertInstanceOf(Expr.VariableExpr.class, sum.right).name.line);
+    }
+
+    @Test
+    void arrayLengthBecomesAConstant() throws Exception {
+        var program = replace(
+                "function f() do return 1; end\n" +
+                "function count(a) do\n" +
+                "    var items = [a, f(), 3];\n" +
+                "    return items.length * 2;\n" +
+                "end\n");
+
+        // the call stays for its effect
+        var body = body(program.get(1));
+        assertEquals(2, body.size());
+        assertInstanceOf(Expr.CallExpr.class, assertInstanceOf(Stmt.ExpressionStmt.class, body.get(0)).expression);
+        var product = assertInstanceOf(Expr.BinaryExpr.class,
+                assertInstanceOf(Stmt.ReturnStmt.class, body.get(1)).value);
+        assertEquals(new Token.Literal.Int(3), assertInstanceOf(Expr.LiteralExpr.class, product.left).token.literal);
+    }
+
+    @Test
+    void escapingLiteralsStay() throws Exception {
+        var program = replace(
+                "function keep(m) do return m; end\n" +
+                "function f(a) do\n" +
+                "    var passed = {\"x\": a}; keep(passed);\n" +
+                "    var returned = {\"x\": a}; if a then do return returned; end\n" +
+                "    var missing = {\"x\": a}; println missing.y;\n" +
+                "    var captured = {\"x\": a}; function g() do return captured.x; end\n" +
+                "    var shadowed = {\"x\": a};\n" +
+                "    return shadowed.x;\n" +
+                "end\n" +
+                "function h() do var shadowed = 1; return shadowed; end\n" +
+                "var global = {\"x\": 1};\n" +
+                "println global.x;\n");
+
+        for (Stmt stmt : body(program.get(1))) {
+            if (stmt instanceof Stmt.VarStmt var) assertFalse(var.name.lexeme.startsWith("$"), var.name.lexeme);
+        }
+        assertInstanceOf(Expr.GetExpr.class, assertInstanceOf(Stmt.PrintStmt.class, program.get(4)).expression);
+    }
+
+    @Test
+    void readsStraightOffALiteralFold() throws Exception {
+        var program = replace(
+                "function f() do return 1; end\n" +
+                "var a = 4;\n" +
+                "println {\"x\": a, \"y\": 2}.x;\n" +
+                "println [a, a * 2].length;\n" +
+                "println {\"x\": a, \"y\": f()}.x;\n" +
+                "println {\"x\": a}.y;\n");
+
+        assertVariable("a", assertInstanceOf(Stmt.PrintStmt.class, program.get(2)).expression);
+        var length = assertInstanceOf(Expr.LiteralExpr.class,
+                assertInstanceOf(Stmt.PrintStmt.class, program.get(3)).expression);
+        assertEquals(new Token.Literal.Int(2), length.token.literal);
+        assertInstanceOf(Expr.GetExpr.class, assertInstanceOf(Stmt.PrintStmt.class, program.get(4)).expression);
+        assertInstanceOf(Expr.GetExpr.class, assertInstanceOf(Stmt.PrintStmt.class, program.get(5)).expression);
+    }
+}
@@ -0,0 +1,22 @@
+import ysharp.lexer.Lexer;
+import ysharp.lexer.Preprocess;
+import ysharp.lexer.Token;
+import ysharp.parser.Parser;
+import ysharp.parser.Stmt;
+
+import java.util.List;
+
+/** Source text to tokens and programs, preprocessed as the command line does it. */
+final class Sources {
+
+    private Sources() {}
+
+    static List<Token> lex(String input) throws Exception {
+        var buf = Preprocess.removeComments(Preprocess.mergeContinuation(input));
+        return new Lexer(buf).scanTokens();
+    }
+
+    static List<Stmt> parse(String input) throws Exception {
+        return new Parser(lex(input)).parseProgram();
+    }
+}
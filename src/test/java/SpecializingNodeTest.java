@@ -0,0 +1,102 @@
+import org.junit.jupiter.api.Test;
+import ysharp.interpreter.Interpreter;
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpecializingNodeTest {
+
+    private Interpreter last;
+
+    private String run(List<Stmt> program, boolean specializing) throws Exception {
+        var bytes = new ByteArrayOutputStream();
+        var interpreter = new Interpreter(new PrintStream(bytes, true));
+        interpreter.setSpecialization(specializing);
+        interpreter.run(program);
+        last = interpreter;
+        return bytes.toString().replace("\r\n", "\n");
+    }
+
+    private static Expr returned(Stmt function) throws Exception {
+        var body = ((Stmt.FunctionStmt) function).body();
+        return ((Stmt.ReturnStmt) body.statements.get(0)).value;
+    }
+
+    private static Expr printed(Stmt stmt) {
+        return ((Stmt.PrintStmt) stmt).expression;
+    }
+
+    @Test
+    void specializingRunsLikeTheTreeWalker() throws Exception {
+        String source =
+                "class Point { var x = 0; var y = 0; init(a, b) do x = a; y = b; end sum() do return x + y; end }\n" +
+                "class Point3 extends Point { var z = 0; sum() do return x + y + z + 1; end }\n" +
+                "function counter() do var n = 0; function next() do n += 1; return n; end return next; end\n" +
+                "var next = counter(); next(); next();\n" +
+                "var s = 0; var d = 0.5; var text = \"\"; var big = 2147483647; var v = 1;\n" +
+                "for (var i = 0; i < 50; i++) do\n" +
+                "    s += i % 7 * 3 - (i >> 1); d = d * 1.5 - i / 4;\n" +
+                "    if i % 10 == 0 && !(d < 0) then do text = text + i + \",\"; end\n" +
+                "    v = i < 25 ? v + 1 : v + 0.5;\n" +
+                "end\n" +
+                "println s; println d; println text; println big + 1; println next(); println v;\n" +
+                "println -'a' + 1; println 0.0 / 0 < 1; println [1, \"a\"]; println {\"k\": s > 0};\n" +
+                "println Point(1, 2).sum() + Point3(1, 2).sum();\n" +
+                "try do println 1 / (s - s); end catch (e) do println e; end\n" +
+                "try do println s && true; end catch (e) do println e; end\n";
+        assertEquals(run(Sources.parse(source), false), run(Sources.parse(source), true));
+    }
+
+    @Test
+    void operatorsSettleOnTheTypesTheySee() throws Exception {
+        var program = Sources.parse(
+                "function add(a, b) do return a + b; end\n" +
+                "function less(a, b) do return a < b; end\n" +
+                "for (var i = 0; i < 3; i++) do add(i, 1); less(i, 2); less(i * 0.5, 2.0); end\n" +
+                "println add(1.5, 2.5) + \" \" + add(2, 3);\n");
+        assertEquals("4.0 5\n", run(program, true));
+
+        // both went generic once they saw doubles
+        assertEquals("GenericBinary(LocalRead, LocalRead)", last.nodeShape(returned(program.get(0))));
+        assertEquals("GenericBinary(LocalRead, LocalRead)", last.nodeShape(returned(program.get(1))));
+        assertEquals("Concatenation(Concatenation(Call, Constant), Call)", last.nodeShape(printed(program.get(3))));
+
+        var loop = Sources.parse(
+                "var s = 0; var d = 1.0;\n" +
+                "for (var i = 0; i < 100; i++) do s = s + i * 2; d = d * 0.5 + 1.0; end\n" +
+                "println s + \" \" + d;\n");
+        run(loop, true);
+        var body = (Stmt.BlockStmt) ((Stmt.ForStmt) loop.get(2)).body;
+        assertEquals("Assign(IntArithmetic(LocalRead, IntArithmetic(LocalRead, Constant)))",
+                last.nodeShape(((Stmt.ExpressionStmt) body.statements.get(0)).expression));
+        assertEquals("Assign(DoubleArithmetic(DoubleArithmetic(LocalRead, Constant), Constant))",
+                last.nodeShape(((Stmt.ExpressionStmt) body.statements.get(1)).expression));
+        assertEquals("IntComparison(LocalRead, Constant)", last.nodeShape(((Stmt.ForStmt) loop.get(2)).condition));
+    }
+
+    @Test
+    void propertyReadsCacheTheSlotOfTheirClass() throws Exception {
+        var program = Sources.parse(
+                "class A { var x = 1; }\n" +
+                "class B { var y = 0; var x = 2; }\n" +
+                "function read(o) do return o.x; end\n" +
+                "var a = A(); var b = B();\n" +
+                "println read(a) + read(a);\n" +
+                "println read(b);\n" +
+                "println read({\"x\": 3});\n");
+        assertEquals("2\n2\n3\n", run(program, true));
+        assertEquals("GenericGet(LocalRead)", last.nodeShape(returned(program.get(2))));
+
+        var monomorphic = Sources.parse(
+                "class A { var x = 1; }\n" +
+                "function read(o) do return o.x; end\n" +
+                "var a = A(); println read(a) + read(A());\n");
+        assertEquals("2\n", run(monomorphic, true));
+        assertEquals("CachedGet(LocalRead)", last.nodeShape(returned(monomorphic.get(1))));
+    }
+}
@@ -0,0 +1,95 @@
+import org.junit.jupiter.api.Test;
+import ysharp.interpreter.Interpreter;
+import ysharp.interpreter.SwitchTable;
+import ysharp.parser.Stmt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SwitchTableTest {
+
+    private Stmt.SwitchStmt parseSwitch(String cases) throws Exception {
+        var program = Sources.parse("var x = 0;\nswitch x do\n" + cases + "end\n");
+        return assertInstanceOf(Stmt.SwitchStmt.class, program.get(1));
+    }
+
+    private String run(String input) throws Exception {
+        var bytes = new ByteArrayOutputStream();
+        new Interpreter(new PrintStream(bytes, true)).run(Sources.parse(input));
+        return bytes.toString().replace("\r\n", "\n");
+    }
+
+    /** index of the case whose body {@code subject} selects, -1 for the default and -2 for none */
+    private static int selected(Stmt.SwitchStmt stmt, SwitchTable table, Object subject) {
+        Stmt.BlockStmt body = table.select(subject);
+        if (body == null) return -2;
+        if (body == stmt.defaultBlock) return -1;
+        for (int i = 0; i < stmt.cases.size(); i++) {
+            if (stmt.cases.get(i).body == body) return i;
+        }
+        return fail("unknown body");
+    }
+
+    @Test
+    void tableShapeFollowsTheCases() throws Exception {
+        assertEquals(SwitchTable.Kind.DENSE, SwitchTable.of(parseSwitch(
+                "case 1: do end case 2: do end case 4: do end case 3: do end\n")).kind());
+        assertEquals(SwitchTable.Kind.SPARSE, SwitchTable.of(parseSwitch(
+                "case 1: do end case 1000: do end case -50000: do end\n")).kind());
+        assertEquals(SwitchTable.Kind.HASH, SwitchTable.of(parseSwitch(
+                "case \"a\": do end case \"b\": do end\n")).kind());
+        assertEquals(SwitchTable.Kind.LINEAR, SwitchTable.of(parseSwitch(
+                "case 1: do end case x: do end\n")).kind());
+        assertEquals(SwitchTable.Kind.LINEAR, SwitchTable.of(parseSwitch(
+                "case 1: do end case 1.5: do end\n")).kind());
+    }
+
+    @Test
+    void selectionMatchesEquality() throws Exception {
+        var dense = parseSwitch(
+                "case 97: do end case 'b': do end case (-(-99)): do end case 97: do end case \"a\": do end\n" +
+                "default: do end\n");
+        var table = SwitchTable.of(dense);
+        assertEquals(SwitchTable.Kind.DENSE, table.kind());
+        assertEquals(0, selected(dense, table, 'a'));
+        assertEquals(0, selected(dense, table, 97.0));
+        assertEquals(1, selected(dense, table, 98));
+        assertEquals(2, selected(dense, table, 99));
+        assertEquals(4, selected(dense, table, "a"));
+        assertEquals(-1, selected(dense, table, 97.5));
+        assertEquals(-1, selected(dense, table, true));
+        assertEquals(-1, selected(dense, table, null));
+        assertEquals(-1, selected(dense, table, Integer.MIN_VALUE));
+
+        var sparse = parseSwitch("case 10: do end case 100000: do end case -7: do end\n");
+        table = SwitchTable.of(sparse);
+        assertEquals(SwitchTable.Kind.SPARSE, table.kind());
+        assertEquals(1, selected(sparse, table, 100000.0));
+        assertEquals(2, selected(sparse, table, -7));
+        assertEquals(-2, selected(sparse, table, 11));
+        assertEquals(-2, selected(sparse, table, "10"));
+    }
+
+    @Test
+    void interpretedSwitchesDispatchLikeTheLinearChain() throws Exception {
+        assertEquals("one two other\nb\nint 1\n1\nnext\n", run(
+                "function name(n) do\n" +
+                "    switch n do\n" +
+                "        case 1: do return \"one\"; end\n" +
+                "        case 2: do return \"two\"; end\n" +
+                "        case 1000: do return \"thousand\"; end\n" +
+                "        default: do return \"other\"; end\n" +
+                "    end\n" +
+                "end\n" +
+                "println name(1) + \" \" + name(2.0) + \" \" + name(\"1\");\n" +
+                "switch \"b\" do case \"a\": do println \"a\"; end case \"b\": do println \"b\"; end end\n" +
+                "var hits = 0;\n" +
+                "function one() do hits++; return 1; end\n" +
+                "switch 1 do case 'x': do end case one(): do println \"int \" + hits; end\n" +
+                "case one(): do end end\n" +
+                "println hits;\n" +
+                "for (var i = 0; i < 2; i++) do switch i do case 0: do continue; end end println \"next\"; end\n"));
+    }
+}
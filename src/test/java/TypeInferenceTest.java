@@ -0,0 +1,130 @@
+import org.junit.jupiter.api.Test;
+import ysharp.analysis.Resolution;
+import ysharp.analysis.Resolver;
+import ysharp.analysis.Type;
+import ysharp.analysis.TypeInference;
+import ysharp.parser.Stmt;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TypeInferenceTest {
+
+    private Resolution resolution;
+
+    private List<Stmt> resolve(String input) throws Exception {
+        var program = Sources.parse(input);
+        var resolver = new Resolver();
+        assertTrue(resolver.resolve(program).isEmpty());
+        resolution = resolver.resolution();
+        return program;
+    }
+
+    @Test
+    void annotationsAndLiterals() throws Exception {
+        var program = resolve(
+                "var count : int;\n" +
+                "var total : double = 0;\n" +
+                "var ratio = 0.5;\n" +
+                "const LIMIT = 100;\n" +
+                "var done = count > LIMIT;\n" +
+                "var name = \"n\" + count;\n" +
+                "var c = 'a';\n");
+
+        var types = TypeInference.infer(program, resolution);
+        assertTrue(types.errors().isEmpty());
+        // annotations are checked, not trusted: count holds null, total an int
+        assertEquals(Type.DYNAMIC, types.typeOf(program.get(0)));
+        assertEquals(Type.INT, types.typeOf(program.get(1)));
+        assertEquals(Type.DOUBLE, types.typeOf(program.get(2)));
+        assertEquals(Type.INT, types.typeOf(program.get(3)));
+        assertEquals(Type.BOOL, types.typeOf(program.get(4)));
+        assertEquals(Type.STRING, types.typeOf(program.get(5)));
+        assertEquals(Type.CHAR, types.typeOf(program.get(6)));
+    }
+
+    @Test
+    void numericLoopStaysMonomorphic() throws Exception {
+        var program = resolve(
+                "var sum = 0.0;\n" +
+                "for (var i = 0; i < 1000; i++) do\n" +
+                "    sum += i * 0.5;\n" +
+                "end\n");
+
+        var types = TypeInference.infer(program, resolution);
+        assertEquals(Type.DOUBLE, types.typeOf(program.get(0)));
+
+        var loop = (Stmt.ForStmt) program.get(1);
+        assertEquals(Type.INT, types.typeOf(loop.initializer));
+        assertEquals(Type.BOOL, types.typeOf(loop.condition));
+        assertEquals(Type.INT, types.typeOf(loop.increment));
+    }
+
+    @Test
+    void mixedStoresMakeDynamic() throws Exception {
+        var program = resolve(
+                "var x = 0;\n" +
+                "var y = 1;\n" +
+                "function f() do x = 1.5; y = y + 1; end\n" +
+                "var z;\n" +
+                "var w = f();\n");
+
+        var types = TypeInference.infer(program, resolution);
+        assertEquals(Type.DYNAMIC, types.typeOf(program.get(0)));
+        assertEquals(Type.INT, types.typeOf(program.get(1)));
+        assertEquals(Type.DYNAMIC, types.typeOf(program.get(3)));
+        assertEquals(Type.DYNAMIC, types.typeOf(program.get(4)));
+    }
+
+    @Test
+    void storesFlowThroughOtherVariables() throws Exception {
+        var program = resolve(
+                "var a = 1;\n" +
+                "var b = a;\n" +
+                "function f() do a = b * 2; b = a - 1; end\n" +
+                "var c = b;\n" +
+                "c = 2.5;\n");
+
+        var types = TypeInference.infer(program, resolution);
+        assertEquals(Type.INT, types.typeOf(program.get(0)));
+        assertEquals(Type.INT, types.typeOf(program.get(1)));
+        assertEquals(Type.DYNAMIC, types.typeOf(program.get(3)));
+    }
+
+    @Test
+    void annotatedStoresAreNotConverted() throws Exception {
+        var program = resolve(
+                "var y : int;\n" +
+                "var d : double = 1;\n" +
+                "var e : double = 1;\n" +
+                "e = 2.5;\n" +
+                "var c : int = 'a';\n" +
+                "var n : int;\n" +
+                "n = 3;\n");
+
+        var types = TypeInference.infer(program, resolution);
+        assertTrue(types.errors().isEmpty());
+        assertEquals(Type.DYNAMIC, types.typeOf(program.get(0)));
+        assertEquals(Type.INT, types.typeOf(program.get(1)));
+        assertEquals(Type.DYNAMIC, types.typeOf(program.get(2)));
+        assertEquals(Type.CHAR, types.typeOf(program.get(4)));
+        assertEquals(Type.DYNAMIC, types.typeOf(program.get(5)));
+    }
+
+    @Test
+    void mismatchesAreReported() throws Exception {
+        var program = resolve(
+                "var n : int = 1.5;\n" +
+                "var flag : bool = false;\n" +
+                "flag = 1;\n" +
+                "var widened : double = 'a';\n" +
+                "var any : int = f();\n" +
+                "function f() do return 1; end\n");
+
+        var errors = TypeInference.infer(program, resolution).errors();
+        assertEquals(2, errors.size());
+        assertEquals(1, errors.get(0).getLine());
+        assertEquals(3, errors.get(1).getLine());
+    }
+}
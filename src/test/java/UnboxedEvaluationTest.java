@@ -0,0 +1,121 @@
+import org.junit.jupiter.api.Test;
+import ysharp.interpreter.Interpreter;
+import ysharp.parser.Expr;
+import ysharp.parser.Stmt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UnboxedEvaluationTest {
+
+    private Interpreter last;
+
+    private String run(List<Stmt> program, boolean unboxing) throws Exception {
+        var bytes = new ByteArrayOutputStream();
+        var interpreter = new Interpreter(new PrintStream(bytes, true));
+        interpreter.setUnboxing(unboxing);
+        interpreter.run(program);
+        last = interpreter;
+        return bytes.toString().replace("\r\n", "\n");
+    }
+
+    private String run(String input, boolean unboxing) throws Exception {
+        return run(Sources.parse(input), unboxing);
+    }
+
+    @Test
+    void primitivesBehaveLikeBoxedValues() throws Exception {
+        String source =
+                "var big = 2147483647; var third = 1.0 / 3; var c = 'a'; var on = true; var nan = 0.0 / 0;\n" +
+                "println big + 1;\n" +
+                "println 7 / 2 + 7 % 3 * 1.5;\n" +
+                "println c + 1;\n" +
+                "println on ? c : 'b';\n" +
+                "println -c + ~3 + (1 << 4 >> 2) + (6 & 3 | 8 ^ 1);\n" +
+                "println third * 3 == 1 && !(c < 'a') && (on ^ false);\n" +
+                "println nan < 1 || nan >= 1 || nan == nan;\n" +
+                "println nan != nan;\n" +
+                "println 2 == 2.0;\n" +
+                "try do println big / (c - 'a'); end catch (e) do println e; end\n" +
+                "var s = 0;\n" +
+                "for (var i = 0; i < 100; i++) do if i % 3 == 0 && i * i > 10 then do s += i; end end\n" +
+                "println s;\n";
+        assertEquals("-2147483648\n4.5\n98\na\n-86\ntrue\nfalse\ntrue\ntrue\nDivision by zero.\n1680\n",
+                run(source, true));
+        assertEquals(run(source, false), run(source, true));
+    }
+
+    @Test
+    void valuesTheAnalysisDidNotForeseeFallBack() throws Exception {
+        // a declared type does not convert what is stored, and a global can be read before it is declared
+        String source =
+                "function text() do return \"s\"; end\n" +
+                "function early() do return late * 2 + 1; end\n" +
+                "var x: int = text();\n" +
+                "var d: double = 1;\n" +
+                "try do println early(); end catch (e) do println e; end\n" +
+                "var late = 20;\n" +
+                "for (var i = 0; i < 2; i++) do println x + 1; println d + 1; println early(); end\n";
+        assertEquals(run(source, false), run(source, true));
+        assertTrue(run(source, true).startsWith("Operands of '*' must be numbers, got null and int.\ns1\n2\n41\n"));
+    }
+
+    @Test
+    void annotationsNeitherInitializeNorConvert() throws Exception {
+        String source =
+                "var y : int; println y;\n" +
+                "var d : double = 1; println d / 2;\n" +
+                "var c : int = 'a'; println c + 1;\n" +
+                "for (var i = 0; i < 2; i++) do println d / 2 + i; end\n";
+        assertEquals("null\n0\n98\n0\n1\n", run(source, true));
+        assertEquals(run(source, false), run(source, true));
+    }
+
+    @Test
+    void onlyPureTypedExpressionsAreMarked() throws Exception {
+        var program = Sources.parse(
+                "function f() do return 1; end\n" +
+                "var n = 10; var i = 0;\n" +
+                "while (i * 3 + 1 < n) do i++; end\n" +
+                "println f() + 1 < n;\n");
+        run(program, true);
+
+        var condition = (Expr.BinaryExpr) ((Stmt.WhileStmt) program.get(3)).condition;
+        assertTrue(last.isUnboxed(condition));
+        assertTrue(last.isUnboxed(condition.left));
+        var printed = (Expr.BinaryExpr) ((Stmt.PrintStmt) program.get(4)).expression;
+        assertFalse(last.isUnboxed(printed));
+        assertFalse(last.isUnboxed(printed.left));
+
+        run(program, false);
+        assertFalse(last.isUnboxed(condition));
+    }
+
+    @Test
+    void arithmeticDoesNotBoxIntermediates() throws Exception {
+        var program = Sources.parse(
+                "var n = 20000; var i = 1000; var hits = 0;\n" +
+                "while (i * 3 + 1 < n * 3 + 1) do\n" +
+                "    if (i * 7 + 3) % 5 * 2 > (i - 1) * 2 % 9 then do hits++; end\n" +
+                "    i++;\n" +
+                "end\n" +
+                "println hits;\n");
+        assertEquals(run(program, false), run(program, true));
+
+        long boxed = allocated(program, false);
+        long unboxed = allocated(program, true);
+        assertTrue(unboxed * 2 < boxed, "unboxed " + unboxed + " bytes, boxed " + boxed);
+    }
+
+    private long allocated(List<Stmt> program, boolean unboxing) throws Exception {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().threadId();
+        long before = threads.getThreadAllocatedBytes(id);
+        run(program, unboxing);
+        return threads.getThreadAllocatedBytes(id) - before;
+    }
+}